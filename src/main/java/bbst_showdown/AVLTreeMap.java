@@ -1,14 +1,32 @@
 package bbst_showdown;
 
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -32,7 +50,7 @@ import java.util.Spliterator;
  * @param <K> the type of keys maintained by this map
  * @param <V> the type of mapped values
  */
-public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
+public class AVLTreeMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V>, java.io.Serializable {
 
     protected transient Entry<K, V> root = null;
 
@@ -56,6 +74,20 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 
     protected transient int rotations = 0;
 
+    /**
+     * Optional filter consulted before searching the tree, or null. Keys are
+     * added as they are inserted; removed keys stay in it until it is rebuilt.
+     */
+    private transient BlockedBloomFilter bloom;
+
+    /** removals since the filter was built, all of them stale bits */
+    private transient int bloomRemovals;
+
+    /**
+     * Optional order-preserving prefix of keys, cached in every entry, or null.
+     */
+    private transient ToIntFunction<? super K> keyPrefix;
+
     /**
      * Constructs a new, empty tree map, using the natural ordering of its keys. All
      * keys inserted into the map must implement the {@link Comparable} interface.
@@ -92,8 +124,13 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 	putAll(m);
     }
 
+    /**
+     * Returns the height of the tree, -1 if it is empty and 0 for a single
+     * entry, in log(n) time by following the taller child recorded in each
+     * balance factor.
+     */
     public int treeHeight() {
-	return treeHeight(root) - 1;
+	return height(root) - 1;
     }
 
     protected int treeHeight(Entry<K, V> node) {
@@ -106,10 +143,309 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 	return rotations;
     }
 
+    /**
+     * Returns the depth histogram and search path lengths of the tree, taken
+     * in one pass over its entries.
+     */
+    public TreeProfile profile() {
+	return TreeProfile.of(root, e -> e.left, e -> e.right);
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<K, V> cursor() {
+	return new EntryCursor();
+    }
+
+    /**
+     * Turns the negative lookup filter on or off. While it is on, {@code get},
+     * {@code containsKey} and every other lookup first asks a
+     * {@link BlockedBloomFilter}, and a key the filter has never seen is
+     * reported missing after reading one cache line instead of descending the
+     * tree. The filter grows as keys are inserted and is rebuilt once the keys
+     * removed since it was built outnumber half of the keys in the map.
+     *
+     * <p>
+     * Only use the filter when keys that compare equal also have equal hash
+     * codes. With the filter on, lookups of keys of the wrong type return no
+     * mapping instead of throwing {@code ClassCastException}, and lookups update
+     * the filter's counters, so concurrent readers need external
+     * synchronization.
+     */
+    public void setBloomFilter(boolean enabled) {
+	if (enabled)
+	    rebuildBloomFilter();
+	else
+	    bloom = null;
+    }
+
+    /**
+     * Returns the negative lookup filter with its counters, or null if it is
+     * off.
+     */
+    public BlockedBloomFilter bloomFilter() {
+	return bloom;
+    }
+
+    private void rebuildBloomFilter() {
+	BlockedBloomFilter old = bloom;
+	BlockedBloomFilter f = new BlockedBloomFilter(2 * size);
+	// follows child links only, as TreeMapAVLRec keeps no parent links
+	ArrayDeque<Entry<K, V>> pending = new ArrayDeque<>();
+	if (root != null)
+	    pending.push(root);
+	while (!pending.isEmpty()) {
+	    Entry<K, V> e = pending.pop();
+	    f.add(e.key);
+	    if (e.left != null)
+		pending.push(e.left);
+	    if (e.right != null)
+		pending.push(e.right);
+	}
+	if (old != null) {
+	    f.negatives = old.negatives;
+	    f.hits = old.hits;
+	    f.falsePositives = old.falsePositives;
+	}
+	bloom = f;
+	bloomRemovals = 0;
+    }
+
+    /**
+     * Records an inserted key in the filter, rebuilding it first if it is full
+     * or mostly stale. Called after the entry is linked.
+     */
+    final void bloomAdd(Object key) {
+	BlockedBloomFilter f = bloom;
+	if (f == null)
+	    return;
+	if (f.count >= f.capacity || bloomRemovals > size / 2)
+	    rebuildBloomFilter();
+	else
+	    f.add(key);
+    }
+
+    /**
+     * Turns cached key prefixes on, or off if {@code prefix} is null. While they
+     * are on every entry keeps {@code prefix.applyAsInt(key)}, and searches
+     * compare the prefix of the search key with it before comparing keys: a
+     * level whose prefixes differ costs one {@code int} comparison, and only
+     * equal prefixes call {@code compareTo} or the comparator. Each level still
+     * makes at most one comparison of keys, as the search branches three ways
+     * on its result.
+     *
+     * <p>
+     * The prefix must agree with the map's ordering: if the prefix of
+     * {@code a} is less than the prefix of {@code b} then {@code a} must be
+     * less than {@code b}. Equal prefixes say nothing. {@link #stringPrefix}
+     * is such a prefix for {@code String} keys in natural order. Turning the
+     * prefixes on computes them for the entries already in the map.
+     */
+    public void setKeyPrefix(ToIntFunction<? super K> prefix) {
+	keyPrefix = prefix;
+	if (prefix != null)
+	    for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e))
+		e.prefix = prefix.applyAsInt(e.key);
+    }
+
+    /**
+     * Returns an order-preserving prefix of {@code s} for
+     * {@link #setKeyPrefix}: its first four chars, one byte each. A char above
+     * 254 is stored as 255 and ends the prefix, so that strings which differ
+     * only after it have equal prefixes instead of misordered ones. The bytes
+     * compare as unsigned values, so the sign bit is flipped.
+     */
+    public static int stringPrefix(String s) {
+	int n = Math.min(s.length(), 4), p = 0, i = 0;
+	while (i < n) {
+	    int c = s.charAt(i++);
+	    if (c >= 255) {
+		p = p << 8 | 255;
+		break;
+	    }
+	    p = p << 8 | c;
+	}
+	return (p << ((4 - i) << 3)) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * Makes a new entry, caching its key prefix if prefixes are on.
+     */
+    final Entry<K, V> newEntry(K key, V value, Entry<K, V> parent) {
+	Entry<K, V> e = new Entry<>(key, value, parent);
+	ToIntFunction<? super K> f = keyPrefix;
+	if (f != null)
+	    e.prefix = f.applyAsInt(key);
+	return e;
+    }
+
     public String toString() {
 	return "AVL tree of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations;
     }
 
+    /**
+     * Returns a checker of this tree's invariants that does its work in
+     * slices, so that a large tree can be validated a few thousand entries at
+     * a time between other work instead of in one long walk.
+     */
+    public Validator validator() {
+	return new Validator();
+    }
+
+    /**
+     * Checks balance factors, parent links and key order with an iterative post-order
+     * walk that can be suspended after any entry. Its state is the entry
+     * being visited and a stack holding one subtree height per level, so it
+     * needs O(log n) space and no recursion.
+     *
+     * <p>
+     * A structural modification of the map between slices restarts the walk
+     * from the root, so a pass completes only over a tree that was not
+     * modified while it was being checked. Calls must not overlap with
+     * modifications of the map.
+     */
+    public final class Validator {
+	private Entry<K, V> p, from;
+	private K previous;
+	private int[] heights = new int[64];
+	private int top;
+	private int expectedModCount;
+	private int nodes;
+	private int restarts;
+	private int height = -1;
+	private boolean done;
+
+	Validator() {
+	    restart();
+	}
+
+	private void restart() {
+	    p = root;
+	    from = null;
+	    previous = null;
+	    top = 0;
+	    nodes = 0;
+	    done = false;
+	    expectedModCount = modCount;
+	    if (p != null && p.parent != null)
+		throw broken(p, "root has a parent");
+	}
+
+	/**
+	 * Checks up to {@code k} more entries, starting over if the map has been
+	 * modified since the last call.
+	 *
+	 * @return true once every entry of the current tree has been checked
+	 * @throws IllegalStateException
+	 *             describing the first broken invariant found
+	 */
+	public boolean step(int k) {
+	    if (k <= 0)
+		throw new IllegalArgumentException("k: " + k);
+	    if (modCount != expectedModCount) {
+		restarts++;
+		restart();
+	    }
+	    if (done)
+		return true;
+	    int finished = 0;
+	    while (p != null) {
+		if (from == p.parent) { // arrived from above
+		    if (p.left != null) {
+			descend(p.left);
+			continue;
+		    }
+		    visit(p);
+		    if (p.right != null) {
+			descend(p.right);
+			continue;
+		    }
+		    finish(p);
+		} else if (from == p.left) { // back from the left subtree
+		    visit(p);
+		    if (p.right != null) {
+			descend(p.right);
+			continue;
+		    }
+		    finish(p);
+		} else { // back from the right subtree
+		    finish(p);
+		}
+		from = p;
+		p = p.parent;
+		if (++finished == k && p != null)
+		    return false;
+	    }
+	    if (nodes != size)
+		throw new IllegalStateException("size is " + size + " but the tree holds " + nodes + " entries");
+	    height = top == 0 ? -1 : heights[0];
+	    done = true;
+	    return true;
+	}
+
+	/**
+	 * Validates the whole tree in one call.
+	 */
+	public void run() {
+	    while (!step(Integer.MAX_VALUE))
+		;
+	}
+
+	private void descend(Entry<K, V> child) {
+	    if (child.parent != p)
+		throw broken(child, "parent link does not point to " + p.key);
+	    from = p;
+	    p = child;
+	}
+
+	/** in-order visit */
+	private void visit(Entry<K, V> e) {
+	    if (nodes > 0 && compare(previous, e.key) >= 0)
+		throw broken(e, "key is not greater than its predecessor " + previous);
+	    previous = e.key;
+	}
+
+	/** post-order visit, both subtree heights are on the stack */
+	private void finish(Entry<K, V> e) {
+	    int hr = e.right == null ? -1 : heights[--top];
+	    int hl = e.left == null ? -1 : heights[--top];
+	    if (e.balance < -1 || e.balance > 1 || e.balance != hr - hl)
+		throw broken(e, "balance factor " + e.balance + " but subtree heights " + hl + " and " + hr);
+	    if (top == heights.length)
+		heights = Arrays.copyOf(heights, top * 2);
+	    heights[top++] = 1 + Math.max(hl, hr);
+	    nodes++;
+	}
+
+	private IllegalStateException broken(Entry<K, V> e, String what) {
+	    return new IllegalStateException("AVL invariant broken at key " + e.key + ": " + what);
+	}
+
+	/**
+	 * Number of entries checked by the current pass.
+	 */
+	public int nodesChecked() {
+	    return nodes;
+	}
+
+	/**
+	 * Number of times a modification of the map restarted the walk.
+	 */
+	public int restarts() {
+	    return restarts;
+	}
+
+	/**
+	 * Height of the tree measured by the last completed pass, or -1.
+	 */
+	public int height() {
+	    return height;
+	}
+    }
+
     /**
      * Returns the number of key-value mappings in this map.
      *
@@ -159,6 +495,7 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 	Entry<K, V> parent = null;
 	byte balance = 0; // Height(RightSubtree(N)) - Height(LeftSubtree(N)) i.e. right heavy=positive
 			  // balance, left heavy negative
+	int prefix; // of the key, while key prefixes are on; fits the header's padding
 
 	/**
 	 * Make a new cell with given key, value, and parent, and with {@code null}
@@ -232,6 +569,32 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
      *             or its comparator does not permit null keys
      */
     final Entry<K, V> getEntry(Object key) {
+	BlockedBloomFilter f = bloom;
+	if (f != null && key != null) {
+	    if (bloomRemovals > size / 2) {
+		rebuildBloomFilter();
+		f = bloom;
+	    }
+	    if (!f.mightContain(key)) {
+		f.negatives++;
+		return null;
+	    }
+	    Entry<K, V> p = searchEntry(key);
+	    if (p == null)
+		f.falsePositives++;
+	    else
+		f.hits++;
+	    return p;
+	}
+	return searchEntry(key);
+    }
+
+    /**
+     * Searches the tree for {@code key} without consulting the filter.
+     */
+    private Entry<K, V> searchEntry(Object key) {
+	if (keyPrefix != null)
+	    return getEntryUsingPrefix(key);
 	// Offload comparator-based version for sake of performance
 	if (comparator != null)
 	    return getEntryUsingComparator(key);
@@ -276,6 +639,46 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 	return null;
     }
 
+    /**
+     * Version of getEntry for cached key prefixes: compares keys only where
+     * the prefixes are equal.
+     */
+    private Entry<K, V> getEntryUsingPrefix(Object key) {
+	if (key == null && comparator == null)
+	    throw new NullPointerException();
+	@SuppressWarnings("unchecked")
+	K k = (K) key;
+	int kp = keyPrefix.applyAsInt(k);
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = kp < p.prefix ? -1 : kp > p.prefix ? 1 : compare(k, p.key);
+	    if (cmp < 0)
+		p = p.left;
+	    else if (cmp > 0)
+		p = p.right;
+	    else
+		return p;
+	}
+	return null;
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified key.
+     *
+     * @param key
+     *            key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the specified key
+     * @throws ClassCastException
+     *             if the specified key cannot be compared with the keys currently
+     *             in the map
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     */
+    public boolean containsKey(Object key) {
+	return getEntry(key) != null;
+    }
+
     /**
      * Associates the specified value with the specified key in this map. If the map
      * previously contained a mapping for the key, the old value is replaced.
@@ -297,20 +700,45 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
      *             or its comparator does not permit null keys
      */
     public V put(K key, V value) {
+	return put(key, value, true);
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map. If
+     * {@code replaceOld} is false an existing non-null value is left in place.
+     * Shared by {@link #put(Object, Object)} and
+     * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+     */
+    private V put(K key, V value, boolean replaceOld) {
 	Entry<K, V> t = root;
 	if (t == null) {
-	    compare(key, key); // type (and possibly null) check
-
-	    root = new Entry<>(key, value, null);
-	    size = 1;
-	    modCount++;
+	    addEntryToEmptyMap(key, value);
 	    return null;
 	}
 	int cmp;
 	Entry<K, V> parent;
-	// split comparator and comparable paths
+	// split prefix, comparator and comparable paths
 	Comparator<? super K> cpr = comparator;
-	if (cpr != null) {
+	ToIntFunction<? super K> kpf = keyPrefix;
+	if (kpf != null) {
+	    if (key == null && cpr == null)
+		throw new NullPointerException();
+	    int kp = kpf.applyAsInt(key);
+	    do {
+		parent = t;
+		cmp = kp < t.prefix ? -1 : kp > t.prefix ? 1 : compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
+	    } while (t != null);
+	} else if (cpr != null) {
 	    do {
 		parent = t;
 		cmp = cpr.compare(key, t.key);
@@ -318,8 +746,12 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	} else {
 	    if (key == null)
@@ -333,13 +765,34 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	}
+	addEntry(key, value, parent, cmp < 0);
+	return null;
+    }
 
-	Entry<K, V> e = new Entry<>(key, value, parent);
-	if (cmp < 0) {
+    private void addEntryToEmptyMap(K key, V value) {
+	compare(key, key); // type (and possibly null) check
+
+	root = newEntry(key, value, null);
+	size = 1;
+	modCount++;
+	bloomAdd(key);
+    }
+
+    /**
+     * Links a new entry below {@code parent}, the last node visited by a failed
+     * search, and rebalances.
+     */
+    private void addEntry(K key, V value, Entry<K, V> parent, boolean addToLeft) {
+	Entry<K, V> e = newEntry(key, value, parent);
+	if (addToLeft) {
 	    parent.left = e;
 	    parent.balance--;
 	} else {
@@ -350,425 +803,2826 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 
 	size++;
 	modCount++;
-	return null;
+	bloomAdd(key);
     }
 
-    public void inOrderTraversal(Entry<K, V> x) {
-	if (x == null)
-	    return;
-	inOrderTraversal(x.left);
-	System.out.println(x.value + ", " + x.balance);
-	inOrderTraversal(x.right);
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key. Unlike
+     * the default implementation this searches the tree once even when the
+     * mapped value is {@code null}.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+	Entry<K, V> p = getEntry(key);
+	return (p == null ? defaultValue : p.value);
     }
 
-    private void fixAfterInsertion(Entry<K, V> x) {
-	while (x.balance != 0) {
-	    if (x.balance == 2) { // right heavy by 2?
-		if (x.right.balance == 1) {
-		    x.balance = 0;
-		    x.right.balance = 0;
-		    rotateLeft(x);
-		} else { // x.right.balance = -1
-		    int rlBalance = x.right.left.balance;
-		    x.right.left.balance = 0;
-		    x.right.balance = 0;
-		    x.balance = 0;
-		    if (rlBalance == 1)
-			x.balance = -1;
-		    else if (rlBalance == -1)
-			x.right.balance = 1;
-
-		    rotateRight(x.right);
-		    rotateLeft(x);
-		}
-		break;
-	    } else if (x.balance == -2) {
-		if (x.left.balance == -1) {
-		    x.balance = 0;
-		    x.left.balance = 0;
-		    rotateRight(x);
-		} else { // x.left.balance = 1
-		    int lrBalance = x.left.right.balance;
-		    x.left.right.balance = 0;
-		    x.left.balance = 0;
-		    x.balance = 0;
-		    if (lrBalance == 1)
-			x.left.balance = -1;
-		    else if (lrBalance == -1)
-			x.balance = 1;
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+	return put(key, value, false);
+    }
 
-		    rotateLeft(x.left);
-		    rotateRight(x);
-		}
-		break;
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the mapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         mapping function modified this map
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+	Objects.requireNonNull(mappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
+	    } else {
+		return null;
 	    }
-
-	    if (x.parent == null)
-		break;
-	    if (x.parent.left == x)
-		x.parent.balance--;
-	    else
-		x.parent.balance++;
-
-	    x = x.parent;
 	}
-    }
-
-    /** From CLR */
-    private void rotateLeft(Entry<K, V> p) {
-	Entry<K, V> r = p.right;
-	p.right = r.left;
-	if (r.left != null)
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	}
+	newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This method will, on a best-effort basis, throw a
+     * {@link ConcurrentModificationException} if it is detected that the
+     * remapping function modifies this map during computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> oldEntry = getEntry(key);
+	if (oldEntry != null && oldEntry.value != null)
+	    return remapValue(oldEntry, key, remappingFunction);
+	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
+	    } else {
+		return null;
+	    }
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	}
+	newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Objects.requireNonNull(value);
+	Entry<K, V> t = root;
+	if (t == null) {
+	    addEntryToEmptyMap(key, value);
+	    return value;
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	}
+	addEntry(key, value, parent, cmp < 0);
+	return value;
+    }
+
+    private V callMappingFunctionWithCheck(K key, Function<? super K, ? extends V> mappingFunction) {
+	int mc = modCount;
+	V newValue = mappingFunction.apply(key);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V callRemappingFunctionWithCheck(K key, V oldValue,
+	    BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, oldValue);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V remapValue(Entry<K, V> t, K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	V newValue = callRemappingFunctionWithCheck(key, t.value, remappingFunction);
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
+    private V mergeValue(Entry<K, V> t, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	V oldValue = t.value;
+	V newValue;
+	if (oldValue == null) {
+	    newValue = value;
+	} else {
+	    int mc = modCount;
+	    newValue = remappingFunction.apply(oldValue, value);
+	    if (mc != modCount)
+		throw new ConcurrentModificationException();
+	}
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
+
+    /**
+     * Returns the values mapped to each of the given keys, in the same order as
+     * the keys, with {@code null} for keys that have no mapping.
+     *
+     * <p>
+     * Rather than restarting every lookup at the root, the probes are visited in
+     * ascending key order and each search starts from the node where the
+     * previous one ended, climbing only as far as needed before descending (a
+     * finger search). Neighbouring probes therefore share the top of their search
+     * paths and the cache misses that come with it. If the keys are already sorted
+     * no sort is performed.
+     *
+     * @param keys
+     *            the keys to look up, in any order
+     * @return a list of values where element {@code i} is the value for
+     *         {@code keys[i]}
+     * @throws ClassCastException
+     *             if a key cannot be compared with the keys currently in the map
+     * @throws NullPointerException
+     *             if a key is null and this map uses natural ordering, or its
+     *             comparator does not permit null keys
+     */
+    public List<V> getAll(K[] keys) {
+	int n = keys.length;
+	@SuppressWarnings("unchecked")
+	V[] values = (V[]) new Object[n];
+	if (n == 0)
+	    return Arrays.asList(values);
+
+	Integer[] order = null;
+	for (int i = 1; i < n; i++) {
+	    if (compare(keys[i - 1], keys[i]) > 0) {
+		order = new Integer[n];
+		for (int j = 0; j < n; j++)
+		    order[j] = j;
+		Arrays.sort(order, (a, b) -> compare(keys[a], keys[b]));
+		break;
+	    }
+	}
+
+	Entry<K, V> finger = root;
+	for (int i = 0; i < n; i++) {
+	    int index = (order == null) ? i : order[i];
+	    K key = keys[index];
+	    Entry<K, V> p = climb(finger, key);
+	    while (p != null) {
+		finger = p;
+		int cmp = compare(key, p.key);
+		if (cmp < 0)
+		    p = p.left;
+		else if (cmp > 0)
+		    p = p.right;
+		else {
+		    values[index] = p.value;
+		    break;
+		}
+	    }
+	}
+	return Arrays.asList(values);
+    }
+
+    /**
+     * Returns the values mapped to each of the given keys, in the iteration order
+     * of the collection. See {@link #getAll(Object[])}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getAll(Collection<? extends K> keys) {
+	return getAll((K[]) keys.toArray());
+    }
+
+    /**
+     * Associates each of the given keys, which must be in ascending order, with
+     * the value at the same index. Each insertion point is found by a finger
+     * search from the previously inserted entry instead of from the root.
+     *
+     * @param sortedKeys
+     *            keys in ascending order
+     * @param values
+     *            values such that {@code values[i]} is stored for
+     *            {@code sortedKeys[i]}
+     * @throws IllegalArgumentException
+     *             if the keys are not in ascending order or the arrays differ in
+     *             length
+     */
+    public void putAll(K[] sortedKeys, V[] values) {
+	if (sortedKeys.length != values.length)
+	    throw new IllegalArgumentException("keys and values differ in length");
+	Entry<K, V> finger = root;
+	for (int i = 0; i < sortedKeys.length; i++) {
+	    K key = sortedKeys[i];
+	    if (i > 0 && compare(sortedKeys[i - 1], key) > 0)
+		throw new IllegalArgumentException("keys are not sorted");
+	    if (root == null) {
+		put(key, values[i]);
+		finger = root;
+		continue;
+	    }
+
+	    Entry<K, V> t = climb(finger, key);
+	    Entry<K, V> parent;
+	    int cmp;
+	    do {
+		parent = t;
+		cmp = compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    break;
+	    } while (t != null);
+
+	    if (cmp == 0) {
+		parent.value = values[i];
+		finger = parent;
+		continue;
+	    }
+	    Entry<K, V> e = newEntry(key, values[i], parent);
+	    if (cmp < 0) {
+		parent.left = e;
+		parent.balance--;
+	    } else {
+		parent.right = e;
+		parent.balance++;
+	    }
+	    fixAfterInsertion(parent);
+	    size++;
+	    modCount++;
+	    bloomAdd(key);
+	    // entries keep their identity through rotations so the new entry is a valid finger
+	    finger = e;
+	}
+    }
+
+    /**
+     * Removes the mappings for the given keys, which must be in ascending order,
+     * finding each one by a finger search from the previous removal point.
+     *
+     * @param sortedKeys
+     *            keys in ascending order
+     * @return the number of mappings removed
+     * @throws IllegalArgumentException
+     *             if the keys are not in ascending order
+     */
+    public int removeAll(K[] sortedKeys) {
+	int removed = 0;
+	Entry<K, V> finger = root;
+	for (int i = 0; i < sortedKeys.length; i++) {
+	    K key = sortedKeys[i];
+	    if (i > 0 && compare(sortedKeys[i - 1], key) > 0)
+		throw new IllegalArgumentException("keys are not sorted");
+	    Entry<K, V> p = climb(finger, key);
+	    while (p != null) {
+		finger = p;
+		int cmp = compare(key, p.key);
+		if (cmp < 0)
+		    p = p.left;
+		else if (cmp > 0)
+		    p = p.right;
+		else
+		    break;
+	    }
+	    if (p == null)
+		continue;
+	    // an internal node survives holding its successor's key, otherwise the
+	    // parent stays in the tree; either way the finger remains attached
+	    finger = (p.left != null && p.right != null) ? p : p.parent;
+	    deleteEntry(p);
+	    removed++;
+	    if (finger == null)
+		finger = root;
+	}
+	return removed;
+    }
+
+    /**
+     * Finger search support: starting from an entry at or left of {@code key}'s
+     * position, climbs to the lowest ancestor whose subtree must contain
+     * {@code key} if it is present. Keys must be visited in ascending order for
+     * the lower bound to hold.
+     */
+    private Entry<K, V> climb(Entry<K, V> finger, K key) {
+	Entry<K, V> p = finger;
+	if (p == null)
+	    return root;
+	while (p.parent != null) {
+	    if (p == p.parent.left && compare(key, p.parent.key) < 0)
+		return p;
+	    p = p.parent;
+	}
+	return p;
+    }
+
+    public void inOrderTraversal(Entry<K, V> x) {
+	if (x == null)
+	    return;
+	inOrderTraversal(x.left);
+	System.out.println(x.value + ", " + x.balance);
+	inOrderTraversal(x.right);
+    }
+
+    private void fixAfterInsertion(Entry<K, V> x) {
+	int levels = 0, rotated = rotations;
+	while (x.balance != 0) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+
+		    rotateRight(x.right);
+		    rotateLeft(x);
+		}
+		break;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else { // x.left.balance = 1
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+
+		    rotateLeft(x.left);
+		    rotateRight(x);
+		}
+		break;
+	    }
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x)
+		x.parent.balance--;
+	    else
+		x.parent.balance++;
+
+	    x = x.parent;
+	    levels++;
+	}
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.retrace(this, false, levels, rotations - rotated, size);
+    }
+
+    /** From CLR */
+    private void rotateLeft(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+	rotations++;
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.rotation(this, true);
+    }
+
+    /** From CLR */
+    private void rotateRight(Entry<K, V> p) {
+	Entry<K, V> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+	rotations++;
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.rotation(this, false);
+    }
+
+
+    @SuppressWarnings("unused") // didn't notice any difference in performance
+    private void rotateRightLeft(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	Entry<K, V> rl = p.right.left;
+
+	// set x.right & y.left
+	p.right = rl.left;
+	r.left = rl.right;
+
+	// set b & c & z's parents
+	if (rl.left != null)
+	    rl.left.parent = p;
+	if (rl.right != null)
+	    rl.right.parent = r;
+	rl.parent = p.parent;
+
+	if (p.parent == null)
+	    root = rl;
+	else if (p.parent.left == p)
+	    p.parent.left = rl;
+	else
+	    p.parent.right = rl;
+
+	// set z's children
+	rl.right = r;
+	rl.left = p;
+	// set x & y's parent's
+	p.parent = rl;
+	r.parent = rl;
+    }
+
+    /**
+     * Removes the mapping for this key from this TreeMap if present.
+     *
+     * @param key
+     *            key for which mapping should be removed
+     * @return the previous value associated with {@code key}, or {@code null} if
+     *         there was no mapping for {@code key}. (A {@code null} return can also
+     *         indicate that the map previously associated {@code null} with
+     *         {@code key}.)
+     * @throws ClassCastException
+     *             if the specified key cannot be compared with the keys currently
+     *             in the map
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     */
+    public V remove(Object key) {
+	Entry<K, V> p = getEntry(key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    private void deleteEntry(Entry<K, V> p) {
+	modCount++;
+	size--;
+	bloomRemovals++;
+
+	// If strictly internal, copy successor's element to p and then make p point to
+	// successor.
+	if (p.left != null && p.right != null) {
+	    Entry<K, V> s = successor(p);
+	    p.key = s.key;
+	    p.value = s.value;
+	    p.prefix = s.prefix;
+	    p = s;
+	} // p has 2 children
+
+	// Start fixup at replacement node, if it exists.
+	Entry<K, V> replacement = (p.left != null ? p.left : p.right);
+
+	if (replacement != null) {
+	    // Link replacement to parent
+	    replacement.parent = p.parent;
+	    if (p.parent == null) {
+		root = replacement;
+		return;
+	    } else if (p == p.parent.left) {
+		p.parent.left = replacement;
+		p.parent.balance++;
+		if (replacement.parent.balance == 1) {
+		    p.left = p.right = p.parent = null;
+		    return;
+		}
+	    } else {
+		p.parent.right = replacement;
+		p.parent.balance--;
+		if (replacement.parent.balance == -1) {
+		    p.left = p.right = p.parent = null;
+		    return;
+		}
+	    }
+
+	    // Null out links so they are OK to use by fixAfterDeletion.
+	    p.left = p.right = p.parent = null;
+	    fixAfterDeletion(replacement.parent);
+	} else if (p.parent == null) { // return if we are the only node.
+	    root = null;
+	} else { // No children.
+	    Entry<K, V> fixPoint = p.parent;
+
+	    if (p == fixPoint.left) {
+		fixPoint.left = null;
+		fixPoint.balance++;
+		p.parent = null;
+		if (fixPoint.balance == 1)
+		    return;
+	    } else {
+		fixPoint.right = null;
+		fixPoint.balance--;
+		p.parent = null;
+		if (fixPoint.balance == -1) 
+		    return;
+	    }
+	    
+	    fixAfterDeletion(fixPoint);
+	}
+    }
+
+    private void fixAfterDeletion(Entry<K, V> x) {
+	int levels = 0, rotated = rotations;
+	while (true) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else if (x.right.balance == 0) {
+		    x.balance = 1;
+		    x.right.balance = -1;
+		    rotateLeft(x);
+		    break;
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+		    rotateRight(x.right);
+		    rotateLeft(x);
+		}
+		x = x.parent;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else if (x.left.balance == 0) {
+		    x.balance = -1;
+		    x.left.balance = 1;
+		    rotateRight(x);
+		    break;
+		} else { // (x.left.balance == 1)
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+		    rotateLeft(x.left);
+		    rotateRight(x);
+		}
+		x = x.parent;
+	    } 
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x) {
+		x.parent.balance++;
+		if (x.parent.balance == 1) {
+		    break;
+		}
+	    } else {
+		x.parent.balance--;
+		if (x.parent.balance == -1) {
+		    break;
+		}
+	    }
+
+	    x = x.parent;
+	    levels++;
+	}
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.retrace(this, true, levels, rotations - rotated, size);
+    }
+
+    /**
+     * Removes all mappings with keys from {@code fromKey}, inclusive, to
+     * {@code toKey}, exclusive.
+     *
+     * <p>
+     * Instead of deleting one entry at a time, which would retrace and rebalance
+     * once per key, the tree is split at both bounds and the outer pieces are
+     * joined back together. Splitting and joining cost O(log n) and only the
+     * removed entries are visited to count them, for O(log n + k) in total.
+     *
+     * @param fromKey
+     *            low endpoint (inclusive) of the keys to remove
+     * @param toKey
+     *            high endpoint (exclusive) of the keys to remove
+     * @return the number of mappings removed
+     * @throws IllegalArgumentException
+     *             if {@code fromKey} is greater than {@code toKey}
+     * @throws ClassCastException
+     *             if the keys cannot be compared with the keys currently in the
+     *             map
+     * @throws NullPointerException
+     *             if a key is null and this map uses natural ordering, or its
+     *             comparator does not permit null keys
+     */
+    public int removeRange(K fromKey, K toKey) {
+	if (compare(fromKey, toKey) > 0)
+	    throw new IllegalArgumentException("fromKey > toKey");
+	Entry<K, V> first = getCeilingEntry(fromKey);
+	Entry<K, V> fence = getCeilingEntry(toKey);
+	if (first == null || first == fence)
+	    return 0;
+	return removeRange(first, fence);
+    }
+
+    /**
+     * Removes the entries from first, inclusive, up to fence, exclusive, where a
+     * null fence removes through the last entry.
+     */
+    int removeRange(Entry<K, V> first, Entry<K, V> fence) {
+	SplitResult<K, V> s = new SplitResult<>();
+	split(root, height(root), first.key, s);
+	Entry<K, V> low = s.low;
+	int lowHeight = s.lowHeight;
+	if (fence != null) {
+	    split(s.high, s.highHeight, fence.key, s);
+	} else {
+	    s.low = s.high;
+	    s.high = null;
+	    s.highHeight = 0;
+	}
+
+	// the middle piece is detached so successor() stops at its root
+	int removed = 0;
+	for (Entry<K, V> e = first; e != null; e = successor(e))
+	    removed++;
+	root = join2(low, lowHeight, s.high, s.highHeight);
+	size -= removed;
+	modCount++;
+	bloomRemovals += removed;
+	return removed;
+    }
+
+    /**
+     * The two detached subtrees produced by splitting a tree at a key, all keys of
+     * {@code low} being less than the key and all keys of {@code high} greater or
+     * equal.
+     */
+    private static final class SplitResult<K, V> {
+	Entry<K, V> low, high;
+	int lowHeight, highHeight;
+    }
+
+    /**
+     * Height of the joined tree returned by the last call to {@link #join}.
+     */
+    private transient int joinedHeight;
+
+    /**
+     * Height of the subtree rooted at t, where a single node has height 1, found in
+     * log(n) time by following the taller child recorded in each balance factor.
+     */
+    static <K, V> int height(Entry<K, V> t) {
+	int h = 0;
+	while (t != null) {
+	    h++;
+	    t = (t.balance < 0) ? t.left : t.right;
+	}
+	return h;
+    }
+
+    /**
+     * Splits the detached subtree t, of height h, into the keys less than key and
+     * the keys greater than or equal to key. Every node is either re-attached by a
+     * join or becomes the root of a piece, so the work is bounded by the path
+     * length and the joins along it.
+     */
+    private void split(Entry<K, V> t, int h, K key, SplitResult<K, V> s) {
+	if (t == null) {
+	    s.low = s.high = null;
+	    s.lowHeight = s.highHeight = 0;
+	    return;
+	}
+	Entry<K, V> l = t.left, r = t.right;
+	int hl = h - (t.balance > 0 ? 2 : 1);
+	int hr = h - (t.balance < 0 ? 2 : 1);
+	if (l != null)
+	    l.parent = null;
+	if (r != null)
+	    r.parent = null;
+	t.left = t.right = t.parent = null;
+
+	if (compare(key, t.key) <= 0) {
+	    split(l, hl, key, s);
+	    s.high = join(s.high, s.highHeight, t, r, hr);
+	    s.highHeight = joinedHeight;
+	} else {
+	    split(r, hr, key, s);
+	    s.low = join(l, hl, t, s.low, s.lowHeight);
+	    s.lowHeight = joinedHeight;
+	}
+    }
+
+    /**
+     * Joins two detached subtrees where every key in l is less than k.key and every
+     * key in r is greater, using k as the connecting node. The shorter tree is
+     * hung from the spine of the taller one and balance is restored on the way
+     * back up, so the cost is proportional to the difference in heights.
+     */
+    private Entry<K, V> join(Entry<K, V> l, int hl, Entry<K, V> k, Entry<K, V> r, int hr) {
+	Entry<K, V> t;
+	if (hl > hr + 1)
+	    t = joinRight(l, hl, k, r, hr);
+	else if (hr > hl + 1)
+	    t = joinLeft(l, hl, k, r, hr);
+	else {
+	    link(k, l, r, hr - hl);
+	    joinedHeight = Math.max(hl, hr) + 1;
+	    t = k;
+	}
+	t.parent = null;
+	return t;
+    }
+
+    private void link(Entry<K, V> k, Entry<K, V> l, Entry<K, V> r, int balance) {
+	k.left = l;
+	k.right = r;
+	if (l != null)
+	    l.parent = k;
+	if (r != null)
+	    r.parent = k;
+	k.balance = (byte) balance;
+    }
+
+    /** Join where l is the taller tree: descend its right spine. */
+    private Entry<K, V> joinRight(Entry<K, V> l, int hl, Entry<K, V> k, Entry<K, V> r, int hr) {
+	Entry<K, V> c = l.right;
+	int hc = hl - (l.balance < 0 ? 2 : 1);
+	Entry<K, V> t;
+	int ht;
+	if (hc <= hr + 1) {
+	    link(k, c, r, hr - hc);
+	    t = k;
+	    ht = Math.max(hc, hr) + 1;
+	} else {
+	    t = joinRight(c, hc, k, r, hr);
+	    ht = joinedHeight;
+	}
+	l.right = t;
+	t.parent = l;
+
+	int hll = hl - (l.balance > 0 ? 2 : 1);
+	if (ht - hll <= 1) {
+	    l.balance = (byte) (ht - hll);
+	    joinedHeight = Math.max(hll, ht) + 1;
+	    return l;
+	}
+	// right heavy by 2
+	if (t.balance == 1) {
+	    l.balance = 0;
+	    t.balance = 0;
+	    rotateLeftDetached(l);
+	    joinedHeight = ht;
+	    return t;
+	} else if (t.balance == 0) {
+	    l.balance = 1;
+	    t.balance = -1;
+	    rotateLeftDetached(l);
+	    joinedHeight = ht + 1;
+	    return t;
+	}
+	Entry<K, V> rl = t.left;
+	int rlBalance = rl.balance;
+	rl.balance = 0;
+	t.balance = 0;
+	l.balance = 0;
+	if (rlBalance == 1)
+	    l.balance = -1;
+	else if (rlBalance == -1)
+	    t.balance = 1;
+	rotateRightDetached(t);
+	rotateLeftDetached(l);
+	joinedHeight = ht;
+	return rl;
+    }
+
+    /** Join where r is the taller tree: descend its left spine. */
+    private Entry<K, V> joinLeft(Entry<K, V> l, int hl, Entry<K, V> k, Entry<K, V> r, int hr) {
+	Entry<K, V> c = r.left;
+	int hc = hr - (r.balance > 0 ? 2 : 1);
+	Entry<K, V> t;
+	int ht;
+	if (hc <= hl + 1) {
+	    link(k, l, c, hc - hl);
+	    t = k;
+	    ht = Math.max(hc, hl) + 1;
+	} else {
+	    t = joinLeft(l, hl, k, c, hc);
+	    ht = joinedHeight;
+	}
+	r.left = t;
+	t.parent = r;
+
+	int hrr = hr - (r.balance < 0 ? 2 : 1);
+	if (ht - hrr <= 1) {
+	    r.balance = (byte) (hrr - ht);
+	    joinedHeight = Math.max(hrr, ht) + 1;
+	    return r;
+	}
+	// left heavy by 2
+	if (t.balance == -1) {
+	    r.balance = 0;
+	    t.balance = 0;
+	    rotateRightDetached(r);
+	    joinedHeight = ht;
+	    return t;
+	} else if (t.balance == 0) {
+	    r.balance = -1;
+	    t.balance = 1;
+	    rotateRightDetached(r);
+	    joinedHeight = ht + 1;
+	    return t;
+	}
+	Entry<K, V> lr = t.right;
+	int lrBalance = lr.balance;
+	lr.balance = 0;
+	t.balance = 0;
+	r.balance = 0;
+	if (lrBalance == 1)
+	    t.balance = -1;
+	else if (lrBalance == -1)
+	    r.balance = 1;
+	rotateLeftDetached(t);
+	rotateRightDetached(r);
+	joinedHeight = ht;
+	return lr;
+    }
+
+    /**
+     * Rotations for split and join, which rebalance detached subtrees: unlike
+     * {@link #rotateLeft} they never assign root, and they are not counted in
+     * {@link #rotations()} or reported as rebalance events.
+     */
+    private static <K, V> void rotateLeftDetached(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
 	    r.left.parent = p;
 	r.parent = p.parent;
-	if (p.parent == null)
-	    root = r;
-	else if (p.parent.left == p)
-	    p.parent.left = r;
-	else
-	    p.parent.right = r;
+	if (p.parent != null) {
+	    if (p.parent.left == p)
+		p.parent.left = r;
+	    else
+		p.parent.right = r;
+	}
 	r.left = p;
 	p.parent = r;
-	rotations++;
     }
 
-    /** From CLR */
-    private void rotateRight(Entry<K, V> p) {
-	Entry<K, V> l = p.left;
-	p.left = l.right;
-	if (l.right != null)
-	    l.right.parent = p;
-	l.parent = p.parent;
-	if (p.parent == null)
-	    root = l;
-	else if (p.parent.right == p)
-	    p.parent.right = l;
-	else
-	    p.parent.left = l;
-	l.right = p;
-	p.parent = l;
-	rotations++;
+    private static <K, V> void rotateRightDetached(Entry<K, V> p) {
+	Entry<K, V> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent != null) {
+	    if (p.parent.right == p)
+		p.parent.right = l;
+	    else
+		p.parent.left = l;
+	}
+	l.right = p;
+	p.parent = l;
+    }
+
+    /**
+     * Joins two detached subtrees without a connecting node by taking the last
+     * entry of l as the connecting node.
+     */
+    private Entry<K, V> join2(Entry<K, V> l, int hl, Entry<K, V> r, int hr) {
+	if (l == null)
+	    return r;
+	if (r == null)
+	    return l;
+	SplitResult<K, V> s = new SplitResult<>();
+	splitLast(l, hl, s);
+	return join(s.low, s.lowHeight, s.high, r, hr);
+    }
+
+    /**
+     * Detaches the last entry of the subtree t into {@code s.high} and leaves the
+     * remaining tree in {@code s.low}.
+     */
+    private void splitLast(Entry<K, V> t, int h, SplitResult<K, V> s) {
+	Entry<K, V> l = t.left, r = t.right;
+	int hl = h - (t.balance > 0 ? 2 : 1);
+	if (l != null)
+	    l.parent = null;
+	t.left = t.right = t.parent = null;
+	if (r == null) {
+	    s.low = l;
+	    s.lowHeight = hl;
+	    s.high = t;
+	    t.balance = 0;
+	    return;
+	}
+	r.parent = null;
+	splitLast(r, h - (t.balance < 0 ? 2 : 1), s);
+	s.low = join(l, hl, t, s.low, s.lowHeight);
+	s.lowHeight = joinedHeight;
+    }
+
+    // Views
+
+    /**
+     * Fields initialized to contain an instance of the view the first time it is
+     * requested. Views are stateless, so there's no reason to create more than
+     * one.
+     */
+    private transient KeySet<K> navigableKeySet = null;
+    private transient NavigableMap<K, V> descendingMap = null;
+    private transient Values values = null;
+
+    public Comparator<? super K> comparator() {
+	return comparator;
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K firstKey() {
+	return key(getFirstEntry());
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K lastKey() {
+	return key(getLastEntry());
+    }
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map.
+     *
+     * <p>
+     * The set's iterator returns the keys in ascending order. The set's
+     * spliterator is <em>late-binding</em>, <em>fail-fast</em>, and additionally
+     * reports {@link Spliterator#SORTED} and {@link Spliterator#ORDERED} with an
+     * encounter order that is ascending key order.
+     *
+     * <p>
+     * The set is backed by the map, so changes to the map are reflected in the set,
+     * and vice-versa. The set supports element removal but not the {@code add} or
+     * {@code addAll} operations.
+     */
+    public Set<K> keySet() {
+	return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+	KeySet<K> nks = navigableKeySet;
+	return (nks != null) ? nks : (navigableKeySet = new KeySet<>(this));
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+	return descendingMap().navigableKeySet();
+    }
+
+    /**
+     * Returns a {@link Collection} view of the values contained in this map, in
+     * ascending order of the corresponding keys. The collection is backed by the
+     * map and supports element removal but not the {@code add} or {@code addAll}
+     * operations.
+     */
+    public Collection<V> values() {
+	Values vs = values;
+	return (vs != null) ? vs : (values = new Values());
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+	NavigableMap<K, V> km = descendingMap;
+	return (km != null) ? km
+		: (descendingMap = new DescendingSubMap<>(this, true, null, true, true, null, true));
+    }
+
+    /**
+     * Returns a view of the portion of this map whose keys range from
+     * {@code fromKey} to {@code toKey}. The view is backed by the tree: bounds are
+     * checked on access and nothing is copied.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code fromKey} or {@code toKey} is null and this map uses
+     *             natural ordering, or its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	return new AscendingSubMap<>(this, false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code toKey} is null and this map uses natural ordering, or
+     *             its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	return new AscendingSubMap<>(this, true, null, true, false, toKey, inclusive);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code fromKey} is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	return new AscendingSubMap<>(this, false, fromKey, inclusive, true, null, true);
+    }
+
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+	return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K, V> headMap(K toKey) {
+	return headMap(toKey, false);
+    }
+
+    public SortedMap<K, V> tailMap(K fromKey) {
+	return tailMap(fromKey, true);
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     *
+     * <p>
+     * The set's iterator returns the entries in ascending key order. The sets's
+     * spliterator is <em><a href="Spliterator.html#binding">late-binding</a></em>,
+     * <em>fail-fast</em>, and additionally reports {@link Spliterator#SORTED} and
+     * {@link Spliterator#ORDERED} with an encounter order that is ascending key
+     * order.
+     *
+     * <p>
+     * The set is backed by the map, so changes to the map are reflected in the set,
+     * and vice-versa. If the map is modified while an iteration over the set is in
+     * progress (except through the iterator's own {@code remove} operation, or
+     * through the {@code setValue} operation on a map entry returned by the
+     * iterator) the results of the iteration are undefined. The set supports
+     * element removal, which removes the corresponding mapping from the map, via
+     * the {@code Iterator.remove}, {@code Set.remove}, {@code removeAll},
+     * {@code retainAll} and {@code clear} operations. It does not support the
+     * {@code add} or {@code addAll} operations.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    private transient EntrySet entrySet = null;
+
+    class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+	public Iterator<Map.Entry<K, V>> iterator() {
+	    return new EntryIterator(getFirstEntry());
+	}
+
+	public boolean contains(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+	    Object value = entry.getValue();
+	    Entry<K, V> p = getEntry(entry.getKey());
+	    return p != null && valEquals(p.getValue(), value);
+	}
+
+	public boolean remove(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+	    Object value = entry.getValue();
+	    Entry<K, V> p = getEntry(entry.getKey());
+	    if (p != null && valEquals(p.getValue(), value)) {
+		deleteEntry(p);
+		return true;
+	    }
+	    return false;
+	}
+
+	public int size() {
+	    return AVLTreeMap.this.size();
+	}
+
+	public void clear() {
+	    AVLTreeMap.this.clear();
+	}
+
+	public Spliterator<Map.Entry<K, V>> spliterator() {
+	    return new EntrySpliterator<K, V>(AVLTreeMap.this, null, null, 0, -1, 0);
+	}
+    }
+
+    /**
+     * Cursor moving over the entries by their parent links, so that a scan
+     * allocates nothing after the cursor itself.
+     */
+    final class EntryCursor implements Cursor<K, V> {
+	Entry<K, V> current;
+	int expectedModCount = modCount;
+
+	private boolean moveTo(Entry<K, V> e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != null;
+	}
+
+	public boolean seek(K key) {
+	    return moveTo(getCeilingEntry(key));
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(getFirstEntry());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(getLastEntry());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean isValid() {
+	    return current != null;
+	}
+
+	public K key() {
+	    return checkedCurrent().key;
+	}
+
+	public V value() {
+	    return checkedCurrent().value;
+	}
+
+	public void reset() {
+	    moveTo(null);
+	}
+
+	private Entry<K, V> checkedCurrent() {
+	    if (current == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
+    /**
+     * Base class for TreeMap Iterators
+     */
+    abstract class PrivateEntryIterator<T> implements Iterator<T> {
+	Entry<K, V> next;
+	Entry<K, V> lastReturned;
+	int expectedModCount;
+
+	PrivateEntryIterator(Entry<K, V> first) {
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	    next = first;
+	}
+
+	public final boolean hasNext() {
+	    return next != null;
+	}
+
+	final Entry<K, V> nextEntry() {
+	    Entry<K, V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	final Entry<K, V> prevEntry() {
+	    Entry<K, V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = predecessor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // deleted entries are replaced by their successors
+	    if (lastReturned.left != null && lastReturned.right != null)
+		next = lastReturned;
+	    deleteEntry(lastReturned);
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	}
+    }
+
+    final class EntryIterator extends PrivateEntryIterator<Map.Entry<K, V>> {
+	EntryIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public Map.Entry<K, V> next() {
+	    return nextEntry();
+	}
+    }
+
+    final class ValueIterator extends PrivateEntryIterator<V> {
+	ValueIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public V next() {
+	    return nextEntry().value;
+	}
+    }
+
+    final class KeyIterator extends PrivateEntryIterator<K> {
+	KeyIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public K next() {
+	    return nextEntry().key;
+	}
+    }
+
+    final class DescendingKeyIterator extends PrivateEntryIterator<K> {
+	DescendingKeyIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public K next() {
+	    return prevEntry().key;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    deleteEntry(lastReturned);
+	    lastReturned = null;
+	    expectedModCount = modCount;
+	}
+    }
+
+    class Values extends AbstractCollection<V> {
+	public Iterator<V> iterator() {
+	    return new ValueIterator(getFirstEntry());
+	}
+
+	public int size() {
+	    return AVLTreeMap.this.size();
+	}
+
+	public boolean contains(Object o) {
+	    return AVLTreeMap.this.containsValue(o);
+	}
+
+	public boolean remove(Object o) {
+	    for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e)) {
+		if (valEquals(e.getValue(), o)) {
+		    deleteEntry(e);
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	public void clear() {
+	    AVLTreeMap.this.clear();
+	}
+
+	public Spliterator<V> spliterator() {
+	    return new ValueSpliterator<K, V>(AVLTreeMap.this, null, null, 0, -1, 0);
+	}
+    }
+
+    /*
+     * Unlike Values and EntrySet, the KeySet class is static, delegating to a
+     * NavigableMap to allow use by SubMaps, which outweighs the ugliness of needing
+     * type-tests for the following Iterator methods that are defined appropriately
+     * in main versus submap classes.
+     */
+
+    Iterator<K> keyIterator() {
+	return new KeyIterator(getFirstEntry());
+    }
+
+    Iterator<K> descendingKeyIterator() {
+	return new DescendingKeyIterator(getLastEntry());
+    }
+
+    static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+	private final NavigableMap<E, ?> m;
+
+	KeySet(NavigableMap<E, ?> map) {
+	    m = map;
+	}
+
+	public Iterator<E> iterator() {
+	    if (m instanceof AVLTreeMap)
+		return ((AVLTreeMap<E, ?>) m).keyIterator();
+	    else
+		return ((AVLTreeMap.NavigableSubMap<E, ?>) m).keyIterator();
+	}
+
+	public Iterator<E> descendingIterator() {
+	    if (m instanceof AVLTreeMap)
+		return ((AVLTreeMap<E, ?>) m).descendingKeyIterator();
+	    else
+		return ((AVLTreeMap.NavigableSubMap<E, ?>) m).descendingKeyIterator();
+	}
+
+	public int size() {
+	    return m.size();
+	}
+
+	public boolean isEmpty() {
+	    return m.isEmpty();
+	}
+
+	public boolean contains(Object o) {
+	    return m.containsKey(o);
+	}
+
+	public void clear() {
+	    m.clear();
+	}
+
+	public E lower(E e) {
+	    return m.lowerKey(e);
+	}
+
+	public E floor(E e) {
+	    return m.floorKey(e);
+	}
+
+	public E ceiling(E e) {
+	    return m.ceilingKey(e);
+	}
+
+	public E higher(E e) {
+	    return m.higherKey(e);
+	}
+
+	public E first() {
+	    return m.firstKey();
+	}
+
+	public E last() {
+	    return m.lastKey();
+	}
+
+	public Comparator<? super E> comparator() {
+	    return m.comparator();
+	}
+
+	public E pollFirst() {
+	    Map.Entry<E, ?> e = m.pollFirstEntry();
+	    return (e == null) ? null : e.getKey();
+	}
+
+	public E pollLast() {
+	    Map.Entry<E, ?> e = m.pollLastEntry();
+	    return (e == null) ? null : e.getKey();
+	}
+
+	public boolean remove(Object o) {
+	    int oldSize = size();
+	    m.remove(o);
+	    return size() != oldSize;
+	}
+
+	public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+	    return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+	}
+
+	public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+	    return new KeySet<>(m.headMap(toElement, inclusive));
+	}
+
+	public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+	    return new KeySet<>(m.tailMap(fromElement, inclusive));
+	}
+
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+	    return subSet(fromElement, true, toElement, false);
+	}
+
+	public SortedSet<E> headSet(E toElement) {
+	    return headSet(toElement, false);
+	}
+
+	public SortedSet<E> tailSet(E fromElement) {
+	    return tailSet(fromElement, true);
+	}
+
+	public NavigableSet<E> descendingSet() {
+	    return new KeySet<>(m.descendingMap());
+	}
+
+	public Spliterator<E> spliterator() {
+	    return keySpliteratorFor(m);
+	}
+    }
+
+    // SubMaps
+
+    /**
+     * Dummy value serving as unmatchable fence key for unbounded SubMapIterators
+     */
+    private static final Object UNBOUNDED = new Object();
+
+    /**
+     * A live view of a range of the backing tree. Bounds are checked against the
+     * tree on every access, nothing is copied.
+     */
+    abstract static class NavigableSubMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	/**
+	 * The backing map.
+	 */
+	final AVLTreeMap<K, V> m;
+
+	/**
+	 * Endpoints are represented as triples (fromStart, lo, loInclusive) and
+	 * (toEnd, hi, hiInclusive). If fromStart is true, then the low (absolute)
+	 * bound is the start of the backing map, and the other values are ignored.
+	 * Otherwise, if loInclusive is true, lo is the inclusive bound, else lo is
+	 * the exclusive bound. Similarly for the upper bound.
+	 */
+	final K lo, hi;
+	final boolean fromStart, toEnd;
+	final boolean loInclusive, hiInclusive;
+
+	NavigableSubMap(AVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    if (!fromStart && !toEnd) {
+		if (m.compare(lo, hi) > 0)
+		    throw new IllegalArgumentException("fromKey > toKey");
+	    } else {
+		if (!fromStart) // type check
+		    m.compare(lo, lo);
+		if (!toEnd)
+		    m.compare(hi, hi);
+	    }
+
+	    this.m = m;
+	    this.fromStart = fromStart;
+	    this.lo = lo;
+	    this.loInclusive = loInclusive;
+	    this.toEnd = toEnd;
+	    this.hi = hi;
+	    this.hiInclusive = hiInclusive;
+	}
+
+	// internal utilities
+
+	final boolean tooLow(Object key) {
+	    if (!fromStart) {
+		int c = m.compare(key, lo);
+		if (c < 0 || (c == 0 && !loInclusive))
+		    return true;
+	    }
+	    return false;
+	}
+
+	final boolean tooHigh(Object key) {
+	    if (!toEnd) {
+		int c = m.compare(key, hi);
+		if (c > 0 || (c == 0 && !hiInclusive))
+		    return true;
+	    }
+	    return false;
+	}
+
+	final boolean inRange(Object key) {
+	    return !tooLow(key) && !tooHigh(key);
+	}
+
+	final boolean inClosedRange(Object key) {
+	    return (fromStart || m.compare(key, lo) >= 0) && (toEnd || m.compare(hi, key) >= 0);
+	}
+
+	final boolean inRange(Object key, boolean inclusive) {
+	    return inclusive ? inRange(key) : inClosedRange(key);
+	}
+
+	/*
+	 * Absolute versions of relation operations. Subclasses map to these using
+	 * like-named "sub" versions that invert senses for descending maps
+	 */
+
+	final AVLTreeMap.Entry<K, V> absLowest() {
+	    AVLTreeMap.Entry<K, V> e = (fromStart ? m.getFirstEntry()
+		    : (loInclusive ? m.getCeilingEntry(lo) : m.getHigherEntry(lo)));
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final AVLTreeMap.Entry<K, V> absHighest() {
+	    AVLTreeMap.Entry<K, V> e = (toEnd ? m.getLastEntry()
+		    : (hiInclusive ? m.getFloorEntry(hi) : m.getLowerEntry(hi)));
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	final AVLTreeMap.Entry<K, V> absCeiling(K key) {
+	    if (tooLow(key))
+		return absLowest();
+	    AVLTreeMap.Entry<K, V> e = m.getCeilingEntry(key);
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final AVLTreeMap.Entry<K, V> absHigher(K key) {
+	    if (tooLow(key))
+		return absLowest();
+	    AVLTreeMap.Entry<K, V> e = m.getHigherEntry(key);
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final AVLTreeMap.Entry<K, V> absFloor(K key) {
+	    if (tooHigh(key))
+		return absHighest();
+	    AVLTreeMap.Entry<K, V> e = m.getFloorEntry(key);
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	final AVLTreeMap.Entry<K, V> absLower(K key) {
+	    if (tooHigh(key))
+		return absHighest();
+	    AVLTreeMap.Entry<K, V> e = m.getLowerEntry(key);
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	/** Returns the absolute high fence for ascending traversal */
+	final AVLTreeMap.Entry<K, V> absHighFence() {
+	    return (toEnd ? null : (hiInclusive ? m.getHigherEntry(hi) : m.getCeilingEntry(hi)));
+	}
+
+	/** Return the absolute low fence for descending traversal */
+	final AVLTreeMap.Entry<K, V> absLowFence() {
+	    return (fromStart ? null : (loInclusive ? m.getLowerEntry(lo) : m.getFloorEntry(lo)));
+	}
+
+	// Abstract methods defined in ascending vs descending classes
+	// These relay to the appropriate absolute versions
+
+	abstract AVLTreeMap.Entry<K, V> subLowest();
+
+	abstract AVLTreeMap.Entry<K, V> subHighest();
+
+	abstract AVLTreeMap.Entry<K, V> subCeiling(K key);
+
+	abstract AVLTreeMap.Entry<K, V> subHigher(K key);
+
+	abstract AVLTreeMap.Entry<K, V> subFloor(K key);
+
+	abstract AVLTreeMap.Entry<K, V> subLower(K key);
+
+	/** Returns ascending iterator from the perspective of this submap */
+	abstract Iterator<K> keyIterator();
+
+	abstract Spliterator<K> keySpliterator();
+
+	/** Returns descending iterator from the perspective of this submap */
+	abstract Iterator<K> descendingKeyIterator();
+
+	// public methods
+
+	public boolean isEmpty() {
+	    return (fromStart && toEnd) ? m.isEmpty() : entrySet().isEmpty();
+	}
+
+	public int size() {
+	    return (fromStart && toEnd) ? m.size() : entrySet().size();
+	}
+
+	public final boolean containsKey(Object key) {
+	    return inRange(key) && m.containsKey(key);
+	}
+
+	public final V put(K key, V value) {
+	    if (!inRange(key))
+		throw new IllegalArgumentException("key out of range");
+	    return m.put(key, value);
+	}
+
+	public final V get(Object key) {
+	    return !inRange(key) ? null : m.get(key);
+	}
+
+	public final V remove(Object key) {
+	    return !inRange(key) ? null : m.remove(key);
+	}
+
+	/**
+	 * Removes every mapping in range by splitting the backing tree at the
+	 * bounds rather than deleting entries one at a time.
+	 */
+	public void clear() {
+	    if (fromStart && toEnd) {
+		m.clear();
+		return;
+	    }
+	    AVLTreeMap.Entry<K, V> first = absLowest();
+	    if (first != null)
+		m.removeRange(first, absHighFence());
+	}
+
+	public final Map.Entry<K, V> ceilingEntry(K key) {
+	    return exportEntry(subCeiling(key));
+	}
+
+	public final K ceilingKey(K key) {
+	    return keyOrNull(subCeiling(key));
+	}
+
+	public final Map.Entry<K, V> higherEntry(K key) {
+	    return exportEntry(subHigher(key));
+	}
+
+	public final K higherKey(K key) {
+	    return keyOrNull(subHigher(key));
+	}
+
+	public final Map.Entry<K, V> floorEntry(K key) {
+	    return exportEntry(subFloor(key));
+	}
+
+	public final K floorKey(K key) {
+	    return keyOrNull(subFloor(key));
+	}
+
+	public final Map.Entry<K, V> lowerEntry(K key) {
+	    return exportEntry(subLower(key));
+	}
+
+	public final K lowerKey(K key) {
+	    return keyOrNull(subLower(key));
+	}
+
+	public final K firstKey() {
+	    return key(subLowest());
+	}
+
+	public final K lastKey() {
+	    return key(subHighest());
+	}
+
+	public final Map.Entry<K, V> firstEntry() {
+	    return exportEntry(subLowest());
+	}
+
+	public final Map.Entry<K, V> lastEntry() {
+	    return exportEntry(subHighest());
+	}
+
+	public final Map.Entry<K, V> pollFirstEntry() {
+	    AVLTreeMap.Entry<K, V> e = subLowest();
+	    Map.Entry<K, V> result = exportEntry(e);
+	    if (e != null)
+		m.deleteEntry(e);
+	    return result;
+	}
+
+	public final Map.Entry<K, V> pollLastEntry() {
+	    AVLTreeMap.Entry<K, V> e = subHighest();
+	    Map.Entry<K, V> result = exportEntry(e);
+	    if (e != null)
+		m.deleteEntry(e);
+	    return result;
+	}
+
+	// Views
+	transient NavigableMap<K, V> descendingMapView = null;
+	transient EntrySetView entrySetView = null;
+	transient KeySet<K> navigableKeySetView = null;
+
+	public final NavigableSet<K> navigableKeySet() {
+	    KeySet<K> nksv = navigableKeySetView;
+	    return (nksv != null) ? nksv : (navigableKeySetView = new AVLTreeMap.KeySet<>(this));
+	}
+
+	public final Set<K> keySet() {
+	    return navigableKeySet();
+	}
+
+	public NavigableSet<K> descendingKeySet() {
+	    return descendingMap().navigableKeySet();
+	}
+
+	public final SortedMap<K, V> subMap(K fromKey, K toKey) {
+	    return subMap(fromKey, true, toKey, false);
+	}
+
+	public final SortedMap<K, V> headMap(K toKey) {
+	    return headMap(toKey, false);
+	}
+
+	public final SortedMap<K, V> tailMap(K fromKey) {
+	    return tailMap(fromKey, true);
+	}
+
+	// View classes
+
+	abstract class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+	    private transient int size = -1, sizeModCount;
+
+	    public int size() {
+		if (fromStart && toEnd)
+		    return m.size();
+		if (size == -1 || sizeModCount != m.modCount) {
+		    sizeModCount = m.modCount;
+		    size = 0;
+		    Iterator<?> i = iterator();
+		    while (i.hasNext()) {
+			size++;
+			i.next();
+		    }
+		}
+		return size;
+	    }
+
+	    public boolean isEmpty() {
+		AVLTreeMap.Entry<K, V> n = absLowest();
+		return n == null || tooHigh(n.key);
+	    }
+
+	    public boolean contains(Object o) {
+		if (!(o instanceof Map.Entry))
+		    return false;
+		Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+		Object key = entry.getKey();
+		if (!inRange(key))
+		    return false;
+		AVLTreeMap.Entry<?, ?> node = m.getEntry(key);
+		return node != null && valEquals(node.getValue(), entry.getValue());
+	    }
+
+	    public boolean remove(Object o) {
+		if (!(o instanceof Map.Entry))
+		    return false;
+		Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+		Object key = entry.getKey();
+		if (!inRange(key))
+		    return false;
+		AVLTreeMap.Entry<K, V> node = m.getEntry(key);
+		if (node != null && valEquals(node.getValue(), entry.getValue())) {
+		    m.deleteEntry(node);
+		    return true;
+		}
+		return false;
+	    }
+
+	    public void clear() {
+		NavigableSubMap.this.clear();
+	    }
+	}
+
+	/**
+	 * Iterators for SubMaps
+	 */
+	abstract class SubMapIterator<T> implements Iterator<T> {
+	    AVLTreeMap.Entry<K, V> lastReturned;
+	    AVLTreeMap.Entry<K, V> next;
+	    final Object fenceKey;
+	    int expectedModCount;
+
+	    SubMapIterator(AVLTreeMap.Entry<K, V> first, AVLTreeMap.Entry<K, V> fence) {
+		expectedModCount = m.modCount;
+		lastReturned = null;
+		next = first;
+		fenceKey = fence == null ? UNBOUNDED : fence.key;
+	    }
+
+	    public final boolean hasNext() {
+		return next != null && next.key != fenceKey;
+	    }
+
+	    final AVLTreeMap.Entry<K, V> nextEntry() {
+		AVLTreeMap.Entry<K, V> e = next;
+		if (e == null || e.key == fenceKey)
+		    throw new NoSuchElementException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		next = successor(e);
+		lastReturned = e;
+		return e;
+	    }
+
+	    final AVLTreeMap.Entry<K, V> prevEntry() {
+		AVLTreeMap.Entry<K, V> e = next;
+		if (e == null || e.key == fenceKey)
+		    throw new NoSuchElementException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		next = predecessor(e);
+		lastReturned = e;
+		return e;
+	    }
+
+	    final void removeAscending() {
+		if (lastReturned == null)
+		    throw new IllegalStateException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		// deleted entries are replaced by their successors
+		if (lastReturned.left != null && lastReturned.right != null)
+		    next = lastReturned;
+		m.deleteEntry(lastReturned);
+		lastReturned = null;
+		expectedModCount = m.modCount;
+	    }
+
+	    final void removeDescending() {
+		if (lastReturned == null)
+		    throw new IllegalStateException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		m.deleteEntry(lastReturned);
+		lastReturned = null;
+		expectedModCount = m.modCount;
+	    }
+	}
+
+	final class SubMapEntryIterator extends SubMapIterator<Map.Entry<K, V>> {
+	    SubMapEntryIterator(AVLTreeMap.Entry<K, V> first, AVLTreeMap.Entry<K, V> fence) {
+		super(first, fence);
+	    }
+
+	    public Map.Entry<K, V> next() {
+		return nextEntry();
+	    }
+
+	    public void remove() {
+		removeAscending();
+	    }
+	}
+
+	final class DescendingSubMapEntryIterator extends SubMapIterator<Map.Entry<K, V>> {
+	    DescendingSubMapEntryIterator(AVLTreeMap.Entry<K, V> last, AVLTreeMap.Entry<K, V> fence) {
+		super(last, fence);
+	    }
+
+	    public Map.Entry<K, V> next() {
+		return prevEntry();
+	    }
+
+	    public void remove() {
+		removeDescending();
+	    }
+	}
+
+	// Implement minimal Spliterator as KeySpliterator backup
+	final class SubMapKeyIterator extends SubMapIterator<K> implements Spliterator<K> {
+	    SubMapKeyIterator(AVLTreeMap.Entry<K, V> first, AVLTreeMap.Entry<K, V> fence) {
+		super(first, fence);
+	    }
+
+	    public K next() {
+		return nextEntry().key;
+	    }
+
+	    public void remove() {
+		removeAscending();
+	    }
+
+	    public Spliterator<K> trySplit() {
+		return null;
+	    }
+
+	    public void forEachRemaining(Consumer<? super K> action) {
+		while (hasNext())
+		    action.accept(next());
+	    }
+
+	    public boolean tryAdvance(Consumer<? super K> action) {
+		if (hasNext()) {
+		    action.accept(next());
+		    return true;
+		}
+		return false;
+	    }
+
+	    public long estimateSize() {
+		return Long.MAX_VALUE;
+	    }
+
+	    public int characteristics() {
+		return Spliterator.DISTINCT | Spliterator.ORDERED | Spliterator.SORTED;
+	    }
+
+	    public final Comparator<? super K> getComparator() {
+		return NavigableSubMap.this.comparator();
+	    }
+	}
+
+	final class DescendingSubMapKeyIterator extends SubMapIterator<K> implements Spliterator<K> {
+	    DescendingSubMapKeyIterator(AVLTreeMap.Entry<K, V> last, AVLTreeMap.Entry<K, V> fence) {
+		super(last, fence);
+	    }
+
+	    public K next() {
+		return prevEntry().key;
+	    }
+
+	    public void remove() {
+		removeDescending();
+	    }
+
+	    public Spliterator<K> trySplit() {
+		return null;
+	    }
+
+	    public void forEachRemaining(Consumer<? super K> action) {
+		while (hasNext())
+		    action.accept(next());
+	    }
+
+	    public boolean tryAdvance(Consumer<? super K> action) {
+		if (hasNext()) {
+		    action.accept(next());
+		    return true;
+		}
+		return false;
+	    }
+
+	    public long estimateSize() {
+		return Long.MAX_VALUE;
+	    }
+
+	    public int characteristics() {
+		return Spliterator.DISTINCT | Spliterator.ORDERED;
+	    }
+	}
     }
 
+    static final class AscendingSubMap<K, V> extends NavigableSubMap<K, V> {
+	AscendingSubMap(AVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    super(m, fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+	}
 
-    @SuppressWarnings("unused") // didn't notice any difference in performance
-    private void rotateRightLeft(Entry<K, V> p) {
-	Entry<K, V> r = p.right;
-	Entry<K, V> rl = p.right.left;
+	public Comparator<? super K> comparator() {
+	    return m.comparator();
+	}
 
-	// set x.right & y.left
-	p.right = rl.left;
-	r.left = rl.right;
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	    if (!inRange(fromKey, fromInclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    if (!inRange(toKey, toInclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new AscendingSubMap<>(m, false, fromKey, fromInclusive, false, toKey, toInclusive);
+	}
 
-	// set b & c & z's parents
-	if (rl.left != null)
-	    rl.left.parent = p;
-	if (rl.right != null)
-	    rl.right.parent = r;
-	rl.parent = p.parent;
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	    if (!inRange(toKey, inclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new AscendingSubMap<>(m, fromStart, lo, loInclusive, false, toKey, inclusive);
+	}
 
-	if (p.parent == null)
-	    root = rl;
-	else if (p.parent.left == p)
-	    p.parent.left = rl;
-	else
-	    p.parent.right = rl;
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	    if (!inRange(fromKey, inclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    return new AscendingSubMap<>(m, false, fromKey, inclusive, toEnd, hi, hiInclusive);
+	}
 
-	// set z's children
-	rl.right = r;
-	rl.left = p;
-	// set x & y's parent's
-	p.parent = rl;
-	r.parent = rl;
-    }
+	public NavigableMap<K, V> descendingMap() {
+	    NavigableMap<K, V> mv = descendingMapView;
+	    return (mv != null) ? mv
+		    : (descendingMapView = new DescendingSubMap<>(m, fromStart, lo, loInclusive, toEnd, hi,
+			    hiInclusive));
+	}
 
-    /**
-     * Removes the mapping for this key from this TreeMap if present.
-     *
-     * @param key
-     *            key for which mapping should be removed
-     * @return the previous value associated with {@code key}, or {@code null} if
-     *         there was no mapping for {@code key}. (A {@code null} return can also
-     *         indicate that the map previously associated {@code null} with
-     *         {@code key}.)
-     * @throws ClassCastException
-     *             if the specified key cannot be compared with the keys currently
-     *             in the map
-     * @throws NullPointerException
-     *             if the specified key is null and this map uses natural ordering,
-     *             or its comparator does not permit null keys
-     */
-    public V remove(Object key) {
-	Entry<K, V> p = getEntry(key);
-	if (p == null)
-	    return null;
+	Iterator<K> keyIterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
 
-	V oldValue = p.value;
-	deleteEntry(p);
-	return oldValue;
+	Spliterator<K> keySpliterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
+
+	Iterator<K> descendingKeyIterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	final class AscendingEntrySetView extends EntrySetView {
+	    public Iterator<Map.Entry<K, V>> iterator() {
+		return new SubMapEntryIterator(absLowest(), absHighFence());
+	    }
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+	    EntrySetView es = entrySetView;
+	    return (es != null) ? es : (entrySetView = new AscendingEntrySetView());
+	}
+
+	AVLTreeMap.Entry<K, V> subLowest() {
+	    return absLowest();
+	}
+
+	AVLTreeMap.Entry<K, V> subHighest() {
+	    return absHighest();
+	}
+
+	AVLTreeMap.Entry<K, V> subCeiling(K key) {
+	    return absCeiling(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subHigher(K key) {
+	    return absHigher(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subFloor(K key) {
+	    return absFloor(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subLower(K key) {
+	    return absLower(key);
+	}
     }
 
-    private void deleteEntry(Entry<K, V> p) {
-	modCount++;
-	size--;
+    static final class DescendingSubMap<K, V> extends NavigableSubMap<K, V> {
+	DescendingSubMap(AVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    super(m, fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+	}
 
-	// If strictly internal, copy successor's element to p and then make p point to
-	// successor.
-	if (p.left != null && p.right != null) {
-	    Entry<K, V> s = successor(p);
-	    p.key = s.key;
-	    p.value = s.value;
-	    p = s;
-	} // p has 2 children
+	private final Comparator<? super K> reverseComparator = Collections.reverseOrder(m.comparator);
 
-	// Start fixup at replacement node, if it exists.
-	Entry<K, V> replacement = (p.left != null ? p.left : p.right);
+	public Comparator<? super K> comparator() {
+	    return reverseComparator;
+	}
 
-	if (replacement != null) {
-	    // Link replacement to parent
-	    replacement.parent = p.parent;
-	    if (p.parent == null) {
-		root = replacement;
-		return;
-	    } else if (p == p.parent.left) {
-		p.parent.left = replacement;
-		p.parent.balance++;
-		if (replacement.parent.balance == 1) {
-		    p.left = p.right = p.parent = null;
-		    return;
-		}
-	    } else {
-		p.parent.right = replacement;
-		p.parent.balance--;
-		if (replacement.parent.balance == -1) {
-		    p.left = p.right = p.parent = null;
-		    return;
-		}
-	    }
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	    if (!inRange(fromKey, fromInclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    if (!inRange(toKey, toInclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new DescendingSubMap<>(m, false, toKey, toInclusive, false, fromKey, fromInclusive);
+	}
 
-	    // Null out links so they are OK to use by fixAfterDeletion.
-	    p.left = p.right = p.parent = null;
-	    fixAfterDeletion(replacement.parent);
-	} else if (p.parent == null) { // return if we are the only node.
-	    root = null;
-	} else { // No children.
-	    Entry<K, V> fixPoint = p.parent;
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	    if (!inRange(toKey, inclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new DescendingSubMap<>(m, false, toKey, inclusive, toEnd, hi, hiInclusive);
+	}
 
-	    if (p == fixPoint.left) {
-		fixPoint.left = null;
-		fixPoint.balance++;
-		p.parent = null;
-		if (fixPoint.balance == 1)
-		    return;
-	    } else {
-		fixPoint.right = null;
-		fixPoint.balance--;
-		p.parent = null;
-		if (fixPoint.balance == -1) 
-		    return;
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	    if (!inRange(fromKey, inclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    return new DescendingSubMap<>(m, fromStart, lo, loInclusive, false, fromKey, inclusive);
+	}
+
+	public NavigableMap<K, V> descendingMap() {
+	    NavigableMap<K, V> mv = descendingMapView;
+	    return (mv != null) ? mv
+		    : (descendingMapView = new AscendingSubMap<>(m, fromStart, lo, loInclusive, toEnd, hi,
+			    hiInclusive));
+	}
+
+	Iterator<K> keyIterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	Spliterator<K> keySpliterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	Iterator<K> descendingKeyIterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
+
+	final class DescendingEntrySetView extends EntrySetView {
+	    public Iterator<Map.Entry<K, V>> iterator() {
+		return new DescendingSubMapEntryIterator(absHighest(), absLowFence());
+	    }
+
+	    public Spliterator<Map.Entry<K, V>> spliterator() {
+		if (fromStart && toEnd)
+		    return new DescendingEntrySpliterator<K, V>(m, null, null, 0, -2, 0);
+		return super.spliterator();
 	    }
-	    
-	    fixAfterDeletion(fixPoint);
 	}
-    }
 
-    private void fixAfterDeletion(Entry<K, V> x) {
-	while (true) {
-	    if (x.balance == 2) { // right heavy by 2?
-		if (x.right.balance == 1) {
-		    x.balance = 0;
-		    x.right.balance = 0;
-		    rotateLeft(x);
-		} else if (x.right.balance == 0) {
-		    x.balance = 1;
-		    x.right.balance = -1;
-		    rotateLeft(x);
-		    break;
-		} else { // x.right.balance = -1
-		    int rlBalance = x.right.left.balance;
-		    x.right.left.balance = 0;
-		    x.right.balance = 0;
-		    x.balance = 0;
-		    if (rlBalance == 1)
-			x.balance = -1;
-		    else if (rlBalance == -1)
-			x.right.balance = 1;
-		    rotateRight(x.right);
-		    rotateLeft(x);
-		}
-		x = x.parent;
-	    } else if (x.balance == -2) {
-		if (x.left.balance == -1) {
-		    x.balance = 0;
-		    x.left.balance = 0;
-		    rotateRight(x);
-		} else if (x.left.balance == 0) {
-		    x.balance = -1;
-		    x.left.balance = 1;
-		    rotateRight(x);
-		    break;
-		} else { // (x.left.balance == 1)
-		    int lrBalance = x.left.right.balance;
-		    x.left.right.balance = 0;
-		    x.left.balance = 0;
-		    x.balance = 0;
-		    if (lrBalance == 1)
-			x.left.balance = -1;
-		    else if (lrBalance == -1)
-			x.balance = 1;
-		    rotateLeft(x.left);
-		    rotateRight(x);
-		}
-		x = x.parent;
-	    } 
+	public Set<Map.Entry<K, V>> entrySet() {
+	    EntrySetView es = entrySetView;
+	    return (es != null) ? es : (entrySetView = new DescendingEntrySetView());
+	}
 
-	    if (x.parent == null)
-		break;
-	    if (x.parent.left == x) {
-		x.parent.balance++;
-		if (x.parent.balance == 1) {
-		    break;
-		}
-	    } else {
-		x.parent.balance--;
-		if (x.parent.balance == -1) {
-		    break;
-		}
+	private transient Collection<V> valuesView;
+
+	/**
+	 * Returns the values in descending order of their keys. For the whole map the
+	 * spliterator splits the tree like the ascending one does, so that
+	 * {@code descendingMap().values().stream()} runs without copying.
+	 */
+	public Collection<V> values() {
+	    Collection<V> vs = valuesView;
+	    return (vs != null) ? vs : (valuesView = new DescendingValues());
+	}
+
+	final class DescendingValues extends AbstractCollection<V> {
+	    public Iterator<V> iterator() {
+		Iterator<Map.Entry<K, V>> i = entrySet().iterator();
+		return new Iterator<V>() {
+		    public boolean hasNext() {
+			return i.hasNext();
+		    }
+
+		    public V next() {
+			return i.next().getValue();
+		    }
+
+		    public void remove() {
+			i.remove();
+		    }
+		};
+	    }
+
+	    public int size() {
+		return DescendingSubMap.this.size();
+	    }
+
+	    public boolean isEmpty() {
+		return DescendingSubMap.this.isEmpty();
+	    }
+
+	    public boolean contains(Object o) {
+		return containsValue(o);
+	    }
+
+	    public void clear() {
+		DescendingSubMap.this.clear();
+	    }
+
+	    public Spliterator<V> spliterator() {
+		if (fromStart && toEnd)
+		    return new DescendingValueSpliterator<K, V>(m, null, null, 0, -2, 0);
+		return super.spliterator();
 	    }
+	}
+
+	AVLTreeMap.Entry<K, V> subLowest() {
+	    return absHighest();
+	}
+
+	AVLTreeMap.Entry<K, V> subHighest() {
+	    return absLowest();
+	}
 
-	    x = x.parent;
+	AVLTreeMap.Entry<K, V> subCeiling(K key) {
+	    return absFloor(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subHigher(K key) {
+	    return absLower(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subFloor(K key) {
+	    return absCeiling(key);
+	}
+
+	AVLTreeMap.Entry<K, V> subLower(K key) {
+	    return absHigher(key);
 	}
     }
 
     /**
-     * Returns a {@link Set} view of the mappings contained in this map.
-     *
-     * <p>
-     * The set's iterator returns the entries in ascending key order. The sets's
-     * spliterator is <em><a href="Spliterator.html#binding">late-binding</a></em>,
-     * <em>fail-fast</em>, and additionally reports {@link Spliterator#SORTED} and
-     * {@link Spliterator#ORDERED} with an encounter order that is ascending key
-     * order.
+     * Spliterator-based versions are supported for the full map, in either plain
+     * or descending form, otherwise relying on defaults because size estimation
+     * for submaps would dominate costs.
+     */
+    static <K> Spliterator<K> keySpliteratorFor(NavigableMap<K, ?> m) {
+	if (m instanceof AVLTreeMap) {
+	    @SuppressWarnings("unchecked")
+	    AVLTreeMap<K, Object> t = (AVLTreeMap<K, Object>) m;
+	    return t.keySpliterator();
+	}
+	if (m instanceof DescendingSubMap) {
+	    @SuppressWarnings("unchecked")
+	    DescendingSubMap<K, ?> dm = (DescendingSubMap<K, ?>) m;
+	    AVLTreeMap<K, ?> tm = dm.m;
+	    if (dm == tm.descendingMap) {
+		@SuppressWarnings("unchecked")
+		AVLTreeMap<K, Object> t = (AVLTreeMap<K, Object>) tm;
+		return t.descendingKeySpliterator();
+	    }
+	}
+	@SuppressWarnings("unchecked")
+	NavigableSubMap<K, ?> sm = (NavigableSubMap<K, ?>) m;
+	return sm.keySpliterator();
+    }
+
+    final Spliterator<K> keySpliterator() {
+	return new KeySpliterator<K, V>(this, null, null, 0, -1, 0);
+    }
+
+    final Spliterator<K> descendingKeySpliterator() {
+	return new DescendingKeySpliterator<K, V>(this, null, null, 0, -2, 0);
+    }
+
+    /**
+     * Base class for spliterators. Iteration starts at a given origin and continues
+     * up to but not including a given fence (or null for end). At top-level, for
+     * ascending cases, the first split uses the root as left-fence/right-origin.
+     * From there, right-hand splits replace the current fence with its left child,
+     * also serving as origin for the split-off spliterator. Left-hands are
+     * symmetric. Descending versions place the origin at the end and invert
+     * ascending split rules.
      *
-     * <p>
-     * The set is backed by the map, so changes to the map are reflected in the set,
-     * and vice-versa. If the map is modified while an iteration over the set is in
-     * progress (except through the iterator's own {@code remove} operation, or
-     * through the {@code setValue} operation on a map entry returned by the
-     * iterator) the results of the iteration are undefined. The set supports
-     * element removal, which removes the corresponding mapping from the map, via
-     * the {@code Iterator.remove}, {@code Set.remove}, {@code removeAll},
-     * {@code retainAll} and {@code clear} operations. It does not support the
-     * {@code add} or {@code addAll} operations.
+     * To bootstrap initialization, external constructors use negative size
+     * estimates: -1 for ascend, -2 for descend.
      */
-    public Set<Map.Entry<K, V>> entrySet() {
-	EntrySet es = entrySet;
-	return (es != null) ? es : (entrySet = new EntrySet());
+    static class TreeMapSpliterator<K, V> {
+	final AVLTreeMap<K, V> tree;
+	AVLTreeMap.Entry<K, V> current; // traverser; initially first node in range
+	AVLTreeMap.Entry<K, V> fence; // one past last, or null
+	int side; // 0: top, -1: is a left split, +1: right
+	int est; // size estimate (exact only for top-level)
+	int expectedModCount; // for CME checks
+
+	TreeMapSpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    this.tree = tree;
+	    this.current = origin;
+	    this.fence = fence;
+	    this.side = side;
+	    this.est = est;
+	    this.expectedModCount = expectedModCount;
+	}
+
+	final int getEstimate() { // force initialization
+	    int s;
+	    AVLTreeMap<K, V> t;
+	    if ((s = est) < 0) {
+		if ((t = tree) != null) {
+		    current = (s == -1) ? t.getFirstEntry() : t.getLastEntry();
+		    s = est = t.size;
+		    expectedModCount = t.modCount;
+		} else
+		    s = est = 0;
+	    }
+	    return s;
+	}
+
+	public final long estimateSize() {
+	    return (long) getEstimate();
+	}
+
+	/**
+	 * Returns the node at which to split off the lower half of an ascending
+	 * traversal, or null if the remaining range is too small to split.
+	 */
+	final AVLTreeMap.Entry<K, V> ascendingSplit() {
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    int d = side;
+	    AVLTreeMap.Entry<K, V> e = current, f = fence, s = ((e == null || e == f) ? null : // empty
+		    (d == 0) ? tree.root : // was top
+			    (d > 0) ? e.right : // was right
+				    (d < 0 && f != null) ? f.left : // was left
+					    null);
+	    if (s != null && s != e && s != f && tree.compare(e.key, s.key) < 0) { // e not already past s
+		side = 1;
+		est >>>= 1;
+		return s;
+	    }
+	    return null;
+	}
+
+	/**
+	 * Returns the node at which to split off the upper half of a descending
+	 * traversal, or null if the remaining range is too small to split.
+	 */
+	final AVLTreeMap.Entry<K, V> descendingSplit() {
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    int d = side;
+	    AVLTreeMap.Entry<K, V> e = current, f = fence, s = ((e == null || e == f) ? null : // empty
+		    (d == 0) ? tree.root : // was top
+			    (d < 0) ? e.left : // was left
+				    (d > 0 && f != null) ? f.right : // was right
+					    null);
+	    if (s != null && s != e && s != f && tree.compare(e.key, s.key) > 0) { // e not already past s
+		side = 1;
+		est >>>= 1;
+		return s;
+	    }
+	    return null;
+	}
     }
 
-    private transient EntrySet entrySet = null;
+    static final class KeySpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<K> {
+	KeySpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
 
-    class EntrySet extends AbstractSet<Map.Entry<K, V>> {
-	public Iterator<Map.Entry<K, V>> iterator() {
-	    return new EntryIterator(getFirstEntry());
+	public KeySpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new KeySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
 	}
 
-	public boolean contains(Object o) {
-	    if (!(o instanceof Map.Entry))
-		return false;
-	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
-	    Object value = entry.getValue();
-	    Entry<K, V> p = getEntry(entry.getKey());
-	    return p != null && valEquals(p.getValue(), value);
+	public void forEachRemaining(Consumer<? super K> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.key);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
 	}
 
-	public boolean remove(Object o) {
-	    if (!(o instanceof Map.Entry))
+	public boolean tryAdvance(Consumer<? super K> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
 		return false;
-	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
-	    Object value = entry.getValue();
-	    Entry<K, V> p = getEntry(entry.getKey());
-	    if (p != null && valEquals(p.getValue(), value)) {
-		deleteEntry(p);
-		return true;
-	    }
-	    return false;
+	    current = successor(e);
+	    action.accept(e.key);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
 	}
 
-	public int size() {
-	    return AVLTreeMap.this.size();
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.SORTED
+		    | Spliterator.ORDERED;
 	}
 
-	public void clear() {
-	    AVLTreeMap.this.clear();
+	public final Comparator<? super K> getComparator() {
+	    return tree.comparator;
+	}
+    }
+
+    static final class DescendingKeySpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<K> {
+	DescendingKeySpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
 	}
 
-	public Spliterator<Map.Entry<K, V>> spliterator() {
-	    return null;
+	public DescendingKeySpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingKeySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super K> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.key);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super K> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e.key);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.ORDERED;
 	}
     }
 
-    /**
-     * Base class for TreeMap Iterators
-     */
-    abstract class PrivateEntryIterator<T> implements Iterator<T> {
-	Entry<K, V> next;
-	Entry<K, V> lastReturned;
-	int expectedModCount;
+    static final class ValueSpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<V> {
+	ValueSpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
 
-	PrivateEntryIterator(Entry<K, V> first) {
-	    expectedModCount = modCount;
-	    lastReturned = null;
-	    next = first;
+	public ValueSpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new ValueSpliterator<>(tree, current, current = s, -1, est, expectedModCount);
 	}
 
-	public final boolean hasNext() {
-	    return next != null;
+	public void forEachRemaining(Consumer<? super V> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.value);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
 	}
 
-	final Entry<K, V> nextEntry() {
-	    Entry<K, V> e = next;
-	    if (e == null)
-		throw new NoSuchElementException();
-	    if (modCount != expectedModCount)
+	public boolean tryAdvance(Consumer<? super V> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = successor(e);
+	    action.accept(e.value);
+	    if (tree.modCount != expectedModCount)
 		throw new ConcurrentModificationException();
-	    next = successor(e);
-	    lastReturned = e;
-	    return e;
+	    return true;
 	}
 
-	final Entry<K, V> prevEntry() {
-	    Entry<K, V> e = next;
-	    if (e == null)
-		throw new NoSuchElementException();
-	    if (modCount != expectedModCount)
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.ORDERED;
+	}
+    }
+
+    static final class DescendingValueSpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<V> {
+	DescendingValueSpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public DescendingValueSpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingValueSpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super V> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.value);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super V> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e.value);
+	    if (tree.modCount != expectedModCount)
 		throw new ConcurrentModificationException();
-	    next = predecessor(e);
-	    lastReturned = e;
-	    return e;
+	    return true;
 	}
 
-	public void remove() {
-	    if (lastReturned == null)
-		throw new IllegalStateException();
-	    if (modCount != expectedModCount)
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.ORDERED;
+	}
+    }
+
+    static final class EntrySpliterator<K, V> extends TreeMapSpliterator<K, V>
+	    implements Spliterator<Map.Entry<K, V>> {
+	EntrySpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public EntrySpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new EntrySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = successor(e);
+	    action.accept(e);
+	    if (tree.modCount != expectedModCount)
 		throw new ConcurrentModificationException();
-	    // deleted entries are replaced by their successors
-	    if (lastReturned.left != null && lastReturned.right != null)
-		next = lastReturned;
-	    deleteEntry(lastReturned);
-	    expectedModCount = modCount;
-	    lastReturned = null;
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.SORTED
+		    | Spliterator.ORDERED;
+	}
+
+	public Comparator<Map.Entry<K, V>> getComparator() {
+	    // Adapt or create a key-based comparator
+	    if (tree.comparator != null) {
+		return Map.Entry.comparingByKey(tree.comparator);
+	    } else {
+		return (Comparator<Map.Entry<K, V>> & java.io.Serializable) (e1, e2) -> {
+		    @SuppressWarnings("unchecked")
+		    Comparable<? super K> k1 = (Comparable<? super K>) e1.getKey();
+		    return k1.compareTo(e2.getKey());
+		};
+	    }
 	}
     }
 
-    final class EntryIterator extends PrivateEntryIterator<Map.Entry<K, V>> {
-	EntryIterator(Entry<K, V> first) {
-	    super(first);
+    static final class DescendingEntrySpliterator<K, V> extends TreeMapSpliterator<K, V>
+	    implements Spliterator<Map.Entry<K, V>> {
+	DescendingEntrySpliterator(AVLTreeMap<K, V> tree, AVLTreeMap.Entry<K, V> origin, AVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
 	}
 
-	public Map.Entry<K, V> next() {
-	    return nextEntry();
+	public DescendingEntrySpliterator<K, V> trySplit() {
+	    AVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingEntrySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    AVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+	    AVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.ORDERED;
 	}
     }
 
@@ -781,6 +3635,178 @@ public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
 	size = 0;
 	root = null;
 	rotations = 0;
+	if (bloom != null)
+	    rebuildBloomFilter();
+    }
+
+    private static final long serialVersionUID = 7138521479024715212L;
+
+    /**
+     * Save the state of the {@code AVLTreeMap} instance to a stream (i.e.,
+     * serialize it).
+     *
+     * @serialData The <em>size</em> of the map (the number of key-value
+     *             mappings) is emitted (int), followed by the key (Object)
+     *             and value (Object) for each key-value mapping, in key
+     *             order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
+	// Write out the Comparator and any hidden stuff
+	s.defaultWriteObject();
+
+	// Write out size (number of Mappings)
+	s.writeInt(size);
+
+	// Write out keys and values (alternating)
+	for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e)) {
+	    s.writeObject(e.key);
+	    s.writeObject(e.value);
+	}
+    }
+
+    /**
+     * Reconstitute the {@code AVLTreeMap} instance from a stream (i.e.,
+     * deserialize it). The mappings arrive in key order, so the tree is rebuilt
+     * in linear time without comparisons or rotations.
+     */
+    private void readObject(final java.io.ObjectInputStream s) throws java.io.IOException, ClassNotFoundException {
+	// Read in the Comparator and any hidden stuff
+	s.defaultReadObject();
+
+	// Read in size
+	int size = s.readInt();
+	if (size < 0)
+	    throw new java.io.InvalidObjectException("Illegal mappings count: " + size);
+
+	root = buildFromSorted(0, size - 1, null, s);
+	this.size = size;
+    }
+
+    /**
+     * Builds the subtree holding elements {@code lo..hi} of the stream. The
+     * middle element is the root, so the right subtree holds the same number of
+     * elements as the left or one more, and the height of a subtree built this
+     * way depends only on its size. The balance factor follows from the sizes of the two halves.
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> buildFromSorted(int lo, int hi, Entry<K, V> parent, java.io.ObjectInputStream s)
+	    throws java.io.IOException, ClassNotFoundException {
+	if (hi < lo)
+	    return null;
+	int mid = (lo + hi) >>> 1;
+	Entry<K, V> middle = new Entry<>(null, null, parent);
+	middle.left = buildFromSorted(lo, mid - 1, middle, s);
+	middle.key = (K) s.readObject();
+	middle.value = (V) s.readObject();
+	middle.right = buildFromSorted(mid + 1, hi, middle, s);
+	middle.balance = (byte) (builtHeight(hi - mid) - builtHeight(mid - lo));
+	return middle;
+    }
+
+    /**
+     * Height of a subtree of {@code n} entries built by
+     * {@link #buildFromSorted}.
+     */
+    private static int builtHeight(int n) {
+	return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    /**
+     * Returns a map holding the given mappings, built in parallel. The array is
+     * sorted by key with {@link Arrays#parallelSort}, duplicate keys are
+     * dropped keeping the mapping that comes last in the array, as a sequence
+     * of {@code put} calls would, and the tree is then built by fork-join
+     * tasks in the common pool: the middle entry of a range becomes the root
+     * of its subtree while the two halves are built concurrently. Balance factors
+     * follow from the subtree sizes, so after the sort no comparisons or
+     * rotations are needed.
+     *
+     * <p>
+     * The array is reordered and partly overwritten; pass a copy to keep it.
+     *
+     * @param entries
+     *            the mappings, in any order
+     * @throws NullPointerException
+     *             if the array, an element of it or a key is null
+     * @throws ClassCastException
+     *             if the keys are not mutually comparable
+     */
+    public static <K extends Comparable<? super K>, V> AVLTreeMap<K, V> buildParallel(Map.Entry<K, V>[] entries) {
+	Arrays.parallelSort(entries, Map.Entry.comparingByKey());
+	int n = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    if (i + 1 == entries.length || entries[i].getKey().compareTo(entries[i + 1].getKey()) != 0)
+		entries[n++] = entries[i];
+	}
+	AVLTreeMap<K, V> map = new AVLTreeMap<>();
+	if (n > 0)
+	    map.root = ForkJoinPool.commonPool().invoke(new BuildTask<>(entries, 0, n - 1));
+	map.size = n;
+	return map;
+    }
+
+    /**
+     * Returns a map holding the mappings of {@code entries}, which are first
+     * gathered into an array by a parallel stream and then built as by
+     * {@link #buildParallel(Map.Entry[])}.
+     *
+     * @throws NullPointerException
+     *             if an element or a key is null
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> AVLTreeMap<K, V> buildParallel(
+	    Spliterator<? extends Map.Entry<K, V>> entries) {
+	return buildParallel((Map.Entry<K, V>[]) StreamSupport.stream(entries, true).toArray(Map.Entry[]::new));
+    }
+
+    /**
+     * Builds the subtree of {@code a[lo..hi]}, forking the left half while the
+     * range is large enough to be worth a task.
+     */
+    static final class BuildTask<K, V> extends RecursiveTask<Entry<K, V>> {
+	private static final long serialVersionUID = -2415460512383528406L;
+
+	/** ranges smaller than this are built by the thread that reaches them */
+	static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+	final Map.Entry<K, V>[] a;
+	final int lo, hi;
+
+	BuildTask(Map.Entry<K, V>[] a, int lo, int hi) {
+	    this.a = a;
+	    this.lo = lo;
+	    this.hi = hi;
+	}
+
+	protected Entry<K, V> compute() {
+	    if (hi - lo < SEQUENTIAL_THRESHOLD)
+		return buildFromSorted(a, lo, hi, null);
+	    int mid = (lo + hi) >>> 1;
+	    BuildTask<K, V> left = new BuildTask<>(a, lo, mid - 1);
+	    left.fork();
+	    Entry<K, V> middle = new Entry<>(a[mid].getKey(), a[mid].getValue(), null);
+	    middle.right = new BuildTask<>(a, mid + 1, hi).compute();
+	    middle.right.parent = middle;
+	    middle.left = left.join();
+	    middle.left.parent = middle;
+	    middle.balance = (byte) (builtHeight(hi - mid) - builtHeight(mid - lo));
+	    return middle;
+	}
+    }
+
+    /**
+     * Builds the subtree holding {@code a[lo..hi]} in the same shape as
+     * {@link #buildFromSorted(int, int, Entry, java.io.ObjectInputStream)}.
+     */
+    static <K, V> Entry<K, V> buildFromSorted(Map.Entry<K, V>[] a, int lo, int hi, Entry<K, V> parent) {
+	if (hi < lo)
+	    return null;
+	int mid = (lo + hi) >>> 1;
+	Entry<K, V> middle = new Entry<>(a[mid].getKey(), a[mid].getValue(), parent);
+	middle.left = buildFromSorted(a, lo, mid - 1, middle);
+	middle.right = buildFromSorted(a, mid + 1, hi, middle);
+	middle.balance = (byte) (builtHeight(hi - mid) - builtHeight(mid - lo));
+	return middle;
     }
 
     /**
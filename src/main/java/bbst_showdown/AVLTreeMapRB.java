@@ -2,9 +2,13 @@ package bbst_showdown;
 
 import java.util.AbstractMap;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 /**
@@ -85,8 +89,16 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
         putAll(m);
     }
     
+    /**
+     * Returns the height of the tree, -1 if it is empty and 0 for a single
+     * entry, in log(n) time: ranks are heights, so a child one rank below its
+     * parent is on a longest path.
+     */
     public int treeHeight() {
-	return treeHeight(root) - 1;
+	int h = -1;
+	for (Entry<K, V> e = root; e != null; h++)
+	    e = e.left != null && e.left.deltaR == ONE ? e.left : e.right != null && e.right.deltaR == ONE ? e.right : null;
+	return h;
     }
 
     protected int treeHeight(Entry<K, V> node) {
@@ -99,6 +111,23 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
 	return rotations;
     }
 
+    /**
+     * Returns the depth histogram and search path lengths of the tree, taken
+     * in one pass over its entries.
+     */
+    public TreeProfile profile() {
+	return TreeProfile.of(root, e -> e.left, e -> e.right);
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<K, V> cursor() {
+	return new EntryCursor();
+    }
+
     public String toString() {
 	return "Rank balanced AVL tree of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations;
     }
@@ -289,13 +318,19 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
      *         does not permit null keys
      */
     public V put(K key, V value) {
+	return put(key, value, true);
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map. If
+     * {@code replaceOld} is false an existing non-null value is left in place.
+     * Shared by {@link #put(Object, Object)} and
+     * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+     */
+    private V put(K key, V value, boolean replaceOld) {
 	Entry<K, V> t = root;
 	if (t == null) {
-	    compare(key, key); // type (and possibly null) check
-
-	    root = new Entry<>(key, value, null);
-	    size = 1;
-	    modCount++;
+	    addEntryToEmptyMap(key, value);
 	    return null;
 	}
 	int cmp;
@@ -310,8 +345,12 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	} else {
 	    if (key == null)
@@ -325,14 +364,34 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	}
+	addEntry(key, value, parent, cmp < 0);
+	return null;
+    }
+
+    private void addEntryToEmptyMap(K key, V value) {
+	compare(key, key); // type (and possibly null) check
+
+	root = new Entry<>(key, value, null);
+	size = 1;
+	modCount++;
+    }
 
+    /**
+     * Links a new entry below {@code parent}, the last node visited by a failed
+     * search, and rebalances.
+     */
+    private void addEntry(K key, V value, Entry<K, V> parent, boolean addToLeft) {
 	Entry<K, V> e = new Entry<>(key, value, parent);
 	Entry<K, V> sibling;
-	if (cmp < 0) {
+	if (addToLeft) {
 	    parent.left = e;
 	    sibling = parent.right;
 	} else {
@@ -345,8 +404,295 @@ public class AVLTreeMapRB<K, V> extends AbstractMap<K, V> {
 
 	size++;
 	modCount++;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key. Unlike
+     * the default implementation this searches the tree once even when the
+     * mapped value is {@code null}.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+	Entry<K, V> p = getEntry(key);
+	return (p == null ? defaultValue : p.value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+	return put(key, value, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the mapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         mapping function modified this map
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+	Objects.requireNonNull(mappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
+	    } else {
+		return null;
+	    }
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	}
+	newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This method will, on a best-effort basis, throw a
+     * {@link ConcurrentModificationException} if it is detected that the
+     * remapping function modifies this map during computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> oldEntry = getEntry(key);
+	if (oldEntry != null && oldEntry.value != null)
+	    return remapValue(oldEntry, key, remappingFunction);
 	return null;
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
+	    } else {
+		return null;
+	    }
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	}
+	newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Objects.requireNonNull(value);
+	Entry<K, V> t = root;
+	if (t == null) {
+	    addEntryToEmptyMap(key, value);
+	    return value;
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	}
+	addEntry(key, value, parent, cmp < 0);
+	return value;
+    }
+
+    private V callMappingFunctionWithCheck(K key, Function<? super K, ? extends V> mappingFunction) {
+	int mc = modCount;
+	V newValue = mappingFunction.apply(key);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V callRemappingFunctionWithCheck(K key, V oldValue,
+	    BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, oldValue);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V remapValue(Entry<K, V> t, K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	V newValue = callRemappingFunctionWithCheck(key, t.value, remappingFunction);
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
+    private V mergeValue(Entry<K, V> t, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	V oldValue = t.value;
+	V newValue;
+	if (oldValue == null) {
+	    newValue = value;
+	} else {
+	    int mc = modCount;
+	    newValue = remappingFunction.apply(oldValue, value);
+	    if (mc != modCount)
+		throw new ConcurrentModificationException();
+	}
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
     
     /**
 If the path of incremented ranks reaches the root of the tree, then the rebalancing procedure stops.
@@ -652,6 +998,82 @@ If the procedure increases the rank of a node x, so that it becomes equal to the
 	return null;
     }
     
+    /**
+     * Cursor moving over the entries by their parent links, so that a scan
+     * allocates nothing after the cursor itself.
+     */
+    final class EntryCursor implements Cursor<K, V> {
+	Entry<K, V> current;
+	int expectedModCount = modCount;
+
+	private boolean moveTo(Entry<K, V> e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != null;
+	}
+
+	public boolean seek(K key) {
+	    // this map has no navigation methods, so the ceiling search is here
+	    Entry<K, V> p = root, ceiling = null;
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = comparator == null ? (Comparable<? super K>) key : null;
+	    while (p != null) {
+		int cmp = k != null ? k.compareTo(p.key) : comparator.compare(key, p.key);
+		if (cmp < 0) {
+		    ceiling = p;
+		    p = p.left;
+		} else if (cmp > 0) {
+		    p = p.right;
+		} else {
+		    return moveTo(p);
+		}
+	    }
+	    return moveTo(ceiling);
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(getFirstEntry());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(getLastEntry());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean isValid() {
+	    return current != null;
+	}
+
+	public K key() {
+	    return checkedCurrent().key;
+	}
+
+	public V value() {
+	    return checkedCurrent().value;
+	}
+
+	public void reset() {
+	    moveTo(null);
+	}
+
+	private Entry<K, V> checkedCurrent() {
+	    if (current == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
     public void inOrderTraversal(Entry<K, V> x) {
 	if (x == null)
 	    return;
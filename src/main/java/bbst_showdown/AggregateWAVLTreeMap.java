@@ -0,0 +1,802 @@
+package bbst_showdown;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A WAVL tree in which every entry caches an aggregate of its subtree, so that
+ * the aggregate of the mappings in any key range is found in O(log n) time by
+ * {@link #aggregate(Object, Object)}.
+ *
+ * <p>
+ * The aggregate is defined by an {@link Aggregator}: the aggregate of a single
+ * mapping, an identity and an associative {@code combine}. Sums, counts, minima
+ * and maxima are provided; {@code combine} need not be commutative, as
+ * aggregates are always combined in key order.
+ *
+ * <p>
+ * Balancing is {@link WAVLTreeMap}'s rank based insert retracing and its WAVL
+ * delete, which makes at most two rotations. An insert or delete recomputes
+ * the aggregates on the path to the root, one {@code combine} pair per level,
+ * and each rotation recomputes the aggregates of the two entries it moves.
+ * Values are therefore replaced with {@code put}: the entries of
+ * {@link #entrySet()} do not support {@code setValue}.
+ *
+ * @author David McManamon
+ *
+ * @param <K>
+ *            the type of keys maintained by this map
+ * @param <V>
+ *            the type of mapped values
+ * @param <A>
+ *            the type of the aggregate
+ */
+public class AggregateWAVLTreeMap<K, V, A> extends AbstractMap<K, V> {
+
+    /**
+     * A monoid over the mappings of the map: {@code combine} must be
+     * associative and {@code identity()} must be its identity element.
+     */
+    public interface Aggregator<K, V, A> {
+	A identity();
+
+	/** Aggregate of the single mapping {@code key -> value}. */
+	A of(K key, V value);
+
+	A combine(A left, A right);
+
+	static <K, V, A> Aggregator<K, V, A> of(A identity, BiFunction<? super K, ? super V, ? extends A> of,
+		BinaryOperator<A> combine) {
+	    Objects.requireNonNull(of);
+	    Objects.requireNonNull(combine);
+	    return new Aggregator<K, V, A>() {
+		public A identity() {
+		    return identity;
+		}
+
+		public A of(K key, V value) {
+		    return of.apply(key, value);
+		}
+
+		public A combine(A left, A right) {
+		    return combine.apply(left, right);
+		}
+	    };
+	}
+
+	/** Number of mappings. */
+	static <K, V> Aggregator<K, V, Long> count() {
+	    return of(0L, (k, v) -> 1L, Long::sum);
+	}
+
+	static <K, V> Aggregator<K, V, Long> summingLong(ToLongFunction<? super V> f) {
+	    return of(0L, (k, v) -> f.applyAsLong(v), Long::sum);
+	}
+
+	static <K, V> Aggregator<K, V, Double> summingDouble(ToDoubleFunction<? super V> f) {
+	    return of(0.0, (k, v) -> f.applyAsDouble(v), Double::sum);
+	}
+
+	/** Least value, {@code null} for an empty range. */
+	static <K, V> Aggregator<K, V, V> min(Comparator<? super V> comparator) {
+	    return of(null, (k, v) -> v, (a, b) -> a == null ? b : b == null ? a : comparator.compare(b, a) < 0 ? b : a);
+	}
+
+	/** Greatest value, {@code null} for an empty range. */
+	static <K, V> Aggregator<K, V, V> max(Comparator<? super V> comparator) {
+	    return of(null, (k, v) -> v, (a, b) -> a == null ? b : b == null ? a : comparator.compare(b, a) > 0 ? b : a);
+	}
+    }
+
+    private transient Entry<K, V, A> root = null;
+
+    private transient int size = 0;
+
+    /**
+     * The comparator used to maintain order in this tree map, or null if it uses
+     * the natural ordering of its keys.
+     */
+    private final Comparator<? super K> comparator;
+
+    private final Aggregator<? super K, ? super V, A> aggregator;
+
+    private transient int modCount = 0;
+
+    private transient int rotations = 0;
+
+    /**
+     * Constructs an empty map aggregated by {@code aggregator}, using the
+     * natural ordering of its keys.
+     */
+    public AggregateWAVLTreeMap(Aggregator<? super K, ? super V, A> aggregator) {
+	this(aggregator, null);
+    }
+
+    /**
+     * Constructs an empty map aggregated by {@code aggregator}, ordered by
+     * {@code comparator}.
+     */
+    public AggregateWAVLTreeMap(Aggregator<? super K, ? super V, A> aggregator, Comparator<? super K> comparator) {
+	this.aggregator = Objects.requireNonNull(aggregator);
+	this.comparator = comparator;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (Entry<K, V, A> e = root; e != null; e = rank(e.left) >= rank(e.right) ? e.left : e.right)
+	    h++;
+	return h;
+    }
+
+    public boolean containsKey(Object key) {
+	return getEntry(key) != null;
+    }
+
+    public V get(Object key) {
+	Entry<K, V, A> p = getEntry(key);
+	return (p == null ? null : p.value);
+    }
+
+    public V put(K key, V value) {
+	Entry<K, V, A> t = root;
+	if (t == null) {
+	    compare(key, key); // type (and possibly null) check
+	    root = new Entry<>(key, value, null, aggregator.of(key, value));
+	    size = 1;
+	    modCount++;
+	    return null;
+	}
+	int cmp;
+	Entry<K, V, A> parent;
+	do {
+	    parent = t;
+	    cmp = compare(key, t.key);
+	    if (cmp < 0)
+		t = t.left;
+	    else if (cmp > 0)
+		t = t.right;
+	    else {
+		V oldValue = t.value;
+		t.value = value;
+		updateToRoot(t);
+		return oldValue;
+	    }
+	} while (t != null);
+
+	Entry<K, V, A> e = new Entry<>(key, value, parent, aggregator.of(key, value));
+	if (cmp < 0)
+	    parent.left = e;
+	else
+	    parent.right = e;
+	updateToRoot(parent);
+	if (parent.rank == 0) {
+	    parent.rank++;
+	    fixAfterInsert(parent);
+	}
+
+	size++;
+	modCount++;
+	return null;
+    }
+
+    public V remove(Object key) {
+	Entry<K, V, A> p = getEntry(key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = null;
+    }
+
+    /**
+     * Returns the aggregate of all mappings, in O(1) time.
+     */
+    public A aggregate() {
+	return root == null ? aggregator.identity() : root.agg;
+    }
+
+    /**
+     * Returns the aggregate of the mappings with keys from {@code fromKey},
+     * inclusive, to {@code toKey}, exclusive, in O(log n) time.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code fromKey} is greater than {@code toKey}
+     */
+    public A aggregate(K fromKey, K toKey) {
+	return aggregate(fromKey, true, toKey, false);
+    }
+
+    /**
+     * Returns the aggregate of the mappings with keys from {@code fromKey} to
+     * {@code toKey}, in O(log n) time.
+     *
+     * <p>
+     * The search descends to the highest entry in the range, then follows the
+     * paths to either end of the range, combining the cached aggregates of the
+     * subtrees that hang inside it.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code fromKey} is greater than {@code toKey}
+     */
+    public A aggregate(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	if (compare(fromKey, toKey) > 0)
+	    throw new IllegalArgumentException("fromKey > toKey");
+	Entry<K, V, A> split = root;
+	while (split != null) {
+	    if (!aboveFrom(split.key, fromKey, fromInclusive))
+		split = split.right;
+	    else if (!belowTo(split.key, toKey, toInclusive))
+		split = split.left;
+	    else
+		break;
+	}
+	if (split == null)
+	    return aggregator.identity();
+
+	// entries from the left path come in descending order
+	A left = aggregator.identity();
+	for (Entry<K, V, A> x = split.left; x != null;) {
+	    if (aboveFrom(x.key, fromKey, fromInclusive)) {
+		A piece = aggregator.of(x.key, x.value);
+		if (x.right != null)
+		    piece = aggregator.combine(piece, x.right.agg);
+		left = aggregator.combine(piece, left);
+		x = x.left;
+	    } else {
+		x = x.right;
+	    }
+	}
+	A right = aggregator.identity();
+	for (Entry<K, V, A> x = split.right; x != null;) {
+	    if (belowTo(x.key, toKey, toInclusive)) {
+		A piece = aggregator.of(x.key, x.value);
+		if (x.left != null)
+		    piece = aggregator.combine(x.left.agg, piece);
+		right = aggregator.combine(right, piece);
+		x = x.right;
+	    } else {
+		x = x.left;
+	    }
+	}
+	return aggregator.combine(aggregator.combine(left, aggregator.of(split.key, split.value)), right);
+    }
+
+    private boolean aboveFrom(K key, K fromKey, boolean inclusive) {
+	int cmp = compare(key, fromKey);
+	return cmp > 0 || cmp == 0 && inclusive;
+    }
+
+    private boolean belowTo(K key, K toKey, boolean inclusive) {
+	int cmp = compare(key, toKey);
+	return cmp < 0 || cmp == 0 && inclusive;
+    }
+
+    @SuppressWarnings("unchecked")
+    final Entry<K, V, A> getEntry(Object key) {
+	Objects.requireNonNull(key);
+	Entry<K, V, A> p = root;
+	while (p != null) {
+	    int cmp = compare((K) key, p.key);
+	    if (cmp < 0)
+		p = p.left;
+	    else if (cmp > 0)
+		p = p.right;
+	    else
+		return p;
+	}
+	return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    final int compare(K k1, K k2) {
+	return comparator == null ? ((Comparable<? super K>) k1).compareTo(k2) : comparator.compare(k1, k2);
+    }
+
+    /**
+     * Node in the tree, the rank and the aggregate of its subtree beside the
+     * usual links. The value is read only, see the class comment.
+     */
+    static final class Entry<K, V, A> implements Map.Entry<K, V> {
+	K key;
+	V value;
+	Entry<K, V, A> left = null;
+	Entry<K, V, A> right = null;
+	Entry<K, V, A> parent = null;
+	byte rank = 0;
+	A agg;
+
+	Entry(K key, V value, Entry<K, V, A> parent, A agg) {
+	    this.key = key;
+	    this.value = value;
+	    this.parent = parent;
+	    this.agg = agg;
+	}
+
+	public K getKey() {
+	    return key;
+	}
+
+	public V getValue() {
+	    return value;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the aggregates above the entry would go stale
+	 */
+	public V setValue(V value) {
+	    throw new UnsupportedOperationException();
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+
+	    return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+	}
+
+	public int hashCode() {
+	    return Objects.hashCode(key) ^ Objects.hashCode(value);
+	}
+
+	public String toString() {
+	    return key + "=" + value;
+	}
+    }
+
+    /**
+     * Recomputes {@code e.agg} from its own mapping and its children.
+     */
+    private void update(Entry<K, V, A> e) {
+	A agg = aggregator.of(e.key, e.value);
+	if (e.left != null)
+	    agg = aggregator.combine(e.left.agg, agg);
+	if (e.right != null)
+	    agg = aggregator.combine(agg, e.right.agg);
+	e.agg = agg;
+    }
+
+    private void updateToRoot(Entry<K, V, A> e) {
+	for (; e != null; e = e.parent)
+	    update(e);
+    }
+
+    private static byte rank(Entry<?, ?, ?> node) {
+	return (node == null) ? -1 : node.rank;
+    }
+
+    private void fixAfterInsert(Entry<K, V, A> x) {
+	for (Entry<K, V, A> parent = x.parent;
+		parent != null && x.rank + 1 != parent.rank; x.rank++) {
+	    if (parent.left == x) { // new node was added on the left
+		if (needToRotateRight(parent)) {
+		    if (x.left == null || x.rank >= x.left.rank + 2) {
+			x.rank--;
+			x.right.rank++;
+			rotateLeft(x);
+		    }
+		    parent.rank--;
+		    rotateRight(parent);
+		    break;
+		}
+	    } else {
+		if (needToRotateLeft(parent)) {
+		    if (x.right == null || x.rank >= x.right.rank + 2) {
+			x.rank--;
+			x.left.rank++;
+			rotateRight(x);
+		    }
+		    parent.rank--;
+		    rotateLeft(parent);
+		    break;
+		}
+	    }
+	    x = parent;
+	    parent = x.parent;
+	}
+    }
+
+    // check if sibling node has a rank difference of 2
+    private boolean needToRotateLeft(Entry<K, V, A> p) {
+	if (p.left == null) // rank of sibling is -1
+	    return p.rank == 1;
+	return p.rank >= p.left.rank + 2;
+    }
+
+    private boolean needToRotateRight(Entry<K, V, A> p) {
+	if (p.right == null) // rank of sibling is -1
+	    return p.rank == 1;
+	return p.rank >= p.right.rank + 2;
+    }
+
+    /** From CLR */
+    private void rotateLeft(Entry<K, V, A> p) {
+	Entry<K, V, A> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+	r.agg = p.agg; // same mappings in the same order
+	update(p);
+	rotations++;
+    }
+
+    /** From CLR */
+    private void rotateRight(Entry<K, V, A> p) {
+	Entry<K, V, A> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+	l.agg = p.agg; // same mappings in the same order
+	update(p);
+	rotations++;
+    }
+
+    /**
+     * Delete node p, and then rebalance the tree.
+     */
+    private void deleteEntry(Entry<K, V, A> p) {
+	modCount++;
+	size--;
+
+	// If strictly internal, copy predecessor's element to p and then make p
+	// point to predecessor.
+	if (p.left != null && p.right != null) {
+	    Entry<K, V, A> s = predecessor(p);
+	    p.key = s.key;
+	    p.value = s.value;
+	    p = s;
+	}
+
+	Entry<K, V, A> replacement = (p.left != null ? p.left : p.right);
+	Entry<K, V, A> parent = p.parent;
+	if (replacement != null) {
+	    replacement.parent = parent;
+	    if (parent == null) {
+		root = replacement;
+		return;
+	    }
+	} else if (parent == null) { // return if we are the only node.
+	    root = null;
+	    return;
+	}
+
+	Entry<K, V, A> sibling;
+	if (p == parent.left) {
+	    parent.left = replacement;
+	    sibling = parent.right;
+	} else {
+	    parent.right = replacement;
+	    sibling = parent.left;
+	}
+	p.left = p.right = p.parent = null;
+	// the mapping copied from the predecessor lies on this path too
+	updateToRoot(parent);
+
+	if (replacement != null) {
+	    fixAfterDelete(parent, sibling, replacement);
+	} else { // no children, use p as a phantom of rank -1
+	    p.rank--;
+	    fixAfterDelete(parent, sibling, p);
+	}
+    }
+
+    private boolean nodeIsTwoTwo(Entry<K, V, A> node) {
+	if (node == null || node.rank == 0)
+	    return false;
+	if (node.rank == 1)
+	    return node.left == null && node.right == null;
+	return node.left.rank == node.right.rank && node.left.rank + 2 == node.rank;
+    }
+
+    private void fixAfterDelete(Entry<K, V, A> parent, Entry<K, V, A> sibling, Entry<K, V, A> node) {
+	int deltaRank = parent.rank - node.rank;
+	while (deltaRank == 3 || parent.rank == 1 && nodeIsTwoTwo(parent)) {
+	    int deltaRankSibling = (sibling == null) ? parent.rank + 1 : parent.rank - sibling.rank;
+	    if (deltaRankSibling == 2) {
+		parent.rank--; // demote and continue loop
+	    } else {
+		int deltaRankSiblingL = sibling.rank - rank(sibling.left);
+		int deltaRankSiblingR = sibling.rank - rank(sibling.right);
+
+		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
+		    // "double demote" in the orig. paper since both parent & sibling demote
+		    parent.rank--;
+		    sibling.rank--;
+		} else if (parent.right == sibling) { // delete was on the left
+		    if (deltaRankSiblingR == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.left == null)
+			    parent.rank--; // demote parent again
+			rotateLeft(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.left.rank += 2;
+			rotateRight(sibling);
+			rotateLeft(parent);
+		    }
+		    break;
+		} else { // delete was on the right
+		    if (deltaRankSiblingL == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.right == null)
+			    parent.rank--; // demote parent again
+			rotateRight(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.right.rank += 2;
+			rotateLeft(sibling);
+			rotateRight(parent);
+		    }
+		    break;
+		}
+	    }
+
+	    if (parent.parent == null)
+		return;
+	    node = parent;
+	    parent = parent.parent;
+	    sibling = (parent.left == node) ? parent.right : parent.left;
+	    deltaRank = parent.rank - node.rank;
+	}
+    }
+
+    static <K, V, A> Entry<K, V, A> successor(Entry<K, V, A> t) {
+	if (t == null)
+	    return null;
+	else if (t.right != null) {
+	    Entry<K, V, A> p = t.right;
+	    while (p.left != null)
+		p = p.left;
+	    return p;
+	} else {
+	    Entry<K, V, A> p = t.parent;
+	    Entry<K, V, A> ch = t;
+	    while (p != null && ch == p.right) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    static <K, V, A> Entry<K, V, A> predecessor(Entry<K, V, A> t) {
+	if (t == null)
+	    return null;
+	else if (t.left != null) {
+	    Entry<K, V, A> p = t.left;
+	    while (p.right != null)
+		p = p.right;
+	    return p;
+	} else {
+	    Entry<K, V, A> p = t.parent;
+	    Entry<K, V, A> ch = t;
+	    while (p != null && ch == p.left) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<K, V> cursor() {
+	return new EntryCursor();
+    }
+
+    private Entry<K, V, A> getFirstEntry() {
+	Entry<K, V, A> p = root;
+	if (p != null)
+	    while (p.left != null)
+		p = p.left;
+	return p;
+    }
+
+    private Entry<K, V, A> getLastEntry() {
+	Entry<K, V, A> p = root;
+	if (p != null)
+	    while (p.right != null)
+		p = p.right;
+	return p;
+    }
+
+    /**
+     * Returns the entry with the least key greater than or equal to
+     * {@code key}, or null.
+     */
+    private Entry<K, V, A> getCeilingEntry(K key) {
+	Entry<K, V, A> p = root, best = null;
+	while (p != null) {
+	    int cmp = compare(key, p.key);
+	    if (cmp < 0) {
+		best = p;
+		p = p.left;
+	    } else if (cmp > 0) {
+		p = p.right;
+	    } else {
+		return p;
+	    }
+	}
+	return best;
+    }
+
+    final class EntryCursor implements Cursor<K, V> {
+	Entry<K, V, A> current;
+	int expectedModCount = modCount;
+
+	private boolean moveTo(Entry<K, V, A> e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != null;
+	}
+
+	public boolean seek(K key) {
+	    return moveTo(getCeilingEntry(key));
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(getFirstEntry());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(getLastEntry());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean isValid() {
+	    return current != null;
+	}
+
+	public K key() {
+	    return checkedCurrent().key;
+	}
+
+	public V value() {
+	    return checkedCurrent().value;
+	}
+
+	public void reset() {
+	    moveTo(null);
+	}
+
+	private Entry<K, V, A> checkedCurrent() {
+	    if (current == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
+    private transient EntrySet entrySet;
+
+    /**
+     * Returns a view of the mappings in key order. Its iterator supports
+     * removal; its entries do not support {@code setValue}.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+	public Iterator<Map.Entry<K, V>> iterator() {
+	    Entry<K, V, A> first = root;
+	    if (first != null)
+		while (first.left != null)
+		    first = first.left;
+	    return new EntryIterator(first);
+	}
+
+	public int size() {
+	    return AggregateWAVLTreeMap.this.size();
+	}
+
+	public void clear() {
+	    AggregateWAVLTreeMap.this.clear();
+	}
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+	Entry<K, V, A> next;
+	Entry<K, V, A> lastReturned;
+	int expectedModCount;
+
+	EntryIterator(Entry<K, V, A> first) {
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	    next = first;
+	}
+
+	public boolean hasNext() {
+	    return next != null;
+	}
+
+	public Map.Entry<K, V> next() {
+	    Entry<K, V, A> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // an entry with two children takes its predecessor's mapping, which
+	    // has been returned already, so next is not moved
+	    deleteEntry(lastReturned);
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	}
+    }
+}
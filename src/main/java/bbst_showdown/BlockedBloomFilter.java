@@ -0,0 +1,118 @@
+package bbst_showdown;
+
+/**
+ * A Bloom filter split into 512-bit blocks, one cache line each. A key's hash
+ * selects one block and sets or tests all of its bits inside it, so a query
+ * touches a single cache line instead of one per hash function. The price is a
+ * slightly higher false positive rate than a classic filter of the same size,
+ * about 1-2% at the ten bits per key used here.
+ *
+ * <p>
+ * Keys are hashed with {@link Object#hashCode()}, so the filter is only valid
+ * for maps whose ordering is consistent with equals: two keys that compare
+ * equal must have the same hash code.
+ *
+ * <p>
+ * The filter also counts the lookups it answered: definite misses, lookups
+ * that went on to find the key, and false positives that searched the tree in
+ * vain.
+ *
+ * @author David McManamon
+ */
+public final class BlockedBloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 6;
+    private static final int WORDS_PER_BLOCK = 8; // 8 * 64 bits = one 64 byte cache line
+
+    private final long[] words;
+    private final int blocks;
+
+    /** number of keys the filter was sized for */
+    final int capacity;
+    /** keys added since the filter was built, including removed ones */
+    int count;
+
+    long negatives;
+    long hits;
+    long falsePositives;
+
+    BlockedBloomFilter(int capacity) {
+	this.capacity = Math.max(capacity, 64);
+	blocks = (int) (((long) this.capacity * BITS_PER_KEY + 511) / 512);
+	words = new long[blocks * WORDS_PER_BLOCK];
+    }
+
+    void add(Object key) {
+	long h = hash(key);
+	int base = block(h);
+	int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+	for (int i = 0; i < HASHES; i++) {
+	    int bit = (h1 + i * h2) & 511;
+	    words[base + (bit >>> 6)] |= 1L << bit;
+	}
+	count++;
+    }
+
+    boolean mightContain(Object key) {
+	long h = hash(key);
+	int base = block(h);
+	int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+	for (int i = 0; i < HASHES; i++) {
+	    int bit = (h1 + i * h2) & 511;
+	    if ((words[base + (bit >>> 6)] & (1L << bit)) == 0)
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * Index of the first word of the key's block, chosen by the high bits of
+     * the hash with a multiply-shift instead of a modulo.
+     */
+    private int block(long h) {
+	return (int) (((h >>> 32) * blocks) >>> 32) * WORDS_PER_BLOCK;
+    }
+
+    /**
+     * Spreads {@code hashCode()} over 64 bits (MurmurHash3 finalizer) so that
+     * sequential integer keys do not land in neighbouring bit patterns.
+     */
+    private static long hash(Object key) {
+	long h = key == null ? 0 : key.hashCode();
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+    /**
+     * Number of lookups the filter answered as definite misses without
+     * searching the tree.
+     */
+    public long negatives() {
+	return negatives;
+    }
+
+    /**
+     * Number of lookups the filter passed on that found the key.
+     */
+    public long hits() {
+	return hits;
+    }
+
+    /**
+     * Number of lookups the filter passed on that did not find the key.
+     */
+    public long falsePositives() {
+	return falsePositives;
+    }
+
+    public String toString() {
+	long lookups = negatives + hits + falsePositives;
+	return "Blocked bloom filter of " + blocks + " blocks, lookups " + lookups + ", negatives " + negatives
+		+ ", hits " + hits + ", false positives " + falsePositives;
+    }
+}
@@ -0,0 +1,561 @@
+package bbst_showdown;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A WAVL tree keyed by byte arrays in unsigned lexicographic order, the order
+ * of {@link #compareUnsigned(byte[], byte[])}, as used by most binary key
+ * formats.
+ *
+ * <p>
+ * Every entry caches the first eight bytes of its key as a big-endian
+ * {@code long}, zero padded, so that unsigned order on the prefixes agrees with
+ * the order on the keys. A search computes the prefix of the probe once and
+ * compares it with the cached prefix at each level: the key array is only read
+ * when the prefixes are equal, and then from the eighth byte on, eight bytes at
+ * a time through {@link ByteBuffer#getLong(int)}.
+ *
+ * <p>
+ * The map does not copy its keys: a key array must not be modified while it is
+ * in the map. Lookups compare contents, so an equal array finds the mapping.
+ * Balancing is {@link WAVLTreeMap}'s rank based insert retracing and its WAVL
+ * delete.
+ *
+ * @author David McManamon
+ *
+ * @param <V>
+ *            the type of mapped values
+ */
+public class ByteArrayWAVLMap<V> extends AbstractMap<byte[], V> {
+
+    private transient Entry<V> root = null;
+
+    private transient int size = 0;
+
+    private transient int modCount = 0;
+
+    private transient int rotations = 0;
+
+    /**
+     * Returns the first eight bytes of {@code key} as a big-endian long, padded
+     * with zero bytes if the key is shorter.
+     */
+    public static long prefixOf(byte[] key) {
+	if (key.length >= 8)
+	    return ByteBuffer.wrap(key).getLong(0);
+	long p = 0;
+	for (int i = 0; i < key.length; i++)
+	    p |= (key[i] & 0xffL) << (56 - 8 * i);
+	return p;
+    }
+
+    /**
+     * Compares two byte arrays lexicographically, treating the bytes as
+     * unsigned; a proper prefix of an array is less than the array.
+     */
+    public static int compareUnsigned(byte[] a, byte[] b) {
+	return compareUnsigned(a, b, 0);
+    }
+
+    /**
+     * Compares {@code a} and {@code b} from index {@code from}, where the bytes
+     * before it are known to be equal.
+     */
+    private static int compareUnsigned(byte[] a, byte[] b, int from) {
+	if (a == b)
+	    return 0;
+	int n = Math.min(a.length, b.length);
+	int i = from;
+	if (n - i >= 8) {
+	    ByteBuffer wa = ByteBuffer.wrap(a), wb = ByteBuffer.wrap(b);
+	    for (; i <= n - 8; i += 8) {
+		long x = wa.getLong(i), y = wb.getLong(i);
+		if (x != y)
+		    return Long.compareUnsigned(x, y);
+	    }
+	}
+	for (; i < n; i++) {
+	    int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+	    if (cmp != 0)
+		return cmp;
+	}
+	return a.length - b.length;
+    }
+
+    /**
+     * Compares {@code key}, whose prefix is {@code prefix}, with the key of
+     * {@code e}.
+     */
+    private static int compare(byte[] key, long prefix, Entry<?> e) {
+	if (prefix != e.prefix)
+	    return Long.compareUnsigned(prefix, e.prefix);
+	// equal prefixes: the first min(8, length) bytes of both keys agree
+	return compareUnsigned(key, e.key, Math.min(8, Math.min(key.length, e.key.length)));
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (Entry<V> e = root; e != null; e = rank(e.left) >= rank(e.right) ? e.left : e.right)
+	    h++;
+	return h;
+    }
+
+    public boolean containsKey(Object key) {
+	return getEntry(key) != null;
+    }
+
+    public V get(Object key) {
+	Entry<V> p = getEntry(key);
+	return (p == null ? null : p.value);
+    }
+
+    public V put(byte[] key, V value) {
+	long prefix = prefixOf(key); // null check
+	Entry<V> t = root;
+	if (t == null) {
+	    root = new Entry<>(key, prefix, value, null);
+	    size = 1;
+	    modCount++;
+	    return null;
+	}
+	int cmp;
+	Entry<V> parent;
+	do {
+	    parent = t;
+	    cmp = compare(key, prefix, t);
+	    if (cmp < 0)
+		t = t.left;
+	    else if (cmp > 0)
+		t = t.right;
+	    else
+		return t.setValue(value);
+	} while (t != null);
+
+	Entry<V> e = new Entry<>(key, prefix, value, parent);
+	if (cmp < 0)
+	    parent.left = e;
+	else
+	    parent.right = e;
+	if (parent.rank == 0) {
+	    parent.rank++;
+	    fixAfterInsert(parent);
+	}
+
+	size++;
+	modCount++;
+	return null;
+    }
+
+    public V remove(Object key) {
+	Entry<V> p = getEntry(key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = null;
+    }
+
+    /**
+     * @throws ClassCastException
+     *             if {@code key} is not a byte array
+     */
+    final Entry<V> getEntry(Object key) {
+	byte[] k = (byte[]) Objects.requireNonNull(key);
+	long prefix = prefixOf(k);
+	Entry<V> p = root;
+	while (p != null) {
+	    int cmp = compare(k, prefix, p);
+	    if (cmp < 0)
+		p = p.left;
+	    else if (cmp > 0)
+		p = p.right;
+	    else
+		return p;
+	}
+	return null;
+    }
+
+    /**
+     * Node in the tree: the key, its cached prefix and the rank beside the usual
+     * links.
+     */
+    static final class Entry<V> implements Map.Entry<byte[], V> {
+	byte[] key;
+	long prefix;
+	V value;
+	Entry<V> left = null;
+	Entry<V> right = null;
+	Entry<V> parent = null;
+	byte rank = 0;
+
+	Entry(byte[] key, long prefix, V value, Entry<V> parent) {
+	    this.key = key;
+	    this.prefix = prefix;
+	    this.value = value;
+	    this.parent = parent;
+	}
+
+	public byte[] getKey() {
+	    return key;
+	}
+
+	public V getValue() {
+	    return value;
+	}
+
+	public V setValue(V value) {
+	    V oldValue = this.value;
+	    this.value = value;
+	    return oldValue;
+	}
+
+	/**
+	 * Keys are compared by content.
+	 */
+	public boolean equals(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+	    Object k = e.getKey();
+
+	    return k instanceof byte[] && Arrays.equals(key, (byte[]) k) && Objects.equals(value, e.getValue());
+	}
+
+	public int hashCode() {
+	    return Arrays.hashCode(key) ^ Objects.hashCode(value);
+	}
+
+	public String toString() {
+	    return Arrays.toString(key) + "=" + value;
+	}
+    }
+
+    private static byte rank(Entry<?> node) {
+	return (node == null) ? -1 : node.rank;
+    }
+
+    private void fixAfterInsert(Entry<V> x) {
+	for (Entry<V> parent = x.parent;
+		parent != null && x.rank + 1 != parent.rank; x.rank++) {
+	    if (parent.left == x) { // new node was added on the left
+		if (needToRotateRight(parent)) {
+		    if (x.left == null || x.rank >= x.left.rank + 2) {
+			x.rank--;
+			x.right.rank++;
+			rotateLeft(x);
+		    }
+		    parent.rank--;
+		    rotateRight(parent);
+		    break;
+		}
+	    } else {
+		if (needToRotateLeft(parent)) {
+		    if (x.right == null || x.rank >= x.right.rank + 2) {
+			x.rank--;
+			x.left.rank++;
+			rotateRight(x);
+		    }
+		    parent.rank--;
+		    rotateLeft(parent);
+		    break;
+		}
+	    }
+	    x = parent;
+	    parent = x.parent;
+	}
+    }
+
+    // check if sibling node has a rank difference of 2
+    private boolean needToRotateLeft(Entry<V> p) {
+	if (p.left == null) // rank of sibling is -1
+	    return p.rank == 1;
+	return p.rank >= p.left.rank + 2;
+    }
+
+    private boolean needToRotateRight(Entry<V> p) {
+	if (p.right == null) // rank of sibling is -1
+	    return p.rank == 1;
+	return p.rank >= p.right.rank + 2;
+    }
+
+    /** From CLR */
+    private void rotateLeft(Entry<V> p) {
+	Entry<V> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+	rotations++;
+    }
+
+    /** From CLR */
+    private void rotateRight(Entry<V> p) {
+	Entry<V> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+	rotations++;
+    }
+
+    /**
+     * Delete node p, and then rebalance the tree.
+     */
+    private void deleteEntry(Entry<V> p) {
+	modCount++;
+	size--;
+
+	// If strictly internal, copy predecessor's element to p and then make p
+	// point to predecessor.
+	if (p.left != null && p.right != null) {
+	    Entry<V> s = predecessor(p);
+	    p.key = s.key;
+	    p.prefix = s.prefix;
+	    p.value = s.value;
+	    p = s;
+	}
+
+	Entry<V> replacement = (p.left != null ? p.left : p.right);
+	Entry<V> parent = p.parent;
+	if (replacement != null) {
+	    replacement.parent = parent;
+	    if (parent == null) {
+		root = replacement;
+		return;
+	    }
+	} else if (parent == null) { // return if we are the only node.
+	    root = null;
+	    return;
+	}
+
+	Entry<V> sibling;
+	if (p == parent.left) {
+	    parent.left = replacement;
+	    sibling = parent.right;
+	} else {
+	    parent.right = replacement;
+	    sibling = parent.left;
+	}
+	p.left = p.right = p.parent = null;
+
+	if (replacement != null) {
+	    fixAfterDelete(parent, sibling, replacement);
+	} else { // no children, use p as a phantom of rank -1
+	    p.rank--;
+	    fixAfterDelete(parent, sibling, p);
+	}
+    }
+
+    private boolean nodeIsTwoTwo(Entry<V> node) {
+	if (node == null || node.rank == 0)
+	    return false;
+	if (node.rank == 1)
+	    return node.left == null && node.right == null;
+	return node.left.rank == node.right.rank && node.left.rank + 2 == node.rank;
+    }
+
+    private void fixAfterDelete(Entry<V> parent, Entry<V> sibling, Entry<V> node) {
+	int deltaRank = parent.rank - node.rank;
+	while (deltaRank == 3 || parent.rank == 1 && nodeIsTwoTwo(parent)) {
+	    int deltaRankSibling = (sibling == null) ? parent.rank + 1 : parent.rank - sibling.rank;
+	    if (deltaRankSibling == 2) {
+		parent.rank--; // demote and continue loop
+	    } else {
+		int deltaRankSiblingL = sibling.rank - rank(sibling.left);
+		int deltaRankSiblingR = sibling.rank - rank(sibling.right);
+
+		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
+		    // "double demote" in the orig. paper since both parent & sibling demote
+		    parent.rank--;
+		    sibling.rank--;
+		} else if (parent.right == sibling) { // delete was on the left
+		    if (deltaRankSiblingR == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.left == null)
+			    parent.rank--; // demote parent again
+			rotateLeft(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.left.rank += 2;
+			rotateRight(sibling);
+			rotateLeft(parent);
+		    }
+		    break;
+		} else { // delete was on the right
+		    if (deltaRankSiblingL == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.right == null)
+			    parent.rank--; // demote parent again
+			rotateRight(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.right.rank += 2;
+			rotateLeft(sibling);
+			rotateRight(parent);
+		    }
+		    break;
+		}
+	    }
+
+	    if (parent.parent == null)
+		return;
+	    node = parent;
+	    parent = parent.parent;
+	    sibling = (parent.left == node) ? parent.right : parent.left;
+	    deltaRank = parent.rank - node.rank;
+	}
+    }
+
+    static <V> Entry<V> successor(Entry<V> t) {
+	if (t == null)
+	    return null;
+	else if (t.right != null) {
+	    Entry<V> p = t.right;
+	    while (p.left != null)
+		p = p.left;
+	    return p;
+	} else {
+	    Entry<V> p = t.parent;
+	    Entry<V> ch = t;
+	    while (p != null && ch == p.right) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    static <V> Entry<V> predecessor(Entry<V> t) {
+	if (t == null)
+	    return null;
+	else if (t.left != null) {
+	    Entry<V> p = t.left;
+	    while (p.right != null)
+		p = p.right;
+	    return p;
+	} else {
+	    Entry<V> p = t.parent;
+	    Entry<V> ch = t;
+	    while (p != null && ch == p.left) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    private transient EntrySet entrySet;
+
+    /**
+     * Returns a view of the mappings in key order. Its iterator supports
+     * removal.
+     */
+    public Set<Map.Entry<byte[], V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<byte[], V>> {
+	public Iterator<Map.Entry<byte[], V>> iterator() {
+	    Entry<V> first = root;
+	    if (first != null)
+		while (first.left != null)
+		    first = first.left;
+	    return new EntryIterator(first);
+	}
+
+	public int size() {
+	    return ByteArrayWAVLMap.this.size();
+	}
+
+	public void clear() {
+	    ByteArrayWAVLMap.this.clear();
+	}
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<byte[], V>> {
+	Entry<V> next;
+	Entry<V> lastReturned;
+	int expectedModCount;
+
+	EntryIterator(Entry<V> first) {
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	    next = first;
+	}
+
+	public boolean hasNext() {
+	    return next != null;
+	}
+
+	public Map.Entry<byte[], V> next() {
+	    Entry<V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // an entry with two children takes its predecessor's mapping, which
+	    // has been returned already, so next is not moved
+	    deleteEntry(lastReturned);
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	}
+    }
+}
@@ -0,0 +1,110 @@
+package bbst_showdown;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * A movable position in a sorted map, for range scans that allocate nothing.
+ *
+ * <p>
+ * Unlike an iterator, a cursor is not used up: it is created once with the
+ * map's {@code cursor()} method and can then be placed again by any of its
+ * seek methods for every scan, so hot loops can keep one per thread or take
+ * them from a pool. Keys and values are read through {@link #key()} and
+ * {@link #value()} instead of entry objects.
+ *
+ * <pre>
+ * for (boolean ok = cursor.seek(from); ok &amp;&amp; cursor.key() &lt; to; ok = cursor.next())
+ *     sum += cursor.value();
+ * </pre>
+ *
+ * <p>
+ * A cursor is fail-fast like the map's iterators: after a structural
+ * modification of the map, other than through the cursor, moving or reading it
+ * throws {@link ConcurrentModificationException} until it is placed again by a
+ * seek method or {@link #reset()}.
+ *
+ * @author David McManamon
+ *
+ * @param <K>
+ *            the type of keys maintained by the map
+ * @param <V>
+ *            the type of mapped values
+ */
+public interface Cursor<K, V> {
+
+    /**
+     * Moves to the entry with the least key greater than or equal to
+     * {@code key}.
+     *
+     * @return whether there is such an entry; if not the cursor is invalid
+     */
+    boolean seek(K key);
+
+    /**
+     * Moves to the entry with the least key.
+     *
+     * @return whether the map has entries; if not the cursor is invalid
+     */
+    boolean seekFirst();
+
+    /**
+     * Moves to the entry with the greatest key.
+     *
+     * @return whether the map has entries; if not the cursor is invalid
+     */
+    boolean seekLast();
+
+    /**
+     * Moves to the next entry in key order.
+     *
+     * @return whether there is one; if not the cursor is invalid
+     * @throws NoSuchElementException
+     *             if the cursor is invalid
+     * @throws ConcurrentModificationException
+     *             if the map was modified since the cursor was placed
+     */
+    boolean next();
+
+    /**
+     * Moves to the previous entry in key order.
+     *
+     * @return whether there is one; if not the cursor is invalid
+     * @throws NoSuchElementException
+     *             if the cursor is invalid
+     * @throws ConcurrentModificationException
+     *             if the map was modified since the cursor was placed
+     */
+    boolean prev();
+
+    /**
+     * Returns whether the cursor is on an entry.
+     */
+    boolean isValid();
+
+    /**
+     * Returns the key of the entry the cursor is on.
+     *
+     * @throws NoSuchElementException
+     *             if the cursor is invalid
+     * @throws ConcurrentModificationException
+     *             if the map was modified since the cursor was placed
+     */
+    K key();
+
+    /**
+     * Returns the value of the entry the cursor is on.
+     *
+     * @throws NoSuchElementException
+     *             if the cursor is invalid
+     * @throws ConcurrentModificationException
+     *             if the map was modified since the cursor was placed
+     */
+    V value();
+
+    /**
+     * Makes the cursor invalid and forgets its entry, so that a pooled cursor
+     * does not keep removed entries reachable.
+     */
+    void reset();
+}
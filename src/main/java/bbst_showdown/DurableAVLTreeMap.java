@@ -0,0 +1,548 @@
+package bbst_showdown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link AVLTreeMap} whose mutations are recorded in an append-only
+ * write-ahead log so the map survives a restart.
+ *
+ * <p>
+ * Every {@code put}, {@code remove} and {@code clear} appends a record to an
+ * in-memory buffer that is written to the log's {@link FileChannel} in large
+ * sequential writes. How often the log is forced to disk is set by {@code syncEvery}:
+ * <ul>
+ * <li>{@code 1} - every mutation is durable when it returns. Concurrent writers
+ * share fsyncs (group commit): a writer that finds another one forcing the
+ * channel waits for it, and usually finds its own record already covered.</li>
+ * <li>{@code n > 1} - the log is forced once every {@code n} records, so up to
+ * {@code n - 1} acknowledged mutations can be lost in a crash.</li>
+ * <li>{@code 0} - the log is only forced by {@link #sync()} and
+ * {@link #close()}.</li>
+ * </ul>
+ *
+ * <p>
+ * Records are {@code length, crc32, payload}. On open the log is replayed and a
+ * torn record at the tail, left by a crash in the middle of a write, is cut
+ * off. Replay folds large chunks of records down to the last record of each
+ * key and applies the result with the finger search batch operations
+ * {@link AVLTreeMap#putAll(Object[], Object[])} and
+ * {@link AVLTreeMap#removeAll(Object[])} instead of one root-to-leaf search per
+ * record.
+ *
+ * <p>
+ * All map operations are synchronized on this map. Views are read only, and
+ * iterating over them requires holding the lock as for
+ * {@link Collections#synchronizedMap(Map)}. The log is never compacted.
+ *
+ * @author David McManamon
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class DurableAVLTreeMap<K, V> extends AbstractMap<K, V> implements Closeable {
+
+    /**
+     * Writes and reads keys or values in the log.
+     */
+    public interface Codec<T> {
+	void write(DataOutput out, T value) throws IOException;
+
+	T read(DataInput in) throws IOException;
+
+	Codec<Integer> INTEGER = new Codec<Integer>() {
+	    public void write(DataOutput out, Integer value) throws IOException {
+		out.writeInt(value);
+	    }
+
+	    public Integer read(DataInput in) throws IOException {
+		return in.readInt();
+	    }
+	};
+
+	Codec<Long> LONG = new Codec<Long>() {
+	    public void write(DataOutput out, Long value) throws IOException {
+		out.writeLong(value);
+	    }
+
+	    public Long read(DataInput in) throws IOException {
+		return in.readLong();
+	    }
+	};
+
+	Codec<String> STRING = new Codec<String>() {
+	    public void write(DataOutput out, String value) throws IOException {
+		out.writeUTF(value);
+	    }
+
+	    public String read(DataInput in) throws IOException {
+		return in.readUTF();
+	    }
+	};
+    }
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    /** record header: payload length and CRC32 of the payload */
+    private static final int HEADER = 8;
+
+    /** buffered records are written to the channel once this many bytes are pending */
+    private static final int WRITE_THRESHOLD = 1 << 16;
+
+    /** number of records folded together before they are applied during replay */
+    private static final int REPLAY_BATCH = 1 << 18;
+
+    private final AVLTreeMap<K, V> tree = new AVLTreeMap<>();
+    private final FileChannel channel;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int syncEvery;
+
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+
+    /** log offset just past the last appended record, guarded by this */
+    private long appended;
+    /** log offset at which the buffer will be written, guarded by this */
+    private long written;
+    /** records appended since the last fsync, guarded by this */
+    private int unsynced;
+
+    private final Object syncLock = new Object();
+    /** log offset up to which the log is known to be on disk, guarded by syncLock */
+    private long durable;
+
+    /**
+     * Opens the log at {@code path}, creating it if necessary, and replays it
+     * into a new map.
+     *
+     * @param path
+     *            the log file
+     * @param keyCodec
+     *            encodes keys, which must be {@link Comparable}
+     * @param valueCodec
+     *            encodes values, which must not be null
+     * @param syncEvery
+     *            number of records between fsyncs, or 0 to only sync on
+     *            request
+     * @throws IOException
+     *             if the log cannot be opened or read
+     */
+    public DurableAVLTreeMap(Path path, Codec<K> keyCodec, Codec<V> valueCodec, int syncEvery) throws IOException {
+	if (syncEvery < 0)
+	    throw new IllegalArgumentException("syncEvery: " + syncEvery);
+	this.keyCodec = keyCodec;
+	this.valueCodec = valueCodec;
+	this.syncEvery = syncEvery;
+	channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+		StandardOpenOption.WRITE);
+	try {
+	    appended = written = durable = replay();
+	    channel.truncate(appended);
+	    channel.position(appended);
+	} catch (IOException | RuntimeException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    public synchronized V get(Object key) {
+	return tree.get(key);
+    }
+
+    public synchronized boolean containsKey(Object key) {
+	return tree.getEntry(key) != null;
+    }
+
+    public synchronized int size() {
+	return tree.size();
+    }
+
+    public synchronized Set<Map.Entry<K, V>> entrySet() {
+	return Collections.unmodifiableSet(tree.entrySet());
+    }
+
+    /**
+     * Logs and applies the mapping. Depending on {@code syncEvery} the record is
+     * on disk when this method returns.
+     *
+     * @throws NullPointerException
+     *             if the key or value is null
+     * @throws UncheckedIOException
+     *             if the log cannot be written
+     */
+    public V put(K key, V value) {
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	long lsn;
+	V oldValue;
+	synchronized (this) {
+	    tree.compare(key, key); // type check before the record is logged
+	    lsn = append(PUT, key, value);
+	    oldValue = tree.put(key, value);
+	}
+	commit(lsn);
+	return oldValue;
+    }
+
+    /**
+     * Logs and applies the removal of {@code key}. Nothing is logged if the key
+     * is not mapped.
+     *
+     * @throws UncheckedIOException
+     *             if the log cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+	long lsn;
+	V oldValue;
+	synchronized (this) {
+	    if (tree.getEntry(key) == null)
+		return null;
+	    lsn = append(REMOVE, (K) key, null);
+	    oldValue = tree.remove(key);
+	}
+	commit(lsn);
+	return oldValue;
+    }
+
+    /**
+     * Logs and applies the removal of every mapping.
+     *
+     * @throws UncheckedIOException
+     *             if the log cannot be written
+     */
+    public void clear() {
+	long lsn;
+	synchronized (this) {
+	    lsn = append(CLEAR, null, null);
+	    tree.clear();
+	}
+	commit(lsn);
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     *
+     * @throws IOException
+     *             if the log cannot be written
+     */
+    public void sync() throws IOException {
+	long lsn;
+	synchronized (this) {
+	    lsn = appended;
+	}
+	force(lsn);
+    }
+
+    /**
+     * Syncs and closes the log. The map must not be used afterwards.
+     */
+    public void close() throws IOException {
+	synchronized (syncLock) {
+	    if (!channel.isOpen())
+		return;
+	    try {
+		sync();
+	    } finally {
+		channel.close();
+	    }
+	}
+    }
+
+    public String toString() {
+	return "Durable " + tree;
+    }
+
+    /**
+     * Encodes a record into the buffer and returns the log offset just past it.
+     * Called with this map locked. If encoding or writing fails the record is
+     * dropped, so a half-written record cannot end the log on replay.
+     */
+    private long append(byte type, K key, V value) {
+	int start = buffer.size();
+	try {
+	    buffer.skip(HEADER);
+	    out.writeByte(type);
+	    if (type != CLEAR)
+		keyCodec.write(out, key);
+	    if (type == PUT)
+		valueCodec.write(out, value);
+	    int length = buffer.size() - start - HEADER;
+	    crc.reset();
+	    crc.update(buffer.array(), start + HEADER, length);
+	    buffer.putInt(start, length);
+	    buffer.putInt(start + 4, (int) crc.getValue());
+	    if (buffer.size() >= WRITE_THRESHOLD)
+		writeBuffer();
+	    appended += HEADER + length;
+	} catch (IOException | RuntimeException e) {
+	    // drop the failed record, the records before it stay buffered
+	    buffer.truncate(start);
+	    throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+	}
+	if (syncEvery > 0 && ++unsynced >= syncEvery) {
+	    unsynced = 0;
+	    return appended;
+	}
+	return -1;
+    }
+
+
+    /**
+     * Makes the log durable up to {@code lsn}, or does nothing if {@code lsn} is
+     * negative because the sync policy does not require it.
+     */
+    private void commit(long lsn) {
+	if (lsn < 0)
+	    return;
+	try {
+	    force(lsn);
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    /**
+     * Group commit: writers that need a sync queue on {@code syncLock}. The one
+     * holding it writes out everything buffered so far and forces the channel
+     * once, so the writers queued behind it usually find their records already
+     * durable and return without another fsync.
+     */
+    private void force(long lsn) throws IOException {
+	synchronized (syncLock) {
+	    if (durable >= lsn)
+		return;
+	    long target;
+	    synchronized (this) {
+		writeBuffer();
+		target = appended;
+	    }
+	    // appends continue while the disk works
+	    channel.force(false);
+	    durable = target;
+	}
+    }
+
+    /**
+     * Writes out the buffered records. If the write fails part of the way, the
+     * bytes already written are cut off and the records stay buffered, to be
+     * written again at the same offset, so the log never has a torn record in
+     * the middle. Called with this map locked.
+     */
+    private void writeBuffer() throws IOException {
+	ByteBuffer bb = ByteBuffer.wrap(buffer.array(), 0, buffer.size());
+	try {
+	    while (bb.hasRemaining())
+		channel.write(bb);
+	} catch (IOException | RuntimeException e) {
+	    try {
+		channel.truncate(written);
+		channel.position(written);
+	    } catch (IOException suppressed) {
+		e.addSuppressed(suppressed);
+	    }
+	    throw e;
+	}
+	written += buffer.size();
+	buffer.reset();
+    }
+
+    /**
+     * Replays the log into the tree and returns the offset just past the last
+     * intact record. The log is read in large chunks and records are decoded in
+     * place.
+     */
+    private long replay() throws IOException {
+	ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+	chunk.flip();
+	RecordReader reader = new RecordReader();
+	DataInputStream payload = new DataInputStream(reader);
+	Batch batch = new Batch();
+	long good = 0;
+	long logSize = channel.size();
+	channel.position(0);
+	while (true) {
+	    if ((chunk = fill(chunk, HEADER)) == null)
+		break;
+	    int length = chunk.getInt(chunk.position());
+	    int checksum = chunk.getInt(chunk.position() + 4);
+	    if (length <= 0 || length > logSize - good - HEADER)
+		break;
+	    if ((chunk = fill(chunk, HEADER + length)) == null)
+		break;
+	    int offset = chunk.position() + HEADER;
+	    crc.reset();
+	    crc.update(chunk.array(), offset, length);
+	    if ((int) crc.getValue() != checksum)
+		break;
+
+	    reader.reset(chunk.array(), offset, length);
+	    byte type = payload.readByte();
+	    if (type == PUT)
+		batch.add(keyCodec.read(payload), valueCodec.read(payload));
+	    else if (type == REMOVE)
+		batch.add(keyCodec.read(payload), null);
+	    else if (type == CLEAR)
+		batch.clear();
+	    else
+		break;
+	    chunk.position(offset + length);
+	    good += HEADER + length;
+	}
+	batch.apply();
+	return good;
+    }
+
+    /**
+     * Makes sure {@code chunk} holds at least {@code needed} unread bytes,
+     * reading more of the log and growing the buffer if necessary. Returns the
+     * buffer to use from now on, or null at the end of the log.
+     */
+    private ByteBuffer fill(ByteBuffer chunk, int needed) throws IOException {
+	if (chunk.remaining() >= needed)
+	    return chunk;
+	if (chunk.capacity() < needed) {
+	    ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, chunk.capacity() * 2));
+	    larger.put(chunk);
+	    chunk = larger;
+	} else {
+	    chunk.compact();
+	}
+	while (chunk.position() < needed) {
+	    if (channel.read(chunk) < 0) {
+		chunk.flip();
+		return null;
+	    }
+	}
+	chunk.flip();
+	return chunk;
+    }
+
+    /**
+     * Collects a chunk of records and applies only the net effect of each key:
+     * records for different keys commute, so after a stable sort by key the last
+     * record of every key decides whether it is put or removed. The survivors are
+     * applied as two sorted batches.
+     */
+    private final class Batch {
+	final List<Record<K, V>> records = new ArrayList<>();
+	final Comparator<Record<K, V>> byKey = (a, b) -> tree.compare(a.key, b.key);
+
+	void add(K key, V value) {
+	    if (records.size() == REPLAY_BATCH)
+		apply();
+	    records.add(new Record<>(key, value));
+	}
+
+	/** A clear record voids everything logged before it. */
+	void clear() {
+	    records.clear();
+	    tree.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	void apply() {
+	    int n = records.size();
+	    if (n == 0)
+		return;
+	    // List.sort is a stable merge sort
+	    records.sort(byKey);
+
+	    List<K> putKeys = new ArrayList<>(), removeKeys = new ArrayList<>();
+	    List<V> putValues = new ArrayList<>();
+	    for (int i = 0; i < n; i++) {
+		Record<K, V> last = records.get(i);
+		if (i + 1 < n && byKey.compare(last, records.get(i + 1)) == 0)
+		    continue;
+		if (last.value != null) {
+		    putKeys.add(last.key);
+		    putValues.add(last.value);
+		} else {
+		    removeKeys.add(last.key);
+		}
+	    }
+	    tree.putAll((K[]) putKeys.toArray(), (V[]) putValues.toArray());
+	    tree.removeAll((K[]) removeKeys.toArray());
+	    records.clear();
+	}
+    }
+
+    private static final class Record<K, V> {
+	final K key;
+	final V value; // null marks a remove
+
+	Record(K key, V value) {
+	    this.key = key;
+	    this.value = value;
+	}
+    }
+
+    /**
+     * Growable record buffer that exposes its array and allows header fields to
+     * be patched after the payload is written.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+	RecordBuffer() {
+	    super(WRITE_THRESHOLD + 1024);
+	}
+
+	byte[] array() {
+	    return buf;
+	}
+
+	void truncate(int size) {
+	    count = size;
+	}
+
+	void skip(int n) {
+	    for (int i = 0; i < n; i++)
+		write(0);
+	}
+
+	void putInt(int index, int v) {
+	    buf[index] = (byte) (v >>> 24);
+	    buf[index + 1] = (byte) (v >>> 16);
+	    buf[index + 2] = (byte) (v >>> 8);
+	    buf[index + 3] = (byte) v;
+	}
+    }
+
+    /**
+     * Input stream over one record payload, reused for every record.
+     */
+    private static final class RecordReader extends ByteArrayInputStream {
+	RecordReader() {
+	    super(new byte[0]);
+	}
+
+	void reset(byte[] bytes, int offset, int length) {
+	    buf = bytes;
+	    pos = mark = offset;
+	    count = offset + length;
+	}
+    }
+}
@@ -0,0 +1,113 @@
+package bbst_showdown;
+
+/**
+ * A small two-way set associative cache from keys to the tree entries that
+ * hold them, used by {@link WAVLTreeMap} to answer repeated lookups of hot keys
+ * without descending the tree.
+ *
+ * <p>
+ * Entries keep their identity through rotations, so a cached entry stays valid
+ * until it is removed. The map validates every hit by comparing keys and
+ * evicts an entry when it is deleted or when another key is copied into it.
+ * Entries are filed under the hash code of their own key, so keys that compare
+ * equal but hash differently only cost a cache miss.
+ *
+ * <p>
+ * The cache counts hits and misses and the comparisons made by missed
+ * lookups, from which it estimates the comparisons hits have saved.
+ *
+ * @author David McManamon
+ */
+public final class HotKeyCache {
+
+    final WAVLTreeMap.Entry<?, ?>[] slots;
+    private final int mask;
+
+    long hits;
+    long misses;
+    long missComparisons;
+
+    HotKeyCache(int capacity) {
+	int n = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+	slots = new WAVLTreeMap.Entry<?, ?>[n];
+	mask = n - 2; // index of the first way of a set
+    }
+
+    /**
+     * First slot of the set for hash {@code h}; the second way is the next
+     * slot.
+     */
+    int set(int h) {
+	return h & mask;
+    }
+
+    static int hash(Object key) {
+	int h = key.hashCode() * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    /**
+     * Files {@code e} as the most recently used way of its set, demoting the
+     * previous one and evicting the least recently used.
+     */
+    void store(WAVLTreeMap.Entry<?, ?> e) {
+	int s = set(hash(e.key));
+	if (slots[s] == e)
+	    return;
+	slots[s + 1] = slots[s];
+	slots[s] = e;
+    }
+
+    /**
+     * Evicts {@code e}, which is about to leave the tree or take another key.
+     */
+    void invalidate(WAVLTreeMap.Entry<?, ?> e) {
+	int s = set(hash(e.key));
+	if (slots[s] == e)
+	    slots[s] = null;
+	if (slots[s + 1] == e)
+	    slots[s + 1] = null;
+    }
+
+    void clear() {
+	java.util.Arrays.fill(slots, null);
+    }
+
+    public long hits() {
+	return hits;
+    }
+
+    public long misses() {
+	return misses;
+    }
+
+    /**
+     * Share of lookups answered from the cache.
+     */
+    public double hitRate() {
+	long lookups = hits + misses;
+	return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Average number of key comparisons of a lookup that missed the cache and
+     * searched the tree.
+     */
+    public double averageMissComparisons() {
+	return misses == 0 ? 0 : (double) missComparisons / misses;
+    }
+
+    /**
+     * Estimated key comparisons avoided by hits: each hit would otherwise have
+     * cost an average tree search, less the comparison validating the hit.
+     */
+    public long comparisonsSaved() {
+	return (long) (hits * Math.max(0, averageMissComparisons() - 1));
+    }
+
+    public String toString() {
+	return String.format("Hot key cache of %d slots, hits %d, misses %d, hit rate %.3f, "
+		+ "comparisons per miss %.1f, comparisons saved %d", slots.length, hits, misses, hitRate(),
+		averageMissComparisons(), comparisonsSaved());
+    }
+}
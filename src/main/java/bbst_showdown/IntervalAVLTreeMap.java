@@ -0,0 +1,841 @@
+package bbst_showdown;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An interval tree: an AVL tree of closed intervals {@code [low, high]} ordered
+ * by low endpoint, then high endpoint, in which every entry also holds the
+ * greatest high endpoint of its subtree.
+ *
+ * <p>
+ * The subtree maximum lets a search skip any subtree that ends before the
+ * query begins, and the ordering lets it skip everything right of an interval
+ * that begins after the query ends, so {@link #overlapping(Object, Object)}
+ * only visits the entries on the paths to the {@code k} intervals it reports:
+ * {@code O(log n + k log(n/k))} comparisons, against the linear scan of a
+ * {@code TreeMap} keyed by start time. {@link #overlaps(Object, Object)}
+ * answers whether there is any overlap on a single path.
+ *
+ * <p>
+ * Balancing is {@link AVLTreeMap}'s balance factor insert and delete
+ * retracing. The subtree maxima are raised along the search path of an insert,
+ * recomputed from the unlinked entry to the root after a delete, and
+ * recomputed for the two or three entries moved by each single or double
+ * rotation.
+ *
+ * <p>
+ * This implementation provides guaranteed log(n) time cost for the
+ * {@code containsKey}, {@code get}, {@code put} and {@code remove} operations.
+ *
+ * @author David McManamon
+ *
+ * @param <K>
+ *            the type of the interval endpoints
+ * @param <V>
+ *            the type of mapped values
+ */
+public class IntervalAVLTreeMap<K, V> extends AbstractMap<IntervalAVLTreeMap.Interval<K>, V> {
+
+    /**
+     * A closed interval {@code [low, high]}, the key of the map.
+     */
+    public static final class Interval<K> {
+	final K low;
+	final K high;
+
+	public Interval(K low, K high) {
+	    this.low = Objects.requireNonNull(low);
+	    this.high = Objects.requireNonNull(high);
+	}
+
+	public K getLow() {
+	    return low;
+	}
+
+	public K getHigh() {
+	    return high;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Interval))
+		return false;
+	    Interval<?> i = (Interval<?>) o;
+	    return low.equals(i.low) && high.equals(i.high);
+	}
+
+	public int hashCode() {
+	    return 31 * low.hashCode() + high.hashCode();
+	}
+
+	public String toString() {
+	    return "[" + low + ", " + high + "]";
+	}
+    }
+
+    private transient Entry<K, V> root = null;
+
+    private transient int size = 0;
+
+    /**
+     * The comparator of the endpoints, or null for their natural ordering.
+     */
+    private final Comparator<? super K> comparator;
+
+    private transient int modCount = 0;
+
+    private transient int rotations = 0;
+
+    /**
+     * Constructs an empty map ordering the endpoints by their natural
+     * ordering.
+     */
+    public IntervalAVLTreeMap() {
+	comparator = null;
+    }
+
+    /**
+     * Constructs an empty map ordering the endpoints with
+     * {@code comparator}.
+     */
+    public IntervalAVLTreeMap(Comparator<? super K> comparator) {
+	this.comparator = comparator;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty, following the taller
+     * child recorded in each balance factor.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (Entry<K, V> e = root; e != null; e = e.balance > 0 ? e.right : e.left)
+	    h++;
+	return h;
+    }
+
+    public boolean containsKey(Object key) {
+	return getEntry(key) != null;
+    }
+
+    public V get(Object key) {
+	Entry<K, V> p = getEntry(key);
+	return (p == null ? null : p.value);
+    }
+
+    /**
+     * Maps the interval {@code [low, high]} to {@code value}.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code low} is greater than {@code high}
+     */
+    public V put(K low, K high, V value) {
+	return put(new Interval<>(low, high), value);
+    }
+
+    /**
+     * Associates {@code value} with the interval {@code key}, replacing the
+     * value of an equal interval.
+     *
+     * @throws IllegalArgumentException
+     *             if the interval's low endpoint is greater than its high
+     *             endpoint
+     */
+    public V put(Interval<K> key, V value) {
+	if (compare(key.low, key.high) > 0)
+	    throw new IllegalArgumentException("low endpoint greater than high endpoint: " + key);
+	Entry<K, V> t = root;
+	if (t == null) {
+	    root = new Entry<>(key, value, null);
+	    size = 1;
+	    modCount++;
+	    return null;
+	}
+	int cmp;
+	Entry<K, V> parent;
+	do {
+	    parent = t;
+	    cmp = compareIntervals(key, t.key);
+	    if (cmp < 0)
+		t = t.left;
+	    else if (cmp > 0)
+		t = t.right;
+	    else
+		return t.setValue(value);
+	} while (t != null);
+
+	Entry<K, V> e = new Entry<>(key, value, parent);
+	if (cmp < 0) {
+	    parent.left = e;
+	    parent.balance--;
+	} else {
+	    parent.right = e;
+	    parent.balance++;
+	}
+	for (Entry<K, V> p = parent; p != null && compare(key.high, p.max) > 0; p = p.parent)
+	    p.max = key.high;
+	fixAfterInsertion(parent);
+
+	size++;
+	modCount++;
+	return null;
+    }
+
+    public V remove(Object key) {
+	Entry<K, V> p = getEntry(key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = null;
+    }
+
+    /**
+     * Returns whether any interval in the map overlaps {@code [low, high]},
+     * searching a single path.
+     */
+    public boolean overlaps(K low, K high) {
+	Entry<K, V> e = root;
+	while (e != null) {
+	    if (compare(e.key.low, high) <= 0 && compare(e.key.high, low) >= 0)
+		return true;
+	    // the left subtree holds an overlap if it reaches low at all, as its
+	    // intervals start no later than e's
+	    if (e.left != null && compare(e.left.max, low) >= 0)
+		e = e.left;
+	    else
+		e = e.right;
+	}
+	return false;
+    }
+
+    /**
+     * Returns the mappings of the intervals that overlap {@code [low, high]},
+     * in interval order.
+     */
+    public List<Map.Entry<Interval<K>, V>> overlapping(K low, K high) {
+	List<Map.Entry<Interval<K>, V>> result = new ArrayList<>();
+	forEachOverlapping(low, high, (k, v) -> result.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+	return result;
+    }
+
+    /**
+     * Returns the mappings of the intervals that contain {@code point}, in
+     * interval order.
+     */
+    public List<Map.Entry<Interval<K>, V>> stab(K point) {
+	return overlapping(point, point);
+    }
+
+    /**
+     * Passes each interval that overlaps {@code [low, high]} and its value to
+     * {@code action}, in interval order.
+     *
+     * @throws ConcurrentModificationException
+     *             if {@code action} modifies the map
+     */
+    public void forEachOverlapping(K low, K high, BiConsumer<? super Interval<K>, ? super V> action) {
+	Objects.requireNonNull(action);
+	if (root != null)
+	    forEachOverlapping(root, low, high, action, modCount);
+    }
+
+    private void forEachOverlapping(Entry<K, V> e, K low, K high, BiConsumer<? super Interval<K>, ? super V> action,
+	    int expectedModCount) {
+	// recurse to the left, loop to the right
+	while (e != null && compare(e.max, low) >= 0) {
+	    if (e.left != null)
+		forEachOverlapping(e.left, low, high, action, expectedModCount);
+	    if (compare(e.key.low, high) > 0)
+		return; // so do all intervals to the right
+	    if (compare(e.key.high, low) >= 0) {
+		action.accept(e.key, e.value);
+		if (modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	    e = e.right;
+	}
+    }
+
+    final Entry<K, V> getEntry(Object key) {
+	if (!(key instanceof Interval))
+	    return null;
+	@SuppressWarnings("unchecked")
+	Interval<K> k = (Interval<K>) key;
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = compareIntervals(k, p.key);
+	    if (cmp < 0)
+		p = p.left;
+	    else if (cmp > 0)
+		p = p.right;
+	    else
+		return p;
+	}
+	return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    final int compare(K k1, K k2) {
+	return comparator == null ? ((Comparable<? super K>) k1).compareTo(k2) : comparator.compare(k1, k2);
+    }
+
+    private int compareIntervals(Interval<K> a, Interval<K> b) {
+	int cmp = compare(a.low, b.low);
+	return cmp != 0 ? cmp : compare(a.high, b.high);
+    }
+
+    /**
+     * Node in the tree, the balance factor and subtree maximum beside the
+     * usual links.
+     */
+    static final class Entry<K, V> implements Map.Entry<Interval<K>, V> {
+	Interval<K> key;
+	V value;
+	Entry<K, V> left = null;
+	Entry<K, V> right = null;
+	Entry<K, V> parent = null;
+	byte balance = 0; // Height(RightSubtree(N)) - Height(LeftSubtree(N))
+	K max; // greatest high endpoint in this subtree
+
+	Entry(Interval<K> key, V value, Entry<K, V> parent) {
+	    this.key = key;
+	    this.value = value;
+	    this.parent = parent;
+	    this.max = key.high;
+	}
+
+	public Interval<K> getKey() {
+	    return key;
+	}
+
+	public V getValue() {
+	    return value;
+	}
+
+	public V setValue(V value) {
+	    V oldValue = this.value;
+	    this.value = value;
+	    return oldValue;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+
+	    return key.equals(e.getKey()) && Objects.equals(value, e.getValue());
+	}
+
+	public int hashCode() {
+	    return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+	}
+
+	public String toString() {
+	    return key + "=" + value;
+	}
+    }
+
+    /**
+     * Recomputes {@code e.max} from its own interval and its children.
+     */
+    private void updateMax(Entry<K, V> e) {
+	K m = e.key.high;
+	if (e.left != null && compare(e.left.max, m) > 0)
+	    m = e.left.max;
+	if (e.right != null && compare(e.right.max, m) > 0)
+	    m = e.right.max;
+	e.max = m;
+    }
+
+    private void fixAfterInsertion(Entry<K, V> x) {
+	while (x.balance != 0) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+		    rotateRightLeft(x);
+		}
+		break;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else { // x.left.balance = 1
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+		    rotateLeftRight(x);
+		}
+		break;
+	    }
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x)
+		x.parent.balance--;
+	    else
+		x.parent.balance++;
+
+	    x = x.parent;
+	}
+    }
+
+    /** From CLR */
+    private void rotateLeft(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+	r.max = p.max; // same subtree
+	updateMax(p);
+	rotations++;
+    }
+
+    /** From CLR */
+    private void rotateRight(Entry<K, V> p) {
+	Entry<K, V> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+	l.max = p.max; // same subtree
+	updateMax(p);
+	rotations++;
+    }
+
+    /**
+     * Double rotation lifting {@code p.right.left} above {@code p} and
+     * {@code p.right}, the same as {@code rotateRight(p.right)} followed by
+     * {@code rotateLeft(p)}.
+     */
+    private void rotateRightLeft(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	Entry<K, V> rl = r.left;
+
+	p.right = rl.left;
+	r.left = rl.right;
+	if (rl.left != null)
+	    rl.left.parent = p;
+	if (rl.right != null)
+	    rl.right.parent = r;
+	rl.parent = p.parent;
+
+	if (p.parent == null)
+	    root = rl;
+	else if (p.parent.left == p)
+	    p.parent.left = rl;
+	else
+	    p.parent.right = rl;
+
+	rl.left = p;
+	rl.right = r;
+	p.parent = rl;
+	r.parent = rl;
+	rl.max = p.max; // same subtree
+	updateMax(p);
+	updateMax(r);
+	rotations += 2;
+    }
+
+    /**
+     * Double rotation lifting {@code p.left.right} above {@code p} and
+     * {@code p.left}, the same as {@code rotateLeft(p.left)} followed by
+     * {@code rotateRight(p)}.
+     */
+    private void rotateLeftRight(Entry<K, V> p) {
+	Entry<K, V> l = p.left;
+	Entry<K, V> lr = l.right;
+
+	p.left = lr.right;
+	l.right = lr.left;
+	if (lr.right != null)
+	    lr.right.parent = p;
+	if (lr.left != null)
+	    lr.left.parent = l;
+	lr.parent = p.parent;
+
+	if (p.parent == null)
+	    root = lr;
+	else if (p.parent.right == p)
+	    p.parent.right = lr;
+	else
+	    p.parent.left = lr;
+
+	lr.right = p;
+	lr.left = l;
+	p.parent = lr;
+	l.parent = lr;
+	lr.max = p.max; // same subtree
+	updateMax(p);
+	updateMax(l);
+	rotations += 2;
+    }
+
+    private void deleteEntry(Entry<K, V> p) {
+	modCount++;
+	size--;
+
+	// If strictly internal, copy successor's element to p and then make p point to
+	// successor.
+	if (p.left != null && p.right != null) {
+	    Entry<K, V> s = successor(p);
+	    p.key = s.key;
+	    p.value = s.value;
+	    p = s;
+	}
+
+	Entry<K, V> replacement = (p.left != null ? p.left : p.right);
+	Entry<K, V> parent = p.parent;
+	if (replacement != null)
+	    replacement.parent = parent;
+	p.left = p.right = p.parent = null;
+	if (parent == null) {
+	    root = replacement;
+	    return;
+	}
+
+	boolean shorterLeft = parent.left == p;
+	if (shorterLeft) {
+	    parent.left = replacement;
+	    parent.balance++;
+	} else {
+	    parent.right = replacement;
+	    parent.balance--;
+	}
+	// the interval copied from the successor lies on this path too
+	for (Entry<K, V> x = parent; x != null; x = x.parent)
+	    updateMax(x);
+	if (parent.balance != (shorterLeft ? 1 : -1)) // else parent kept its height
+	    fixAfterDeletion(parent);
+    }
+
+    private void fixAfterDeletion(Entry<K, V> x) {
+	while (true) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else if (x.right.balance == 0) {
+		    x.balance = 1;
+		    x.right.balance = -1;
+		    rotateLeft(x);
+		    break;
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+		    rotateRightLeft(x);
+		}
+		x = x.parent;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else if (x.left.balance == 0) {
+		    x.balance = -1;
+		    x.left.balance = 1;
+		    rotateRight(x);
+		    break;
+		} else { // (x.left.balance == 1)
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+		    rotateLeftRight(x);
+		}
+		x = x.parent;
+	    }
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x) {
+		x.parent.balance++;
+		if (x.parent.balance == 1)
+		    break;
+	    } else {
+		x.parent.balance--;
+		if (x.parent.balance == -1)
+		    break;
+	    }
+	    x = x.parent;
+	}
+    }
+
+    static <K, V> Entry<K, V> successor(Entry<K, V> t) {
+	if (t == null)
+	    return null;
+	else if (t.right != null) {
+	    Entry<K, V> p = t.right;
+	    while (p.left != null)
+		p = p.left;
+	    return p;
+	} else {
+	    Entry<K, V> p = t.parent;
+	    Entry<K, V> ch = t;
+	    while (p != null && ch == p.right) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<Interval<K>, V> cursor() {
+	return new EntryCursor();
+    }
+
+    private Entry<K, V> getFirstEntry() {
+	Entry<K, V> p = root;
+	if (p != null)
+	    while (p.left != null)
+		p = p.left;
+	return p;
+    }
+
+    private Entry<K, V> getLastEntry() {
+	Entry<K, V> p = root;
+	if (p != null)
+	    while (p.right != null)
+		p = p.right;
+	return p;
+    }
+
+    /**
+     * Returns the entry with the least key greater than or equal to
+     * {@code key}, or null.
+     */
+    private Entry<K, V> getCeilingEntry(Interval<K> key) {
+	Entry<K, V> p = root, best = null;
+	while (p != null) {
+	    int cmp = compareIntervals(key, p.key);
+	    if (cmp < 0) {
+		best = p;
+		p = p.left;
+	    } else if (cmp > 0) {
+		p = p.right;
+	    } else {
+		return p;
+	    }
+	}
+	return best;
+    }
+
+    static <K, V> Entry<K, V> predecessor(Entry<K, V> t) {
+	if (t == null)
+	    return null;
+	else if (t.left != null) {
+	    Entry<K, V> p = t.left;
+	    while (p.right != null)
+		p = p.right;
+	    return p;
+	} else {
+	    Entry<K, V> p = t.parent;
+	    Entry<K, V> ch = t;
+	    while (p != null && ch == p.left) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    final class EntryCursor implements Cursor<Interval<K>, V> {
+	Entry<K, V> current;
+	int expectedModCount = modCount;
+
+	private boolean moveTo(Entry<K, V> e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != null;
+	}
+
+	public boolean seek(Interval<K> key) {
+	    return moveTo(getCeilingEntry(key));
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(getFirstEntry());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(getLastEntry());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean isValid() {
+	    return current != null;
+	}
+
+	public Interval<K> key() {
+	    return checkedCurrent().key;
+	}
+
+	public V value() {
+	    return checkedCurrent().value;
+	}
+
+	public void reset() {
+	    moveTo(null);
+	}
+
+	private Entry<K, V> checkedCurrent() {
+	    if (current == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
+    private transient EntrySet entrySet;
+
+    /**
+     * Returns a view of the mappings in interval order. Its iterator supports
+     * removal.
+     */
+    public Set<Map.Entry<Interval<K>, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<Interval<K>, V>> {
+	public Iterator<Map.Entry<Interval<K>, V>> iterator() {
+	    Entry<K, V> first = root;
+	    if (first != null)
+		while (first.left != null)
+		    first = first.left;
+	    return new EntryIterator(first);
+	}
+
+	public int size() {
+	    return IntervalAVLTreeMap.this.size();
+	}
+
+	public void clear() {
+	    IntervalAVLTreeMap.this.clear();
+	}
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<Interval<K>, V>> {
+	Entry<K, V> next;
+	Entry<K, V> lastReturned;
+	int expectedModCount;
+
+	EntryIterator(Entry<K, V> first) {
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	    next = first;
+	}
+
+	public boolean hasNext() {
+	    return next != null;
+	}
+
+	public Map.Entry<Interval<K>, V> next() {
+	    Entry<K, V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // deleted entries are replaced by their successors
+	    if (lastReturned.left != null && lastReturned.right != null)
+		next = lastReturned;
+	    deleteEntry(lastReturned);
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	}
+    }
+}
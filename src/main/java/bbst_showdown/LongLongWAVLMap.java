@@ -0,0 +1,611 @@
+package bbst_showdown;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted map from {@code long} keys to {@code long} values, kept in a WAVL
+ * tree laid out in primitive arrays: no entry objects and no boxing.
+ *
+ * <p>
+ * Entry {@code i} is {@code keys[i]}, {@code values[i]}, the indices of its
+ * children and parent and its rank, 29 bytes against about 80 for an entry
+ * object and two boxed longs of a {@code WAVLTreeMap<Long, Long>}. Index 0 is
+ * the null entry, of rank -1, so the rank rules need no null checks. Entries
+ * occupy indices 1 to {@code size}: a delete moves the last entry into the
+ * freed index, so the arrays stay dense and need no free list.
+ *
+ * <p>
+ * Balancing follows {@link WAVLTreeMap}'s rank rules: rank differences of 1 or
+ * 2, leaves of rank 0, the insert retracing and the WAVL delete, which makes
+ * at most two rotations.
+ *
+ * <p>
+ * Absent keys are reported by {@link #get(long)}, {@link #put(long, long)} and
+ * {@link #remove(long)} with the map's no entry value, 0 unless given to the
+ * constructor; {@link #containsKey(long)} tells an absent key from a mapping
+ * to that value.
+ *
+ * @author David McManamon
+ */
+public class LongLongWAVLMap {
+
+    /**
+     * Receives the mappings of {@link LongLongWAVLMap#forEach(LongLongConsumer)}.
+     */
+    @FunctionalInterface
+    public interface LongLongConsumer {
+	void accept(long key, long value);
+    }
+
+    private static final int NIL = 0;
+
+    private long[] keys;
+    private long[] values;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private byte[] rank;
+
+    private int root = NIL;
+    private int size = 0;
+    private int modCount = 0;
+    private int rotations = 0;
+
+    private final long noEntryValue;
+
+    public LongLongWAVLMap() {
+	this(16, 0);
+    }
+
+    public LongLongWAVLMap(int initialCapacity) {
+	this(initialCapacity, 0);
+    }
+
+    /**
+     * Constructs an empty map with room for {@code initialCapacity} entries,
+     * reporting absent keys with {@code noEntryValue}.
+     */
+    public LongLongWAVLMap(int initialCapacity, long noEntryValue) {
+	if (initialCapacity < 0)
+	    throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+	int n = initialCapacity + 1;
+	keys = new long[n];
+	values = new long[n];
+	left = new int[n];
+	right = new int[n];
+	parent = new int[n];
+	rank = new byte[n];
+	rank[NIL] = -1;
+	this.noEntryValue = noEntryValue;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public boolean isEmpty() {
+	return size == 0;
+    }
+
+    public long noEntryValue() {
+	return noEntryValue;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (int e = root; e != NIL; e = rank[left[e]] >= rank[right[e]] ? left[e] : right[e])
+	    h++;
+	return h;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = NIL;
+    }
+
+    private int getEntry(long key) {
+	int p = root;
+	while (p != NIL) {
+	    long k = keys[p];
+	    if (key < k)
+		p = left[p];
+	    else if (key > k)
+		p = right[p];
+	    else
+		return p;
+	}
+	return NIL;
+    }
+
+    public boolean containsKey(long key) {
+	return getEntry(key) != NIL;
+    }
+
+    /**
+     * Returns the value mapped to {@code key}, or the no entry value.
+     */
+    public long get(long key) {
+	int p = getEntry(key);
+	return p == NIL ? noEntryValue : values[p];
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+	int p = getEntry(key);
+	return p == NIL ? defaultValue : values[p];
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, returning the previous value or the
+     * no entry value.
+     */
+    public long put(long key, long value) {
+	int t = root;
+	int p = NIL;
+	boolean addToLeft = false;
+	while (t != NIL) {
+	    p = t;
+	    long k = keys[t];
+	    if (key < k) {
+		t = left[t];
+		addToLeft = true;
+	    } else if (key > k) {
+		t = right[t];
+		addToLeft = false;
+	    } else {
+		long oldValue = values[t];
+		values[t] = value;
+		return oldValue;
+	    }
+	}
+
+	if (size + 1 == keys.length)
+	    grow();
+	int e = size + 1;
+	keys[e] = key;
+	values[e] = value;
+	left[e] = right[e] = NIL;
+	parent[e] = p;
+	rank[e] = 0;
+	size++;
+	modCount++;
+	if (p == NIL) {
+	    root = e;
+	} else {
+	    if (addToLeft)
+		left[p] = e;
+	    else
+		right[p] = e;
+	    if (rank[p] == 0) {
+		rank[p]++;
+		fixAfterInsert(p);
+	    }
+	}
+	return noEntryValue;
+    }
+
+    private void grow() {
+	int n = keys.length + (keys.length >> 1) + 1;
+	keys = Arrays.copyOf(keys, n);
+	values = Arrays.copyOf(values, n);
+	left = Arrays.copyOf(left, n);
+	right = Arrays.copyOf(right, n);
+	parent = Arrays.copyOf(parent, n);
+	rank = Arrays.copyOf(rank, n);
+    }
+
+    /**
+     * Removes the mapping of {@code key}, returning its value or the no entry
+     * value.
+     */
+    public long remove(long key) {
+	int p = getEntry(key);
+	if (p == NIL)
+	    return noEntryValue;
+	long oldValue = values[p];
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    /**
+     * Passes every mapping to {@code action}, in ascending key order.
+     *
+     * @throws ConcurrentModificationException
+     *             if {@code action} modifies the map
+     */
+    public void forEach(LongLongConsumer action) {
+	int expectedModCount = modCount;
+	for (int e = first(); e != NIL; e = successor(e)) {
+	    action.accept(keys[e], values[e]);
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	}
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it.
+     */
+    public LongLongCursor cursor() {
+	return new LongLongCursor();
+    }
+
+    /**
+     * The {@link Cursor} of this map, reading keys and values as primitives
+     * through {@link #keyLong()} and {@link #valueLong()}, so a scan neither
+     * allocates nor boxes.
+     *
+     * <pre>
+     * for (boolean ok = cursor.seek(from); ok &amp;&amp; cursor.keyLong() &lt; to; ok = cursor.next())
+     *     sum += cursor.valueLong();
+     * </pre>
+     *
+     * A delete moves the last entry of the arrays, so the cursor is fail-fast
+     * after any modification as described for {@link Cursor}.
+     */
+    public final class LongLongCursor {
+	private int current = NIL;
+	private int expectedModCount = modCount;
+
+	private LongLongCursor() {
+	}
+
+	private boolean moveTo(int e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != NIL;
+	}
+
+	/**
+	 * Moves to the entry with the least key greater than or equal to
+	 * {@code key}.
+	 *
+	 * @return whether there is such an entry; if not the cursor is invalid
+	 */
+	public boolean seek(long key) {
+	    return moveTo(ceiling(key));
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(first());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(last());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != NIL;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != NIL;
+	}
+
+	public boolean isValid() {
+	    return current != NIL;
+	}
+
+	public long keyLong() {
+	    return keys[checkedCurrent()];
+	}
+
+	public long valueLong() {
+	    return values[checkedCurrent()];
+	}
+
+	public void reset() {
+	    moveTo(NIL);
+	}
+
+	private int checkedCurrent() {
+	    if (current == NIL)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
+    /**
+     * Returns the lowest key.
+     *
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public long firstKey() {
+	if (root == NIL)
+	    throw new NoSuchElementException();
+	return keys[first()];
+    }
+
+    /**
+     * Returns the highest key.
+     *
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public long lastKey() {
+	if (root == NIL)
+	    throw new NoSuchElementException();
+	return keys[last()];
+    }
+
+    private int first() {
+	int e = root;
+	if (e != NIL)
+	    while (left[e] != NIL)
+		e = left[e];
+	return e;
+    }
+
+    private int last() {
+	int e = root;
+	if (e != NIL)
+	    while (right[e] != NIL)
+		e = right[e];
+	return e;
+    }
+
+    /**
+     * Returns the entry with the least key greater than or equal to
+     * {@code key}, or NIL.
+     */
+    private int ceiling(long key) {
+	int p = root, best = NIL;
+	while (p != NIL) {
+	    if (key < keys[p]) {
+		best = p;
+		p = left[p];
+	    } else if (key > keys[p]) {
+		p = right[p];
+	    } else {
+		return p;
+	    }
+	}
+	return best;
+    }
+
+    private int successor(int t) {
+	if (right[t] != NIL) {
+	    int p = right[t];
+	    while (left[p] != NIL)
+		p = left[p];
+	    return p;
+	}
+	int p = parent[t];
+	int ch = t;
+	while (p != NIL && ch == right[p]) {
+	    ch = p;
+	    p = parent[p];
+	}
+	return p;
+    }
+
+    private int predecessor(int t) {
+	if (left[t] != NIL) {
+	    int p = left[t];
+	    while (right[p] != NIL)
+		p = right[p];
+	    return p;
+	}
+	int p = parent[t];
+	int ch = t;
+	while (p != NIL && ch == left[p]) {
+	    ch = p;
+	    p = parent[p];
+	}
+	return p;
+    }
+
+    private void fixAfterInsert(int x) {
+	for (int p = parent[x]; p != NIL && rank[x] + 1 != rank[p]; rank[x]++) {
+	    if (left[p] == x) { // new node was added on the left
+		if (rank[p] >= rank[right[p]] + 2) {
+		    if (rank[x] >= rank[left[x]] + 2) {
+			rank[x]--;
+			rank[right[x]]++;
+			rotateLeft(x);
+		    }
+		    rank[p]--;
+		    rotateRight(p);
+		    break;
+		}
+	    } else {
+		if (rank[p] >= rank[left[p]] + 2) {
+		    if (rank[x] >= rank[right[x]] + 2) {
+			rank[x]--;
+			rank[left[x]]++;
+			rotateRight(x);
+		    }
+		    rank[p]--;
+		    rotateLeft(p);
+		    break;
+		}
+	    }
+	    x = p;
+	    p = parent[x];
+	}
+    }
+
+    /** From CLR */
+    private void rotateLeft(int p) {
+	int r = right[p];
+	right[p] = left[r];
+	if (left[r] != NIL)
+	    parent[left[r]] = p;
+	parent[r] = parent[p];
+	if (parent[p] == NIL)
+	    root = r;
+	else if (left[parent[p]] == p)
+	    left[parent[p]] = r;
+	else
+	    right[parent[p]] = r;
+	left[r] = p;
+	parent[p] = r;
+	rotations++;
+    }
+
+    /** From CLR */
+    private void rotateRight(int p) {
+	int l = left[p];
+	left[p] = right[l];
+	if (right[l] != NIL)
+	    parent[right[l]] = p;
+	parent[l] = parent[p];
+	if (parent[p] == NIL)
+	    root = l;
+	else if (right[parent[p]] == p)
+	    right[parent[p]] = l;
+	else
+	    left[parent[p]] = l;
+	right[l] = p;
+	parent[p] = l;
+	rotations++;
+    }
+
+    /**
+     * Delete entry p, rebalance the tree and move the last entry into the
+     * index that was freed.
+     */
+    private void deleteEntry(int p) {
+	modCount++;
+
+	// If strictly internal, copy predecessor's mapping to p and then make p
+	// point to predecessor.
+	if (left[p] != NIL && right[p] != NIL) {
+	    int s = predecessor(p);
+	    keys[p] = keys[s];
+	    values[p] = values[s];
+	    p = s;
+	}
+
+	int replacement = left[p] != NIL ? left[p] : right[p];
+	int fixPoint = parent[p];
+	if (replacement != NIL)
+	    parent[replacement] = fixPoint;
+	if (fixPoint == NIL) {
+	    root = replacement;
+	} else {
+	    int sibling;
+	    if (left[fixPoint] == p) {
+		left[fixPoint] = replacement;
+		sibling = right[fixPoint];
+	    } else {
+		right[fixPoint] = replacement;
+		sibling = left[fixPoint];
+	    }
+	    // a removed leaf is a phantom of rank -1
+	    fixAfterDelete(fixPoint, sibling, rank[fixPoint] - (replacement != NIL ? rank[replacement] : -1));
+	}
+
+	moveLast(p);
+	size--;
+    }
+
+    /**
+     * Fills the freed index {@code hole} with the entry at the last index.
+     */
+    private void moveLast(int hole) {
+	int last = size;
+	if (hole != last) {
+	    keys[hole] = keys[last];
+	    values[hole] = values[last];
+	    left[hole] = left[last];
+	    right[hole] = right[last];
+	    parent[hole] = parent[last];
+	    rank[hole] = rank[last];
+	    int p = parent[last];
+	    if (p == NIL)
+		root = hole;
+	    else if (left[p] == last)
+		left[p] = hole;
+	    else
+		right[p] = hole;
+	    if (left[last] != NIL)
+		parent[left[last]] = hole;
+	    if (right[last] != NIL)
+		parent[right[last]] = hole;
+	}
+    }
+
+    private boolean isTwoTwo(int node) {
+	return rank[left[node]] == rank[right[node]] && rank[left[node]] + 2 == rank[node];
+    }
+
+    private void fixAfterDelete(int parent, int sibling, int deltaRank) {
+	while (deltaRank == 3 || rank[parent] == 1 && isTwoTwo(parent)) {
+	    int deltaRankSibling = rank[parent] - rank[sibling];
+	    if (deltaRankSibling == 2) {
+		rank[parent]--; // demote and continue loop
+	    } else {
+		int deltaRankSiblingL = rank[sibling] - rank[left[sibling]];
+		int deltaRankSiblingR = rank[sibling] - rank[right[sibling]];
+
+		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
+		    // "double demote" in the orig. paper since both parent & sibling demote
+		    rank[parent]--;
+		    rank[sibling]--;
+		} else if (right[parent] == sibling) { // delete was on the left
+		    if (deltaRankSiblingR == 1) { // single rotation
+			rank[sibling]++;
+			rank[parent]--;
+			if (left[sibling] == NIL)
+			    rank[parent]--; // demote parent again
+			rotateLeft(parent);
+		    } else { // double rotation
+			rank[parent] -= 2;
+			rank[sibling]--;
+			rank[left[sibling]] += 2;
+			rotateRight(sibling);
+			rotateLeft(parent);
+		    }
+		    break;
+		} else { // delete was on the right
+		    if (deltaRankSiblingL == 1) { // single rotation
+			rank[sibling]++;
+			rank[parent]--;
+			if (right[sibling] == NIL)
+			    rank[parent]--; // demote parent again
+			rotateRight(parent);
+		    } else { // double rotation
+			rank[parent] -= 2;
+			rank[sibling]--;
+			rank[right[sibling]] += 2;
+			rotateLeft(sibling);
+			rotateRight(parent);
+		    }
+		    break;
+		}
+	    }
+
+	    int node = parent;
+	    parent = this.parent[node];
+	    if (parent == NIL)
+		return;
+	    sibling = (left[parent] == node) ? right[parent] : left[parent];
+	    deltaRank = rank[parent] - rank[node];
+	}
+    }
+
+    public String toString() {
+	StringBuilder sb = new StringBuilder("{");
+	forEach((k, v) -> {
+	    if (sb.length() > 1)
+		sb.append(", ");
+	    sb.append(k).append('=').append(v);
+	});
+	return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,214 @@
+package bbst_showdown;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import bbst_showdown.DurableAVLTreeMap.Codec;
+
+/**
+ * The write path of a log-structured merge store: writes go to an in-memory
+ * {@link WAVLTreeMap} (the memtable) and, once it holds
+ * {@code flushThreshold} entries, the tree is frozen and streamed in key order
+ * into an immutable {@link SortedSegment} file. Heap use is bounded by the
+ * memtable plus the sparse index and Bloom filter of each segment.
+ *
+ * <p>
+ * A lookup consults the live tree, then the tree being flushed if there is
+ * one, then the segments from newest to oldest. Removes are recorded as
+ * tombstones that hide older values for the key until the end of time, as
+ * segments are never compacted. The memtable itself is not logged; pair the
+ * store with a write-ahead log such as {@link DurableAVLTreeMap} if writes must
+ * survive a crash before they are flushed.
+ *
+ * <p>
+ * Methods are thread-safe. The thread whose write fills the memtable performs
+ * the flush, but writers and readers keep using a fresh memtable meanwhile.
+ *
+ * @author David McManamon
+ *
+ * @param <K> the type of keys, which must be {@link Comparable}
+ * @param <V> the type of values
+ */
+public class LsmWAVLStore<K, V> implements Closeable {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int flushThreshold;
+
+    /** values or {@link SortedSegment#REMOVED}, guarded by this */
+    private WAVLTreeMap<K, Object> live = new WAVLTreeMap<>();
+    /** the memtable being written to a segment, or null, guarded by this */
+    private WAVLTreeMap<K, Object> frozen;
+    /** oldest first, guarded by this */
+    private final List<SortedSegment<K, V>> segments = new ArrayList<>();
+    private int nextSegment;
+
+    /** serializes flushes */
+    private final Object flushLock = new Object();
+
+    /**
+     * Opens the store in {@code dir}, creating the directory if necessary, and
+     * maps the segments already in it.
+     *
+     * @param flushThreshold
+     *            number of memtable entries that triggers a flush
+     */
+    public LsmWAVLStore(Path dir, Codec<K> keyCodec, Codec<V> valueCodec, int flushThreshold) throws IOException {
+	if (flushThreshold <= 0)
+	    throw new IllegalArgumentException("flushThreshold: " + flushThreshold);
+	this.dir = dir;
+	this.keyCodec = keyCodec;
+	this.valueCodec = valueCodec;
+	this.flushThreshold = flushThreshold;
+	Files.createDirectories(dir);
+
+	TreeMap<Integer, Path> found = new TreeMap<>();
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+	    for (Path p : files) {
+		String name = p.getFileName().toString();
+		if (name.endsWith(".tmp"))
+		    Files.delete(p); // a flush that did not finish
+		else if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+		    found.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), p);
+	    }
+	}
+	for (Path p : found.values())
+	    segments.add(new SortedSegment<>(p, keyCodec, valueCodec));
+	nextSegment = found.isEmpty() ? 0 : found.lastKey() + 1;
+    }
+
+    /**
+     * Returns the value for {@code key}, or null if it has none.
+     *
+     * @throws UncheckedIOException
+     *             if a segment cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(K key) {
+	Object v = live.get(key);
+	if (v == null && frozen != null)
+	    v = frozen.get(key);
+	try {
+	    for (int i = segments.size() - 1; v == null && i >= 0; i--)
+		v = segments.get(i).lookup(key);
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+	return v == SortedSegment.REMOVED ? null : (V) v;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, flushing the memtable if it is full.
+     * Unlike {@link java.util.Map#put} the previous value is not returned, as
+     * finding it could mean reading segments.
+     *
+     * @throws UncheckedIOException
+     *             if a flush fails; the entries stay in memory
+     */
+    public void put(K key, V value) {
+	if (value == null)
+	    throw new NullPointerException();
+	write(key, value);
+    }
+
+    /**
+     * Removes the mapping for {@code key} by writing a tombstone.
+     */
+    public void remove(K key) {
+	write(key, SortedSegment.REMOVED);
+    }
+
+    private void write(K key, Object value) {
+	boolean full;
+	synchronized (this) {
+	    live.put(key, value);
+	    full = live.size() >= flushThreshold;
+	}
+	if (full)
+	    flush();
+    }
+
+    /**
+     * Freezes the memtable and writes it to a new segment. Reads and writes
+     * continue against a fresh memtable while the segment is written.
+     *
+     * @throws UncheckedIOException
+     *             if the segment cannot be written; the frozen entries are
+     *             merged back into the memtable
+     */
+    public void flush() {
+	synchronized (flushLock) {
+	    WAVLTreeMap<K, Object> toWrite;
+	    Path path;
+	    synchronized (this) {
+		if (live.isEmpty())
+		    return;
+		toWrite = frozen = live;
+		live = new WAVLTreeMap<>();
+		path = dir.resolve(String.format("%s%08d%s", PREFIX, nextSegment++, SUFFIX));
+	    }
+	    SortedSegment<K, V> segment;
+	    try {
+		SortedSegment.write(path, toWrite.entrySet().iterator(), toWrite.size(), keyCodec, valueCodec);
+		segment = new SortedSegment<>(path, keyCodec, valueCodec);
+	    } catch (IOException | RuntimeException e) {
+		try {
+		    // a segment that cannot be opened would fail every reopen
+		    Files.deleteIfExists(path);
+		} catch (IOException suppressed) {
+		    e.addSuppressed(suppressed);
+		}
+		synchronized (this) {
+		    // newer writes win over the frozen ones
+		    toWrite.forEach(live::putIfAbsent);
+		    frozen = null;
+		}
+		if (e instanceof IOException)
+		    throw new UncheckedIOException((IOException) e);
+		throw (RuntimeException) e;
+	    }
+	    synchronized (this) {
+		segments.add(segment);
+		frozen = null;
+	    }
+	}
+    }
+
+    /**
+     * Number of entries, including tombstones, in the memtable.
+     */
+    public synchronized int memtableSize() {
+	return live.size();
+    }
+
+    public synchronized int segmentCount() {
+	return segments.size();
+    }
+
+    /**
+     * Flushes the memtable and unmaps the segments.
+     */
+    public void close() throws IOException {
+	flush();
+	synchronized (this) {
+	    for (SortedSegment<K, V> s : segments)
+		s.close();
+	    segments.clear();
+	}
+    }
+
+    public synchronized String toString() {
+	return "LSM store with memtable " + live + " and " + segments.size() + " segments";
+    }
+}
@@ -0,0 +1,651 @@
+package bbst_showdown;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A WAVL tree map whose nodes live in a pool of chunked arrays and link to
+ * each other by 32-bit {@code int} indices instead of object references.
+ *
+ * <p>
+ * Once a heap grows past 32 GB the JVM turns compressed oops off and every
+ * reference takes 8 bytes, so an entry object of {@link WAVLTreeMap} or
+ * {@link TreeMapRedBlack} (a 16 byte header, key, value, left, right and
+ * parent) grows to 64 bytes. Here entry {@code i} is a slot in each of the key
+ * and value arrays, three {@code int} links and a {@code byte} rank: 29 bytes
+ * on such a heap and 21 bytes with compressed oops, without headers or
+ * padding. The links of neighbouring entries also share cache lines.
+ *
+ * <p>
+ * The pool is a spine of chunks of {@code 2^16} slots, so no single array is
+ * ever larger than a chunk and growing the map copies only the spine, never
+ * the entries. The first chunk starts small and doubles until it is full, so
+ * small maps stay small. Index 0 is the null entry, of rank -1, and entries
+ * occupy indices 1 to {@code size}: a delete moves the last entry into the
+ * freed index, so the pool stays dense and needs no free list.
+ *
+ * <p>
+ * Balancing follows {@link WAVLTreeMap}'s rank rules, with the insert
+ * retracing and the WAVL delete, which makes at most two rotations.
+ *
+ * <p>
+ * Entries returned by the entry set's iterator are views of a slot: they stay
+ * valid until the next structural modification of the map, after which the
+ * slot may hold a different mapping.
+ *
+ * @author David McManamon
+ *
+ * @param <K>
+ *            the type of keys maintained by this map
+ * @param <V>
+ *            the type of mapped values
+ */
+public class PooledWAVLTreeMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int NIL = 0;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Object[][] keys;
+    private Object[][] values;
+    private int[][] left;
+    private int[][] right;
+    private int[][] parent;
+    private byte[][] rank;
+
+    /** the number of slots, including the null entry */
+    private int capacity;
+
+    private int root = NIL;
+    private int size = 0;
+    private int modCount = 0;
+    private int rotations = 0;
+
+    private final Comparator<? super K> comparator;
+
+    private transient EntrySet entrySet;
+
+    public PooledWAVLTreeMap() {
+	this(null);
+    }
+
+    /**
+     * Constructs an empty map ordered by {@code comparator}, or by the natural
+     * ordering of its keys if it is null.
+     */
+    public PooledWAVLTreeMap(Comparator<? super K> comparator) {
+	this.comparator = comparator;
+	allocate();
+    }
+
+    private void allocate() {
+	keys = new Object[1][INITIAL_CAPACITY];
+	values = new Object[1][INITIAL_CAPACITY];
+	left = new int[1][INITIAL_CAPACITY];
+	right = new int[1][INITIAL_CAPACITY];
+	parent = new int[1][INITIAL_CAPACITY];
+	rank = new byte[1][INITIAL_CAPACITY];
+	rank[0][NIL] = -1;
+	capacity = INITIAL_CAPACITY;
+    }
+
+    /**
+     * Makes room for one more entry: doubles the first chunk until it is full,
+     * then adds a chunk.
+     */
+    private void grow() {
+	if (capacity < CHUNK_SIZE) {
+	    int n = Math.min(capacity << 1, CHUNK_SIZE);
+	    keys[0] = Arrays.copyOf(keys[0], n);
+	    values[0] = Arrays.copyOf(values[0], n);
+	    left[0] = Arrays.copyOf(left[0], n);
+	    right[0] = Arrays.copyOf(right[0], n);
+	    parent[0] = Arrays.copyOf(parent[0], n);
+	    rank[0] = Arrays.copyOf(rank[0], n);
+	    capacity = n;
+	    return;
+	}
+	if (capacity == Integer.MAX_VALUE - CHUNK_MASK)
+	    throw new IllegalStateException("Map is full");
+	int c = capacity >>> CHUNK_SHIFT;
+	if (c == keys.length) {
+	    int n = c << 1;
+	    keys = Arrays.copyOf(keys, n);
+	    values = Arrays.copyOf(values, n);
+	    left = Arrays.copyOf(left, n);
+	    right = Arrays.copyOf(right, n);
+	    parent = Arrays.copyOf(parent, n);
+	    rank = Arrays.copyOf(rank, n);
+	}
+	keys[c] = new Object[CHUNK_SIZE];
+	values[c] = new Object[CHUNK_SIZE];
+	left[c] = new int[CHUNK_SIZE];
+	right[c] = new int[CHUNK_SIZE];
+	parent[c] = new int[CHUNK_SIZE];
+	rank[c] = new byte[CHUNK_SIZE];
+	capacity += CHUNK_SIZE;
+    }
+
+    // Slot accessors
+
+    @SuppressWarnings("unchecked")
+    private K key(int e) {
+	return (K) keys[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int e) {
+	return (V) values[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    private int left(int e) {
+	return left[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    private int right(int e) {
+	return right[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    private int parent(int e) {
+	return parent[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    private int rank(int e) {
+	return rank[e >>> CHUNK_SHIFT][e & CHUNK_MASK];
+    }
+
+    private void setKey(int e, Object key) {
+	keys[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = key;
+    }
+
+    private void setValue(int e, Object value) {
+	values[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = value;
+    }
+
+    private void setLeft(int e, int l) {
+	left[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = l;
+    }
+
+    private void setRight(int e, int r) {
+	right[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = r;
+    }
+
+    private void setParent(int e, int p) {
+	parent[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = p;
+    }
+
+    private void setRank(int e, int r) {
+	rank[e >>> CHUNK_SHIFT][e & CHUNK_MASK] = (byte) r;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public Comparator<? super K> comparator() {
+	return comparator;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (int e = root; e != NIL; e = rank(left(e)) >= rank(right(e)) ? left(e) : right(e))
+	    h++;
+	return h;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = NIL;
+	allocate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object k1, K k2) {
+	return comparator == null ? ((Comparable<? super K>) k1).compareTo(k2) : comparator.compare((K) k1, k2);
+    }
+
+    private int getEntry(Object key) {
+	if (key == null && comparator == null)
+	    throw new NullPointerException();
+	int p = root;
+	while (p != NIL) {
+	    int cmp = compare(key, key(p));
+	    if (cmp < 0)
+		p = left(p);
+	    else if (cmp > 0)
+		p = right(p);
+	    else
+		return p;
+	}
+	return NIL;
+    }
+
+    public boolean containsKey(Object key) {
+	return getEntry(key) != NIL;
+    }
+
+    public V get(Object key) {
+	int p = getEntry(key);
+	return p == NIL ? null : value(p);
+    }
+
+    public V put(K key, V value) {
+	if (key == null && comparator == null)
+	    throw new NullPointerException();
+	int t = root;
+	int p = NIL;
+	int cmp = 0;
+	if (t == NIL)
+	    compare(key, key); // type (and possibly null) check
+	while (t != NIL) {
+	    p = t;
+	    cmp = compare(key, key(t));
+	    if (cmp < 0) {
+		t = left(t);
+	    } else if (cmp > 0) {
+		t = right(t);
+	    } else {
+		V oldValue = value(t);
+		setValue(t, value);
+		return oldValue;
+	    }
+	}
+
+	if (size + 1 == capacity)
+	    grow();
+	int e = size + 1;
+	setKey(e, key);
+	setValue(e, value);
+	setLeft(e, NIL);
+	setRight(e, NIL);
+	setParent(e, p);
+	setRank(e, 0);
+	size++;
+	modCount++;
+	if (p == NIL) {
+	    root = e;
+	} else {
+	    if (cmp < 0)
+		setLeft(p, e);
+	    else
+		setRight(p, e);
+	    if (rank(p) == 0) {
+		setRank(p, 1);
+		fixAfterInsert(p);
+	    }
+	}
+	return null;
+    }
+
+    public V remove(Object key) {
+	int p = getEntry(key);
+	if (p == NIL)
+	    return null;
+	V oldValue = value(p);
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    /**
+     * Returns the lowest key.
+     *
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public K firstKey() {
+	if (root == NIL)
+	    throw new NoSuchElementException();
+	return key(first());
+    }
+
+    /**
+     * Returns the highest key.
+     *
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public K lastKey() {
+	if (root == NIL)
+	    throw new NoSuchElementException();
+	int e = root;
+	while (right(e) != NIL)
+	    e = right(e);
+	return key(e);
+    }
+
+    private int first() {
+	int e = root;
+	if (e != NIL)
+	    while (left(e) != NIL)
+		e = left(e);
+	return e;
+    }
+
+    private int successor(int t) {
+	if (right(t) != NIL) {
+	    int p = right(t);
+	    while (left(p) != NIL)
+		p = left(p);
+	    return p;
+	}
+	int p = parent(t);
+	int ch = t;
+	while (p != NIL && ch == right(p)) {
+	    ch = p;
+	    p = parent(p);
+	}
+	return p;
+    }
+
+    private int predecessor(int t) {
+	int p = left(t);
+	while (right(p) != NIL)
+	    p = right(p);
+	return p;
+    }
+
+    private void fixAfterInsert(int x) {
+	for (int p = parent(x); p != NIL && rank(x) + 1 != rank(p); setRank(x, rank(x) + 1)) {
+	    if (left(p) == x) { // new node was added on the left
+		if (rank(p) >= rank(right(p)) + 2) {
+		    if (rank(x) >= rank(left(x)) + 2) {
+			setRank(x, rank(x) - 1);
+			setRank(right(x), rank(right(x)) + 1);
+			rotateLeft(x);
+		    }
+		    setRank(p, rank(p) - 1);
+		    rotateRight(p);
+		    break;
+		}
+	    } else {
+		if (rank(p) >= rank(left(p)) + 2) {
+		    if (rank(x) >= rank(right(x)) + 2) {
+			setRank(x, rank(x) - 1);
+			setRank(left(x), rank(left(x)) + 1);
+			rotateRight(x);
+		    }
+		    setRank(p, rank(p) - 1);
+		    rotateLeft(p);
+		    break;
+		}
+	    }
+	    x = p;
+	    p = parent(x);
+	}
+    }
+
+    /** From CLR */
+    private void rotateLeft(int p) {
+	int r = right(p);
+	setRight(p, left(r));
+	if (left(r) != NIL)
+	    setParent(left(r), p);
+	int pp = parent(p);
+	setParent(r, pp);
+	if (pp == NIL)
+	    root = r;
+	else if (left(pp) == p)
+	    setLeft(pp, r);
+	else
+	    setRight(pp, r);
+	setLeft(r, p);
+	setParent(p, r);
+	rotations++;
+    }
+
+    /** From CLR */
+    private void rotateRight(int p) {
+	int l = left(p);
+	setLeft(p, right(l));
+	if (right(l) != NIL)
+	    setParent(right(l), p);
+	int pp = parent(p);
+	setParent(l, pp);
+	if (pp == NIL)
+	    root = l;
+	else if (right(pp) == p)
+	    setRight(pp, l);
+	else
+	    setLeft(pp, l);
+	setRight(l, p);
+	setParent(p, l);
+	rotations++;
+    }
+
+    /**
+     * Delete entry p, rebalance the tree and move the last entry into the
+     * index that was freed, which is returned.
+     */
+    private int deleteEntry(int p) {
+	modCount++;
+
+	// If strictly internal, copy predecessor's mapping to p and then make p
+	// point to predecessor.
+	if (left(p) != NIL && right(p) != NIL) {
+	    int s = predecessor(p);
+	    setKey(p, key(s));
+	    setValue(p, value(s));
+	    p = s;
+	}
+
+	int replacement = left(p) != NIL ? left(p) : right(p);
+	int fixPoint = parent(p);
+	if (replacement != NIL)
+	    setParent(replacement, fixPoint);
+	if (fixPoint == NIL) {
+	    root = replacement;
+	} else {
+	    int sibling;
+	    if (left(fixPoint) == p) {
+		setLeft(fixPoint, replacement);
+		sibling = right(fixPoint);
+	    } else {
+		setRight(fixPoint, replacement);
+		sibling = left(fixPoint);
+	    }
+	    // a removed leaf is a phantom of rank -1
+	    fixAfterDelete(fixPoint, sibling, rank(fixPoint) - (replacement != NIL ? rank(replacement) : -1));
+	}
+
+	moveLast(p);
+	size--;
+	return p;
+    }
+
+    /**
+     * Fills the freed index {@code hole} with the entry at the last index and
+     * clears the last index, so the pool keeps no removed keys or values.
+     */
+    private void moveLast(int hole) {
+	int last = size;
+	if (hole != last) {
+	    setKey(hole, key(last));
+	    setValue(hole, value(last));
+	    setLeft(hole, left(last));
+	    setRight(hole, right(last));
+	    setParent(hole, parent(last));
+	    setRank(hole, rank(last));
+	    int p = parent(last);
+	    if (p == NIL)
+		root = hole;
+	    else if (left(p) == last)
+		setLeft(p, hole);
+	    else
+		setRight(p, hole);
+	    if (left(last) != NIL)
+		setParent(left(last), hole);
+	    if (right(last) != NIL)
+		setParent(right(last), hole);
+	}
+	setKey(last, null);
+	setValue(last, null);
+    }
+
+    private boolean isTwoTwo(int node) {
+	return rank(left(node)) == rank(right(node)) && rank(left(node)) + 2 == rank(node);
+    }
+
+    private void fixAfterDelete(int parent, int sibling, int deltaRank) {
+	while (deltaRank == 3 || rank(parent) == 1 && isTwoTwo(parent)) {
+	    int deltaRankSibling = rank(parent) - rank(sibling);
+	    if (deltaRankSibling == 2) {
+		setRank(parent, rank(parent) - 1); // demote and continue loop
+	    } else {
+		int deltaRankSiblingL = rank(sibling) - rank(left(sibling));
+		int deltaRankSiblingR = rank(sibling) - rank(right(sibling));
+
+		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
+		    // "double demote" in the orig. paper since both parent & sibling demote
+		    setRank(parent, rank(parent) - 1);
+		    setRank(sibling, rank(sibling) - 1);
+		} else if (right(parent) == sibling) { // delete was on the left
+		    if (deltaRankSiblingR == 1) { // single rotation
+			setRank(sibling, rank(sibling) + 1);
+			setRank(parent, rank(parent) - (left(sibling) == NIL ? 2 : 1));
+			rotateLeft(parent);
+		    } else { // double rotation
+			setRank(parent, rank(parent) - 2);
+			setRank(sibling, rank(sibling) - 1);
+			setRank(left(sibling), rank(left(sibling)) + 2);
+			rotateRight(sibling);
+			rotateLeft(parent);
+		    }
+		    break;
+		} else { // delete was on the right
+		    if (deltaRankSiblingL == 1) { // single rotation
+			setRank(sibling, rank(sibling) + 1);
+			setRank(parent, rank(parent) - (right(sibling) == NIL ? 2 : 1));
+			rotateRight(parent);
+		    } else { // double rotation
+			setRank(parent, rank(parent) - 2);
+			setRank(sibling, rank(sibling) - 1);
+			setRank(right(sibling), rank(right(sibling)) + 2);
+			rotateLeft(sibling);
+			rotateRight(parent);
+		    }
+		    break;
+		}
+	    }
+
+	    int node = parent;
+	    parent = parent(node);
+	    if (parent == NIL)
+		return;
+	    sibling = (left(parent) == node) ? right(parent) : left(parent);
+	    deltaRank = rank(parent) - rank(node);
+	}
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+	public Iterator<Map.Entry<K, V>> iterator() {
+	    return new EntryIterator();
+	}
+
+	public int size() {
+	    return size;
+	}
+
+	public void clear() {
+	    PooledWAVLTreeMap.this.clear();
+	}
+    }
+
+    /**
+     * A mapping read through its slot index.
+     */
+    final class SlotEntry implements Map.Entry<K, V> {
+	private final int index;
+
+	SlotEntry(int index) {
+	    this.index = index;
+	}
+
+	public K getKey() {
+	    return key(index);
+	}
+
+	public V getValue() {
+	    return value(index);
+	}
+
+	public V setValue(V value) {
+	    V oldValue = value(index);
+	    PooledWAVLTreeMap.this.setValue(index, value);
+	    return oldValue;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+	    return java.util.Objects.equals(getKey(), e.getKey()) && java.util.Objects.equals(getValue(), e.getValue());
+	}
+
+	public int hashCode() {
+	    return java.util.Objects.hashCode(getKey()) ^ java.util.Objects.hashCode(getValue());
+	}
+
+	public String toString() {
+	    return getKey() + "=" + getValue();
+	}
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+	int next = first();
+	int lastReturned = NIL;
+	int expectedModCount = modCount;
+
+	public boolean hasNext() {
+	    return next != NIL;
+	}
+
+	public Map.Entry<K, V> next() {
+	    int e = next;
+	    if (e == NIL)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return new SlotEntry(e);
+	}
+
+	public void remove() {
+	    if (lastReturned == NIL)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // the predecessor copied into an internal entry was already returned,
+	    // so only the move of the last entry can displace the next one
+	    int last = size;
+	    int hole = deleteEntry(lastReturned);
+	    if (next == last)
+		next = hole;
+	    expectedModCount = modCount;
+	    lastReturned = NIL;
+	}
+    }
+}
@@ -0,0 +1,82 @@
+package bbst_showdown;
+
+/**
+ * Java Flight Recorder events for the rebalancing work of
+ * {@link AVLTreeMap}, {@link WAVLTreeMap} and {@link TreeMapRedBlack}, so that
+ * latency spikes in a recording can be matched with rotation cascades and long
+ * retracing walks.
+ *
+ * <p>
+ * All events are off by default and are turned on with the {@code enabled}
+ * setting of a recording, for example in a {@code .jfc} file:
+ *
+ * <pre>
+ * &lt;event name="bbst_showdown.LargeDeleteFixup"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ *
+ * The event classes use {@code jdk.jfr}, which is not in the Java 8 API, so
+ * they live in {@code src/main/java11}, compiled for Java 11, and are loaded
+ * reflectively through {@link Sink}. On Java 8, or without the
+ * {@code jdk.jfr} module, {@link #AVAILABLE} is false and no event class is
+ * ever loaded.
+ *
+ * <p>
+ * While an event is disabled the trees pay one inlined check per rotation or
+ * fixup: {@link #AVAILABLE} is a constant, the sink has a single
+ * implementation and the event objects do not escape, so the JIT removes their
+ * allocation.
+ *
+ * @author David McManamon
+ */
+final class RebalanceEvents {
+
+    /**
+     * Receives the rebalancing work of the trees, implemented by
+     * {@code JfrRebalanceEvents}.
+     */
+    interface Sink {
+	void rotation(Object tree, boolean left);
+
+	void retrace(Object tree, boolean delete, int levels, int rotations, int size);
+    }
+
+    private static final Sink SINK = load();
+
+    /** whether the runtime has Flight Recorder and is Java 11 or later */
+    static final boolean AVAILABLE = SINK != null;
+
+    /**
+     * Delete fixups that walk at least this many levels also emit a
+     * {@code LargeDeleteFixup} event.
+     */
+    static final int LARGE_FIXUP_LEVELS = 8;
+
+    private RebalanceEvents() {
+    }
+
+    private static Sink load() {
+	try {
+	    return (Sink) Class.forName("bbst_showdown.JfrRebalanceEvents").getDeclaredConstructor().newInstance();
+	} catch (ReflectiveOperationException | LinkageError e) {
+	    return null;
+	}
+    }
+
+    static void rotation(Object tree, boolean left) {
+	SINK.rotation(tree, left);
+    }
+
+    /**
+     * Reports the fixup that followed an insert or delete.
+     *
+     * @param levels
+     *            number of times the fixup moved up to a parent
+     * @param rotations
+     *            rotations done by the fixup
+     */
+    static void retrace(Object tree, boolean delete, int levels, int rotations, int size) {
+	SINK.retrace(tree, delete, levels, rotations, size);
+    }
+}
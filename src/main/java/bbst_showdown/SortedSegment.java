@@ -0,0 +1,432 @@
+package bbst_showdown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import bbst_showdown.DurableAVLTreeMap.Codec;
+
+/**
+ * An immutable file of key-value records in ascending key order, written once
+ * from a sorted map and then read through a memory mapping.
+ *
+ * <p>
+ * Records are packed into blocks of about {@value #BLOCK_SIZE} bytes that are
+ * compressed with {@link Deflater}. The sparse index holds the first key of
+ * every block, so a lookup binary searches the index, which is kept in memory,
+ * and inflates a single block. A Bloom filter over all keys answers most
+ * lookups for absent keys without touching a block.
+ *
+ * <p>
+ * A record either carries a value or is a tombstone, which records that the key
+ * was removed and hides older segments' values for it.
+ *
+ * <pre>
+ * file   := block* index bloom footer
+ * block  := deflate(record*)
+ * record := flag(byte) key [value]          flag 0 = value, 1 = tombstone
+ * index  := count(int) (key offset(long) compressedLength(int) length(int))*
+ * bloom  := hashes(int) words(int) long*
+ * footer := indexOffset(long) bloomOffset(long) records(long) MAGIC(int)
+ * </pre>
+ *
+ * Lookups are not thread-safe; {@link LsmWAVLStore} serializes them.
+ *
+ * @author David McManamon
+ *
+ * @param <K> the type of keys, which must be {@link Comparable}
+ * @param <V> the type of values
+ */
+public final class SortedSegment<K, V> implements Closeable {
+
+    /** uncompressed block size the writer aims for */
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Largest segment file, as a segment is mapped into one buffer and
+     * addressed with int offsets.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final int MAGIC = 0x5347_4d31;
+    private static final int FOOTER = 8 + 8 + 8 + 4;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private static final byte VALUE = 0;
+    private static final byte TOMBSTONE = 1;
+
+    /**
+     * Value returned by {@link #lookup} for keys removed by this segment.
+     */
+    static final Object REMOVED = new Object();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final long records;
+
+    // sparse index
+    private final Object[] firstKeys;
+    private final long[] offsets;
+    private final int[] compressedLengths;
+    private final int[] lengths;
+
+    private final long[] bloom;
+    private final int bloomHashes;
+
+    // reused by lookups
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[BLOCK_SIZE];
+    private byte[] block = new byte[BLOCK_SIZE * 2];
+    private final Input input = new Input();
+    private final DataInputStream in = new DataInputStream(input);
+    private final Bytes probe = new Bytes();
+    private final DataOutputStream probeOut = new DataOutputStream(probe);
+
+    /**
+     * Maps an existing segment file and loads its index and Bloom filter.
+     */
+    public SortedSegment(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+	this.path = path;
+	this.keyCodec = keyCodec;
+	this.valueCodec = valueCodec;
+	channel = FileChannel.open(path, StandardOpenOption.READ);
+	try {
+	    long size = channel.size();
+	    if (size < FOOTER || size > MAX_SIZE)
+		throw new IOException("Not a segment: " + path);
+	    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	    int footer = (int) size - FOOTER;
+	    if (data.getInt(footer + 24) != MAGIC)
+		throw new IOException("Not a segment: " + path);
+	    int indexOffset = (int) data.getLong(footer);
+	    int bloomOffset = (int) data.getLong(footer + 8);
+	    records = data.getLong(footer + 16);
+
+	    ByteBuffer index = data.duplicate();
+	    index.position(indexOffset).limit(bloomOffset);
+	    DataInputStream indexIn = new DataInputStream(new ByteBufferInput(index));
+	    int blocks = indexIn.readInt();
+	    firstKeys = new Object[blocks];
+	    offsets = new long[blocks];
+	    compressedLengths = new int[blocks];
+	    lengths = new int[blocks];
+	    for (int i = 0; i < blocks; i++) {
+		firstKeys[i] = keyCodec.read(indexIn);
+		offsets[i] = indexIn.readLong();
+		compressedLengths[i] = indexIn.readInt();
+		lengths[i] = indexIn.readInt();
+	    }
+
+	    bloomHashes = data.getInt(bloomOffset);
+	    bloom = new long[data.getInt(bloomOffset + 4)];
+	    for (int i = 0; i < bloom.length; i++)
+		bloom[i] = data.getLong(bloomOffset + 8 + 8 * i);
+	} catch (IOException | RuntimeException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * Writes the entries of {@code sorted}, which must iterate in ascending key
+     * order, to a new segment at {@code path}. Values equal to
+     * {@link #REMOVED} are written as tombstones. The file is written under a
+     * temporary name, forced to disk and then renamed, so a crash never leaves
+     * a partial segment behind.
+     *
+     * @throws IOException
+     *             if the file cannot be written or the segment would be larger
+     *             than {@link #MAX_SIZE}; no file is left behind
+     */
+    static <K, V> void write(Path path, Iterator<? extends Map.Entry<K, ?>> sorted, int size, Codec<K> keyCodec,
+	    Codec<V> valueCodec) throws IOException {
+	Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+	long[] bloom = new long[Math.max(1, (int) (((long) size * BLOOM_BITS_PER_KEY + 63) >>> 6))];
+	ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+	DataOutputStream blockOut = new DataOutputStream(blockBytes);
+	ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+	DataOutputStream indexOut = new DataOutputStream(indexBytes);
+	Bytes keyBytes = new Bytes();
+	DataOutputStream keyOut = new DataOutputStream(keyBytes);
+	Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	byte[] deflated = new byte[BLOCK_SIZE * 2];
+
+	try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING)) {
+	    long offset = 0, records = 0;
+	    int blocks = 0;
+	    K first = null;
+	    while (true) {
+		Map.Entry<K, ?> e = sorted.hasNext() ? sorted.next() : null;
+		if (e == null || blockBytes.size() >= BLOCK_SIZE) {
+		    if (blockBytes.size() > 0) {
+			// close the block
+			deflater.reset();
+			deflater.setInput(blockBytes.toByteArray());
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished()) {
+			    if (compressedLength == deflated.length)
+				deflated = Arrays.copyOf(deflated, deflated.length * 2);
+			    compressedLength += deflater.deflate(deflated, compressedLength,
+				    deflated.length - compressedLength);
+			}
+			checkSize(path, offset + compressedLength);
+			writeFully(out, ByteBuffer.wrap(deflated, 0, compressedLength));
+			keyCodec.write(indexOut, first);
+			indexOut.writeLong(offset);
+			indexOut.writeInt(compressedLength);
+			indexOut.writeInt(blockBytes.size());
+			offset += compressedLength;
+			blocks++;
+			blockBytes.reset();
+		    }
+		    if (e == null)
+			break;
+		}
+		if (blockBytes.size() == 0)
+		    first = e.getKey();
+
+		keyBytes.reset();
+		keyCodec.write(keyOut, e.getKey());
+		bloomAdd(bloom, hash(keyBytes.array(), keyBytes.size()));
+		if (e.getValue() == REMOVED) {
+		    blockOut.writeByte(TOMBSTONE);
+		    keyBytes.writeTo(blockOut);
+		} else {
+		    blockOut.writeByte(VALUE);
+		    keyBytes.writeTo(blockOut);
+		    @SuppressWarnings("unchecked")
+		    V value = (V) e.getValue();
+		    valueCodec.write(blockOut, value);
+		}
+		records++;
+	    }
+	    deflater.end();
+
+	    long indexOffset = offset;
+	    ByteBuffer head = ByteBuffer.allocate(4);
+	    head.putInt(0, blocks);
+	    writeFully(out, head);
+	    writeFully(out, ByteBuffer.wrap(indexBytes.toByteArray()));
+	    long bloomOffset = indexOffset + 4 + indexBytes.size();
+
+	    ByteBuffer tail = ByteBuffer.allocate(8 + 8 * bloom.length + FOOTER);
+	    checkSize(path, bloomOffset + tail.capacity());
+	    tail.putInt(BLOOM_HASHES).putInt(bloom.length);
+	    for (long word : bloom)
+		tail.putLong(word);
+	    tail.putLong(indexOffset).putLong(bloomOffset).putLong(records).putInt(MAGIC);
+	    tail.flip();
+	    writeFully(out, tail);
+	    out.force(true);
+	} catch (IOException | RuntimeException e) {
+	    Files.deleteIfExists(tmp);
+	    throw e;
+	}
+	Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void checkSize(Path path, long size) throws IOException {
+	if (size > MAX_SIZE)
+	    throw new IOException("Segment larger than " + MAX_SIZE + " bytes: " + path);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer bb) throws IOException {
+	while (bb.hasRemaining())
+	    out.write(bb);
+    }
+
+    /**
+     * Returns the value for {@code key}, {@link #REMOVED} if this segment holds
+     * a tombstone for it, or null if the segment knows nothing about it.
+     */
+    @SuppressWarnings("unchecked")
+    Object lookup(K key) throws IOException {
+	probe.reset();
+	keyCodec.write(probeOut, key);
+	if (!bloomMightContain(hash(probe.array(), probe.size())))
+	    return null;
+
+	// last block whose first key is <= key
+	int lo = 0, hi = firstKeys.length - 1, b = -1;
+	Comparable<? super K> k = (Comparable<? super K>) key;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (k.compareTo((K) firstKeys[mid]) >= 0) {
+		b = mid;
+		lo = mid + 1;
+	    } else {
+		hi = mid - 1;
+	    }
+	}
+	if (b < 0)
+	    return null;
+
+	int length = inflate(b);
+	input.reset(block, length);
+	while (input.available() > 0) {
+	    byte flag = in.readByte();
+	    K candidate = keyCodec.read(in);
+	    V value = flag == VALUE ? valueCodec.read(in) : null;
+	    int cmp = k.compareTo(candidate);
+	    if (cmp == 0)
+		return flag == VALUE ? value : REMOVED;
+	    if (cmp < 0)
+		break;
+	}
+	return null;
+    }
+
+    /**
+     * Inflates block {@code b} of the mapped file into {@code block} and
+     * returns its length.
+     */
+    private int inflate(int b) throws IOException {
+	int clen = compressedLengths[b], length = lengths[b];
+	if (compressed.length < clen)
+	    compressed = new byte[clen];
+	if (block.length < length)
+	    block = new byte[length];
+	ByteBuffer src = data.duplicate();
+	src.position((int) offsets[b]);
+	src.get(compressed, 0, clen);
+	inflater.reset();
+	inflater.setInput(compressed, 0, clen);
+	try {
+	    int n = 0;
+	    while (n < length && !inflater.finished())
+		n += inflater.inflate(block, n, length - n);
+	    return n;
+	} catch (DataFormatException e) {
+	    throw new IOException("Corrupt block " + b + " in " + path, e);
+	}
+    }
+
+    /**
+     * Number of records, including tombstones.
+     */
+    public long records() {
+	return records;
+    }
+
+    public Path path() {
+	return path;
+    }
+
+    public void close() throws IOException {
+	inflater.end();
+	channel.close();
+    }
+
+    public String toString() {
+	return "Segment " + path.getFileName() + " of " + records + " records in " + firstKeys.length + " blocks";
+    }
+
+    // Bloom filter, double hashing over one 64-bit hash of the encoded key
+
+    private static void bloomAdd(long[] bits, long hash) {
+	long nbits = (long) bits.length << 6;
+	int h1 = (int) hash, h2 = (int) (hash >>> 32);
+	for (int i = 1; i <= BLOOM_HASHES; i++) {
+	    long bit = ((h1 + i * h2) & 0x7fffffffL) % nbits;
+	    bits[(int) (bit >>> 6)] |= 1L << bit;
+	}
+    }
+
+    private boolean bloomMightContain(long hash) {
+	long nbits = (long) bloom.length << 6;
+	int h1 = (int) hash, h2 = (int) (hash >>> 32);
+	for (int i = 1; i <= bloomHashes; i++) {
+	    long bit = ((h1 + i * h2) & 0x7fffffffL) % nbits;
+	    if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * 64-bit FNV-1a of the encoded key, finished with a MurmurHash3 mix so both
+     * halves are usable as independent hashes.
+     */
+    static long hash(byte[] bytes, int length) {
+	long h = 0xcbf29ce484222325L;
+	for (int i = 0; i < length; i++) {
+	    h ^= bytes[i] & 0xff;
+	    h *= 0x100000001b3L;
+	}
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+    /**
+     * Byte sink that exposes its array so encoded keys can be hashed in place.
+     */
+    private static final class Bytes extends ByteArrayOutputStream {
+	byte[] array() {
+	    return buf;
+	}
+    }
+
+    /**
+     * Input stream over an inflated block, reused for every lookup.
+     */
+    private static final class Input extends ByteArrayInputStream {
+	Input() {
+	    super(new byte[0]);
+	}
+
+	void reset(byte[] bytes, int length) {
+	    buf = bytes;
+	    pos = mark = 0;
+	    count = length;
+	}
+    }
+
+    /**
+     * Input stream over a region of the mapped file.
+     */
+    private static final class ByteBufferInput extends java.io.InputStream {
+	private final ByteBuffer bb;
+
+	ByteBufferInput(ByteBuffer bb) {
+	    this.bb = bb;
+	}
+
+	public int read() {
+	    return bb.hasRemaining() ? bb.get() & 0xff : -1;
+	}
+
+	public int read(byte[] b, int off, int len) {
+	    if (!bb.hasRemaining())
+		return -1;
+	    len = Math.min(len, bb.remaining());
+	    bb.get(b, off, len);
+	    return len;
+	}
+    }
+}
@@ -0,0 +1,454 @@
+package bbst_showdown;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A top-down splay tree (Sleator and Tarjan, "Self-Adjusting Binary Search
+ * Trees", 1985) with the API of {@link java.util.TreeMap}. Every search for a
+ * key, including {@code get} and {@code containsKey}, moves the entry for the
+ * key, or the last entry on its search path, to the root. No balance
+ * information is stored; instead recently used keys stay near the root, so
+ * skewed and temporally local access costs far less than log(n) per
+ * operation, while any sequence of m operations costs O(m log n) amortized.
+ *
+ * <p>Because lookups restructure the tree, concurrent readers need the same
+ * external synchronization as writers. Lookups do not change
+ * {@code modCount}, so they may be interleaved with iteration: splaying
+ * preserves the order of entries and iterators follow parent links.
+ *
+ * <p>Navigation methods such as {@link #ceilingEntry} and the views search
+ * without splaying.
+ *
+ * @author David McManamon
+ */
+public class SplayTreeMap<K,V> extends AbstractBinaryTreeMap<K,V> {
+	
+/**
+ * Holds the left and right trees assembled during a splay.
+ */
+private transient Entry<K,V> header = new Entry<>(null, null, null);
+
+/**
+ * Constructs a new, empty tree map, using the natural ordering of its
+ * keys.  All keys inserted into the map must implement the {@link
+ * Comparable} interface.  Furthermore, all such keys must be
+ * <em>mutually comparable</em>: {@code k1.compareTo(k2)} must not throw
+ * a {@code ClassCastException} for any keys {@code k1} and
+ * {@code k2} in the map.  If the user attempts to put a key into the
+ * map that violates this constraint (for example, the user attempts to
+ * put a string key into a map whose keys are integers), the
+ * {@code put(Object key, Object value)} call will throw a
+ * {@code ClassCastException}.
+ */
+public SplayTreeMap() {
+    super(null);
+}
+
+/**
+ * Constructs a new, empty tree map, ordered according to the given
+ * comparator.  All keys inserted into the map must be <em>mutually
+ * comparable</em> by the given comparator: {@code comparator.compare(k1,
+ * k2)} must not throw a {@code ClassCastException} for any keys
+ * {@code k1} and {@code k2} in the map.  If the user attempts to put
+ * a key into the map that violates this constraint, the {@code put(Object
+ * key, Object value)} call will throw a
+ * {@code ClassCastException}.
+ *
+ * @param comparator the comparator that will be used to order this map.
+ *        If {@code null}, the {@linkplain Comparable natural
+ *        ordering} of the keys will be used.
+ */
+public SplayTreeMap(Comparator<? super K> comparator) {
+    super(comparator);
+}
+
+/**
+ * Constructs a new tree map containing the same mappings as the given
+ * map, ordered according to the <em>natural ordering</em> of its keys.
+ * All keys inserted into the new map must implement the {@link
+ * Comparable} interface.  Furthermore, all such keys must be
+ * <em>mutually comparable</em>: {@code k1.compareTo(k2)} must not throw
+ * a {@code ClassCastException} for any keys {@code k1} and
+ * {@code k2} in the map.  This method runs in n*log(n) time.
+ *
+ * @param  m the map whose mappings are to be placed in this map
+ * @throws ClassCastException if the keys in m are not {@link Comparable},
+ *         or are not mutually comparable
+ * @throws NullPointerException if the specified map is null
+ */
+public SplayTreeMap(Map<? extends K, ? extends V> m) {
+    super(null);
+    putAll(m);
+}
+
+/**
+ * Constructs a new tree map containing the same mappings and
+ * using the same ordering as the specified sorted map.  This
+ * method runs in linear time.
+ *
+ * @param  m the sorted map whose mappings are to be placed in this map,
+ *         and whose comparator is to be used to sort this map
+ * @throws NullPointerException if the specified map is null
+ */
+public SplayTreeMap(SortedMap<K, ? extends V> m) {
+    super(m.comparator());
+    try {
+        buildFromSorted(m.size(), m.entrySet().iterator(), null, null);
+    } catch (java.io.IOException cannotHappen) {
+    } catch (ClassNotFoundException cannotHappen) {
+    }
+}
+
+public String toString() {
+	return "Splay tree   of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations + ", comparisons " + comparisons;
+}
+
+/**
+ * Returns this map's entry for the given key, or {@code null} if the map
+ * does not contain an entry for the key.
+ *
+ * @return this map's entry for the given key, or {@code null} if the map
+ *         does not contain an entry for the key
+ * @throws ClassCastException if the specified key cannot be compared
+ *         with the keys currently in the map
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+final Entry<K,V> getEntry(Object key) {
+    if (root == null) {
+        if (key == null && comparator == null)
+            throw new NullPointerException();
+        return null;
+    }
+    return splay(key) == 0 ? root : null;
+}
+
+/**
+ * Top-down splay.  Descends from the root towards {@code key}, hanging the
+ * entries passed on the way onto a left tree of smaller keys and a right
+ * tree of larger ones, then reassembles them under the entry where the
+ * search ended, which becomes the root.  When two steps in a row go the same
+ * way the pair is rotated first (zig-zig), roughly halving the depth of the
+ * path.  Each entry is compared with {@code key} once.
+ *
+ * @return the result of comparing {@code key} with the new root's key
+ */
+private int splay(Object key) {
+    Entry<K,V> t = root;
+    Entry<K,V> l = header, r = header;
+    int cmp = compare(key, t.key);
+    comparisons++;
+    for (;;) {
+        if (cmp < 0) {
+            Entry<K,V> y = t.left;
+            if (y == null)
+                break;
+            int c = compare(key, y.key);
+            comparisons++;
+            if (c < 0) {
+                // rotate right
+                t.left = y.right;
+                if (y.right != null)
+                    y.right.parent = t;
+                y.right = t;
+                t.parent = y;
+                rotations++;
+                t = y;
+                cmp = c;
+                if ((y = t.left) == null)
+                    break;
+                c = compare(key, y.key);
+                comparisons++;
+            }
+            // link right
+            r.left = t;
+            t.parent = r;
+            r = t;
+            t = y;
+            cmp = c;
+        } else if (cmp > 0) {
+            Entry<K,V> y = t.right;
+            if (y == null)
+                break;
+            int c = compare(key, y.key);
+            comparisons++;
+            if (c > 0) {
+                // rotate left
+                t.right = y.left;
+                if (y.left != null)
+                    y.left.parent = t;
+                y.left = t;
+                t.parent = y;
+                rotations++;
+                t = y;
+                cmp = c;
+                if ((y = t.right) == null)
+                    break;
+                c = compare(key, y.key);
+                comparisons++;
+            }
+            // link left
+            l.right = t;
+            t.parent = l;
+            l = t;
+            t = y;
+            cmp = c;
+        } else {
+            break;
+        }
+    }
+    // assemble
+    l.right = t.left;
+    if (t.left != null)
+        t.left.parent = l;
+    r.left = t.right;
+    if (t.right != null)
+        t.right.parent = r;
+    t.left = header.right;
+    if (t.left != null)
+        t.left.parent = t;
+    t.right = header.left;
+    if (t.right != null)
+        t.right.parent = t;
+    t.parent = null;
+    header.left = header.right = null;
+    root = t;
+    return cmp;
+}
+
+/**
+ * Associates the specified value with the specified key in this map.
+ * If the map previously contained a mapping for the key, the old
+ * value is replaced.
+ *
+ * @param key key with which the specified value is to be associated
+ * @param value value to be associated with the specified key
+ *
+ * @return the previous value associated with {@code key}, or
+ *         {@code null} if there was no mapping for {@code key}.
+ *         (A {@code null} return can also indicate that the map
+ *         previously associated {@code null} with {@code key}.)
+ * @throws ClassCastException if the specified key cannot be compared
+ *         with the keys currently in the map
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+public V put(K key, V value) {
+    return put(key, value, true);
+}
+
+/**
+ * Associates the specified value with the specified key in this map. If
+ * {@code replaceOld} is false an existing non-null value is left in place.
+ * Shared by {@link #put(Object, Object)} and
+ * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+ */
+private V put(K key, V value, boolean replaceOld) {
+    if (root == null) {
+        addEntryToEmptyMap(key, value);
+        return null;
+    }
+    int cmp = splay(key);
+    if (cmp == 0) {
+        Entry<K,V> t = root;
+        V oldValue = t.value;
+        if (replaceOld || oldValue == null)
+            t.value = value;
+        return oldValue;
+    }
+    addEntry(key, value, cmp);
+    return null;
+}
+
+private void addEntryToEmptyMap(K key, V value) {
+    compare(key, key); // type (and possibly null) check
+
+    root = new Entry<>(key, value, null);
+    size = 1;
+    modCount++;
+}
+
+/**
+ * Makes a new entry the root after a splay for its key left the nearest key
+ * at the root.  {@code cmp} is the result of comparing {@code key} with the
+ * root's key, which decides on which side the old root goes.
+ */
+private void addEntry(K key, V value, int cmp) {
+    Entry<K,V> t = root;
+    Entry<K,V> e = new Entry<>(key, value, null);
+    if (cmp < 0) {
+        e.left = t.left;
+        t.left = null;
+        e.right = t;
+    } else {
+        e.right = t.right;
+        t.right = null;
+        e.left = t;
+    }
+    if (e.left != null)
+        e.left.parent = e;
+    if (e.right != null)
+        e.right.parent = e;
+    root = e;
+    size++;
+    modCount++;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * @throws ClassCastException {@inheritDoc}
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+@Override
+public V putIfAbsent(K key, V value) {
+    return put(key, value, false);
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The key is splayed to the root; if it is absent the new entry becomes
+ * the root. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the mapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         mapping function modified this map
+ */
+@Override
+public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(mappingFunction);
+    V newValue;
+    if (root == null) {
+        newValue = callMappingFunctionWithCheck(key, mappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    if (splay(key) == 0) {
+        Entry<K,V> t = root;
+        if (t.value == null)
+            t.value = callMappingFunctionWithCheck(key, mappingFunction);
+        return t.value;
+    }
+    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+    if (newValue != null) {
+        // splay again in case the function looked up other keys
+        addEntry(key, newValue, splay(key));
+        return newValue;
+    }
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The key is splayed to the root; if it is absent the new entry becomes
+ * the root. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    V newValue;
+    if (root == null) {
+        newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    if (splay(key) == 0)
+        return remapValue(root, key, remappingFunction);
+    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+    if (newValue != null) {
+        // splay again in case the function looked up other keys
+        addEntry(key, newValue, splay(key));
+        return newValue;
+    }
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The key is splayed to the root; if it is absent the new entry becomes
+ * the root. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    Objects.requireNonNull(value);
+    if (root == null) {
+        addEntryToEmptyMap(key, value);
+        return value;
+    }
+    int cmp = splay(key);
+    if (cmp == 0)
+        return mergeValue(root, value, remappingFunction);
+    addEntry(key, value, cmp);
+    return value;
+}
+
+/**
+ * Delete node p: splay it to the root, then splay the largest key of its
+ * left subtree to the top of that subtree, where it has no right child, and
+ * hang the right subtree there.  The entry itself is unlinked, so other
+ * entries (and iterators positioned on them) are unaffected.
+ */
+final void deleteEntry(Entry<K,V> p) {
+    modCount++;
+    size--;
+    if (root != p)
+        splay(p.key);
+    Entry<K,V> l = p.left, r = p.right;
+    if (l == null) {
+        root = r;
+        if (r != null)
+            r.parent = null;
+    } else {
+        root = l;
+        l.parent = null;
+        if (r != null) {
+            splay(p.key);
+            root.right = r;
+            r.parent = root;
+        }
+    }
+    p.left = p.right = p.parent = null;
+}
+
+@Override
+void reinitialize() {
+    header = new Entry<>(null, null, null);
+}
+
+private static final long serialVersionUID = -4120958211457366531L;
+}
@@ -0,0 +1,652 @@
+package bbst_showdown;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An AVL tree map from {@code String} keys, in {@code String.compareTo}
+ * order, that stores each key relative to its parent's: an entry keeps the
+ * length of the prefix its key shares with its parent's key and the rest of
+ * the key. The root keeps its whole key.
+ *
+ * <p>
+ * For hierarchical keys such as {@code "tenant/service/metric/..."} most of
+ * each key is shared with the parent, so the tree holds little more than the
+ * distinct tails. The shared lengths also spare comparisons: a search knows
+ * how much of the search key agrees with the parent's key, and where that
+ * differs from the entry's shared length the order follows from the two
+ * lengths alone, without reading a character. Only where they are equal are
+ * characters compared, starting after the shared prefix.
+ *
+ * <p>
+ * Keys are rebuilt from the root when they are needed: by the iterators, which
+ * keep the keys of the entries on their stack, and by rotations and deletes,
+ * which re-express the two or three entries whose parent changes relative to
+ * their new parent. {@link #prefixRange(String)} scans the keys that start with
+ * a prefix, in order, after a single descent.
+ *
+ * <p>
+ * Balancing is {@link AVLTreeMap}'s balance factor insert and delete
+ * retracing. This implementation provides guaranteed log(n) time cost for the
+ * {@code containsKey}, {@code get}, {@code put} and {@code remove} operations.
+ *
+ * @author David McManamon
+ *
+ * @param <V>
+ *            the type of mapped values
+ */
+public class StringAVLTreeMap<V> extends AbstractMap<String, V> {
+
+    /** deeper than any AVL tree of at most 2^31 entries */
+    private static final int MAX_HEIGHT = 64;
+
+    private transient Entry<V> root = null;
+
+    private transient int size = 0;
+
+    private transient int modCount = 0;
+
+    private transient int rotations = 0;
+
+    public int size() {
+	return size;
+    }
+
+    public int rotations() {
+	return rotations;
+    }
+
+    /**
+     * Returns the height of the tree, -1 if it is empty, following the taller
+     * child recorded in each balance factor.
+     */
+    public int treeHeight() {
+	int h = -1;
+	for (Entry<V> e = root; e != null; e = e.balance > 0 ? e.right : e.left)
+	    h++;
+	return h;
+    }
+
+    public boolean containsKey(Object key) {
+	return getEntry((String) key) != null;
+    }
+
+    public V get(Object key) {
+	Entry<V> p = getEntry((String) key);
+	return (p == null ? null : p.value);
+    }
+
+    /**
+     * Finds the entry of {@code key}. {@code m} is the length of the prefix the
+     * key shares with the parent of the entry being compared and {@code dir}
+     * the side of the parent the search went to.
+     */
+    private Entry<V> getEntry(String key) {
+	int length = key.length();
+	int m = 0, dir = 0;
+	Entry<V> p = root;
+	while (p != null) {
+	    int s = p.shared, cmp;
+	    if (m < s) { // p agrees with its parent where the key does not
+		cmp = dir;
+	    } else if (m > s) { // the key agrees with the parent where p does not
+		cmp = -dir;
+		m = s;
+	    } else {
+		String suffix = p.suffix;
+		int n = suffix.length(), i = 0;
+		while (i < n && m + i < length && key.charAt(m + i) == suffix.charAt(i))
+		    i++;
+		if (i == n)
+		    cmp = m + i == length ? 0 : 1;
+		else
+		    cmp = m + i == length ? -1 : key.charAt(m + i) - suffix.charAt(i);
+		m += i;
+	    }
+	    if (cmp < 0) {
+		p = p.left;
+		dir = -1;
+	    } else if (cmp > 0) {
+		p = p.right;
+		dir = 1;
+	    } else
+		return p;
+	}
+	return null;
+    }
+
+    public V put(String key, V value) {
+	int length = key.length();
+	Entry<V> t = root;
+	if (t == null) {
+	    root = new Entry<>(0, key, value, null);
+	    size = 1;
+	    modCount++;
+	    return null;
+	}
+	int m = 0, dir = 0, cmp;
+	Entry<V> parent;
+	// the same descent as getEntry, ending with m the prefix shared with parent
+	do {
+	    parent = t;
+	    int s = t.shared;
+	    if (m < s) {
+		cmp = dir;
+	    } else if (m > s) {
+		cmp = -dir;
+		m = s;
+	    } else {
+		String suffix = t.suffix;
+		int n = suffix.length(), i = 0;
+		while (i < n && m + i < length && key.charAt(m + i) == suffix.charAt(i))
+		    i++;
+		if (i == n)
+		    cmp = m + i == length ? 0 : 1;
+		else
+		    cmp = m + i == length ? -1 : key.charAt(m + i) - suffix.charAt(i);
+		m += i;
+	    }
+	    if (cmp < 0) {
+		t = t.left;
+		dir = -1;
+	    } else if (cmp > 0) {
+		t = t.right;
+		dir = 1;
+	    } else
+		return t.setValue(value);
+	} while (t != null);
+
+	Entry<V> e = new Entry<>(m, key.substring(m), value, parent);
+	if (cmp < 0) {
+	    parent.left = e;
+	    parent.balance--;
+	} else {
+	    parent.right = e;
+	    parent.balance++;
+	}
+	fixAfterInsertion(parent);
+
+	size++;
+	modCount++;
+	return null;
+    }
+
+    public V remove(Object key) {
+	Entry<V> p = getEntry((String) key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+
+    public void clear() {
+	modCount++;
+	size = 0;
+	root = null;
+    }
+
+    /**
+     * Returns the mappings whose keys start with {@code prefix}, in key order.
+     * The iteration finds the first such key in one descent and then walks in
+     * order until a key no longer starts with the prefix. Its iterator supports
+     * removal.
+     */
+    public Iterable<Map.Entry<String, V>> prefixRange(String prefix) {
+	Objects.requireNonNull(prefix);
+	return () -> new EntryIterator(prefix);
+    }
+
+    static final class Entry<V> {
+	int shared; // length of the prefix shared with the parent's key
+	String suffix; // the rest of the key
+	V value;
+	Entry<V> left = null;
+	Entry<V> right = null;
+	Entry<V> parent = null;
+	byte balance = 0; // Height(RightSubtree(N)) - Height(LeftSubtree(N))
+
+	Entry(int shared, String suffix, V value, Entry<V> parent) {
+	    this.shared = shared;
+	    this.suffix = suffix;
+	    this.value = value;
+	    this.parent = parent;
+	}
+
+	V setValue(V value) {
+	    V oldValue = this.value;
+	    this.value = value;
+	    return oldValue;
+	}
+    }
+
+    /**
+     * Returns the key of {@code e}, rebuilt from the root.
+     */
+    static <V> String keyOf(Entry<V> e) {
+	if (e.parent == null)
+	    return e.suffix;
+	int depth = 0, length = 0;
+	for (Entry<V> x = e; x != null; x = x.parent) {
+	    depth++;
+	    length = Math.max(length, x.shared + x.suffix.length());
+	}
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Entry<V>[] path = new Entry[depth];
+	for (Entry<V> x = e; x != null; x = x.parent)
+	    path[--depth] = x;
+	StringBuilder sb = new StringBuilder(length);
+	for (Entry<V> x : path) {
+	    sb.setLength(x.shared);
+	    sb.append(x.suffix);
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Returns the key of {@code e} given the key of its parent.
+     */
+    static <V> String childKey(String parentKey, Entry<V> e) {
+	if (e.shared == 0)
+	    return e.suffix;
+	return new StringBuilder(e.shared + e.suffix.length()).append(parentKey, 0, e.shared).append(e.suffix)
+		.toString();
+    }
+
+    /**
+     * Returns the length of the common prefix of {@code a} and {@code b}, or 0
+     * if {@code b} is null.
+     */
+    static int sharedPrefix(String a, String b) {
+	if (b == null)
+	    return 0;
+	int n = Math.min(a.length(), b.length()), i = 0;
+	while (i < n && a.charAt(i) == b.charAt(i))
+	    i++;
+	return i;
+    }
+
+    /**
+     * Re-expresses {@code key}, the unchanged key of {@code e}, relative to
+     * {@code parentKey}, the key of its new parent or null at the root.
+     */
+    private static <V> void rebase(Entry<V> e, String key, String parentKey) {
+	int s = sharedPrefix(key, parentKey);
+	if (s != e.shared) {
+	    e.shared = s;
+	    e.suffix = key.substring(s);
+	}
+    }
+
+    private void fixAfterInsertion(Entry<V> x) {
+	while (x.balance != 0) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+		    rotateRight(x.right);
+		    rotateLeft(x);
+		}
+		break;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else { // x.left.balance = 1
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+		    rotateLeft(x.left);
+		    rotateRight(x);
+		}
+		break;
+	    }
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x)
+		x.parent.balance--;
+	    else
+		x.parent.balance++;
+
+	    x = x.parent;
+	}
+    }
+
+    /**
+     * From CLR, then re-expresses the keys of the three entries whose parent
+     * changed.
+     */
+    private void rotateLeft(Entry<V> p) {
+	Entry<V> r = p.right, rl = r.left, pp = p.parent;
+	String ppKey = pp == null ? null : keyOf(pp);
+	String pKey = pp == null ? p.suffix : childKey(ppKey, p);
+	String rKey = childKey(pKey, r);
+	String rlKey = rl == null ? null : childKey(rKey, rl);
+
+	p.right = rl;
+	if (rl != null)
+	    rl.parent = p;
+	r.parent = pp;
+	if (pp == null)
+	    root = r;
+	else if (pp.left == p)
+	    pp.left = r;
+	else
+	    pp.right = r;
+	r.left = p;
+	p.parent = r;
+	rotations++;
+
+	rebase(r, rKey, ppKey);
+	rebase(p, pKey, rKey);
+	if (rl != null)
+	    rebase(rl, rlKey, pKey);
+    }
+
+    /**
+     * From CLR, then re-expresses the keys of the three entries whose parent
+     * changed.
+     */
+    private void rotateRight(Entry<V> p) {
+	Entry<V> l = p.left, lr = l.right, pp = p.parent;
+	String ppKey = pp == null ? null : keyOf(pp);
+	String pKey = pp == null ? p.suffix : childKey(ppKey, p);
+	String lKey = childKey(pKey, l);
+	String lrKey = lr == null ? null : childKey(lKey, lr);
+
+	p.left = lr;
+	if (lr != null)
+	    lr.parent = p;
+	l.parent = pp;
+	if (pp == null)
+	    root = l;
+	else if (pp.right == p)
+	    pp.right = l;
+	else
+	    pp.left = l;
+	l.right = p;
+	p.parent = l;
+	rotations++;
+
+	rebase(l, lKey, ppKey);
+	rebase(p, pKey, lKey);
+	if (lr != null)
+	    rebase(lr, lrKey, pKey);
+    }
+
+    private void deleteEntry(Entry<V> p) {
+	modCount++;
+	size--;
+
+	// If strictly internal, copy successor's key and value to p and then make
+	// p point to successor. p's children are re-expressed against its new key.
+	if (p.left != null && p.right != null) {
+	    Entry<V> s = successor(p);
+	    String sKey = keyOf(s);
+	    String parentKey = p.parent == null ? null : keyOf(p.parent);
+	    String pKey = p.parent == null ? p.suffix : childKey(parentKey, p);
+	    String leftKey = childKey(pKey, p.left), rightKey = childKey(pKey, p.right);
+	    p.shared = sharedPrefix(sKey, parentKey);
+	    p.suffix = sKey.substring(p.shared);
+	    rebase(p.left, leftKey, sKey);
+	    rebase(p.right, rightKey, sKey);
+	    p.value = s.value;
+	    p = s;
+	}
+
+	Entry<V> replacement = (p.left != null ? p.left : p.right);
+	Entry<V> parent = p.parent;
+	if (replacement != null) {
+	    String pKey = keyOf(p);
+	    rebase(replacement, childKey(pKey, replacement), parent == null ? null : keyOf(parent));
+	    replacement.parent = parent;
+	}
+	p.left = p.right = p.parent = null;
+	if (parent == null) {
+	    root = replacement;
+	    return;
+	}
+
+	boolean shorterLeft = parent.left == p;
+	if (shorterLeft) {
+	    parent.left = replacement;
+	    parent.balance++;
+	} else {
+	    parent.right = replacement;
+	    parent.balance--;
+	}
+	if (parent.balance != (shorterLeft ? 1 : -1)) // else parent kept its height
+	    fixAfterDeletion(parent);
+    }
+
+    private void fixAfterDeletion(Entry<V> x) {
+	while (true) {
+	    if (x.balance == 2) { // right heavy by 2?
+		if (x.right.balance == 1) {
+		    x.balance = 0;
+		    x.right.balance = 0;
+		    rotateLeft(x);
+		} else if (x.right.balance == 0) {
+		    x.balance = 1;
+		    x.right.balance = -1;
+		    rotateLeft(x);
+		    break;
+		} else { // x.right.balance = -1
+		    int rlBalance = x.right.left.balance;
+		    x.right.left.balance = 0;
+		    x.right.balance = 0;
+		    x.balance = 0;
+		    if (rlBalance == 1)
+			x.balance = -1;
+		    else if (rlBalance == -1)
+			x.right.balance = 1;
+		    rotateRight(x.right);
+		    rotateLeft(x);
+		}
+		x = x.parent;
+	    } else if (x.balance == -2) {
+		if (x.left.balance == -1) {
+		    x.balance = 0;
+		    x.left.balance = 0;
+		    rotateRight(x);
+		} else if (x.left.balance == 0) {
+		    x.balance = -1;
+		    x.left.balance = 1;
+		    rotateRight(x);
+		    break;
+		} else { // (x.left.balance == 1)
+		    int lrBalance = x.left.right.balance;
+		    x.left.right.balance = 0;
+		    x.left.balance = 0;
+		    x.balance = 0;
+		    if (lrBalance == 1)
+			x.left.balance = -1;
+		    else if (lrBalance == -1)
+			x.balance = 1;
+		    rotateLeft(x.left);
+		    rotateRight(x);
+		}
+		x = x.parent;
+	    }
+
+	    if (x.parent == null)
+		break;
+	    if (x.parent.left == x) {
+		x.parent.balance++;
+		if (x.parent.balance == 1)
+		    break;
+	    } else {
+		x.parent.balance--;
+		if (x.parent.balance == -1)
+		    break;
+	    }
+	    x = x.parent;
+	}
+    }
+
+    static <V> Entry<V> successor(Entry<V> t) {
+	if (t == null)
+	    return null;
+	else if (t.right != null) {
+	    Entry<V> p = t.right;
+	    while (p.left != null)
+		p = p.left;
+	    return p;
+	} else {
+	    Entry<V> p = t.parent;
+	    Entry<V> ch = t;
+	    while (p != null && ch == p.right) {
+		ch = p;
+		p = p.parent;
+	    }
+	    return p;
+	}
+    }
+
+    private transient EntrySet entrySet;
+
+    /**
+     * Returns a view of the mappings in key order. Its iterator supports
+     * removal.
+     */
+    public Set<Map.Entry<String, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<String, V>> {
+	public Iterator<Map.Entry<String, V>> iterator() {
+	    return new EntryIterator(null);
+	}
+
+	public int size() {
+	    return StringAVLTreeMap.this.size();
+	}
+
+	public void clear() {
+	    StringAVLTreeMap.this.clear();
+	}
+    }
+
+    /**
+     * A mapping returned by the iterators, writing values through to its
+     * entry.
+     */
+    static final class IteratorEntry<V> extends AbstractMap.SimpleEntry<String, V> {
+	private static final long serialVersionUID = 1L;
+
+	private final transient Entry<V> entry;
+
+	IteratorEntry(String key, Entry<V> entry) {
+	    super(key, entry.value);
+	    this.entry = entry;
+	}
+
+	public V setValue(V value) {
+	    entry.value = value;
+	    return super.setValue(value);
+	}
+    }
+
+    /**
+     * In-order iterator over a stack of the entries still to be visited and
+     * their keys, so that each key is built once from its parent's.
+     */
+    final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final Entry<V>[] entries = new Entry[MAX_HEIGHT];
+	private final String[] keys = new String[MAX_HEIGHT];
+	private int depth;
+	private final String prefix; // keys must start with it, or null
+	private String lastReturned;
+	private int expectedModCount;
+
+	EntryIterator(String prefix) {
+	    this.prefix = prefix;
+	    seek(prefix, true);
+	}
+
+	/**
+	 * Stacks the path to the first key after {@code from}, or to the first
+	 * key if it is null.
+	 */
+	private void seek(String from, boolean inclusive) {
+	    expectedModCount = modCount;
+	    depth = 0;
+	    Entry<V> e = root;
+	    String key = e == null ? null : e.suffix;
+	    while (e != null) {
+		int cmp = from == null ? -1 : from.compareTo(key);
+		if (cmp < 0 || cmp == 0 && inclusive) {
+		    entries[depth] = e;
+		    keys[depth++] = key;
+		    if (cmp == 0)
+			break;
+		    e = e.left;
+		} else {
+		    e = e.right;
+		}
+		if (e != null)
+		    key = childKey(key, e);
+	    }
+	}
+
+	public boolean hasNext() {
+	    return depth > 0 && (prefix == null || keys[depth - 1].startsWith(prefix));
+	}
+
+	public Map.Entry<String, V> next() {
+	    if (!hasNext())
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    Entry<V> e = entries[--depth];
+	    String key = keys[depth];
+	    entries[depth] = null;
+	    keys[depth] = null;
+	    String k = key;
+	    for (Entry<V> x = e.right; x != null; x = x.left) {
+		k = childKey(k, x); // from e, then from the entry above x
+		entries[depth] = x;
+		keys[depth++] = k;
+	    }
+	    lastReturned = key;
+	    return new IteratorEntry<>(key, e);
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    StringAVLTreeMap.this.remove(lastReturned);
+	    // deletes move entries, so find the next key again
+	    seek(lastReturned, false);
+	    lastReturned = null;
+	}
+    }
+}
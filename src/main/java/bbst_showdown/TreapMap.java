@@ -0,0 +1,597 @@
+package bbst_showdown;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A treap (Seidel and Aragon, "Randomized Search Trees", 1996) with the API
+ * of {@link java.util.TreeMap}. Each entry draws a random priority and the
+ * tree is kept in heap order of priorities by rotations, so its shape is that
+ * of a binary search tree built by inserting the keys in random order: the
+ * expected depth of every entry is O(log n) whatever the order of the
+ * operations. An insertion rotates the new entry up past parents of lower
+ * priority, on average fewer than two rotations; a deletion rotates the entry
+ * down to a leaf and unlinks it. Lookups do not restructure the tree.
+ *
+ * <p>Priorities come from a xorshift generator with a fixed seed, so runs are
+ * repeatable.
+ *
+ * @author David McManamon
+ */
+public class TreapMap<K,V> extends AbstractBinaryTreeMap<K,V> {
+	
+/**
+ * State of the xorshift generator of entry priorities.
+ */
+private transient int seed = SEED;
+
+private static final int SEED = 0x2545F491;
+
+/**
+ * Constructs a new, empty tree map, using the natural ordering of its
+ * keys.  All keys inserted into the map must implement the {@link
+ * Comparable} interface.  Furthermore, all such keys must be
+ * <em>mutually comparable</em>: {@code k1.compareTo(k2)} must not throw
+ * a {@code ClassCastException} for any keys {@code k1} and
+ * {@code k2} in the map.  If the user attempts to put a key into the
+ * map that violates this constraint (for example, the user attempts to
+ * put a string key into a map whose keys are integers), the
+ * {@code put(Object key, Object value)} call will throw a
+ * {@code ClassCastException}.
+ */
+public TreapMap() {
+    super(null);
+}
+
+/**
+ * Constructs a new, empty tree map, ordered according to the given
+ * comparator.  All keys inserted into the map must be <em>mutually
+ * comparable</em> by the given comparator: {@code comparator.compare(k1,
+ * k2)} must not throw a {@code ClassCastException} for any keys
+ * {@code k1} and {@code k2} in the map.  If the user attempts to put
+ * a key into the map that violates this constraint, the {@code put(Object
+ * key, Object value)} call will throw a
+ * {@code ClassCastException}.
+ *
+ * @param comparator the comparator that will be used to order this map.
+ *        If {@code null}, the {@linkplain Comparable natural
+ *        ordering} of the keys will be used.
+ */
+public TreapMap(Comparator<? super K> comparator) {
+    super(comparator);
+}
+
+/**
+ * Constructs a new tree map containing the same mappings as the given
+ * map, ordered according to the <em>natural ordering</em> of its keys.
+ * All keys inserted into the new map must implement the {@link
+ * Comparable} interface.  Furthermore, all such keys must be
+ * <em>mutually comparable</em>: {@code k1.compareTo(k2)} must not throw
+ * a {@code ClassCastException} for any keys {@code k1} and
+ * {@code k2} in the map.  This method runs in n*log(n) time.
+ *
+ * @param  m the map whose mappings are to be placed in this map
+ * @throws ClassCastException if the keys in m are not {@link Comparable},
+ *         or are not mutually comparable
+ * @throws NullPointerException if the specified map is null
+ */
+public TreapMap(Map<? extends K, ? extends V> m) {
+    super(null);
+    putAll(m);
+}
+
+/**
+ * Constructs a new tree map containing the same mappings and
+ * using the same ordering as the specified sorted map.  This
+ * method runs in linear time.
+ *
+ * @param  m the sorted map whose mappings are to be placed in this map,
+ *         and whose comparator is to be used to sort this map
+ * @throws NullPointerException if the specified map is null
+ */
+public TreapMap(SortedMap<K, ? extends V> m) {
+    super(m.comparator());
+    try {
+        buildFromSorted(m.size(), m.entrySet().iterator(), null, null);
+    } catch (java.io.IOException cannotHappen) {
+    } catch (ClassNotFoundException cannotHappen) {
+    }
+}
+
+public String toString() {
+	return "Treap        of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations + ", comparisons " + comparisons;
+}
+
+/**
+ * Returns this map's entry for the given key, or {@code null} if the map
+ * does not contain an entry for the key.
+ *
+ * @return this map's entry for the given key, or {@code null} if the map
+ *         does not contain an entry for the key
+ * @throws ClassCastException if the specified key cannot be compared
+ *         with the keys currently in the map
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+final Entry<K,V> getEntry(Object key) {
+    // Offload comparator-based version for sake of performance
+    if (comparator != null)
+        return getEntryUsingComparator(key);
+    if (key == null)
+        throw new NullPointerException();
+    @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+    Entry<K,V> p = root;
+    while (p != null) {
+        int cmp = k.compareTo(p.key);
+        comparisons++;
+        if (cmp < 0)
+            p = p.left;
+        else if (cmp > 0)
+            p = p.right;
+        else
+            return p;
+    }
+    return null;
+}
+
+/**
+ * Version of getEntry using comparator. Split off from getEntry
+ * for performance. (This is not worth doing for most methods,
+ * that are less dependent on comparator performance, but is
+ * worthwhile here.)
+ */
+final Entry<K,V> getEntryUsingComparator(Object key) {
+    @SuppressWarnings("unchecked")
+        K k = (K) key;
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        Entry<K,V> p = root;
+        while (p != null) {
+            int cmp = cpr.compare(k, p.key);
+            comparisons++;
+            if (cmp < 0)
+                p = p.left;
+            else if (cmp > 0)
+                p = p.right;
+            else
+                return p;
+        }
+    }
+    return null;
+}
+
+/**
+ * Associates the specified value with the specified key in this map.
+ * If the map previously contained a mapping for the key, the old
+ * value is replaced.
+ *
+ * @param key key with which the specified value is to be associated
+ * @param value value to be associated with the specified key
+ *
+ * @return the previous value associated with {@code key}, or
+ *         {@code null} if there was no mapping for {@code key}.
+ *         (A {@code null} return can also indicate that the map
+ *         previously associated {@code null} with {@code key}.)
+ * @throws ClassCastException if the specified key cannot be compared
+ *         with the keys currently in the map
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+public V put(K key, V value) {
+    return put(key, value, true);
+}
+
+/**
+ * Associates the specified value with the specified key in this map. If
+ * {@code replaceOld} is false an existing non-null value is left in place.
+ * Shared by {@link #put(Object, Object)} and
+ * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+ */
+private V put(K key, V value, boolean replaceOld) {
+    Entry<K,V> t = root;
+    if (t == null) {
+        addEntryToEmptyMap(key, value);
+        return null;
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                V oldValue = t.value;
+                if (replaceOld || oldValue == null)
+                    t.value = value;
+                return oldValue;
+            }
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                V oldValue = t.value;
+                if (replaceOld || oldValue == null)
+                    t.value = value;
+                return oldValue;
+            }
+        } while (t != null);
+    }
+    addEntry(key, value, parent, cmp < 0);
+    return null;
+}
+
+private void addEntryToEmptyMap(K key, V value) {
+    compare(key, key); // type (and possibly null) check
+
+    root = new TreapEntry<>(key, value, null, nextPriority());
+    size = 1;
+    modCount++;
+}
+
+/**
+ * Links a new entry below {@code parent}, the last node visited by a failed
+ * search, and rotates it up while its priority is above its parent's.
+ */
+private void addEntry(K key, V value, Entry<K,V> parent, boolean addToLeft) {
+    TreapEntry<K,V> e = new TreapEntry<>(key, value, parent, nextPriority());
+    if (addToLeft)
+        parent.left = e;
+    else
+        parent.right = e;
+    while (e.parent != null && e.priority > priority(e.parent)) {
+        if (e == e.parent.left)
+            rotateRight(e.parent);
+        else
+            rotateLeft(e.parent);
+    }
+    size++;
+    modCount++;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * @throws ClassCastException {@inheritDoc}
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+@Override
+public V putIfAbsent(K key, V value) {
+    return put(key, value, false);
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the mapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         mapping function modified this map
+ */
+@Override
+public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(mappingFunction);
+    V newValue;
+    Entry<K,V> t = root;
+    if (t == null) {
+        newValue = callMappingFunctionWithCheck(key, mappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                if (t.value == null)
+                    t.value = callMappingFunctionWithCheck(key, mappingFunction);
+                return t.value;
+            }
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                if (t.value == null)
+                    t.value = callMappingFunctionWithCheck(key, mappingFunction);
+                return t.value;
+            }
+        } while (t != null);
+    }
+    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+    if (newValue != null) {
+        addEntry(key, newValue, parent, cmp < 0);
+        return newValue;
+    }
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    V newValue;
+    Entry<K,V> t = root;
+    if (t == null) {
+        newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return remapValue(t, key, remappingFunction);
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return remapValue(t, key, remappingFunction);
+        } while (t != null);
+    }
+    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+    if (newValue != null) {
+        addEntry(key, newValue, parent, cmp < 0);
+        return newValue;
+    }
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    Objects.requireNonNull(value);
+    Entry<K,V> t = root;
+    if (t == null) {
+        addEntryToEmptyMap(key, value);
+        return value;
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return mergeValue(t, value, remappingFunction);
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            comparisons++;
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return mergeValue(t, value, remappingFunction);
+        } while (t != null);
+    }
+    addEntry(key, value, parent, cmp < 0);
+    return value;
+}
+
+/** From CLR */
+private void rotateLeft(Entry<K,V> p) {
+    if (p != null) {
+        Entry<K,V> r = p.right;
+        p.right = r.left;
+        if (r.left != null)
+            r.left.parent = p;
+        r.parent = p.parent;
+        if (p.parent == null)
+            root = r;
+        else if (p.parent.left == p)
+            p.parent.left = r;
+        else
+            p.parent.right = r;
+        r.left = p;
+        p.parent = r;
+        rotations++;
+    }
+}
+
+/** From CLR */
+private void rotateRight(Entry<K,V> p) {
+    if (p != null) {
+        Entry<K,V> l = p.left;
+        p.left = l.right;
+        if (l.right != null) l.right.parent = p;
+        l.parent = p.parent;
+        if (p.parent == null)
+            root = l;
+        else if (p.parent.right == p)
+            p.parent.right = l;
+        else p.parent.left = l;
+        l.right = p;
+        p.parent = l;
+        rotations++;
+    }
+}
+
+/**
+ * Delete node p: rotate it down, always lifting the child of higher
+ * priority, until it has at most one child, then splice it out.  The entry
+ * itself is unlinked, so other entries (and iterators positioned on them)
+ * are unaffected.
+ */
+final void deleteEntry(Entry<K,V> p) {
+    modCount++;
+    size--;
+
+    while (p.left != null && p.right != null) {
+        if (priority(p.left) > priority(p.right))
+            rotateRight(p);
+        else
+            rotateLeft(p);
+    }
+
+    Entry<K,V> replacement = (p.left != null ? p.left : p.right);
+    if (replacement != null)
+        replacement.parent = p.parent;
+    if (p.parent == null)
+        root = replacement;
+    else if (p == p.parent.left)
+        p.parent.left = replacement;
+    else
+        p.parent.right = replacement;
+    p.left = p.right = p.parent = null;
+}
+
+/**
+ * Returns the next priority, a non-negative int from Marsaglia's xorshift32.
+ */
+private int nextPriority() {
+    int x = seed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    seed = x;
+    return x >>> 1;
+}
+
+/**
+ * Returns the priority of an entry of this map.
+ */
+private static int priority(Entry<?,?> e) {
+    return ((TreapEntry<?,?>) e).priority;
+}
+
+@Override
+void reinitialize() {
+    seed = SEED;
+}
+
+@Override
+Entry<K,V> newEntry(K key, V value, int level) {
+    // heap order: priorities fall by a band per level, random within the band
+    return new TreapEntry<>(key, value, null, ((31 - level) << 26) | (nextPriority() >>> 5));
+}
+
+/**
+ * An entry with the priority that orders it in the heap.
+ */
+static final class TreapEntry<K,V> extends Entry<K,V> {
+    final int priority;
+
+    TreapEntry(K key, V value, Entry<K,V> parent, int priority) {
+        super(key, value, parent);
+        this.priority = priority;
+    }
+}
+
+private static final long serialVersionUID = 6049731580744513205L;
+}
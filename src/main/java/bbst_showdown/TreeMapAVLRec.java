@@ -1,6 +1,10 @@
 package bbst_showdown;
 
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * There are many elegant online AVL implementations that use recursion and height. <BR>
@@ -14,18 +18,31 @@ import java.util.Comparator;
  */
 public class TreeMapAVLRec<K, V> extends AVLTreeMap<K, V> {
 
+    private static final long serialVersionUID = -3120571983406853742L;
+
     public TreeMapAVLRec() {
 	super();
     }
+
+    /**
+     * @throws UnsupportedOperationException
+     *             always, as a cursor moves along the parent links this tree
+     *             does not keep
+     */
+    @Override
+    public Cursor<K, V> cursor() {
+	throw new UnsupportedOperationException();
+    }
 	
     public V put(K key, V value) {
         Entry<K,V> t = root;
         if (t == null) {
             compare(key, key); // type (and possibly null) check
 
-            root = new Entry<K,V>(key, value, null);
+            root = newEntry(key, value, null);
             size = 1;
             modCount++;
+            bloomAdd(key);
             return null;
         }
         int cmp;
@@ -49,6 +66,7 @@ public class TreeMapAVLRec<K, V> extends AVLTreeMap<K, V> {
         
         size++;
         modCount++;
+        bloomAdd(key);
         return null;
     }
     
@@ -56,7 +74,7 @@ public class TreeMapAVLRec<K, V> extends AVLTreeMap<K, V> {
     
     private Entry<K, V> put(Entry<K, V> x, K key, V value) {
 	if (x == null)
-	    return new Entry<>(key, value, null);
+	    return newEntry(key, value, null);
 	@SuppressWarnings("unchecked")
 	Comparable<? super K> k = (Comparable<? super K>) key;
 	int cmp = k.compareTo(x.key);
@@ -145,6 +163,94 @@ public class TreeMapAVLRec<K, V> extends AVLTreeMap<K, V> {
 	return l;
     }
 
+    /*
+     * The single search versions inherited from AVLTreeMap link new entries
+     * through parent pointers, which the recursive insert does not maintain.
+     * Present keys are updated in place after one search; absent keys go
+     * through the recursive put.
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+	Entry<K, V> p = getEntry(key);
+	if (p == null)
+	    return put(key, value);
+	V oldValue = p.value;
+	if (oldValue == null)
+	    p.value = value;
+	return oldValue;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+	Objects.requireNonNull(mappingFunction);
+	Entry<K, V> p = getEntry(key);
+	if (p != null && p.value != null)
+	    return p.value;
+	int mc = modCount;
+	V newValue = mappingFunction.apply(key);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	if (p != null)
+	    p.value = newValue;
+	else if (newValue != null)
+	    put(key, newValue);
+	return newValue;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> p = getEntry(key);
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, p == null ? null : p.value);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return update(p, key, newValue);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> p = getEntry(key);
+	if (p == null || p.value == null)
+	    return null;
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, p.value);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return update(p, key, newValue);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Objects.requireNonNull(value);
+	Entry<K, V> p = getEntry(key);
+	V newValue;
+	if (p == null || p.value == null) {
+	    newValue = value;
+	} else {
+	    int mc = modCount;
+	    newValue = remappingFunction.apply(p.value, value);
+	    if (mc != modCount)
+		throw new ConcurrentModificationException();
+	}
+	return update(p, key, newValue);
+    }
+
+    private V update(Entry<K, V> p, K key, V newValue) {
+	if (newValue == null) {
+	    if (p != null)
+		remove(key);
+	} else if (p != null) {
+	    p.value = newValue;
+	} else {
+	    put(key, newValue);
+	}
+	return newValue;
+    }
+
     public String toString() {
 	return "AVL(recursive w/balance factor) tree of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations;
     }
@@ -2,10 +2,14 @@ package bbst_showdown;
 
 import java.util.AbstractMap;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 /**
@@ -90,6 +94,14 @@ public class TreeMapAVLStack<K,V> extends AbstractMap<K,V> {
     public int rotations() {
 	return rotations;
     }
+
+    /**
+     * Returns the depth histogram and search path lengths of the tree, taken
+     * in one pass over its entries.
+     */
+    public TreeProfile profile() {
+	return TreeProfile.of(root, e -> e.left, e -> e.right);
+    }
     
     public String toString() {
 	return "AVL tree (no parent ref., no recursion) of size: " + size + ", height: " + treeHeight() + ", rotations "
@@ -283,69 +295,239 @@ public class TreeMapAVLStack<K,V> extends AbstractMap<K,V> {
     private byte[] direction = new byte[100];
     @SuppressWarnings("unchecked")
     private Entry<K,V> [] stack = new Entry[100];
+    // number of valid entries in stack/direction after a failed search
+    private int pathLength;
     
     public V put(K key, V value) {
-    	//System.out.println("Inserting:" + key);
-        Entry<K,V> t = root;
-        if (t == null) {
-            compare(key, key); // type (and possibly null) check
-
-            root = new Entry<>(key, value, null);
-            size = 1;
-            modCount++;
-            return null;
-        }
-        int cmp;
-        Entry<K,V> parent;
-        int treeDepth = 0;
-        // split comparator and comparable paths
-        Comparator<? super K> cpr = comparator;
-        if (cpr != null) {
-            do {
-                parent = t;
-                cmp = cpr.compare(key, t.key);
-                if (cmp < 0) {
-                    t = t.left;
-                    // TODO
-                } else if (cmp > 0) {
-                    t = t.right;
-                }else {
-                    return t.setValue(value);
-                }
-            } while (t != null);
-        } else {
-            if (key == null)
-                throw new NullPointerException();
-            @SuppressWarnings("unchecked")
-                Comparable<? super K> k = (Comparable<? super K>) key;
-            do {
-                parent = t;
-                cmp = k.compareTo(t.key);
-                if (cmp < 0) {
-                		stack[treeDepth] = parent;
-                		direction[treeDepth++] = -1;
-                    t = t.left;
-                } else if (cmp > 0) {
-                		stack[treeDepth] = parent;
-                		direction[treeDepth++] = +1;
-                    t = t.right;
-                } else {
-                    return t.setValue(value);
-                }
-            } while (t != null);
-        }
-        
-        Entry<K,V> e = new Entry<>(key, value, parent);
-        if (cmp < 0) {
-            parent.left = e;
-        } else {
-            parent.right = e;
-        }
-        fixAfterInsertion(parent, --treeDepth);
-        
-        size++;
-        modCount++;
-        return null;
+	if (root == null) {
+	    addEntryToEmptyMap(key, value);
+	    return null;
+	}
+	Entry<K, V> t = search(key);
+	if (t != null)
+	    return t.setValue(value);
+	addEntry(key, value);
+	return null;
+    }
+
+    /**
+     * Walks down from the root looking for {@code key}, pushing every node
+     * visited onto {@code stack} with the direction taken. Returns the matching
+     * entry, or {@code null} leaving the insertion path in place for
+     * {@link #addEntry}. The root must not be null.
+     */
+    private Entry<K, V> search(K key) {
+	Entry<K, V> t = root;
+	int cmp;
+	int treeDepth = 0;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0) {
+		    stack[treeDepth] = t;
+		    direction[treeDepth++] = -1;
+		    t = t.left;
+		} else if (cmp > 0) {
+		    stack[treeDepth] = t;
+		    direction[treeDepth++] = +1;
+		    t = t.right;
+		} else {
+		    return t;
+		}
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		cmp = k.compareTo(t.key);
+		if (cmp < 0) {
+		    stack[treeDepth] = t;
+		    direction[treeDepth++] = -1;
+		    t = t.left;
+		} else if (cmp > 0) {
+		    stack[treeDepth] = t;
+		    direction[treeDepth++] = +1;
+		    t = t.right;
+		} else {
+		    return t;
+		}
+	    } while (t != null);
+	}
+	pathLength = treeDepth;
+	return null;
+    }
+
+    /**
+     * Links a new entry at the end of the path recorded by the last failed
+     * {@link #search} and rebalances along that path.
+     */
+    private void addEntry(K key, V value) {
+	int treeDepth = pathLength - 1;
+	Entry<K, V> parent = stack[treeDepth];
+	Entry<K, V> e = new Entry<>(key, value, parent);
+	if (direction[treeDepth] < 0) {
+	    parent.left = e;
+	} else {
+	    parent.right = e;
+	}
+	fixAfterInsertion(parent, treeDepth);
+
+	size++;
+	modCount++;
+    }
+
+    private void addEntryToEmptyMap(K key, V value) {
+	compare(key, key); // type (and possibly null) check
+
+	root = new Entry<>(key, value, null);
+	size = 1;
+	modCount++;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key, with a
+     * single search of the tree.
+     */
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+	Entry<K, V> p = getEntry(key);
+	return (p == null ? defaultValue : p.value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+	if (root == null) {
+	    addEntryToEmptyMap(key, value);
+	    return null;
+	}
+	Entry<K, V> t = search(key);
+	if (t == null) {
+	    addEntry(key, value);
+	    return null;
+	}
+	V oldValue = t.value;
+	if (oldValue == null)
+	    t.value = value;
+	return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A new entry is linked and rebalanced along the insertion path, which
+     * is recorded again after the mapping function returns. Throws
+     * {@link ConcurrentModificationException} if the mapping function
+     * structurally modifies this map.
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+	Objects.requireNonNull(mappingFunction);
+	Entry<K, V> t = (root == null) ? null : search(key);
+	if (t != null) {
+	    if (t.value == null)
+		t.value = callMappingFunctionWithCheck(key, mappingFunction);
+	    return t.value;
+	}
+	V newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	if (newValue != null)
+	    addNewEntry(key, newValue);
+	return newValue;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> t = getEntry(key);
+	if (t != null && t.value != null)
+	    return remapValue(t, key, remappingFunction);
+	return null;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> t = (root == null) ? null : search(key);
+	if (t != null)
+	    return remapValue(t, key, remappingFunction);
+	V newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	if (newValue != null)
+	    addNewEntry(key, newValue);
+	return newValue;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Objects.requireNonNull(value);
+	if (root == null) {
+	    addEntryToEmptyMap(key, value);
+	    return value;
+	}
+	Entry<K, V> t = search(key);
+	if (t == null) {
+	    addEntry(key, value);
+	    return value;
+	}
+	V newValue;
+	if (t.value == null) {
+	    newValue = value;
+	} else {
+	    int mc = modCount;
+	    newValue = remappingFunction.apply(t.value, value);
+	    if (mc != modCount)
+		throw new ConcurrentModificationException();
+	}
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
+    /**
+     * Inserts after a failed search that may have found an empty tree. The
+     * mapping functions run between search and insert. Any structural change
+     * they make is rejected, but a {@code put} that replaces a value still
+     * searches and overwrites the shared path, so the path is recorded again.
+     */
+    private void addNewEntry(K key, V value) {
+	if (root == null)
+	    addEntryToEmptyMap(key, value);
+	else if (search(key) == null)
+	    addEntry(key, value);
+    }
+
+    private V callMappingFunctionWithCheck(K key, Function<? super K, ? extends V> mappingFunction) {
+	int mc = modCount;
+	V newValue = mappingFunction.apply(key);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V callRemappingFunctionWithCheck(K key, V oldValue,
+	    BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, oldValue);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V remapValue(Entry<K, V> t, K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	V newValue = callRemappingFunctionWithCheck(key, t.value, remappingFunction);
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
     }
     
     private void fixAfterInsertion(Entry<K, V> x, int treeDepth) {
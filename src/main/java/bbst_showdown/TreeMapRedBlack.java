@@ -19,6 +19,7 @@ import java.util.Spliterator;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  Identical to:
@@ -137,6 +138,23 @@ public TreeMapRedBlack(SortedMap<K, ? extends V> m) {
 	return rotations;
     }
 
+    /**
+     * Returns the depth histogram and search path lengths of the tree, taken
+     * in one pass over its entries.
+     */
+    public TreeProfile profile() {
+	return TreeProfile.of(root, e -> e.left, e -> e.right);
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<K, V> cursor() {
+	return new EntryCursor();
+    }
+
     public String toString() {
 	return "Red-black tree of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations;
     }
@@ -469,13 +487,19 @@ final Entry<K,V> getLowerEntry(K key) {
  *         does not permit null keys
  */
 public V put(K key, V value) {
+    return put(key, value, true);
+}
+
+/**
+ * Associates the specified value with the specified key in this map. If
+ * {@code replaceOld} is false an existing non-null value is left in place.
+ * Shared by {@link #put(Object, Object)} and
+ * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+ */
+private V put(K key, V value, boolean replaceOld) {
     Entry<K,V> t = root;
     if (t == null) {
-        compare(key, key); // type (and possibly null) check
-
-        root = new Entry<>(key, value, null);
-        size = 1;
-        modCount++;
+        addEntryToEmptyMap(key, value);
         return null;
     }
     int cmp;
@@ -490,15 +514,18 @@ public V put(K key, V value) {
                 t = t.left;
             else if (cmp > 0)
                 t = t.right;
-            else
-                return t.setValue(value);
+            else {
+                V oldValue = t.value;
+                if (replaceOld || oldValue == null)
+                    t.value = value;
+                return oldValue;
+            }
         } while (t != null);
-    }
-    else {
+    } else {
         if (key == null)
             throw new NullPointerException();
         @SuppressWarnings("unchecked")
-            Comparable<? super K> k = (Comparable<? super K>) key;
+        Comparable<? super K> k = (Comparable<? super K>) key;
         do {
             parent = t;
             cmp = k.compareTo(t.key);
@@ -506,21 +533,329 @@ public V put(K key, V value) {
                 t = t.left;
             else if (cmp > 0)
                 t = t.right;
-            else
-                return t.setValue(value);
+            else {
+                V oldValue = t.value;
+                if (replaceOld || oldValue == null)
+                    t.value = value;
+                return oldValue;
+            }
         } while (t != null);
     }
+    addEntry(key, value, parent, cmp < 0);
+    return null;
+}
+
+private void addEntryToEmptyMap(K key, V value) {
+    compare(key, key); // type (and possibly null) check
+
+    root = new Entry<>(key, value, null);
+    size = 1;
+    modCount++;
+}
+
+/**
+ * Links a new entry below {@code parent}, the last node visited by a failed
+ * search, and rebalances.
+ */
+private void addEntry(K key, V value, Entry<K,V> parent, boolean addToLeft) {
     Entry<K,V> e = new Entry<>(key, value, parent);
-    if (cmp < 0)
+    if (addToLeft)
         parent.left = e;
     else
         parent.right = e;
     fixAfterInsertion(e);
     size++;
     modCount++;
+}
+
+/**
+ * Returns the value to which the specified key is mapped, or
+ * {@code defaultValue} if this map contains no mapping for the key. Unlike
+ * the default implementation this searches the tree once even when the
+ * mapped value is {@code null}.
+ *
+ * @throws ClassCastException {@inheritDoc}
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+@Override
+public V getOrDefault(Object key, V defaultValue) {
+    Entry<K,V> p = getEntry(key);
+    return (p == null ? defaultValue : p.value);
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * @throws ClassCastException {@inheritDoc}
+ * @throws NullPointerException if the specified key is null
+ *         and this map uses natural ordering, or its comparator
+ *         does not permit null keys
+ */
+@Override
+public V putIfAbsent(K key, V value) {
+    return put(key, value, false);
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the mapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         mapping function modified this map
+ */
+@Override
+public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(mappingFunction);
+    V newValue;
+    Entry<K,V> t = root;
+    if (t == null) {
+        newValue = callMappingFunctionWithCheck(key, mappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                if (t.value == null)
+                    t.value = callMappingFunctionWithCheck(key, mappingFunction);
+                return t.value;
+            }
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                if (t.value == null)
+                    t.value = callMappingFunctionWithCheck(key, mappingFunction);
+                return t.value;
+            }
+        } while (t != null);
+    }
+    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+    if (newValue != null) {
+        addEntry(key, newValue, parent, cmp < 0);
+        return newValue;
+    }
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>This method will, on a best-effort basis, throw a
+ * {@link ConcurrentModificationException} if it is detected that the
+ * remapping function modifies this map during computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    Entry<K,V> oldEntry = getEntry(key);
+    if (oldEntry != null && oldEntry.value != null)
+        return remapValue(oldEntry, key, remappingFunction);
+    return null;
+}
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    V newValue;
+    Entry<K,V> t = root;
+    if (t == null) {
+        newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+        if (newValue != null) {
+            addEntryToEmptyMap(key, newValue);
+            return newValue;
+        } else {
+            return null;
+        }
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return remapValue(t, key, remappingFunction);
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return remapValue(t, key, remappingFunction);
+        } while (t != null);
+    }
+    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+    if (newValue != null) {
+        addEntry(key, newValue, parent, cmp < 0);
+        return newValue;
+    }
     return null;
 }
 
+/**
+ * {@inheritDoc}
+ *
+ * <p>The tree is searched once; if the key is absent the new entry is
+ * linked to the node where the search ended. This method will, on a
+ * best-effort basis, throw a {@link ConcurrentModificationException} if it
+ * is detected that the remapping function modifies this map during
+ * computation.
+ *
+ * @throws ConcurrentModificationException if it is detected that the
+ *         remapping function modified this map
+ */
+@Override
+public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    Objects.requireNonNull(value);
+    Entry<K,V> t = root;
+    if (t == null) {
+        addEntryToEmptyMap(key, value);
+        return value;
+    }
+    int cmp;
+    Entry<K,V> parent;
+    // split comparator and comparable paths
+    Comparator<? super K> cpr = comparator;
+    if (cpr != null) {
+        do {
+            parent = t;
+            cmp = cpr.compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return mergeValue(t, value, remappingFunction);
+        } while (t != null);
+    } else {
+        if (key == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> k = (Comparable<? super K>) key;
+        do {
+            parent = t;
+            cmp = k.compareTo(t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return mergeValue(t, value, remappingFunction);
+        } while (t != null);
+    }
+    addEntry(key, value, parent, cmp < 0);
+    return value;
+}
+
+private V callMappingFunctionWithCheck(K key, Function<? super K, ? extends V> mappingFunction) {
+    int mc = modCount;
+    V newValue = mappingFunction.apply(key);
+    if (mc != modCount)
+        throw new ConcurrentModificationException();
+    return newValue;
+}
+
+private V callRemappingFunctionWithCheck(K key, V oldValue,
+        BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    int mc = modCount;
+    V newValue = remappingFunction.apply(key, oldValue);
+    if (mc != modCount)
+        throw new ConcurrentModificationException();
+    return newValue;
+}
+
+private V remapValue(Entry<K,V> t, K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    V newValue = callRemappingFunctionWithCheck(key, t.value, remappingFunction);
+    if (newValue == null) {
+        deleteEntry(t);
+        return null;
+    }
+    t.value = newValue;
+    return newValue;
+}
+
+private V mergeValue(Entry<K,V> t, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    V oldValue = t.value;
+    V newValue;
+    if (oldValue == null) {
+        newValue = value;
+    } else {
+        int mc = modCount;
+        newValue = remappingFunction.apply(oldValue, value);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+    }
+    if (newValue == null) {
+        deleteEntry(t);
+        return null;
+    }
+    t.value = newValue;
+    return newValue;
+}
+
+
 /**
  * Removes the mapping for this key from this TreeMap if present.
  *
@@ -578,12 +913,14 @@ public Object clone() {
     clone.navigableKeySet = null;
     clone.descendingMap = null;
 
-    // Initialize clone with our mappings
-//    try {
-//        clone.buildFromSorted(size, entrySet().iterator(), null, null);
-//    } catch (java.io.IOException cannotHappen) {
-//    } catch (ClassNotFoundException cannotHappen) {
-//    }
+    // Initialize clone with our mappings. The entries are already sorted,
+    // so buildFromSorted links them in linear time without comparisons,
+    // rotations or recoloring.
+    try {
+        clone.buildFromSorted(size, entrySet().iterator(), null, null);
+    } catch (java.io.IOException cannotHappen) {
+    } catch (ClassNotFoundException cannotHappen) {
+    }
 
     return clone;
 }
@@ -1119,6 +1456,67 @@ static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
     }
 }
 
+/**
+ * Cursor moving over the entries by their parent links, so that a scan
+ * allocates nothing after the cursor itself.
+ */
+final class EntryCursor implements Cursor<K,V> {
+    Entry<K,V> current;
+    int expectedModCount = modCount;
+
+    private boolean moveTo(Entry<K,V> e) {
+        expectedModCount = modCount;
+        current = e;
+        return e != null;
+    }
+
+    public boolean seek(K key) {
+        return moveTo(getCeilingEntry(key));
+    }
+
+    public boolean seekFirst() {
+        return moveTo(getFirstEntry());
+    }
+
+    public boolean seekLast() {
+        return moveTo(getLastEntry());
+    }
+
+    public boolean next() {
+        current = successor(checkedCurrent());
+        return current != null;
+    }
+
+    public boolean prev() {
+        current = predecessor(checkedCurrent());
+        return current != null;
+    }
+
+    public boolean isValid() {
+        return current != null;
+    }
+
+    public K key() {
+        return checkedCurrent().key;
+    }
+
+    public V value() {
+        return checkedCurrent().value;
+    }
+
+    public void reset() {
+        moveTo(null);
+    }
+
+    private Entry<K,V> checkedCurrent() {
+        if (current == null)
+            throw new NoSuchElementException();
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+        return current;
+    }
+}
+
 /**
  * Base class for TreeMap Iterators
  */
@@ -2167,6 +2565,8 @@ private void rotateLeft(Entry<K,V> p) {
         r.left = p;
         p.parent = r;
         rotations++;
+        if (RebalanceEvents.AVAILABLE)
+            RebalanceEvents.rotation(this, true);
     }
 }
 
@@ -2185,6 +2585,8 @@ private void rotateRight(Entry<K,V> p) {
         l.right = p;
         p.parent = l;
         rotations++;
+        if (RebalanceEvents.AVAILABLE)
+            RebalanceEvents.rotation(this, false);
     }
 }
 
@@ -2192,6 +2594,7 @@ private void rotateRight(Entry<K,V> p) {
 private void fixAfterInsertion(Entry<K,V> x) {
     x.color = RED;
 
+    int levels = 0, rotated = rotations;
     while (x != null && x != root && x.parent.color == RED) {
         if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
             Entry<K,V> y = rightOf(parentOf(parentOf(x)));
@@ -2200,6 +2603,7 @@ private void fixAfterInsertion(Entry<K,V> x) {
                 setColor(y, BLACK);
                 setColor(parentOf(parentOf(x)), RED);
                 x = parentOf(parentOf(x));
+                levels += 2;
             } else {
                 if (x == rightOf(parentOf(x))) {
                     x = parentOf(x);
@@ -2216,6 +2620,7 @@ private void fixAfterInsertion(Entry<K,V> x) {
                 setColor(y, BLACK);
                 setColor(parentOf(parentOf(x)), RED);
                 x = parentOf(parentOf(x));
+                levels += 2;
             } else {
                 if (x == leftOf(parentOf(x))) {
                     x = parentOf(x);
@@ -2228,6 +2633,8 @@ private void fixAfterInsertion(Entry<K,V> x) {
         }
     }
     root.color = BLACK;
+    if (RebalanceEvents.AVAILABLE)
+        RebalanceEvents.retrace(this, false, levels, rotations - rotated, size);
 }
 
 /**
@@ -2283,6 +2690,7 @@ private void deleteEntry(Entry<K,V> p) {
 
 /** From CLR */
 private void fixAfterDeletion(Entry<K,V> x) {
+    int levels = 0, rotated = rotations;
     while (x != root && colorOf(x) == BLACK) {
         if (x == leftOf(parentOf(x))) {
             Entry<K,V> sib = rightOf(parentOf(x));
@@ -2298,6 +2706,7 @@ private void fixAfterDeletion(Entry<K,V> x) {
                 colorOf(rightOf(sib)) == BLACK) {
                 setColor(sib, RED);
                 x = parentOf(x);
+                levels++;
             } else {
                 if (colorOf(rightOf(sib)) == BLACK) {
                     setColor(leftOf(sib), BLACK);
@@ -2325,6 +2734,7 @@ private void fixAfterDeletion(Entry<K,V> x) {
                 colorOf(leftOf(sib)) == BLACK) {
                 setColor(sib, RED);
                 x = parentOf(x);
+                levels++;
             } else {
                 if (colorOf(leftOf(sib)) == BLACK) {
                     setColor(rightOf(sib), BLACK);
@@ -2342,6 +2752,8 @@ private void fixAfterDeletion(Entry<K,V> x) {
     }
 
     setColor(x, BLACK);
+    if (RebalanceEvents.AVAILABLE)
+        RebalanceEvents.retrace(this, true, levels, rotations - rotated, size);
 }
 
 private static final long serialVersionUID = 919286545866124006L;
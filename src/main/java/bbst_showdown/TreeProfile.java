@@ -0,0 +1,155 @@
+package bbst_showdown;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * The shape of a binary search tree at one moment: how many entries sit at
+ * each depth, from which follow the internal path length, the average depth
+ * and the average number of comparisons of a search. Maximum height only
+ * bounds the worst search; these measure the typical one.
+ *
+ * <p>
+ * A profile is taken in one pass that keeps its own stack of pending right
+ * subtrees, one per level at most, so even a degenerate tree of millions of
+ * entries is profiled without recursion.
+ *
+ * @author David McManamon
+ */
+public final class TreeProfile {
+
+    /** entries at each depth, the root being at depth 0 */
+    private final long[] levels;
+    private final long size;
+    private final long internalPathLength;
+
+    private TreeProfile(long[] levels, long size, long internalPathLength) {
+	this.levels = levels;
+	this.size = size;
+	this.internalPathLength = internalPathLength;
+    }
+
+    /**
+     * Profiles the tree below {@code root}, whose children are found by
+     * {@code left} and {@code right}.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> TreeProfile of(E root, UnaryOperator<E> left, UnaryOperator<E> right) {
+	long[] levels = new long[32];
+	int height = -1;
+	long size = 0, internalPathLength = 0;
+
+	Object[] pending = new Object[32];
+	int[] pendingDepth = new int[32];
+	int top = 0;
+	E e = root;
+	int depth = 0;
+	while (e != null || top > 0) {
+	    if (e == null) {
+		e = (E) pending[--top];
+		pending[top] = null;
+		depth = pendingDepth[top];
+	    }
+	    if (depth == levels.length)
+		levels = Arrays.copyOf(levels, depth * 2);
+	    levels[depth]++;
+	    height = Math.max(height, depth);
+	    size++;
+	    internalPathLength += depth;
+
+	    E r = right.apply(e);
+	    if (r != null) {
+		if (top == pending.length) {
+		    pending = Arrays.copyOf(pending, top * 2);
+		    pendingDepth = Arrays.copyOf(pendingDepth, top * 2);
+		}
+		pending[top] = r;
+		pendingDepth[top++] = depth + 1;
+	    }
+	    e = left.apply(e);
+	    depth++;
+	}
+	return new TreeProfile(Arrays.copyOf(levels, height + 1), size, internalPathLength);
+    }
+
+    public long size() {
+	return size;
+    }
+
+    /**
+     * Greatest depth of an entry, -1 for an empty tree.
+     */
+    public int height() {
+	return levels.length - 1;
+    }
+
+    /**
+     * Number of entries at {@code depth}, the root being at depth 0.
+     */
+    public long entriesAtDepth(int depth) {
+	return depth < levels.length ? levels[depth] : 0;
+    }
+
+    /**
+     * Returns the number of entries at each depth, indexed by depth.
+     */
+    public long[] depthHistogram() {
+	return levels.clone();
+    }
+
+    /**
+     * Share of the {@code 2^depth} positions at {@code depth} that hold an
+     * entry.
+     */
+    public double fill(int depth) {
+	return entriesAtDepth(depth) / Math.pow(2, depth);
+    }
+
+    /**
+     * Sum of the depths of all entries.
+     */
+    public long internalPathLength() {
+	return internalPathLength;
+    }
+
+    public double averageDepth() {
+	return size == 0 ? 0 : (double) internalPathLength / size;
+    }
+
+    /**
+     * Average number of comparisons of a search for a key in the tree, each
+     * entry being searched for equally often: its depth plus one.
+     */
+    public double averageSuccessfulSearch() {
+	return size == 0 ? 0 : (double) (internalPathLength + size) / size;
+    }
+
+    /**
+     * Average number of comparisons of a search for a key that is absent,
+     * each of the {@code size + 1} gaps between keys being equally likely.
+     * The external path length is the internal path length plus
+     * {@code 2 * size}.
+     */
+    public double averageUnsuccessfulSearch() {
+	return (double) (internalPathLength + 2 * size) / (size + 1);
+    }
+
+    public String toString() {
+	int full = 0;
+	while (full < levels.length && fill(full) == 1)
+	    full++;
+	StringBuilder sb = new StringBuilder();
+	sb.append(String.format("size %d, height %d, average depth %.2f, internal path length %d, "
+		+ "search comparisons %.2f (hit) %.2f (miss), %d full levels", size, height(), averageDepth(),
+		internalPathLength, averageSuccessfulSearch(), averageUnsuccessfulSearch(), full));
+	if (full < levels.length) {
+	    sb.append(", fill of the rest:");
+	    int shown = Math.min(levels.length, full + 8);
+	    for (int d = full; d < shown; d++)
+		sb.append(String.format(" %.3f", fill(d)));
+	    if (shown < levels.length)
+		sb.append(" and ").append(levels.length - shown).append(" more levels");
+	}
+	return sb.toString();
+    }
+}
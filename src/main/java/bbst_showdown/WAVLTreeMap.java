@@ -1,14 +1,29 @@
 package bbst_showdown;
 
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
 /**
  * The WAVL tree combines elements of AVL & Red-black trees.
@@ -23,7 +38,7 @@ import java.util.Spliterator;
  * @param <K> the type of keys maintained by this map
  * @param <V> the type of mapped values
  */
-public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
+public class WAVLTreeMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V>, java.io.Serializable {
     
     protected transient Entry<K, V> root = null;
 
@@ -46,6 +61,9 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
     protected transient int modCount = 0;
     
     protected transient int rotations = 0;
+
+    /** optional cache of hot entries consulted by getEntry, or null */
+    private transient HotKeyCache cache;
     
     protected boolean deleteWAVL = false;
     
@@ -89,10 +107,28 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
         putAll(m);
     }
     
+    /**
+     * Returns the height of the tree, -1 if it is empty and 0 for a single
+     * entry. Without WAVL deletes every rank equals the height of its subtree
+     * and this takes constant time; otherwise the tree is walked.
+     */
     public int treeHeight() {
+	if (!deleteWAVL)
+	    return heightBound();
 	return treeHeight(root) - 1;
     }
 
+    /**
+     * Returns the rank of the root, or -1 if the tree is empty, in constant
+     * time. Rank differences are at least one, so this bounds
+     * {@link #treeHeight()} from above; it is the exact height unless WAVL
+     * deletes are on, and at most twice the height of a perfectly balanced
+     * tree of the same size in any case.
+     */
+    public int heightBound() {
+	return root == null ? -1 : root.rank;
+    }
+
     protected int treeHeight(Entry<K, V> node) {
 	if (node == null)
 	    return 0;
@@ -103,8 +139,215 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
 	return rotations;
     }
 
+    /**
+     * Returns the depth histogram and search path lengths of the tree, taken
+     * in one pass over its entries.
+     */
+    public TreeProfile profile() {
+	return TreeProfile.of(root, e -> e.left, e -> e.right);
+    }
+
+    /**
+     * Returns a new cursor over this map, invalid until one of its seek
+     * methods places it. A cursor can be kept and reused for any number of
+     * scans.
+     */
+    public Cursor<K, V> cursor() {
+	return new EntryCursor();
+    }
+
+    /**
+     * Puts a cache of about {@code capacity} entries in front of lookups, or
+     * removes it if {@code capacity} is 0. Under skewed access most lookups of
+     * hot keys are then answered by one hash and one key comparison instead of
+     * a descent of the tree. Lookups that find their key in the tree add its
+     * entry to the cache; removing a key evicts it.
+     *
+     * <p>
+     * Lookups update the cache and its counters, so concurrent readers need
+     * external synchronization while the cache is on.
+     */
+    public void setHotKeyCache(int capacity) {
+	if (capacity < 0)
+	    throw new IllegalArgumentException("capacity: " + capacity);
+	cache = capacity == 0 ? null : new HotKeyCache(capacity);
+    }
+
+    /**
+     * Returns the hot key cache with its metrics, or null if there is none.
+     */
+    public HotKeyCache hotKeyCache() {
+	return cache;
+    }
+
     public String toString() {
-	return "WAVL tree of size: " + size + ", height: " + treeHeight() + ", rotations " + rotations + " WAVL deletes: " + deleteWAVL + " root:" + root;
+	return "WAVL tree of size: " + size + ", height: " + (deleteWAVL ? "<= " : "") + heightBound() + ", rotations " + rotations + " WAVL deletes: " + deleteWAVL + " root:" + root;
+    }
+
+    /**
+     * Returns a checker of this tree's invariants that does its work in
+     * slices, so that a large tree can be validated a few thousand entries at
+     * a time between other work instead of in one long walk.
+     */
+    public Validator validator() {
+	return new Validator();
+    }
+
+    /**
+     * Checks rank differences, parent links and key order with an iterative post-order
+     * walk that can be suspended after any entry. Its state is the entry
+     * being visited and a stack holding one subtree height per level, so it
+     * needs O(log n) space and no recursion.
+     *
+     * <p>
+     * A structural modification of the map between slices restarts the walk
+     * from the root, so a pass completes only over a tree that was not
+     * modified while it was being checked. Calls must not overlap with
+     * modifications of the map.
+     */
+    public final class Validator {
+	private Entry<K, V> p, from;
+	private K previous;
+	private int[] heights = new int[64];
+	private int top;
+	private int expectedModCount;
+	private int nodes;
+	private int restarts;
+	private int height = -1;
+	private boolean done;
+
+	Validator() {
+	    restart();
+	}
+
+	private void restart() {
+	    p = root;
+	    from = null;
+	    previous = null;
+	    top = 0;
+	    nodes = 0;
+	    done = false;
+	    expectedModCount = modCount;
+	    if (p != null && p.parent != null)
+		throw broken(p, "root has a parent");
+	}
+
+	/**
+	 * Checks up to {@code k} more entries, starting over if the map has been
+	 * modified since the last call.
+	 *
+	 * @return true once every entry of the current tree has been checked
+	 * @throws IllegalStateException
+	 *             describing the first broken invariant found
+	 */
+	public boolean step(int k) {
+	    if (k <= 0)
+		throw new IllegalArgumentException("k: " + k);
+	    if (modCount != expectedModCount) {
+		restarts++;
+		restart();
+	    }
+	    if (done)
+		return true;
+	    int finished = 0;
+	    while (p != null) {
+		if (from == p.parent) { // arrived from above
+		    if (p.left != null) {
+			descend(p.left);
+			continue;
+		    }
+		    visit(p);
+		    if (p.right != null) {
+			descend(p.right);
+			continue;
+		    }
+		    finish(p);
+		} else if (from == p.left) { // back from the left subtree
+		    visit(p);
+		    if (p.right != null) {
+			descend(p.right);
+			continue;
+		    }
+		    finish(p);
+		} else { // back from the right subtree
+		    finish(p);
+		}
+		from = p;
+		p = p.parent;
+		if (++finished == k && p != null)
+		    return false;
+	    }
+	    if (nodes != size)
+		throw new IllegalStateException("size is " + size + " but the tree holds " + nodes + " entries");
+	    height = top == 0 ? -1 : heights[0];
+	    done = true;
+	    return true;
+	}
+
+	/**
+	 * Validates the whole tree in one call.
+	 */
+	public void run() {
+	    while (!step(Integer.MAX_VALUE))
+		;
+	}
+
+	private void descend(Entry<K, V> child) {
+	    if (child.parent != p)
+		throw broken(child, "parent link does not point to " + p.key);
+	    from = p;
+	    p = child;
+	}
+
+	/** in-order visit */
+	private void visit(Entry<K, V> e) {
+	    if (nodes > 0 && compare(previous, e.key) >= 0)
+		throw broken(e, "key is not greater than its predecessor " + previous);
+	    previous = e.key;
+	}
+
+	/** post-order visit, both subtree heights are on the stack */
+	private void finish(Entry<K, V> e) {
+	    int hr = e.right == null ? -1 : heights[--top];
+	    int hl = e.left == null ? -1 : heights[--top];
+	    int rl = e.left == null ? -1 : e.left.rank, rr = e.right == null ? -1 : e.right.rank;
+	    if (e.rank - rl < 1 || e.rank - rl > 2 || e.rank - rr < 1 || e.rank - rr > 2)
+		throw broken(e, "rank " + e.rank + " with child ranks " + rl + " and " + rr);
+	    if (e.left == null && e.right == null && e.rank != 0)
+		throw broken(e, "leaf of rank " + e.rank);
+	    // without WAVL deletes ranks are AVL heights
+	    if (!deleteWAVL && e.rank != 1 + Math.max(hl, hr))
+		throw broken(e, "rank " + e.rank + " but height " + (1 + Math.max(hl, hr)));
+	    if (top == heights.length)
+		heights = Arrays.copyOf(heights, top * 2);
+	    heights[top++] = 1 + Math.max(hl, hr);
+	    nodes++;
+	}
+
+	private IllegalStateException broken(Entry<K, V> e, String what) {
+	    return new IllegalStateException("WAVL invariant broken at key " + e.key + ": " + what);
+	}
+
+	/**
+	 * Number of entries checked by the current pass.
+	 */
+	public int nodesChecked() {
+	    return nodes;
+	}
+
+	/**
+	 * Number of times a modification of the map restarted the walk.
+	 */
+	public int restarts() {
+	    return restarts;
+	}
+
+	/**
+	 * Height of the tree measured by the last completed pass, or -1.
+	 */
+	public int height() {
+	    return height;
+	}
     }
     
     /**
@@ -116,6 +359,23 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
         return size;
     }
     
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified
+     * key.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the
+     *         specified key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public boolean containsKey(Object key) {
+        return getEntry(key) != null;
+    }
+
     /**
      * Returns the value to which the specified key is mapped,
      * or {@code null} if this map contains no mapping for the key.
@@ -233,6 +493,9 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
      *         does not permit null keys
      */
     final Entry<K,V> getEntry(Object key) {
+	HotKeyCache c = cache;
+	if (c != null && key != null)
+	    return getEntryCached(c, key);
     		// Offload comparator-based version for sake of performance
         if (comparator != null)
             return getEntryUsingComparator(key);
@@ -253,6 +516,43 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
         return null;
     }
     
+    /**
+     * getEntry through the hot key cache: both ways of the key's set are
+     * checked before the tree is searched, and an entry found in the tree
+     * replaces the older way.
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> getEntryCached(HotKeyCache c, Object key) {
+	int s = c.set(HotKeyCache.hash(key));
+	Entry<?, ?>[] slots = c.slots;
+	Entry<K, V> e = (Entry<K, V>) slots[s];
+	if (e != null && compare(key, e.key) == 0) {
+	    c.hits++;
+	    return e;
+	}
+	e = (Entry<K, V>) slots[s + 1];
+	if (e != null && compare(key, e.key) == 0) {
+	    c.hits++;
+	    return e;
+	}
+
+	c.misses++;
+	Entry<K, V> p = root;
+	while (p != null) {
+	    c.missComparisons++;
+	    int cmp = compare(key, p.key);
+	    if (cmp < 0)
+		p = p.left;
+	    else if (cmp > 0)
+		p = p.right;
+	    else {
+		c.store(p);
+		return p;
+	    }
+	}
+	return null;
+    }
+
     /**
      * Version of getEntry using comparator. Split off from getEntry
      * for performance. (This is not worth doing for most methods,
@@ -297,13 +597,19 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
      *         does not permit null keys
      */
     public V put(K key, V value) {
+	return put(key, value, true);
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map. If
+     * {@code replaceOld} is false an existing non-null value is left in place.
+     * Shared by {@link #put(Object, Object)} and
+     * {@link #putIfAbsent(Object, Object)} so both search the tree once.
+     */
+    private V put(K key, V value, boolean replaceOld) {
 	Entry<K, V> t = root;
 	if (t == null) {
-	    compare(key, key); // type (and possibly null) check
-
-	    root = new Entry<>(key, value, null);
-	    size = 1;
-	    modCount++;
+	    addEntryToEmptyMap(key, value);
 	    return null;
 	}
 	int cmp;
@@ -318,8 +624,12 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	} else {
 	    if (key == null)
@@ -333,13 +643,33 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
 		    t = t.left;
 		else if (cmp > 0)
 		    t = t.right;
-		else
-		    return t.setValue(value);
+		else {
+		    V oldValue = t.value;
+		    if (replaceOld || oldValue == null)
+			t.value = value;
+		    return oldValue;
+		}
 	    } while (t != null);
 	}
+	addEntry(key, value, parent, cmp < 0);
+	return null;
+    }
+
+    private void addEntryToEmptyMap(K key, V value) {
+	compare(key, key); // type (and possibly null) check
+
+	root = new Entry<>(key, value, null);
+	size = 1;
+	modCount++;
+    }
 
+    /**
+     * Links a new entry below {@code parent}, the last node visited by a failed
+     * search, and rebalances.
+     */
+    private void addEntry(K key, V value, Entry<K, V> parent, boolean addToLeft) {
 	Entry<K, V> e = new Entry<>(key, value, parent);
-	if (cmp < 0) {
+	if (addToLeft) {
 	    parent.left = e;
 	} else {
 	    parent.right = e;
@@ -352,270 +682,573 @@ public class WAVLTreeMap<K, V> extends AbstractMap<K, V> {
 
 	size++;
 	modCount++;
-	return null;
     }
-    
-    public void inOrderTraversal(Entry<K, V> x) {
-	if (x == null)
-	    return;
-	inOrderTraversal(x.left);
-	System.out.println(x.value + ", " + x.rank);
-	inOrderTraversal(x.right);
-    }
-    
+
     /**
-- If the path of incremented ranks reaches the root of the tree stop.
-- If the path of incremented ranks reaches a node whose parent's rank previously differed by two and after incrementing now differ by one stop.
-- If the procedure increases the rank of a node x, so that it becomes equal to the rank of the parent y of x, 
-  but the other child of y has a rank that is smaller by two (so that the rank of y cannot be increased) 
-  then again the rebalancing procedure stops after performing rotations necessary.
-In other words:
-After insertion rank difference is 1,2 or 3 - 
-check these three cases stopping after any rotations, reaching the root or when rank difference was 2 before the insertion.
+     * Returns the value to which the specified key is mapped, or
+     * {@code defaultValue} if this map contains no mapping for the key. Unlike
+     * the default implementation this searches the tree once even when the
+     * mapped value is {@code null}.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
      */
-    private void fixAfterInsert(Entry<K, V> x) {
-	for (Entry<K, V> parent = x.parent; 
-		parent != null && x.rank + 1 != parent.rank; x.rank++) {
-	    if (parent.left == x) { // new node was added on the left
-		if (needToRotateRight(parent)) {
-		    if (x.left == null || x.rank >= x.left.rank + 2) {
-			x.rank--; 
-			x.right.rank++;
-			rotateLeft(x);
-		    }
-		    parent.rank--;
-		    rotateRight(parent);
-		    break;
-		}
-	    } else {
-		if (needToRotateLeft(parent)) {
-		    if (x.right == null || x.rank >= x.right.rank + 2) {
-			x.rank--; 
-			x.left.rank++;
-			rotateRight(x);
-		    }
-		    parent.rank--;
-		    rotateLeft(parent);
-		    break;
-		}
-	    }
-	    x = parent;
-	    parent = x.parent;
-	}
-    }
-
-    // check if sibling node has a rank difference of 2
-    private boolean needToRotateLeft(Entry<K, V> p) {
-	if (p.left == null) { // rank of sibling is -1
-	    if (p.rank == 1)
-		return true;
-	    return false;
-	} else if (p.rank >= p.left.rank + 2)
-	    return true;
-	return false;
-    }
-
-    // check if sibling node has a rank difference of 2 or greater (RAVL)
-    private boolean needToRotateRight(Entry<K, V> p) {
-	if (p.right == null) { // rank of sibling is -1
-	    if (p.rank == 1)
-		return true;
-	    return false;
-	} else if (p.rank >= p.right.rank + 2)
-	    return true;
-	return false;
-    }
-    
-    /** From CLR */
-    private void rotateLeft(Entry<K, V> p) {
-	Entry<K, V> r = p.right;
-	p.right = r.left;
-	if (r.left != null)
-	    r.left.parent = p;
-	r.parent = p.parent;
-	if (p.parent == null)
-	    root = r;
-	else if (p.parent.left == p)
-	    p.parent.left = r;
-	else
-	    p.parent.right = r;
-	r.left = p;
-	p.parent = r;
-	rotations++;
-    }
-
-    /** From CLR */
-    private void rotateRight(Entry<K, V> p) {
-	Entry<K, V> l = p.left;
-	p.left = l.right;
-	if (l.right != null)
-	    l.right.parent = p;
-	l.parent = p.parent;
-	if (p.parent == null)
-	    root = l;
-	else if (p.parent.right == p)
-	    p.parent.right = l;
-	else
-	    p.parent.left = l;
-	l.right = p;
-	p.parent = l;
-	rotations++;
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+	Entry<K, V> p = getEntry(key);
+	return (p == null ? defaultValue : p.value);
     }
 
     /**
-     * Removes the mapping for this key from this TreeMap if present.
+     * {@inheritDoc}
      *
-     * @param  key key for which mapping should be removed
-     * @return the previous value associated with {@code key}, or
-     *         {@code null} if there was no mapping for {@code key}.
-     *         (A {@code null} return can also indicate that the map
-     *         previously associated {@code null} with {@code key}.)
-     * @throws ClassCastException if the specified key cannot be compared
-     *         with the keys currently in the map
+     * @throws ClassCastException {@inheritDoc}
      * @throws NullPointerException if the specified key is null
      *         and this map uses natural ordering, or its comparator
      *         does not permit null keys
      */
-    public V remove(Object key) {
-	Entry<K, V> p = getEntry(key);
-	if (p == null)
-	    return null;
-
-	V oldValue = p.value;
-	deleteEntry(p);
-	return oldValue;
+    @Override
+    public V putIfAbsent(K key, V value) {
+	return put(key, value, false);
     }
-    
+
     /**
-     * Delete node p, and then rebalance the tree.
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the mapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         mapping function modified this map
      */
-    private void deleteEntry(Entry<K,V> p) {
-        modCount++;
-        size--;
-
-        // If strictly internal, copy successor's element to p and then make p
-        // point to successor.
-        if (p.left != null && p.right != null) {
-            Entry<K,V> s = predecessor(p);
-            p.key = s.key;
-            p.value = s.value;
-            p = s;
-        } // p has 2 children
-
-        Entry<K,V> replacement = (p.left != null ? p.left : p.right);
-        if (replacement != null) {
-            // Link replacement to parent
-	    replacement.parent = p.parent;
-	    Entry<K, V> sibling = null;
-	    if (p.parent == null) {
-		root = replacement;
-		return;
-	    } else if (p == p.parent.left) {
-		p.parent.left = replacement;
-		sibling = p.parent.right;
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+	Objects.requireNonNull(mappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
 	    } else {
-		p.parent.right = replacement;
-		sibling = p.parent.left;
+		return null;
 	    }
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else {
+		    if (t.value == null)
+			t.value = callMappingFunctionWithCheck(key, mappingFunction);
+		    return t.value;
+		}
+	    } while (t != null);
+	}
+	newValue = callMappingFunctionWithCheck(key, mappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
+    }
 
-	    // Null out links so they are OK to use by fixAfterDeletion.
-	    p.left = p.right = p.parent = null;
-	    if (deleteWAVL)
-		fixAfterDeleteWAVL(replacement.parent, sibling, replacement);
-	    else
-		fixAfterDeleteAVL(replacement.parent, sibling, replacement);
-        } else if (p.parent == null) { // return if we are the only node.
-            root = null;
-        } else { //  No children. Use self as phantom replacement and unlink.
-            Entry<K, V> fixPoint = p.parent;
-            Entry<K, V> sibling = null;
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This method will, on a best-effort basis, throw a
+     * {@link ConcurrentModificationException} if it is detected that the
+     * remapping function modifies this map during computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Entry<K, V> oldEntry = getEntry(key);
+	if (oldEntry != null && oldEntry.value != null)
+	    return remapValue(oldEntry, key, remappingFunction);
+	return null;
+    }
 
-	    if (p == p.parent.left) {
-		p.parent.left = null;
-		sibling = fixPoint.right;
-	    } else if (p == p.parent.right) {
-		p.parent.right = null;
-		sibling = fixPoint.left;
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	V newValue;
+	Entry<K, V> t = root;
+	if (t == null) {
+	    newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	    if (newValue != null) {
+		addEntryToEmptyMap(key, newValue);
+		return newValue;
+	    } else {
+		return null;
 	    }
-	    p.parent = null;
-	    p.rank--;
-	    if (deleteWAVL)
-		fixAfterDeleteWAVL(fixPoint, sibling, p);
-	    else
-		fixAfterDeleteAVL(fixPoint, sibling, p);
-        }
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return remapValue(t, key, remappingFunction);
+	    } while (t != null);
+	}
+	newValue = callRemappingFunctionWithCheck(key, null, remappingFunction);
+	if (newValue != null) {
+	    addEntry(key, newValue, parent, cmp < 0);
+	    return newValue;
+	}
+	return null;
     }
-    
-    private byte rank(final Entry<K,V> node) {
-	return (node == null) ? -1 : node.rank;
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The tree is searched once; if the key is absent the new entry is
+     * linked to the node where the search ended. This method will, on a
+     * best-effort basis, throw a {@link ConcurrentModificationException} if it
+     * is detected that the remapping function modifies this map during
+     * computation.
+     *
+     * @throws ConcurrentModificationException if it is detected that the
+     *         remapping function modified this map
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	Objects.requireNonNull(remappingFunction);
+	Objects.requireNonNull(value);
+	Entry<K, V> t = root;
+	if (t == null) {
+	    addEntryToEmptyMap(key, value);
+	    return value;
+	}
+	int cmp;
+	Entry<K, V> parent;
+	// split comparator and comparable paths
+	Comparator<? super K> cpr = comparator;
+	if (cpr != null) {
+	    do {
+		parent = t;
+		cmp = cpr.compare(key, t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	} else {
+	    if (key == null)
+		throw new NullPointerException();
+	    @SuppressWarnings("unchecked")
+	    Comparable<? super K> k = (Comparable<? super K>) key;
+	    do {
+		parent = t;
+		cmp = k.compareTo(t.key);
+		if (cmp < 0)
+		    t = t.left;
+		else if (cmp > 0)
+		    t = t.right;
+		else
+		    return mergeValue(t, value, remappingFunction);
+	    } while (t != null);
+	}
+	addEntry(key, value, parent, cmp < 0);
+	return value;
+    }
+
+    private V callMappingFunctionWithCheck(K key, Function<? super K, ? extends V> mappingFunction) {
+	int mc = modCount;
+	V newValue = mappingFunction.apply(key);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V callRemappingFunctionWithCheck(K key, V oldValue,
+	    BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	int mc = modCount;
+	V newValue = remappingFunction.apply(key, oldValue);
+	if (mc != modCount)
+	    throw new ConcurrentModificationException();
+	return newValue;
+    }
+
+    private V remapValue(Entry<K, V> t, K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+	V newValue = callRemappingFunctionWithCheck(key, t.value, remappingFunction);
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
+    }
+
+    private V mergeValue(Entry<K, V> t, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+	V oldValue = t.value;
+	V newValue;
+	if (oldValue == null) {
+	    newValue = value;
+	} else {
+	    int mc = modCount;
+	    newValue = remappingFunction.apply(oldValue, value);
+	    if (mc != modCount)
+		throw new ConcurrentModificationException();
+	}
+	if (newValue == null) {
+	    deleteEntry(t);
+	    return null;
+	}
+	t.value = newValue;
+	return newValue;
     }
+
     
-    private boolean nodeIsTwoTwo(Entry<K, V> node) {
-	if (node == null || node.rank == 0)
-	    return false;
-	if (node.rank == 1) {
-	    if (node.left == null && node.right == null)
-		return true;
-	    else
-		return false;
-	} else 
-	    return (node.left.rank == node.right.rank && node.left.rank + 2 == node.rank);
+    public void inOrderTraversal(Entry<K, V> x) {
+	if (x == null)
+	    return;
+	inOrderTraversal(x.left);
+	System.out.println(x.value + ", " + x.rank);
+	inOrderTraversal(x.right);
     }
     
-    private void fixAfterDeleteWAVL(Entry<K, V> parent, Entry<K, V> sibling, Entry<K, V> node) {
-	int deltaRank = parent.rank - node.rank;
-	while (deltaRank == 3 || parent.rank == 1 && nodeIsTwoTwo(parent)) {
-	    int deltaRankSibling = (sibling == null) ? parent.rank + 1 : parent.rank - sibling.rank;
-	    if (deltaRankSibling == 2) {
-		parent.rank--; // demote and continue loop
-	    } else {
-		int deltaRankSiblingL = sibling.rank - rank(sibling.left);
-		int deltaRankSiblingR = sibling.rank - rank(sibling.right);
-		
-		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
-		    // "double demote" in the orig. paper since both parent & sibling demote
-		    parent.rank--;
-		    sibling.rank--;
-		} else if (parent.right == sibling) { // delete was on the left
-		    if (deltaRankSiblingR == 1) { // single rotation
-			sibling.rank++;
-			parent.rank--;
-			if (sibling.left == null)
-			    parent.rank--; // demote parent again
-			rotateLeft(parent);
-		    } else { // double rotation
-			parent.rank -= 2;
-			sibling.rank--;
-			sibling.left.rank += 2;
-			rotateRight(sibling);
-			rotateLeft(parent);
-		    }
-		    break;
-		} else { // delete was on the right
-		    if (deltaRankSiblingL == 1) { // single rotation
-			sibling.rank++;
-			parent.rank--;
-			if (sibling.right == null)
-			    parent.rank--; // demote parent again
-			rotateRight(parent);
-		    } else { // double rotation
-			parent.rank -= 2;
-			sibling.rank--;
-			sibling.right.rank += 2;
-			rotateLeft(sibling);
-			rotateRight(parent);
+    /**
+- If the path of incremented ranks reaches the root of the tree stop.
+- If the path of incremented ranks reaches a node whose parent's rank previously differed by two and after incrementing now differ by one stop.
+- If the procedure increases the rank of a node x, so that it becomes equal to the rank of the parent y of x, 
+  but the other child of y has a rank that is smaller by two (so that the rank of y cannot be increased) 
+  then again the rebalancing procedure stops after performing rotations necessary.
+In other words:
+After insertion rank difference is 1,2 or 3 - 
+check these three cases stopping after any rotations, reaching the root or when rank difference was 2 before the insertion.
+     */
+    private void fixAfterInsert(Entry<K, V> x) {
+	int levels = 0, rotated = rotations;
+	for (Entry<K, V> parent = x.parent; 
+		parent != null && x.rank + 1 != parent.rank; x.rank++) {
+	    if (parent.left == x) { // new node was added on the left
+		if (needToRotateRight(parent)) {
+		    if (x.left == null || x.rank >= x.left.rank + 2) {
+			x.rank--; 
+			x.right.rank++;
+			rotateLeft(x);
 		    }
+		    parent.rank--;
+		    rotateRight(parent);
 		    break;
 		}
-	    }
-	    
-	    if (parent.parent == null)
-		return;
+	    } else {
+		if (needToRotateLeft(parent)) {
+		    if (x.right == null || x.rank >= x.right.rank + 2) {
+			x.rank--; 
+			x.left.rank++;
+			rotateRight(x);
+		    }
+		    parent.rank--;
+		    rotateLeft(parent);
+		    break;
+		}
+	    }
+	    x = parent;
+	    parent = x.parent;
+	    levels++;
+	}
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.retrace(this, false, levels, rotations - rotated, size);
+    }
+
+    // check if sibling node has a rank difference of 2
+    private boolean needToRotateLeft(Entry<K, V> p) {
+	if (p.left == null) { // rank of sibling is -1
+	    if (p.rank == 1)
+		return true;
+	    return false;
+	} else if (p.rank >= p.left.rank + 2)
+	    return true;
+	return false;
+    }
+
+    // check if sibling node has a rank difference of 2 or greater (RAVL)
+    private boolean needToRotateRight(Entry<K, V> p) {
+	if (p.right == null) { // rank of sibling is -1
+	    if (p.rank == 1)
+		return true;
+	    return false;
+	} else if (p.rank >= p.right.rank + 2)
+	    return true;
+	return false;
+    }
+    
+    /** From CLR */
+    private void rotateLeft(Entry<K, V> p) {
+	Entry<K, V> r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+	rotations++;
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.rotation(this, true);
+    }
+
+    /** From CLR */
+    private void rotateRight(Entry<K, V> p) {
+	Entry<K, V> l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+	rotations++;
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.rotation(this, false);
+    }
+
+    /**
+     * Removes the mapping for this key from this TreeMap if present.
+     *
+     * @param  key key for which mapping should be removed
+     * @return the previous value associated with {@code key}, or
+     *         {@code null} if there was no mapping for {@code key}.
+     *         (A {@code null} return can also indicate that the map
+     *         previously associated {@code null} with {@code key}.)
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public V remove(Object key) {
+	Entry<K, V> p = getEntry(key);
+	if (p == null)
+	    return null;
+
+	V oldValue = p.value;
+	deleteEntry(p);
+	return oldValue;
+    }
+    
+    /**
+     * Delete node p, and then rebalance the tree.
+     */
+    private void deleteEntry(Entry<K,V> p) {
+        modCount++;
+        size--;
+        if (cache != null)
+            cache.invalidate(p);
+
+        // If strictly internal, copy successor's element to p and then make p
+        // point to successor.
+        if (p.left != null && p.right != null) {
+            Entry<K,V> s = predecessor(p);
+            if (cache != null)
+                cache.invalidate(s);
+            p.key = s.key;
+            p.value = s.value;
+            p = s;
+        } // p has 2 children
+
+        Entry<K,V> replacement = (p.left != null ? p.left : p.right);
+        if (replacement != null) {
+            // Link replacement to parent
+	    replacement.parent = p.parent;
+	    Entry<K, V> sibling = null;
+	    if (p.parent == null) {
+		root = replacement;
+		return;
+	    } else if (p == p.parent.left) {
+		p.parent.left = replacement;
+		sibling = p.parent.right;
+	    } else {
+		p.parent.right = replacement;
+		sibling = p.parent.left;
+	    }
+
+	    // Null out links so they are OK to use by fixAfterDeletion.
+	    p.left = p.right = p.parent = null;
+	    if (deleteWAVL)
+		fixAfterDeleteWAVL(replacement.parent, sibling, replacement);
+	    else
+		fixAfterDeleteAVL(replacement.parent, sibling, replacement);
+        } else if (p.parent == null) { // return if we are the only node.
+            root = null;
+        } else { //  No children. Use self as phantom replacement and unlink.
+            Entry<K, V> fixPoint = p.parent;
+            Entry<K, V> sibling = null;
+
+	    if (p == p.parent.left) {
+		p.parent.left = null;
+		sibling = fixPoint.right;
+	    } else if (p == p.parent.right) {
+		p.parent.right = null;
+		sibling = fixPoint.left;
+	    }
+	    p.parent = null;
+	    p.rank--;
+	    if (deleteWAVL)
+		fixAfterDeleteWAVL(fixPoint, sibling, p);
+	    else
+		fixAfterDeleteAVL(fixPoint, sibling, p);
+        }
+    }
+    
+    private byte rank(final Entry<K,V> node) {
+	return (node == null) ? -1 : node.rank;
+    }
+    
+    private boolean nodeIsTwoTwo(Entry<K, V> node) {
+	if (node == null || node.rank == 0)
+	    return false;
+	if (node.rank == 1) {
+	    if (node.left == null && node.right == null)
+		return true;
+	    else
+		return false;
+	} else 
+	    return (node.left.rank == node.right.rank && node.left.rank + 2 == node.rank);
+    }
+    
+    private void fixAfterDeleteWAVL(Entry<K, V> parent, Entry<K, V> sibling, Entry<K, V> node) {
+	int deltaRank = parent.rank - node.rank;
+	int levels = 0, rotated = rotations;
+	while (deltaRank == 3 || parent.rank == 1 && nodeIsTwoTwo(parent)) {
+	    int deltaRankSibling = (sibling == null) ? parent.rank + 1 : parent.rank - sibling.rank;
+	    if (deltaRankSibling == 2) {
+		parent.rank--; // demote and continue loop
+	    } else {
+		int deltaRankSiblingL = sibling.rank - rank(sibling.left);
+		int deltaRankSiblingR = sibling.rank - rank(sibling.right);
+		
+		if (deltaRankSiblingL == 2 && deltaRankSiblingR == 2) {
+		    // "double demote" in the orig. paper since both parent & sibling demote
+		    parent.rank--;
+		    sibling.rank--;
+		} else if (parent.right == sibling) { // delete was on the left
+		    if (deltaRankSiblingR == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.left == null)
+			    parent.rank--; // demote parent again
+			rotateLeft(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.left.rank += 2;
+			rotateRight(sibling);
+			rotateLeft(parent);
+		    }
+		    break;
+		} else { // delete was on the right
+		    if (deltaRankSiblingL == 1) { // single rotation
+			sibling.rank++;
+			parent.rank--;
+			if (sibling.right == null)
+			    parent.rank--; // demote parent again
+			rotateRight(parent);
+		    } else { // double rotation
+			parent.rank -= 2;
+			sibling.rank--;
+			sibling.right.rank += 2;
+			rotateLeft(sibling);
+			rotateRight(parent);
+		    }
+		    break;
+		}
+	    }
+	    
+	    if (parent.parent == null)
+		break;
 	    node = parent;
 	    parent = parent.parent;
 	    sibling = (parent.left == node) ? parent.right : parent.left;
 	    deltaRank = parent.rank - node.rank;
+	    levels++;
 	}
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.retrace(this, true, levels, rotations - rotated, size);
     }
     
     /*
@@ -628,6 +1261,7 @@ check these three cases stopping after any rotations, reaching the root or when
 	else
 	    balance = sibling.rank - node.rank;
 	
+	int levels = 0, rotated = rotations;
 	while (balance != 1) { // balance == 1 means prior to delete parent was balanced, break;
 	    if (balance == 0) {// side of delete was taller, decrement and continue
 		parent.rank--;
@@ -663,251 +1297,2256 @@ check these three cases stopping after any rotations, reaching the root or when
 		parent = parent.parent;
 	    }
 
-	    if (parent.parent == null)
-		return;
-	    node = parent;
-	    parent = parent.parent;
-	    sibling = (parent.left == node) ? parent.right : parent.left;
-	    balance = sibling.rank - node.rank;
+	    if (parent.parent == null)
+		break;
+	    node = parent;
+	    parent = parent.parent;
+	    sibling = (parent.left == node) ? parent.right : parent.left;
+	    balance = sibling.rank - node.rank;
+	    levels++;
+	}
+	if (RebalanceEvents.AVAILABLE)
+	    RebalanceEvents.retrace(this, true, levels, rotations - rotated, size);
+    }
+    
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    public void clear() {
+    	modCount++;
+        size = 0;
+        root = null;
+        rotations = 0;
+        if (cache != null)
+            cache.clear();
+    }
+
+    private static final long serialVersionUID = -3261087340919875561L;
+
+    /**
+     * Save the state of the {@code WAVLTreeMap} instance to a stream (i.e.,
+     * serialize it).
+     *
+     * @serialData The <em>size</em> of the map (the number of key-value
+     *             mappings) is emitted (int), followed by the key (Object)
+     *             and value (Object) for each key-value mapping, in key
+     *             order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
+	// Write out the Comparator and any hidden stuff
+	s.defaultWriteObject();
+
+	// Write out size (number of Mappings)
+	s.writeInt(size);
+
+	// Write out keys and values (alternating)
+	for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e)) {
+	    s.writeObject(e.key);
+	    s.writeObject(e.value);
+	}
+    }
+
+    /**
+     * Reconstitute the {@code WAVLTreeMap} instance from a stream (i.e.,
+     * deserialize it). The mappings arrive in key order, so the tree is rebuilt
+     * in linear time without comparisons or rotations.
+     */
+    private void readObject(final java.io.ObjectInputStream s) throws java.io.IOException, ClassNotFoundException {
+	// Read in the Comparator and any hidden stuff
+	s.defaultReadObject();
+
+	// Read in size
+	int size = s.readInt();
+	if (size < 0)
+	    throw new java.io.InvalidObjectException("Illegal mappings count: " + size);
+
+	root = buildFromSorted(0, size - 1, null, s);
+	this.size = size;
+    }
+
+    /**
+     * Builds the subtree holding elements {@code lo..hi} of the stream. The
+     * middle element is the root, so the right subtree holds the same number of
+     * elements as the left or one more, and the height of a subtree built this
+     * way depends only on its size. Ranks are set to height - 1, which makes every rank difference 1 or 2 and every leaf a 1,1 node.
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> buildFromSorted(int lo, int hi, Entry<K, V> parent, java.io.ObjectInputStream s)
+	    throws java.io.IOException, ClassNotFoundException {
+	if (hi < lo)
+	    return null;
+	int mid = (lo + hi) >>> 1;
+	Entry<K, V> middle = new Entry<>(null, null, parent);
+	middle.left = buildFromSorted(lo, mid - 1, middle, s);
+	middle.key = (K) s.readObject();
+	middle.value = (V) s.readObject();
+	middle.right = buildFromSorted(mid + 1, hi, middle, s);
+	middle.rank = (byte) (builtHeight(hi - lo + 1) - 1);
+	return middle;
+    }
+
+    /**
+     * Height of a subtree of {@code n} entries built by
+     * {@link #buildFromSorted}.
+     */
+    private static int builtHeight(int n) {
+	return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    /**
+     * Returns a map holding the given mappings, built in parallel. The array is
+     * sorted by key with {@link Arrays#parallelSort}, duplicate keys are
+     * dropped keeping the mapping that comes last in the array, as a sequence
+     * of {@code put} calls would, and the tree is then built by fork-join
+     * tasks in the common pool: the middle entry of a range becomes the root
+     * of its subtree while the two halves are built concurrently. Ranks
+     * follow from the subtree sizes, so after the sort no comparisons or
+     * rotations are needed.
+     *
+     * <p>
+     * The array is reordered and partly overwritten; pass a copy to keep it.
+     *
+     * @param entries
+     *            the mappings, in any order
+     * @throws NullPointerException
+     *             if the array, an element of it or a key is null
+     * @throws ClassCastException
+     *             if the keys are not mutually comparable
+     */
+    public static <K extends Comparable<? super K>, V> WAVLTreeMap<K, V> buildParallel(Map.Entry<K, V>[] entries) {
+	Arrays.parallelSort(entries, Map.Entry.comparingByKey());
+	int n = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    if (i + 1 == entries.length || entries[i].getKey().compareTo(entries[i + 1].getKey()) != 0)
+		entries[n++] = entries[i];
+	}
+	WAVLTreeMap<K, V> map = new WAVLTreeMap<>();
+	if (n > 0)
+	    map.root = ForkJoinPool.commonPool().invoke(new BuildTask<>(entries, 0, n - 1));
+	map.size = n;
+	return map;
+    }
+
+    /**
+     * Returns a map holding the mappings of {@code entries}, which are first
+     * gathered into an array by a parallel stream and then built as by
+     * {@link #buildParallel(Map.Entry[])}.
+     *
+     * @throws NullPointerException
+     *             if an element or a key is null
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> WAVLTreeMap<K, V> buildParallel(
+	    Spliterator<? extends Map.Entry<K, V>> entries) {
+	return buildParallel((Map.Entry<K, V>[]) StreamSupport.stream(entries, true).toArray(Map.Entry[]::new));
+    }
+
+    /**
+     * Builds the subtree of {@code a[lo..hi]}, forking the left half while the
+     * range is large enough to be worth a task.
+     */
+    static final class BuildTask<K, V> extends RecursiveTask<Entry<K, V>> {
+	private static final long serialVersionUID = 3311794467530317425L;
+
+	/** ranges smaller than this are built by the thread that reaches them */
+	static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+	final Map.Entry<K, V>[] a;
+	final int lo, hi;
+
+	BuildTask(Map.Entry<K, V>[] a, int lo, int hi) {
+	    this.a = a;
+	    this.lo = lo;
+	    this.hi = hi;
+	}
+
+	protected Entry<K, V> compute() {
+	    if (hi - lo < SEQUENTIAL_THRESHOLD)
+		return buildFromSorted(a, lo, hi, null);
+	    int mid = (lo + hi) >>> 1;
+	    BuildTask<K, V> left = new BuildTask<>(a, lo, mid - 1);
+	    left.fork();
+	    Entry<K, V> middle = new Entry<>(a[mid].getKey(), a[mid].getValue(), null);
+	    middle.right = new BuildTask<>(a, mid + 1, hi).compute();
+	    middle.right.parent = middle;
+	    middle.left = left.join();
+	    middle.left.parent = middle;
+	    middle.rank = (byte) (builtHeight(hi - lo + 1) - 1);
+	    return middle;
+	}
+    }
+
+    /**
+     * Builds the subtree holding {@code a[lo..hi]} in the same shape as
+     * {@link #buildFromSorted(int, int, Entry, java.io.ObjectInputStream)}.
+     */
+    static <K, V> Entry<K, V> buildFromSorted(Map.Entry<K, V>[] a, int lo, int hi, Entry<K, V> parent) {
+	if (hi < lo)
+	    return null;
+	int mid = (lo + hi) >>> 1;
+	Entry<K, V> middle = new Entry<>(a[mid].getKey(), a[mid].getValue(), parent);
+	middle.left = buildFromSorted(a, lo, mid - 1, middle);
+	middle.right = buildFromSorted(a, mid + 1, hi, middle);
+	middle.rank = (byte) (builtHeight(hi - lo + 1) - 1);
+	return middle;
+    }
+    
+    /**
+     * Test two values for equality.  Differs from o1.equals(o2) only in
+     * that it copes with {@code null} o1 properly.
+     */
+    static final boolean valEquals(Object o1, Object o2) {
+        return (o1==null ? o2==null : o1.equals(o2));
+    }
+
+    /**
+     * Compares two keys using the correct comparison method for this TreeMap.
+     */
+    @SuppressWarnings("unchecked")
+    final int compare(Object k1, Object k2) {
+	return comparator == null ? ((Comparable<? super K>) k1).compareTo((K) k2) : comparator.compare((K) k1, (K) k2);
+    }
+
+    /**
+     * Returns the key corresponding to the specified Entry.
+     * 
+     * @throws NoSuchElementException
+     *             if the Entry is null
+     */
+    static <K> K key(Entry<K,?> e) {
+        if (e==null)
+            throw new NoSuchElementException();
+        return e.key;
+    }
+	
+	/**
+     * Returns the first Entry in the TreeMap (according to the TreeMap's
+     * key-sort function).  Returns null if the TreeMap is empty.
+     */
+    final Entry<K,V> getFirstEntry() {
+        Entry<K,V> p = root;
+        if (p != null)
+            while (p.left != null)
+                p = p.left;
+        return p;
+    }
+
+    /**
+     * Returns the last Entry in the TreeMap (according to the TreeMap's
+     * key-sort function).  Returns null if the TreeMap is empty.
+     */
+    final Entry<K,V> getLastEntry() {
+        Entry<K,V> p = root;
+        if (p != null)
+            while (p.right != null)
+                p = p.right;
+        return p;
+    }
+    
+    /**
+     * Returns the successor of the specified Entry, or null if no such.
+     */
+    static <K,V> Entry<K,V> successor(Entry<K,V> t) {
+        if (t == null)
+            return null;
+        else if (t.right != null) {
+            Entry<K,V> p = t.right;
+            while (p.left != null)
+                p = p.left;
+            return p;
+        } else {
+            Entry<K,V> p = t.parent;
+            Entry<K,V> ch = t;
+            while (p != null && ch == p.right) {
+                ch = p;
+                p = p.parent;
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Returns the predecessor of the specified Entry, or null if no such.
+     */
+    static <K,V> Entry<K,V> predecessor(Entry<K,V> t) {
+        if (t == null)
+            return null;
+        else if (t.left != null) {
+            Entry<K,V> p = t.left;
+            while (p.right != null)
+                p = p.right;
+            return p;
+        } else {
+            Entry<K,V> p = t.parent;
+            Entry<K,V> ch = t;
+            while (p != null && ch == p.left) {
+                ch = p;
+                p = p.parent;
+            }
+            return p;
+        }
+    }
+
+    // Views
+
+    /**
+     * Fields initialized to contain an instance of the view the first time it is
+     * requested. Views are stateless, so there's no reason to create more than
+     * one.
+     */
+    private transient KeySet<K> navigableKeySet = null;
+    private transient NavigableMap<K, V> descendingMap = null;
+    private transient Values values = null;
+
+    public Comparator<? super K> comparator() {
+	return comparator;
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K firstKey() {
+	return key(getFirstEntry());
+    }
+
+    /**
+     * @throws NoSuchElementException {@inheritDoc}
+     */
+    public K lastKey() {
+	return key(getLastEntry());
+    }
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map.
+     *
+     * <p>
+     * The set's iterator returns the keys in ascending order. The set's
+     * spliterator is <em>late-binding</em>, <em>fail-fast</em>, and additionally
+     * reports {@link Spliterator#SORTED} and {@link Spliterator#ORDERED} with an
+     * encounter order that is ascending key order.
+     *
+     * <p>
+     * The set is backed by the map, so changes to the map are reflected in the set,
+     * and vice-versa. The set supports element removal but not the {@code add} or
+     * {@code addAll} operations.
+     */
+    public Set<K> keySet() {
+	return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+	KeySet<K> nks = navigableKeySet;
+	return (nks != null) ? nks : (navigableKeySet = new KeySet<>(this));
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+	return descendingMap().navigableKeySet();
+    }
+
+    /**
+     * Returns a {@link Collection} view of the values contained in this map, in
+     * ascending order of the corresponding keys. The collection is backed by the
+     * map and supports element removal but not the {@code add} or {@code addAll}
+     * operations.
+     */
+    public Collection<V> values() {
+	Values vs = values;
+	return (vs != null) ? vs : (values = new Values());
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+	NavigableMap<K, V> km = descendingMap;
+	return (km != null) ? km
+		: (descendingMap = new DescendingSubMap<>(this, true, null, true, true, null, true));
+    }
+
+    /**
+     * Returns a view of the portion of this map whose keys range from
+     * {@code fromKey} to {@code toKey}. The view is backed by the tree: bounds are
+     * checked on access and nothing is copied.
+     *
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code fromKey} or {@code toKey} is null and this map uses
+     *             natural ordering, or its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	return new AscendingSubMap<>(this, false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code toKey} is null and this map uses natural ordering, or
+     *             its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	return new AscendingSubMap<>(this, true, null, true, false, toKey, inclusive);
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if {@code fromKey} is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @throws IllegalArgumentException {@inheritDoc}
+     */
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	return new AscendingSubMap<>(this, false, fromKey, inclusive, true, null, true);
+    }
+
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+	return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K, V> headMap(K toKey) {
+	return headMap(toKey, false);
+    }
+
+    public SortedMap<K, V> tailMap(K fromKey) {
+	return tailMap(fromKey, true);
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     *
+     * <p>
+     * The set's iterator returns the entries in ascending key order. The sets's
+     * spliterator is <em><a href="Spliterator.html#binding">late-binding</a></em>,
+     * <em>fail-fast</em>, and additionally reports {@link Spliterator#SORTED} and
+     * {@link Spliterator#ORDERED} with an encounter order that is ascending key
+     * order.
+     *
+     * <p>
+     * The set is backed by the map, so changes to the map are reflected in the set,
+     * and vice-versa. If the map is modified while an iteration over the set is in
+     * progress (except through the iterator's own {@code remove} operation, or
+     * through the {@code setValue} operation on a map entry returned by the
+     * iterator) the results of the iteration are undefined. The set supports
+     * element removal, which removes the corresponding mapping from the map, via
+     * the {@code Iterator.remove}, {@code Set.remove}, {@code removeAll},
+     * {@code retainAll} and {@code clear} operations. It does not support the
+     * {@code add} or {@code addAll} operations.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+	EntrySet es = entrySet;
+	return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    private transient EntrySet entrySet = null;
+
+    class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+	public Iterator<Map.Entry<K, V>> iterator() {
+	    return new EntryIterator(getFirstEntry());
+	}
+
+	public boolean contains(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+	    Object value = entry.getValue();
+	    Entry<K, V> p = getEntry(entry.getKey());
+	    return p != null && valEquals(p.getValue(), value);
+	}
+
+	public boolean remove(Object o) {
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+	    Object value = entry.getValue();
+	    Entry<K, V> p = getEntry(entry.getKey());
+	    if (p != null && valEquals(p.getValue(), value)) {
+		deleteEntry(p);
+		return true;
+	    }
+	    return false;
+	}
+
+	public int size() {
+	    return WAVLTreeMap.this.size();
+	}
+
+	public void clear() {
+	    WAVLTreeMap.this.clear();
+	}
+
+	public Spliterator<Map.Entry<K, V>> spliterator() {
+	    return new EntrySpliterator<K, V>(WAVLTreeMap.this, null, null, 0, -1, 0);
+	}
+    }
+
+    /**
+     * Cursor moving over the entries by their parent links, so that a scan
+     * allocates nothing after the cursor itself.
+     */
+    final class EntryCursor implements Cursor<K, V> {
+	Entry<K, V> current;
+	int expectedModCount = modCount;
+
+	private boolean moveTo(Entry<K, V> e) {
+	    expectedModCount = modCount;
+	    current = e;
+	    return e != null;
+	}
+
+	public boolean seek(K key) {
+	    return moveTo(getCeilingEntry(key));
+	}
+
+	public boolean seekFirst() {
+	    return moveTo(getFirstEntry());
+	}
+
+	public boolean seekLast() {
+	    return moveTo(getLastEntry());
+	}
+
+	public boolean next() {
+	    current = successor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean prev() {
+	    current = predecessor(checkedCurrent());
+	    return current != null;
+	}
+
+	public boolean isValid() {
+	    return current != null;
+	}
+
+	public K key() {
+	    return checkedCurrent().key;
+	}
+
+	public V value() {
+	    return checkedCurrent().value;
+	}
+
+	public void reset() {
+	    moveTo(null);
+	}
+
+	private Entry<K, V> checkedCurrent() {
+	    if (current == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return current;
+	}
+    }
+
+    /**
+     * Base class for TreeMap Iterators
+     */
+    abstract class PrivateEntryIterator<T> implements Iterator<T> {
+	Entry<K, V> next;
+	Entry<K, V> lastReturned;
+	int expectedModCount;
+
+	PrivateEntryIterator(Entry<K, V> first) {
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	    next = first;
+	}
+
+	public final boolean hasNext() {
+	    return next != null;
+	}
+
+	final Entry<K, V> nextEntry() {
+	    Entry<K, V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = successor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	final Entry<K, V> prevEntry() {
+	    Entry<K, V> e = next;
+	    if (e == null)
+		throw new NoSuchElementException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    next = predecessor(e);
+	    lastReturned = e;
+	    return e;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // deleted entries are replaced by their predecessors, so the successor
+	    // held in next is unaffected
+	    deleteEntry(lastReturned);
+	    expectedModCount = modCount;
+	    lastReturned = null;
+	}
+    }
+
+    final class EntryIterator extends PrivateEntryIterator<Map.Entry<K, V>> {
+	EntryIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public Map.Entry<K, V> next() {
+	    return nextEntry();
+	}
+    }
+
+    final class ValueIterator extends PrivateEntryIterator<V> {
+	ValueIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public V next() {
+	    return nextEntry().value;
+	}
+    }
+
+    final class KeyIterator extends PrivateEntryIterator<K> {
+	KeyIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public K next() {
+	    return nextEntry().key;
+	}
+    }
+
+    final class DescendingKeyIterator extends PrivateEntryIterator<K> {
+	DescendingKeyIterator(Entry<K, V> first) {
+	    super(first);
+	}
+
+	public K next() {
+	    return prevEntry().key;
+	}
+
+	public void remove() {
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    // deleted entries are replaced by their predecessors
+	    if (lastReturned.left != null && lastReturned.right != null)
+		next = lastReturned;
+	    deleteEntry(lastReturned);
+	    lastReturned = null;
+	    expectedModCount = modCount;
+	}
+    }
+
+    class Values extends AbstractCollection<V> {
+	public Iterator<V> iterator() {
+	    return new ValueIterator(getFirstEntry());
+	}
+
+	public int size() {
+	    return WAVLTreeMap.this.size();
+	}
+
+	public boolean contains(Object o) {
+	    return WAVLTreeMap.this.containsValue(o);
+	}
+
+	public boolean remove(Object o) {
+	    for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e)) {
+		if (valEquals(e.getValue(), o)) {
+		    deleteEntry(e);
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	public void clear() {
+	    WAVLTreeMap.this.clear();
+	}
+
+	public Spliterator<V> spliterator() {
+	    return new ValueSpliterator<K, V>(WAVLTreeMap.this, null, null, 0, -1, 0);
+	}
+    }
+
+    /*
+     * Unlike Values and EntrySet, the KeySet class is static, delegating to a
+     * NavigableMap to allow use by SubMaps, which outweighs the ugliness of needing
+     * type-tests for the following Iterator methods that are defined appropriately
+     * in main versus submap classes.
+     */
+
+    Iterator<K> keyIterator() {
+	return new KeyIterator(getFirstEntry());
+    }
+
+    Iterator<K> descendingKeyIterator() {
+	return new DescendingKeyIterator(getLastEntry());
+    }
+
+    static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+	private final NavigableMap<E, ?> m;
+
+	KeySet(NavigableMap<E, ?> map) {
+	    m = map;
+	}
+
+	public Iterator<E> iterator() {
+	    if (m instanceof WAVLTreeMap)
+		return ((WAVLTreeMap<E, ?>) m).keyIterator();
+	    else
+		return ((WAVLTreeMap.NavigableSubMap<E, ?>) m).keyIterator();
+	}
+
+	public Iterator<E> descendingIterator() {
+	    if (m instanceof WAVLTreeMap)
+		return ((WAVLTreeMap<E, ?>) m).descendingKeyIterator();
+	    else
+		return ((WAVLTreeMap.NavigableSubMap<E, ?>) m).descendingKeyIterator();
+	}
+
+	public int size() {
+	    return m.size();
+	}
+
+	public boolean isEmpty() {
+	    return m.isEmpty();
+	}
+
+	public boolean contains(Object o) {
+	    return m.containsKey(o);
+	}
+
+	public void clear() {
+	    m.clear();
+	}
+
+	public E lower(E e) {
+	    return m.lowerKey(e);
+	}
+
+	public E floor(E e) {
+	    return m.floorKey(e);
+	}
+
+	public E ceiling(E e) {
+	    return m.ceilingKey(e);
+	}
+
+	public E higher(E e) {
+	    return m.higherKey(e);
+	}
+
+	public E first() {
+	    return m.firstKey();
+	}
+
+	public E last() {
+	    return m.lastKey();
+	}
+
+	public Comparator<? super E> comparator() {
+	    return m.comparator();
+	}
+
+	public E pollFirst() {
+	    Map.Entry<E, ?> e = m.pollFirstEntry();
+	    return (e == null) ? null : e.getKey();
+	}
+
+	public E pollLast() {
+	    Map.Entry<E, ?> e = m.pollLastEntry();
+	    return (e == null) ? null : e.getKey();
+	}
+
+	public boolean remove(Object o) {
+	    int oldSize = size();
+	    m.remove(o);
+	    return size() != oldSize;
+	}
+
+	public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+	    return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+	}
+
+	public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+	    return new KeySet<>(m.headMap(toElement, inclusive));
+	}
+
+	public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+	    return new KeySet<>(m.tailMap(fromElement, inclusive));
+	}
+
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+	    return subSet(fromElement, true, toElement, false);
+	}
+
+	public SortedSet<E> headSet(E toElement) {
+	    return headSet(toElement, false);
+	}
+
+	public SortedSet<E> tailSet(E fromElement) {
+	    return tailSet(fromElement, true);
+	}
+
+	public NavigableSet<E> descendingSet() {
+	    return new KeySet<>(m.descendingMap());
+	}
+
+	public Spliterator<E> spliterator() {
+	    return keySpliteratorFor(m);
+	}
+    }
+
+    // SubMaps
+
+    /**
+     * Dummy value serving as unmatchable fence key for unbounded SubMapIterators
+     */
+    private static final Object UNBOUNDED = new Object();
+
+    /**
+     * A live view of a range of the backing tree. Bounds are checked against the
+     * tree on every access, nothing is copied.
+     */
+    abstract static class NavigableSubMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	/**
+	 * The backing map.
+	 */
+	final WAVLTreeMap<K, V> m;
+
+	/**
+	 * Endpoints are represented as triples (fromStart, lo, loInclusive) and
+	 * (toEnd, hi, hiInclusive). If fromStart is true, then the low (absolute)
+	 * bound is the start of the backing map, and the other values are ignored.
+	 * Otherwise, if loInclusive is true, lo is the inclusive bound, else lo is
+	 * the exclusive bound. Similarly for the upper bound.
+	 */
+	final K lo, hi;
+	final boolean fromStart, toEnd;
+	final boolean loInclusive, hiInclusive;
+
+	NavigableSubMap(WAVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    if (!fromStart && !toEnd) {
+		if (m.compare(lo, hi) > 0)
+		    throw new IllegalArgumentException("fromKey > toKey");
+	    } else {
+		if (!fromStart) // type check
+		    m.compare(lo, lo);
+		if (!toEnd)
+		    m.compare(hi, hi);
+	    }
+
+	    this.m = m;
+	    this.fromStart = fromStart;
+	    this.lo = lo;
+	    this.loInclusive = loInclusive;
+	    this.toEnd = toEnd;
+	    this.hi = hi;
+	    this.hiInclusive = hiInclusive;
+	}
+
+	// internal utilities
+
+	final boolean tooLow(Object key) {
+	    if (!fromStart) {
+		int c = m.compare(key, lo);
+		if (c < 0 || (c == 0 && !loInclusive))
+		    return true;
+	    }
+	    return false;
+	}
+
+	final boolean tooHigh(Object key) {
+	    if (!toEnd) {
+		int c = m.compare(key, hi);
+		if (c > 0 || (c == 0 && !hiInclusive))
+		    return true;
+	    }
+	    return false;
+	}
+
+	final boolean inRange(Object key) {
+	    return !tooLow(key) && !tooHigh(key);
+	}
+
+	final boolean inClosedRange(Object key) {
+	    return (fromStart || m.compare(key, lo) >= 0) && (toEnd || m.compare(hi, key) >= 0);
+	}
+
+	final boolean inRange(Object key, boolean inclusive) {
+	    return inclusive ? inRange(key) : inClosedRange(key);
+	}
+
+	/*
+	 * Absolute versions of relation operations. Subclasses map to these using
+	 * like-named "sub" versions that invert senses for descending maps
+	 */
+
+	final WAVLTreeMap.Entry<K, V> absLowest() {
+	    WAVLTreeMap.Entry<K, V> e = (fromStart ? m.getFirstEntry()
+		    : (loInclusive ? m.getCeilingEntry(lo) : m.getHigherEntry(lo)));
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final WAVLTreeMap.Entry<K, V> absHighest() {
+	    WAVLTreeMap.Entry<K, V> e = (toEnd ? m.getLastEntry()
+		    : (hiInclusive ? m.getFloorEntry(hi) : m.getLowerEntry(hi)));
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	final WAVLTreeMap.Entry<K, V> absCeiling(K key) {
+	    if (tooLow(key))
+		return absLowest();
+	    WAVLTreeMap.Entry<K, V> e = m.getCeilingEntry(key);
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final WAVLTreeMap.Entry<K, V> absHigher(K key) {
+	    if (tooLow(key))
+		return absLowest();
+	    WAVLTreeMap.Entry<K, V> e = m.getHigherEntry(key);
+	    return (e == null || tooHigh(e.key)) ? null : e;
+	}
+
+	final WAVLTreeMap.Entry<K, V> absFloor(K key) {
+	    if (tooHigh(key))
+		return absHighest();
+	    WAVLTreeMap.Entry<K, V> e = m.getFloorEntry(key);
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	final WAVLTreeMap.Entry<K, V> absLower(K key) {
+	    if (tooHigh(key))
+		return absHighest();
+	    WAVLTreeMap.Entry<K, V> e = m.getLowerEntry(key);
+	    return (e == null || tooLow(e.key)) ? null : e;
+	}
+
+	/** Returns the absolute high fence for ascending traversal */
+	final WAVLTreeMap.Entry<K, V> absHighFence() {
+	    return (toEnd ? null : (hiInclusive ? m.getHigherEntry(hi) : m.getCeilingEntry(hi)));
+	}
+
+	/** Return the absolute low fence for descending traversal */
+	final WAVLTreeMap.Entry<K, V> absLowFence() {
+	    return (fromStart ? null : (loInclusive ? m.getLowerEntry(lo) : m.getFloorEntry(lo)));
+	}
+
+	// Abstract methods defined in ascending vs descending classes
+	// These relay to the appropriate absolute versions
+
+	abstract WAVLTreeMap.Entry<K, V> subLowest();
+
+	abstract WAVLTreeMap.Entry<K, V> subHighest();
+
+	abstract WAVLTreeMap.Entry<K, V> subCeiling(K key);
+
+	abstract WAVLTreeMap.Entry<K, V> subHigher(K key);
+
+	abstract WAVLTreeMap.Entry<K, V> subFloor(K key);
+
+	abstract WAVLTreeMap.Entry<K, V> subLower(K key);
+
+	/** Returns ascending iterator from the perspective of this submap */
+	abstract Iterator<K> keyIterator();
+
+	abstract Spliterator<K> keySpliterator();
+
+	/** Returns descending iterator from the perspective of this submap */
+	abstract Iterator<K> descendingKeyIterator();
+
+	// public methods
+
+	public boolean isEmpty() {
+	    return (fromStart && toEnd) ? m.isEmpty() : entrySet().isEmpty();
+	}
+
+	public int size() {
+	    return (fromStart && toEnd) ? m.size() : entrySet().size();
+	}
+
+	public final boolean containsKey(Object key) {
+	    return inRange(key) && m.containsKey(key);
+	}
+
+	public final V put(K key, V value) {
+	    if (!inRange(key))
+		throw new IllegalArgumentException("key out of range");
+	    return m.put(key, value);
+	}
+
+	public final V get(Object key) {
+	    return !inRange(key) ? null : m.get(key);
+	}
+
+	public final V remove(Object key) {
+	    return !inRange(key) ? null : m.remove(key);
+	}
+
+	public final Map.Entry<K, V> ceilingEntry(K key) {
+	    return exportEntry(subCeiling(key));
+	}
+
+	public final K ceilingKey(K key) {
+	    return keyOrNull(subCeiling(key));
+	}
+
+	public final Map.Entry<K, V> higherEntry(K key) {
+	    return exportEntry(subHigher(key));
+	}
+
+	public final K higherKey(K key) {
+	    return keyOrNull(subHigher(key));
+	}
+
+	public final Map.Entry<K, V> floorEntry(K key) {
+	    return exportEntry(subFloor(key));
+	}
+
+	public final K floorKey(K key) {
+	    return keyOrNull(subFloor(key));
+	}
+
+	public final Map.Entry<K, V> lowerEntry(K key) {
+	    return exportEntry(subLower(key));
+	}
+
+	public final K lowerKey(K key) {
+	    return keyOrNull(subLower(key));
+	}
+
+	public final K firstKey() {
+	    return key(subLowest());
+	}
+
+	public final K lastKey() {
+	    return key(subHighest());
+	}
+
+	public final Map.Entry<K, V> firstEntry() {
+	    return exportEntry(subLowest());
+	}
+
+	public final Map.Entry<K, V> lastEntry() {
+	    return exportEntry(subHighest());
+	}
+
+	public final Map.Entry<K, V> pollFirstEntry() {
+	    WAVLTreeMap.Entry<K, V> e = subLowest();
+	    Map.Entry<K, V> result = exportEntry(e);
+	    if (e != null)
+		m.deleteEntry(e);
+	    return result;
+	}
+
+	public final Map.Entry<K, V> pollLastEntry() {
+	    WAVLTreeMap.Entry<K, V> e = subHighest();
+	    Map.Entry<K, V> result = exportEntry(e);
+	    if (e != null)
+		m.deleteEntry(e);
+	    return result;
+	}
+
+	// Views
+	transient NavigableMap<K, V> descendingMapView = null;
+	transient EntrySetView entrySetView = null;
+	transient KeySet<K> navigableKeySetView = null;
+
+	public final NavigableSet<K> navigableKeySet() {
+	    KeySet<K> nksv = navigableKeySetView;
+	    return (nksv != null) ? nksv : (navigableKeySetView = new WAVLTreeMap.KeySet<>(this));
+	}
+
+	public final Set<K> keySet() {
+	    return navigableKeySet();
+	}
+
+	public NavigableSet<K> descendingKeySet() {
+	    return descendingMap().navigableKeySet();
+	}
+
+	public final SortedMap<K, V> subMap(K fromKey, K toKey) {
+	    return subMap(fromKey, true, toKey, false);
+	}
+
+	public final SortedMap<K, V> headMap(K toKey) {
+	    return headMap(toKey, false);
+	}
+
+	public final SortedMap<K, V> tailMap(K fromKey) {
+	    return tailMap(fromKey, true);
+	}
+
+	// View classes
+
+	abstract class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+	    private transient int size = -1, sizeModCount;
+
+	    public int size() {
+		if (fromStart && toEnd)
+		    return m.size();
+		if (size == -1 || sizeModCount != m.modCount) {
+		    sizeModCount = m.modCount;
+		    size = 0;
+		    Iterator<?> i = iterator();
+		    while (i.hasNext()) {
+			size++;
+			i.next();
+		    }
+		}
+		return size;
+	    }
+
+	    public boolean isEmpty() {
+		WAVLTreeMap.Entry<K, V> n = absLowest();
+		return n == null || tooHigh(n.key);
+	    }
+
+	    public boolean contains(Object o) {
+		if (!(o instanceof Map.Entry))
+		    return false;
+		Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+		Object key = entry.getKey();
+		if (!inRange(key))
+		    return false;
+		WAVLTreeMap.Entry<?, ?> node = m.getEntry(key);
+		return node != null && valEquals(node.getValue(), entry.getValue());
+	    }
+
+	    public boolean remove(Object o) {
+		if (!(o instanceof Map.Entry))
+		    return false;
+		Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+		Object key = entry.getKey();
+		if (!inRange(key))
+		    return false;
+		WAVLTreeMap.Entry<K, V> node = m.getEntry(key);
+		if (node != null && valEquals(node.getValue(), entry.getValue())) {
+		    m.deleteEntry(node);
+		    return true;
+		}
+		return false;
+	    }
+	}
+
+	/**
+	 * Iterators for SubMaps
+	 */
+	abstract class SubMapIterator<T> implements Iterator<T> {
+	    WAVLTreeMap.Entry<K, V> lastReturned;
+	    WAVLTreeMap.Entry<K, V> next;
+	    final Object fenceKey;
+	    int expectedModCount;
+
+	    SubMapIterator(WAVLTreeMap.Entry<K, V> first, WAVLTreeMap.Entry<K, V> fence) {
+		expectedModCount = m.modCount;
+		lastReturned = null;
+		next = first;
+		fenceKey = fence == null ? UNBOUNDED : fence.key;
+	    }
+
+	    public final boolean hasNext() {
+		return next != null && next.key != fenceKey;
+	    }
+
+	    final WAVLTreeMap.Entry<K, V> nextEntry() {
+		WAVLTreeMap.Entry<K, V> e = next;
+		if (e == null || e.key == fenceKey)
+		    throw new NoSuchElementException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		next = successor(e);
+		lastReturned = e;
+		return e;
+	    }
+
+	    final WAVLTreeMap.Entry<K, V> prevEntry() {
+		WAVLTreeMap.Entry<K, V> e = next;
+		if (e == null || e.key == fenceKey)
+		    throw new NoSuchElementException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		next = predecessor(e);
+		lastReturned = e;
+		return e;
+	    }
+
+	    final void removeAscending() {
+		if (lastReturned == null)
+		    throw new IllegalStateException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		// deleted entries are replaced by their predecessors, so the successor
+		// held in next is unaffected
+		m.deleteEntry(lastReturned);
+		lastReturned = null;
+		expectedModCount = m.modCount;
+	    }
+
+	    final void removeDescending() {
+		if (lastReturned == null)
+		    throw new IllegalStateException();
+		if (m.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+		// deleted entries are replaced by their predecessors
+		if (lastReturned.left != null && lastReturned.right != null)
+		    next = lastReturned;
+		m.deleteEntry(lastReturned);
+		lastReturned = null;
+		expectedModCount = m.modCount;
+	    }
+	}
+
+	final class SubMapEntryIterator extends SubMapIterator<Map.Entry<K, V>> {
+	    SubMapEntryIterator(WAVLTreeMap.Entry<K, V> first, WAVLTreeMap.Entry<K, V> fence) {
+		super(first, fence);
+	    }
+
+	    public Map.Entry<K, V> next() {
+		return nextEntry();
+	    }
+
+	    public void remove() {
+		removeAscending();
+	    }
+	}
+
+	final class DescendingSubMapEntryIterator extends SubMapIterator<Map.Entry<K, V>> {
+	    DescendingSubMapEntryIterator(WAVLTreeMap.Entry<K, V> last, WAVLTreeMap.Entry<K, V> fence) {
+		super(last, fence);
+	    }
+
+	    public Map.Entry<K, V> next() {
+		return prevEntry();
+	    }
+
+	    public void remove() {
+		removeDescending();
+	    }
+	}
+
+	// Implement minimal Spliterator as KeySpliterator backup
+	final class SubMapKeyIterator extends SubMapIterator<K> implements Spliterator<K> {
+	    SubMapKeyIterator(WAVLTreeMap.Entry<K, V> first, WAVLTreeMap.Entry<K, V> fence) {
+		super(first, fence);
+	    }
+
+	    public K next() {
+		return nextEntry().key;
+	    }
+
+	    public void remove() {
+		removeAscending();
+	    }
+
+	    public Spliterator<K> trySplit() {
+		return null;
+	    }
+
+	    public void forEachRemaining(Consumer<? super K> action) {
+		while (hasNext())
+		    action.accept(next());
+	    }
+
+	    public boolean tryAdvance(Consumer<? super K> action) {
+		if (hasNext()) {
+		    action.accept(next());
+		    return true;
+		}
+		return false;
+	    }
+
+	    public long estimateSize() {
+		return Long.MAX_VALUE;
+	    }
+
+	    public int characteristics() {
+		return Spliterator.DISTINCT | Spliterator.ORDERED | Spliterator.SORTED;
+	    }
+
+	    public final Comparator<? super K> getComparator() {
+		return NavigableSubMap.this.comparator();
+	    }
+	}
+
+	final class DescendingSubMapKeyIterator extends SubMapIterator<K> implements Spliterator<K> {
+	    DescendingSubMapKeyIterator(WAVLTreeMap.Entry<K, V> last, WAVLTreeMap.Entry<K, V> fence) {
+		super(last, fence);
+	    }
+
+	    public K next() {
+		return prevEntry().key;
+	    }
+
+	    public void remove() {
+		removeDescending();
+	    }
+
+	    public Spliterator<K> trySplit() {
+		return null;
+	    }
+
+	    public void forEachRemaining(Consumer<? super K> action) {
+		while (hasNext())
+		    action.accept(next());
+	    }
+
+	    public boolean tryAdvance(Consumer<? super K> action) {
+		if (hasNext()) {
+		    action.accept(next());
+		    return true;
+		}
+		return false;
+	    }
+
+	    public long estimateSize() {
+		return Long.MAX_VALUE;
+	    }
+
+	    public int characteristics() {
+		return Spliterator.DISTINCT | Spliterator.ORDERED;
+	    }
+	}
+    }
+
+    static final class AscendingSubMap<K, V> extends NavigableSubMap<K, V> {
+	AscendingSubMap(WAVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    super(m, fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+	}
+
+	public Comparator<? super K> comparator() {
+	    return m.comparator();
+	}
+
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	    if (!inRange(fromKey, fromInclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    if (!inRange(toKey, toInclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new AscendingSubMap<>(m, false, fromKey, fromInclusive, false, toKey, toInclusive);
+	}
+
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	    if (!inRange(toKey, inclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new AscendingSubMap<>(m, fromStart, lo, loInclusive, false, toKey, inclusive);
+	}
+
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	    if (!inRange(fromKey, inclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    return new AscendingSubMap<>(m, false, fromKey, inclusive, toEnd, hi, hiInclusive);
+	}
+
+	public NavigableMap<K, V> descendingMap() {
+	    NavigableMap<K, V> mv = descendingMapView;
+	    return (mv != null) ? mv
+		    : (descendingMapView = new DescendingSubMap<>(m, fromStart, lo, loInclusive, toEnd, hi,
+			    hiInclusive));
+	}
+
+	Iterator<K> keyIterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
+
+	Spliterator<K> keySpliterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
+
+	Iterator<K> descendingKeyIterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	final class AscendingEntrySetView extends EntrySetView {
+	    public Iterator<Map.Entry<K, V>> iterator() {
+		return new SubMapEntryIterator(absLowest(), absHighFence());
+	    }
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+	    EntrySetView es = entrySetView;
+	    return (es != null) ? es : (entrySetView = new AscendingEntrySetView());
+	}
+
+	WAVLTreeMap.Entry<K, V> subLowest() {
+	    return absLowest();
+	}
+
+	WAVLTreeMap.Entry<K, V> subHighest() {
+	    return absHighest();
+	}
+
+	WAVLTreeMap.Entry<K, V> subCeiling(K key) {
+	    return absCeiling(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subHigher(K key) {
+	    return absHigher(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subFloor(K key) {
+	    return absFloor(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subLower(K key) {
+	    return absLower(key);
+	}
+    }
+
+    static final class DescendingSubMap<K, V> extends NavigableSubMap<K, V> {
+	DescendingSubMap(WAVLTreeMap<K, V> m, boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi,
+		boolean hiInclusive) {
+	    super(m, fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+	}
+
+	private final Comparator<? super K> reverseComparator = Collections.reverseOrder(m.comparator);
+
+	public Comparator<? super K> comparator() {
+	    return reverseComparator;
+	}
+
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+	    if (!inRange(fromKey, fromInclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    if (!inRange(toKey, toInclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new DescendingSubMap<>(m, false, toKey, toInclusive, false, fromKey, fromInclusive);
+	}
+
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+	    if (!inRange(toKey, inclusive))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new DescendingSubMap<>(m, false, toKey, inclusive, toEnd, hi, hiInclusive);
+	}
+
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+	    if (!inRange(fromKey, inclusive))
+		throw new IllegalArgumentException("fromKey out of range");
+	    return new DescendingSubMap<>(m, fromStart, lo, loInclusive, false, fromKey, inclusive);
+	}
+
+	public NavigableMap<K, V> descendingMap() {
+	    NavigableMap<K, V> mv = descendingMapView;
+	    return (mv != null) ? mv
+		    : (descendingMapView = new AscendingSubMap<>(m, fromStart, lo, loInclusive, toEnd, hi,
+			    hiInclusive));
+	}
+
+	Iterator<K> keyIterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	Spliterator<K> keySpliterator() {
+	    return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
+	}
+
+	Iterator<K> descendingKeyIterator() {
+	    return new SubMapKeyIterator(absLowest(), absHighFence());
+	}
+
+	final class DescendingEntrySetView extends EntrySetView {
+	    public Iterator<Map.Entry<K, V>> iterator() {
+		return new DescendingSubMapEntryIterator(absHighest(), absLowFence());
+	    }
+
+	    public Spliterator<Map.Entry<K, V>> spliterator() {
+		if (fromStart && toEnd)
+		    return new DescendingEntrySpliterator<K, V>(m, null, null, 0, -2, 0);
+		return super.spliterator();
+	    }
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+	    EntrySetView es = entrySetView;
+	    return (es != null) ? es : (entrySetView = new DescendingEntrySetView());
+	}
+
+	private transient Collection<V> valuesView;
+
+	/**
+	 * Returns the values in descending order of their keys. For the whole map the
+	 * spliterator splits the tree like the ascending one does, so that
+	 * {@code descendingMap().values().stream()} runs without copying.
+	 */
+	public Collection<V> values() {
+	    Collection<V> vs = valuesView;
+	    return (vs != null) ? vs : (valuesView = new DescendingValues());
+	}
+
+	final class DescendingValues extends AbstractCollection<V> {
+	    public Iterator<V> iterator() {
+		Iterator<Map.Entry<K, V>> i = entrySet().iterator();
+		return new Iterator<V>() {
+		    public boolean hasNext() {
+			return i.hasNext();
+		    }
+
+		    public V next() {
+			return i.next().getValue();
+		    }
+
+		    public void remove() {
+			i.remove();
+		    }
+		};
+	    }
+
+	    public int size() {
+		return DescendingSubMap.this.size();
+	    }
+
+	    public boolean isEmpty() {
+		return DescendingSubMap.this.isEmpty();
+	    }
+
+	    public boolean contains(Object o) {
+		return containsValue(o);
+	    }
+
+	    public void clear() {
+		DescendingSubMap.this.clear();
+	    }
+
+	    public Spliterator<V> spliterator() {
+		if (fromStart && toEnd)
+		    return new DescendingValueSpliterator<K, V>(m, null, null, 0, -2, 0);
+		return super.spliterator();
+	    }
+	}
+
+	WAVLTreeMap.Entry<K, V> subLowest() {
+	    return absHighest();
+	}
+
+	WAVLTreeMap.Entry<K, V> subHighest() {
+	    return absLowest();
+	}
+
+	WAVLTreeMap.Entry<K, V> subCeiling(K key) {
+	    return absFloor(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subHigher(K key) {
+	    return absLower(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subFloor(K key) {
+	    return absCeiling(key);
+	}
+
+	WAVLTreeMap.Entry<K, V> subLower(K key) {
+	    return absHigher(key);
+	}
+    }
+
+    /**
+     * Spliterator-based versions are supported for the full map, in either plain
+     * or descending form, otherwise relying on defaults because size estimation
+     * for submaps would dominate costs.
+     */
+    static <K> Spliterator<K> keySpliteratorFor(NavigableMap<K, ?> m) {
+	if (m instanceof WAVLTreeMap) {
+	    @SuppressWarnings("unchecked")
+	    WAVLTreeMap<K, Object> t = (WAVLTreeMap<K, Object>) m;
+	    return t.keySpliterator();
+	}
+	if (m instanceof DescendingSubMap) {
+	    @SuppressWarnings("unchecked")
+	    DescendingSubMap<K, ?> dm = (DescendingSubMap<K, ?>) m;
+	    WAVLTreeMap<K, ?> tm = dm.m;
+	    if (dm == tm.descendingMap) {
+		@SuppressWarnings("unchecked")
+		WAVLTreeMap<K, Object> t = (WAVLTreeMap<K, Object>) tm;
+		return t.descendingKeySpliterator();
+	    }
+	}
+	@SuppressWarnings("unchecked")
+	NavigableSubMap<K, ?> sm = (NavigableSubMap<K, ?>) m;
+	return sm.keySpliterator();
+    }
+
+    final Spliterator<K> keySpliterator() {
+	return new KeySpliterator<K, V>(this, null, null, 0, -1, 0);
+    }
+
+    final Spliterator<K> descendingKeySpliterator() {
+	return new DescendingKeySpliterator<K, V>(this, null, null, 0, -2, 0);
+    }
+
+    /**
+     * Base class for spliterators. Iteration starts at a given origin and continues
+     * up to but not including a given fence (or null for end). At top-level, for
+     * ascending cases, the first split uses the root as left-fence/right-origin.
+     * From there, right-hand splits replace the current fence with its left child,
+     * also serving as origin for the split-off spliterator. Left-hands are
+     * symmetric. Descending versions place the origin at the end and invert
+     * ascending split rules.
+     *
+     * To bootstrap initialization, external constructors use negative size
+     * estimates: -1 for ascend, -2 for descend.
+     */
+    static class TreeMapSpliterator<K, V> {
+	final WAVLTreeMap<K, V> tree;
+	WAVLTreeMap.Entry<K, V> current; // traverser; initially first node in range
+	WAVLTreeMap.Entry<K, V> fence; // one past last, or null
+	int side; // 0: top, -1: is a left split, +1: right
+	int est; // size estimate (exact only for top-level)
+	int expectedModCount; // for CME checks
+
+	TreeMapSpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    this.tree = tree;
+	    this.current = origin;
+	    this.fence = fence;
+	    this.side = side;
+	    this.est = est;
+	    this.expectedModCount = expectedModCount;
+	}
+
+	final int getEstimate() { // force initialization
+	    int s;
+	    WAVLTreeMap<K, V> t;
+	    if ((s = est) < 0) {
+		if ((t = tree) != null) {
+		    current = (s == -1) ? t.getFirstEntry() : t.getLastEntry();
+		    s = est = t.size;
+		    expectedModCount = t.modCount;
+		} else
+		    s = est = 0;
+	    }
+	    return s;
+	}
+
+	public final long estimateSize() {
+	    return (long) getEstimate();
+	}
+
+	/**
+	 * Returns the node at which to split off the lower half of an ascending
+	 * traversal, or null if the remaining range is too small to split.
+	 */
+	final WAVLTreeMap.Entry<K, V> ascendingSplit() {
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    int d = side;
+	    WAVLTreeMap.Entry<K, V> e = current, f = fence, s = ((e == null || e == f) ? null : // empty
+		    (d == 0) ? tree.root : // was top
+			    (d > 0) ? e.right : // was right
+				    (d < 0 && f != null) ? f.left : // was left
+					    null);
+	    if (s != null && s != e && s != f && tree.compare(e.key, s.key) < 0) { // e not already past s
+		side = 1;
+		est >>>= 1;
+		return s;
+	    }
+	    return null;
+	}
+
+	/**
+	 * Returns the node at which to split off the upper half of a descending
+	 * traversal, or null if the remaining range is too small to split.
+	 */
+	final WAVLTreeMap.Entry<K, V> descendingSplit() {
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    int d = side;
+	    WAVLTreeMap.Entry<K, V> e = current, f = fence, s = ((e == null || e == f) ? null : // empty
+		    (d == 0) ? tree.root : // was top
+			    (d < 0) ? e.left : // was left
+				    (d > 0 && f != null) ? f.right : // was right
+					    null);
+	    if (s != null && s != e && s != f && tree.compare(e.key, s.key) > 0) { // e not already past s
+		side = 1;
+		est >>>= 1;
+		return s;
+	    }
+	    return null;
+	}
+    }
+
+    static final class KeySpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<K> {
+	KeySpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public KeySpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new KeySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super K> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.key);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super K> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = successor(e);
+	    action.accept(e.key);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.SORTED
+		    | Spliterator.ORDERED;
+	}
+
+	public final Comparator<? super K> getComparator() {
+	    return tree.comparator;
+	}
+    }
+
+    static final class DescendingKeySpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<K> {
+	DescendingKeySpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public DescendingKeySpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingKeySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super K> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.key);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super K> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e.key);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.ORDERED;
+	}
+    }
+
+    static final class ValueSpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<V> {
+	ValueSpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public ValueSpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new ValueSpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super V> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.value);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super V> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = successor(e);
+	    action.accept(e.value);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.ORDERED;
+	}
+    }
+
+    static final class DescendingValueSpliterator<K, V> extends TreeMapSpliterator<K, V> implements Spliterator<V> {
+	DescendingValueSpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public DescendingValueSpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingValueSpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super V> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e.value);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super V> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e.value);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.ORDERED;
+	}
+    }
+
+    static final class EntrySpliterator<K, V> extends TreeMapSpliterator<K, V>
+	    implements Spliterator<Map.Entry<K, V>> {
+	EntrySpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side, int est,
+		int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public EntrySpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = ascendingSplit();
+	    return (s == null) ? null : new EntrySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e);
+		} while ((e = successor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = successor(e);
+	    action.accept(e);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.SORTED
+		    | Spliterator.ORDERED;
+	}
+
+	public Comparator<Map.Entry<K, V>> getComparator() {
+	    // Adapt or create a key-based comparator
+	    if (tree.comparator != null) {
+		return Map.Entry.comparingByKey(tree.comparator);
+	    } else {
+		return (Comparator<Map.Entry<K, V>> & java.io.Serializable) (e1, e2) -> {
+		    @SuppressWarnings("unchecked")
+		    Comparable<? super K> k1 = (Comparable<? super K>) e1.getKey();
+		    return k1.compareTo(e2.getKey());
+		};
+	    }
+	}
+    }
+
+    static final class DescendingEntrySpliterator<K, V> extends TreeMapSpliterator<K, V>
+	    implements Spliterator<Map.Entry<K, V>> {
+	DescendingEntrySpliterator(WAVLTreeMap<K, V> tree, WAVLTreeMap.Entry<K, V> origin, WAVLTreeMap.Entry<K, V> fence, int side,
+		int est, int expectedModCount) {
+	    super(tree, origin, fence, side, est, expectedModCount);
+	}
+
+	public DescendingEntrySpliterator<K, V> trySplit() {
+	    WAVLTreeMap.Entry<K, V> s = descendingSplit();
+	    return (s == null) ? null
+		    : new DescendingEntrySpliterator<>(tree, current, current = s, -1, est, expectedModCount);
+	}
+
+	public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    WAVLTreeMap.Entry<K, V> f = fence, e;
+	    if ((e = current) != null && e != f) {
+		current = f; // exhaust
+		do {
+		    action.accept(e);
+		} while ((e = predecessor(e)) != null && e != f);
+		if (tree.modCount != expectedModCount)
+		    throw new ConcurrentModificationException();
+	    }
+	}
+
+	public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+	    WAVLTreeMap.Entry<K, V> e;
+	    if (action == null)
+		throw new NullPointerException();
+	    if (est < 0)
+		getEstimate(); // force initialization
+	    if ((e = current) == null || e == fence)
+		return false;
+	    current = predecessor(e);
+	    action.accept(e);
+	    if (tree.modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    return true;
+	}
+
+	public int characteristics() {
+	    return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.ORDERED;
 	}
     }
-    
+
     /**
-     * Removes all of the mappings from this map.
-     * The map will be empty after this call returns.
+     * Return SimpleImmutableEntry for entry, or null if null
      */
-    public void clear() {
-    	modCount++;
-        size = 0;
-        root = null;
-        rotations = 0;
+    static <K, V> Map.Entry<K, V> exportEntry(WAVLTreeMap.Entry<K, V> e) {
+	return (e == null) ? null : new AbstractMap.SimpleImmutableEntry<>(e);
     }
-    
+
     /**
-     * Test two values for equality.  Differs from o1.equals(o2) only in
-     * that it copes with {@code null} o1 properly.
+     * Return key for entry, or null if null
      */
-    static final boolean valEquals(Object o1, Object o2) {
-        return (o1==null ? o2==null : o1.equals(o2));
+    static <K, V> K keyOrNull(WAVLTreeMap.Entry<K, V> e) {
+	return (e == null) ? null : e.key;
     }
 
+    // NavigableMap API methods
+
     /**
-     * Compares two keys using the correct comparison method for this TreeMap.
+     * @since 1.6
      */
-    @SuppressWarnings("unchecked")
-    final int compare(Object k1, Object k2) {
-	return comparator == null ? ((Comparable<? super K>) k1).compareTo((K) k2) : comparator.compare((K) k1, (K) k2);
+    public Map.Entry<K, V> firstEntry() {
+	return exportEntry(getFirstEntry());
     }
 
     /**
-     * Returns the key corresponding to the specified Entry.
-     * 
-     * @throws NoSuchElementException
-     *             if the Entry is null
-     */
-    static <K> K key(Entry<K,?> e) {
-        if (e==null)
-            throw new NoSuchElementException();
-        return e.key;
-    }
-	
-	/**
-     * Returns the first Entry in the TreeMap (according to the TreeMap's
-     * key-sort function).  Returns null if the TreeMap is empty.
+     * @since 1.6
      */
-    final Entry<K,V> getFirstEntry() {
-        Entry<K,V> p = root;
-        if (p != null)
-            while (p.left != null)
-                p = p.left;
-        return p;
+    public Map.Entry<K, V> lastEntry() {
+	return exportEntry(getLastEntry());
     }
 
     /**
-     * Returns the last Entry in the TreeMap (according to the TreeMap's
-     * key-sort function).  Returns null if the TreeMap is empty.
+     * @since 1.6
      */
-    final Entry<K,V> getLastEntry() {
-        Entry<K,V> p = root;
-        if (p != null)
-            while (p.right != null)
-                p = p.right;
-        return p;
+    public Map.Entry<K, V> pollFirstEntry() {
+	Entry<K, V> p = getFirstEntry();
+	Map.Entry<K, V> result = exportEntry(p);
+	if (p != null)
+	    deleteEntry(p);
+	return result;
     }
-    
+
     /**
-     * Returns the successor of the specified Entry, or null if no such.
+     * @since 1.6
      */
-    static <K,V> Entry<K,V> successor(Entry<K,V> t) {
-        if (t == null)
-            return null;
-        else if (t.right != null) {
-            Entry<K,V> p = t.right;
-            while (p.left != null)
-                p = p.left;
-            return p;
-        } else {
-            Entry<K,V> p = t.parent;
-            Entry<K,V> ch = t;
-            while (p != null && ch == p.right) {
-                ch = p;
-                p = p.parent;
-            }
-            return p;
-        }
+    public Map.Entry<K, V> pollLastEntry() {
+	Entry<K, V> p = getLastEntry();
+	Map.Entry<K, V> result = exportEntry(p);
+	if (p != null)
+	    deleteEntry(p);
+	return result;
     }
 
     /**
-     * Returns the predecessor of the specified Entry, or null if no such.
+     * Gets the entry corresponding to the specified key; if no such entry exists,
+     * returns the entry for the least key greater than the specified key; if no
+     * such entry exists (i.e., the greatest key in the Tree is less than the
+     * specified key), returns {@code null}.
      */
-    static <K,V> Entry<K,V> predecessor(Entry<K,V> t) {
-        if (t == null)
-            return null;
-        else if (t.left != null) {
-            Entry<K,V> p = t.left;
-            while (p.right != null)
-                p = p.right;
-            return p;
-        } else {
-            Entry<K,V> p = t.parent;
-            Entry<K,V> ch = t;
-            while (p != null && ch == p.left) {
-                ch = p;
-                p = p.parent;
-            }
-            return p;
-        }
+    final Entry<K, V> getCeilingEntry(K key) {
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = compare(key, p.key);
+	    if (cmp < 0) {
+		if (p.left != null)
+		    p = p.left;
+		else
+		    return p;
+	    } else if (cmp > 0) {
+		if (p.right != null) {
+		    p = p.right;
+		} else {
+		    Entry<K, V> parent = p.parent;
+		    Entry<K, V> ch = p;
+		    while (parent != null && ch == parent.right) {
+			ch = parent;
+			parent = parent.parent;
+		    }
+		    return parent;
+		}
+	    } else
+		return p;
+	}
+	return null;
     }
 
     /**
-     * Returns a {@link Set} view of the mappings contained in this map.
-     *
-     * <p>
-     * The set's iterator returns the entries in ascending key order. The sets's
-     * spliterator is <em><a href="Spliterator.html#binding">late-binding</a></em>,
-     * <em>fail-fast</em>, and additionally reports {@link Spliterator#SORTED} and
-     * {@link Spliterator#ORDERED} with an encounter order that is ascending key
-     * order.
-     *
-     * <p>
-     * The set is backed by the map, so changes to the map are reflected in the set,
-     * and vice-versa. If the map is modified while an iteration over the set is in
-     * progress (except through the iterator's own {@code remove} operation, or
-     * through the {@code setValue} operation on a map entry returned by the
-     * iterator) the results of the iteration are undefined. The set supports
-     * element removal, which removes the corresponding mapping from the map, via
-     * the {@code Iterator.remove}, {@code Set.remove}, {@code removeAll},
-     * {@code retainAll} and {@code clear} operations. It does not support the
-     * {@code add} or {@code addAll} operations.
+     * Gets the entry corresponding to the specified key; if no such entry exists,
+     * returns the entry for the greatest key less than the specified key; if no
+     * such entry exists, returns {@code null}.
      */
-    public Set<Map.Entry<K, V>> entrySet() {
-	EntrySet es = entrySet;
-	return (es != null) ? es : (entrySet = new EntrySet());
-    }
-
-    private transient EntrySet entrySet = null;
-
-    class EntrySet extends AbstractSet<Map.Entry<K, V>> {
-	public Iterator<Map.Entry<K, V>> iterator() {
-	    return new EntryIterator(getFirstEntry());
-	}
+    final Entry<K, V> getFloorEntry(K key) {
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = compare(key, p.key);
+	    if (cmp > 0) {
+		if (p.right != null)
+		    p = p.right;
+		else
+		    return p;
+	    } else if (cmp < 0) {
+		if (p.left != null) {
+		    p = p.left;
+		} else {
+		    Entry<K, V> parent = p.parent;
+		    Entry<K, V> ch = p;
+		    while (parent != null && ch == parent.left) {
+			ch = parent;
+			parent = parent.parent;
+		    }
+		    return parent;
+		}
+	    } else
+		return p;
 
-	public boolean contains(Object o) {
-	    if (!(o instanceof Map.Entry))
-		return false;
-	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
-	    Object value = entry.getValue();
-	    Entry<K, V> p = getEntry(entry.getKey());
-	    return p != null && valEquals(p.getValue(), value);
 	}
+	return null;
+    }
 
-	public boolean remove(Object o) {
-	    if (!(o instanceof Map.Entry))
-		return false;
-	    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
-	    Object value = entry.getValue();
-	    Entry<K, V> p = getEntry(entry.getKey());
-	    if (p != null && valEquals(p.getValue(), value)) {
-		deleteEntry(p);
-		return true;
+    /**
+     * Gets the entry for the least key greater than the specified key; if no such
+     * entry exists, returns the entry for the least key greater than the specified
+     * key; if no such entry exists returns {@code null}.
+     */
+    final Entry<K, V> getHigherEntry(K key) {
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = compare(key, p.key);
+	    if (cmp < 0) {
+		if (p.left != null)
+		    p = p.left;
+		else
+		    return p;
+	    } else {
+		if (p.right != null) {
+		    p = p.right;
+		} else {
+		    Entry<K, V> parent = p.parent;
+		    Entry<K, V> ch = p;
+		    while (parent != null && ch == parent.right) {
+			ch = parent;
+			parent = parent.parent;
+		    }
+		    return parent;
+		}
 	    }
-	    return false;
-	}
-
-	public int size() {
-	    return WAVLTreeMap.this.size();
-	}
-
-	public void clear() {
-	    WAVLTreeMap.this.clear();
 	}
+	return null;
+    }
 
-	public Spliterator<Map.Entry<K, V>> spliterator() {
-	    return null;
+    /**
+     * Returns the entry for the greatest key less than the specified key; if no
+     * such entry exists (i.e., the least key in the Tree is greater than the
+     * specified key), returns {@code null}.
+     */
+    final Entry<K, V> getLowerEntry(K key) {
+	Entry<K, V> p = root;
+	while (p != null) {
+	    int cmp = compare(key, p.key);
+	    if (cmp > 0) {
+		if (p.right != null)
+		    p = p.right;
+		else
+		    return p;
+	    } else {
+		if (p.left != null) {
+		    p = p.left;
+		} else {
+		    Entry<K, V> parent = p.parent;
+		    Entry<K, V> ch = p;
+		    while (parent != null && ch == parent.left) {
+			ch = parent;
+			parent = parent.parent;
+		    }
+		    return parent;
+		}
+	    }
 	}
+	return null;
     }
 
     /**
-     * Base class for TreeMap Iterators
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
      */
-    abstract class PrivateEntryIterator<T> implements Iterator<T> {
-	Entry<K, V> next;
-	Entry<K, V> lastReturned;
-	int expectedModCount;
+    public Map.Entry<K, V> lowerEntry(K key) {
+	return exportEntry(getLowerEntry(key));
+    }
 
-	PrivateEntryIterator(Entry<K, V> first) {
-	    expectedModCount = modCount;
-	    lastReturned = null;
-	    next = first;
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public K lowerKey(K key) {
+	return keyOrNull(getLowerEntry(key));
+    }
 
-	public final boolean hasNext() {
-	    return next != null;
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public Map.Entry<K, V> floorEntry(K key) {
+	return exportEntry(getFloorEntry(key));
+    }
 
-	final Entry<K, V> nextEntry() {
-	    Entry<K, V> e = next;
-	    if (e == null)
-		throw new NoSuchElementException();
-	    if (modCount != expectedModCount)
-		throw new ConcurrentModificationException();
-	    next = successor(e);
-	    lastReturned = e;
-	    return e;
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public K floorKey(K key) {
+	return keyOrNull(getFloorEntry(key));
+    }
 
-	final Entry<K, V> prevEntry() {
-	    Entry<K, V> e = next;
-	    if (e == null)
-		throw new NoSuchElementException();
-	    if (modCount != expectedModCount)
-		throw new ConcurrentModificationException();
-	    next = predecessor(e);
-	    lastReturned = e;
-	    return e;
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public Map.Entry<K, V> ceilingEntry(K key) {
+	return exportEntry(getCeilingEntry(key));
+    }
 
-	public void remove() {
-	    if (lastReturned == null)
-		throw new IllegalStateException();
-	    if (modCount != expectedModCount)
-		throw new ConcurrentModificationException();
-	    // deleted entries are replaced by their successors
-	    if (lastReturned.left != null && lastReturned.right != null)
-		next = lastReturned;
-	    deleteEntry(lastReturned);
-	    expectedModCount = modCount;
-	    lastReturned = null;
-	}
+    /**
+     * @throws ClassCastException
+     *             {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public K ceilingKey(K key) {
+	return keyOrNull(getCeilingEntry(key));
     }
 
-    final class EntryIterator extends PrivateEntryIterator<Map.Entry<K, V>> {
-	EntryIterator(Entry<K, V> first) {
-	    super(first);
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public Map.Entry<K, V> higherEntry(K key) {
+	return exportEntry(getHigherEntry(key));
+    }
 
-	public Map.Entry<K, V> next() {
-	    return nextEntry();
-	}
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException
+     *             if the specified key is null and this map uses natural ordering,
+     *             or its comparator does not permit null keys
+     * @since 1.6
+     */
+    public K higherKey(K key) {
+	return keyOrNull(getHigherEntry(key));
     }
-}
\ No newline at end of file
+}
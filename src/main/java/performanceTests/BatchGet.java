@@ -0,0 +1,58 @@
+package performanceTests;
+
+import java.util.Arrays;
+
+import bbst_showdown.AVLTreeMap;
+
+/**
+ * Compares looking up a batch of keys with one get() per key against the
+ * sorted, finger search based getAll().
+ * 
+ * @author David McManamon
+ */
+public class BatchGet {
+
+    public static void main(String[] args) {
+	java.util.Random r = new java.util.Random();
+	AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
+	for (int i = 0; i < 1000000; i++) {
+	    Integer next = r.nextInt();
+	    avl.put(next, next);
+	}
+
+	Integer[] probes = new Integer[10000];
+	for (int i = 0; i < probes.length; i++)
+	    probes[i] = r.nextInt();
+
+	System.out.println("Looping get() for " + probes.length + " keys: " + loopGet(avl, probes) + "ms, " + avl);
+	System.out.println("getAll() for " + probes.length + " keys: " + getAll(avl, probes) + "ms, " + avl);
+	Arrays.sort(probes);
+	System.out.println("Looping get() for " + probes.length + " sorted keys: " + loopGet(avl, probes) + "ms, " + avl);
+	System.out.println("getAll() for " + probes.length + " sorted keys: " + getAll(avl, probes) + "ms, " + avl);
+    }
+
+    private static int loopGet(AVLTreeMap<Integer, Integer> tree, Integer[] probes) {
+	int[] times = new int[10];
+	for (int j = 0; j < 10; j++) {
+	    long start = System.nanoTime();
+	    for (int run = 0; run < 100; run++)
+		for (int i = 0; i < probes.length; i++)
+		    tree.get(probes[i]);
+	    times[j] = (int) ((System.nanoTime() - start) / 1000000);
+	}
+	Arrays.sort(times);
+	return (times[3] + times[4] + times[5] + times[6]) / 4;
+    }
+
+    private static int getAll(AVLTreeMap<Integer, Integer> tree, Integer[] probes) {
+	int[] times = new int[10];
+	for (int j = 0; j < 10; j++) {
+	    long start = System.nanoTime();
+	    for (int run = 0; run < 100; run++)
+		tree.getAll(probes);
+	    times[j] = (int) ((System.nanoTime() - start) / 1000000);
+	}
+	Arrays.sort(times);
+	return (times[3] + times[4] + times[5] + times[6]) / 4;
+    }
+}
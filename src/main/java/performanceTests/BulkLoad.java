@@ -0,0 +1,54 @@
+package performanceTests;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+
+import bbst_showdown.AVLTreeMap;
+import bbst_showdown.WAVLTreeMap;
+
+/**
+ * Compares loading unsorted mappings with one put() per mapping against the
+ * sort-then-build buildParallel() factories. Run with
+ * {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism=N} to see how
+ * the build scales with cores.
+ * 
+ * @author David McManamon
+ */
+public class BulkLoad {
+
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+	java.util.Random r = new java.util.Random();
+	Integer[] keys = new Integer[n];
+	for (int i = 0; i < n; i++)
+	    keys[i] = r.nextInt();
+
+	System.out.println("Loading " + n + " mappings with " + Runtime.getRuntime().availableProcessors() + " cores");
+	for (int run = 0; run < 3; run++) {
+	    long start = System.nanoTime();
+	    AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
+	    for (int i = 0; i < n; i++)
+		avl.put(keys[i], keys[i]);
+	    System.out.println("  put() loop: " + (System.nanoTime() - start) / 1000000 + "ms, " + avl);
+
+	    Map.Entry<Integer, Integer>[] entries = entries(keys);
+	    start = System.nanoTime();
+	    avl = AVLTreeMap.buildParallel(entries);
+	    System.out.println("  AVLTreeMap.buildParallel(): " + (System.nanoTime() - start) / 1000000 + "ms, " + avl);
+
+	    entries = entries(keys);
+	    start = System.nanoTime();
+	    WAVLTreeMap<Integer, Integer> wavl = WAVLTreeMap.buildParallel(entries);
+	    System.out.println("  WAVLTreeMap.buildParallel(): " + (System.nanoTime() - start) / 1000000 + "ms, size "
+		    + wavl.size() + ", height " + wavl.treeHeight());
+	}
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Map.Entry<Integer, Integer>[] entries(Integer[] keys) {
+	Map.Entry<Integer, Integer>[] entries = new Map.Entry[keys.length];
+	Arrays.setAll(entries, i -> new AbstractMap.SimpleImmutableEntry<>(keys[i], keys[i]));
+	return entries;
+    }
+}
@@ -0,0 +1,88 @@
+package performanceTests;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import bbst_showdown.ByteArrayWAVLMap;
+import bbst_showdown.PooledWAVLTreeMap;
+
+/**
+ * Compares lookups of byte array keys in a TreeMap and a PooledWAVLTreeMap
+ * ordered by a byte at a time unsigned comparator, and in a ByteArrayWAVLMap,
+ * for random keys and for keys that share a long common prefix, where the
+ * cached prefixes cannot tell keys apart.
+ *
+ * @author David McManamon
+ */
+public class ByteArrayKeys {
+
+    static final int SIZE = 1000000;
+
+    static final Comparator<byte[]> UNSIGNED = (a, b) -> {
+	int n = Math.min(a.length, b.length);
+	for (int i = 0; i < n; i++) {
+	    int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+	    if (cmp != 0)
+		return cmp;
+	}
+	return a.length - b.length;
+    };
+
+    public static void main(String[] args) {
+	Random r = new Random(1);
+	byte[][] randomKeys = new byte[SIZE][];
+	for (int i = 0; i < SIZE; i++)
+	    randomKeys[i] = randomBytes(r, new byte[24], 0);
+	byte[][] sharedPrefixKeys = new byte[SIZE][];
+	for (int i = 0; i < SIZE; i++) {
+	    byte[] k = new byte[40];
+	    Arrays.fill(k, 0, 24, (byte) 0x7f);
+	    sharedPrefixKeys[i] = randomBytes(r, k, 24);
+	}
+
+	run("random keys", randomKeys, r);
+	run("keys with a shared prefix", sharedPrefixKeys, r);
+    }
+
+    private static void run(String name, byte[][] keys, Random r) {
+	byte[][] probes = new byte[100000][];
+	for (int i = 0; i < probes.length; i++)
+	    probes[i] = keys[r.nextInt(keys.length)].clone(); // equal, not identical
+
+	TreeMap<byte[], Integer> treeMap = new TreeMap<>(UNSIGNED);
+	PooledWAVLTreeMap<byte[], Integer> wavl = new PooledWAVLTreeMap<>(UNSIGNED);
+	ByteArrayWAVLMap<Integer> byteArray = new ByteArrayWAVLMap<>();
+	for (int i = 0; i < keys.length; i++) {
+	    treeMap.put(keys[i], i);
+	    wavl.put(keys[i], i);
+	    byteArray.put(keys[i], i);
+	}
+
+	System.out.println(name + ":");
+	System.out.println("  TreeMap get(): " + loopGet(treeMap, probes) + "ms");
+	System.out.println("  PooledWAVLTreeMap get(): " + loopGet(wavl, probes) + "ms");
+	System.out.println("  ByteArrayWAVLMap get(): " + loopGet(byteArray, probes) + "ms");
+    }
+
+    private static byte[] randomBytes(Random r, byte[] k, int from) {
+	for (int i = from; i < k.length; i++)
+	    k[i] = (byte) r.nextInt(256);
+	return k;
+    }
+
+    private static int loopGet(Map<byte[], Integer> tree, byte[][] probes) {
+	int[] times = new int[10];
+	for (int j = 0; j < 10; j++) {
+	    long start = System.nanoTime();
+	    for (int run = 0; run < 10; run++)
+		for (int i = 0; i < probes.length; i++)
+		    tree.get(probes[i]);
+	    times[j] = (int) ((System.nanoTime() - start) / 1000000);
+	}
+	Arrays.sort(times);
+	return (times[3] + times[4] + times[5] + times[6]) / 4;
+    }
+}
@@ -0,0 +1,272 @@
+package performanceTests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import bbst_showdown.SplayTreeMap;
+
+/**
+ * Measures how a tree holds up behind a lock: N client threads run a mix of
+ * get, put and remove against one shared map for a fixed time, for N from 1
+ * to 64, and the throughput of each thread count is printed with its scaling
+ * over one thread.
+ *
+ * <p>
+ * The trees are wrapped in one of the lock strategies:
+ * <ul>
+ * <li>{@code synchronized} - one monitor for every operation</li>
+ * <li>{@code rwlock} - a {@link ReentrantReadWriteLock}, lookups sharing the
+ * read lock</li>
+ * <li>{@code stamped} - a {@link StampedLock} in read and write mode. Its
+ * optimistic reads are not used: a search racing a rotation may follow stale
+ * child links of a map that is not thread safe.</li>
+ * </ul>
+ * A {@link SplayTreeMap} restructures itself on every lookup, so its lookups
+ * cannot share a lock: under {@code rwlock} and {@code stamped} they take the
+ * write lock.
+ * The tree {@code skiplist} is the natively concurrent
+ * {@link ConcurrentSkipListMap}, run without a lock as the baseline.
+ *
+ * <p>
+ * Clients are platform threads, or virtual threads when the runtime has them
+ * (Java 21 and later). Virtual threads blocked on a {@code synchronized}
+ * monitor pin their carrier thread before Java 24, which the
+ * {@code synchronized} strategy shows.
+ *
+ * <pre>
+ * java -cp target/classes performanceTests.Contention [tree] [lock|all] [read %] [platform|virtual] [seconds]
+ * </pre>
+ *
+ * @author David McManamon
+ */
+public class Contention {
+
+    static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+    static final String[] LOCKS = { "synchronized", "rwlock", "stamped" };
+    static final int KEYS = 1 << 20;
+
+    /** The operations a client makes, under whatever locking the map needs. */
+    interface GuardedMap {
+	Integer get(Integer key);
+
+	Integer put(Integer key, Integer value);
+
+	Integer remove(Integer key);
+    }
+
+    /**
+     * Wraps {@code map} in the lock strategy {@code lock}. Lookups only share
+     * the lock if {@code sharedReads}, that is if they do not modify the map.
+     */
+    static GuardedMap guard(Map<Integer, Integer> map, String lock, boolean sharedReads) {
+	switch (lock) {
+	case "none":
+	    return new GuardedMap() {
+		public Integer get(Integer key) {
+		    return map.get(key);
+		}
+
+		public Integer put(Integer key, Integer value) {
+		    return map.put(key, value);
+		}
+
+		public Integer remove(Integer key) {
+		    return map.remove(key);
+		}
+	    };
+	case "synchronized":
+	    return new GuardedMap() {
+		public synchronized Integer get(Integer key) {
+		    return map.get(key);
+		}
+
+		public synchronized Integer put(Integer key, Integer value) {
+		    return map.put(key, value);
+		}
+
+		public synchronized Integer remove(Integer key) {
+		    return map.remove(key);
+		}
+	    };
+	case "rwlock":
+	    ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+	    Lock readLock = sharedReads ? rw.readLock() : rw.writeLock();
+	    return new GuardedMap() {
+		public Integer get(Integer key) {
+		    readLock.lock();
+		    try {
+			return map.get(key);
+		    } finally {
+			readLock.unlock();
+		    }
+		}
+
+		public Integer put(Integer key, Integer value) {
+		    rw.writeLock().lock();
+		    try {
+			return map.put(key, value);
+		    } finally {
+			rw.writeLock().unlock();
+		    }
+		}
+
+		public Integer remove(Integer key) {
+		    rw.writeLock().lock();
+		    try {
+			return map.remove(key);
+		    } finally {
+			rw.writeLock().unlock();
+		    }
+		}
+	    };
+	case "stamped":
+	    StampedLock sl = new StampedLock();
+	    return new GuardedMap() {
+		public Integer get(Integer key) {
+		    long stamp = sharedReads ? sl.readLock() : sl.writeLock();
+		    try {
+			return map.get(key);
+		    } finally {
+			sl.unlock(stamp);
+		    }
+		}
+
+		public Integer put(Integer key, Integer value) {
+		    long stamp = sl.writeLock();
+		    try {
+			return map.put(key, value);
+		    } finally {
+			sl.unlockWrite(stamp);
+		    }
+		}
+
+		public Integer remove(Integer key) {
+		    long stamp = sl.writeLock();
+		    try {
+			return map.remove(key);
+		    } finally {
+			sl.unlockWrite(stamp);
+		    }
+		}
+	    };
+	default:
+	    throw new IllegalArgumentException("unknown lock " + lock + ", expected one of " + Arrays.toString(LOCKS));
+	}
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+	String tree = args.length > 0 ? args[0] : "wavl";
+	String[] locks = args.length > 1 && !args[1].equals("all") ? new String[] { args[1] } : LOCKS;
+	int readPercent = args.length > 2 ? Integer.parseInt(args[2]) : 90;
+	boolean virtual = args.length > 3 && args[3].equals("virtual");
+	double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+
+	ThreadFactory factory = virtual ? virtualThreads() : null;
+	if (virtual && factory == null) {
+	    System.out.println("Virtual threads need Java 21 or later, using platform threads");
+	    virtual = false;
+	}
+	if (factory == null)
+	    factory = Thread::new;
+
+	if (tree.equals("skiplist"))
+	    locks = new String[] { "none" };
+	System.out.println(tree + " with " + readPercent + "% reads, " + KEYS / 2 + " keys, "
+		+ (virtual ? "virtual" : "platform") + " threads on " + Runtime.getRuntime().availableProcessors()
+		+ " cores");
+	for (String lock : locks) {
+	    Map<Integer, Integer> map = tree.equals("skiplist") ? new ConcurrentSkipListMap<>() : PerfStat.newTree(tree);
+	    SplittableRandom r = new SplittableRandom(42);
+	    while (map.size() < KEYS / 2) {
+		int k = r.nextInt(KEYS);
+		map.put(k, k);
+	    }
+	    // splaying makes every lookup a write
+	    GuardedMap guarded = guard(map, lock, !(map instanceof SplayTreeMap));
+	    run(guarded, 4, readPercent, factory, seconds); // warm up
+
+	    System.out.println(String.format("  %-12s %7s %14s %8s", lock, "threads", "ops/s", "scaling"));
+	    double single = 0;
+	    for (int threads : THREADS) {
+		double throughput = run(guarded, threads, readPercent, factory, seconds);
+		if (threads == 1)
+		    single = throughput;
+		System.out.println(String.format("  %-12s %7d %14.0f %8.2f", "", threads, throughput, throughput / single));
+	    }
+	}
+    }
+
+    /**
+     * Runs {@code threads} clients against the map for {@code seconds},
+     * returning the operations per second of all of them together. Writes
+     * are half puts and half removes so the map keeps its size.
+     */
+    static double run(GuardedMap map, int threads, int readPercent, ThreadFactory factory, double seconds)
+	    throws InterruptedException {
+	LongAdder ops = new LongAdder();
+	CountDownLatch ready = new CountDownLatch(threads);
+	CountDownLatch go = new CountDownLatch(1);
+	CountDownLatch done = new CountDownLatch(threads);
+	Stop flag = new Stop();
+	for (int t = 0; t < threads; t++) {
+	    SplittableRandom r = new SplittableRandom(t * 0x9E3779B97F4A7C15L);
+	    factory.newThread(() -> {
+		ready.countDown();
+		try {
+		    go.await();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+		long count = 0;
+		try {
+		    while (!flag.stop) {
+			int k = r.nextInt(KEYS);
+			int op = r.nextInt(200);
+			if (op < readPercent * 2)
+			    map.get(k);
+			else if ((op & 1) == 0)
+			    map.put(k, k);
+			else
+			    map.remove(k);
+			count++;
+		    }
+		} finally {
+		    ops.add(count);
+		    done.countDown();
+		}
+	    }).start();
+	}
+	ready.await();
+	long start = System.nanoTime();
+	go.countDown();
+	Thread.sleep((long) (seconds * 1000));
+	flag.stop = true;
+	done.await();
+	return ops.sum() * 1e9 / (System.nanoTime() - start);
+    }
+
+    static final class Stop {
+	volatile boolean stop;
+    }
+
+    /**
+     * Returns a factory of virtual threads, looked up reflectively so that the
+     * benchmark still runs on Java 8, or {@code null} before Java 21.
+     */
+    static ThreadFactory virtualThreads() {
+	try {
+	    Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+	    return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+	} catch (ReflectiveOperationException e) {
+	    return null;
+	}
+    }
+}
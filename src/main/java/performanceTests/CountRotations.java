@@ -3,6 +3,8 @@ package performanceTests;
 import java.util.Map;
 
 import bbst_showdown.AVLTreeMap;
+import bbst_showdown.SplayTreeMap;
+import bbst_showdown.TreapMap;
 import bbst_showdown.TreeMapRedBlack;
 import bbst_showdown.WAVLTreeMap;
 
@@ -18,14 +20,37 @@ public class CountRotations {
 	}
 	
 	System.out.println("Results for inserting integer clusters in sequences of 16 and total size: " + groupedRandomNumbers.length + " -");
-	
+	insertAll(groupedRandomNumbers);
+
+	Integer[] randomNumbers = new Integer[groupedRandomNumbers.length];
+	for (int i = 0; i < randomNumbers.length; i++)
+	    randomNumbers[i] = r.nextInt();
+
+	System.out.println("Results for inserting random integers, total size: " + randomNumbers.length + " -");
+	insertAll(randomNumbers);
+    }
+
+    /**
+     * Inserts the keys into each tree, reporting time and rotations followed by
+     * the shape of the resulting tree.
+     */
+    private static void insertAll(Integer[] keys) {
 	WAVLTreeMap<Integer, Integer> ravl = new WAVLTreeMap<>();
 	AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
 	TreeMapRedBlack<Integer, Integer> redBlack = new TreeMapRedBlack<>();
+	SplayTreeMap<Integer, Integer> splay = new SplayTreeMap<>();
+	TreapMap<Integer, Integer> treap = new TreapMap<>();
 	
-	insert(avl, groupedRandomNumbers);
-	insert(ravl, groupedRandomNumbers);
-	insert(redBlack, groupedRandomNumbers);
+	insert(avl, keys);
+	System.out.println("    " + avl.profile());
+	insert(ravl, keys);
+	System.out.println("    " + ravl.profile());
+	insert(redBlack, keys);
+	System.out.println("    " + redBlack.profile());
+	insert(splay, keys);
+	System.out.println("    " + splay.profile());
+	insert(treap, keys);
+	System.out.println("    " + treap.profile());
     }
     
     private static int insert(Map<Integer, Integer> tree, Integer[] rands) {
@@ -0,0 +1,273 @@
+package performanceTests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import bbst_showdown.AVLTreeMap;
+import bbst_showdown.AVLTreeMapRB;
+import bbst_showdown.PooledWAVLTreeMap;
+import bbst_showdown.SplayTreeMap;
+import bbst_showdown.TreapMap;
+import bbst_showdown.TreeMapBST;
+import bbst_showdown.TreeMapRedBlack;
+import bbst_showdown.WAVLTreeMap;
+
+/**
+ * Counts the hardware events behind each tree's inserts and lookups by
+ * running the workload in forked JVMs under Linux {@code perf stat}: L1 data
+ * cache and last level cache load misses, branch mispredictions and
+ * instructions, reported per operation.
+ *
+ * <p>
+ * {@code perf stat} counts the whole JVM, so every tree is run three times up
+ * to a different phase: generating the keys, then also inserting them, then
+ * also looking them up. The difference between two runs is the cost of the
+ * phase, startup, JIT compilation of the setup code and garbage collection of
+ * the earlier phases cancelling out. Each run is repeated and the median kept.
+ *
+ * <p>
+ * Where perf is missing, or the kernel does not allow counting
+ * ({@code /proc/sys/kernel/perf_event_paranoid} above 2), the table only holds
+ * the nanoseconds per operation measured inside the forked JVMs. Counters the
+ * CPU or hypervisor does not expose are shown as n/a.
+ *
+ * <pre>
+ * java -cp target/classes performanceTests.PerfStat [keys] [repeats] [tree...]
+ * </pre>
+ *
+ * @author David McManamon
+ */
+public class PerfStat {
+
+    static final String[] EVENTS = { "instructions", "L1-dcache-load-misses", "LLC-load-misses", "branch-misses" };
+    static final String[] COLUMNS = { "instr", "L1 miss", "LLC miss", "br miss" };
+    static final String[] TREES = { "red-black", "avl", "avl-rb", "wavl", "pooled-wavl", "bst", "splay", "treap" };
+
+    /** lookups are made in this many passes over the keys */
+    static final int LOOKUP_ROUNDS = 5;
+
+    enum Phase {
+	SETUP, INSERT, LOOKUP
+    }
+
+    public static void main(String[] args) throws Exception {
+	if (args.length > 0 && args[0].equals("--child")) {
+	    child(args[1], Phase.valueOf(args[2]), Integer.parseInt(args[3]));
+	    return;
+	}
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+	String[] trees = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : TREES;
+
+	String unavailable = perfUnavailable();
+	if (unavailable != null)
+	    System.out.println("perf stat is not usable (" + unavailable + "), reporting time only");
+	boolean counting = unavailable == null;
+
+	System.out.println("Per operation costs with " + n + " keys, median of " + repeats + " runs");
+	StringBuilder header = new StringBuilder(String.format("%-10s %-7s %9s", "tree", "op", "ns"));
+	if (counting)
+	    for (String c : COLUMNS)
+		header.append(String.format(" %9s", c));
+	System.out.println(header);
+
+	for (String tree : trees) {
+	    Run setup = median(tree, Phase.SETUP, n, repeats, counting);
+	    Run insert = median(tree, Phase.INSERT, n, repeats, counting);
+	    Run lookup = median(tree, Phase.LOOKUP, n, repeats, counting);
+	    print(tree, "insert", insert.nanos / (double) n, insert, setup, n, counting);
+	    long lookups = (long) n * LOOKUP_ROUNDS;
+	    print(tree, "lookup", lookup.nanos / (double) lookups, lookup, insert, lookups, counting);
+	}
+    }
+
+    private static void print(String tree, String op, double nanos, Run run, Run before, long ops, boolean counting) {
+	StringBuilder sb = new StringBuilder(String.format("%-10s %-7s %9.1f", tree, op, nanos));
+	if (counting) {
+	    for (String event : EVENTS) {
+		Long a = run.counts.get(event), b = before.counts.get(event);
+		if (a == null || b == null)
+		    sb.append(String.format(" %9s", "n/a"));
+		else
+		    sb.append(String.format(" %9.2f", Math.max(0, a - b) / (double) ops));
+	    }
+	}
+	System.out.println(sb);
+    }
+
+    /** measured time of the last phase and the counts of the whole run */
+    static final class Run {
+	long nanos;
+	final Map<String, Long> counts = new LinkedHashMap<>();
+    }
+
+    /**
+     * Runs the tree up to {@code phase} {@code repeats} times, returning the
+     * median of each measurement separately.
+     */
+    private static Run median(String tree, Phase phase, int n, int repeats, boolean counting) throws Exception {
+	List<Run> runs = new ArrayList<>();
+	for (int i = 0; i < repeats; i++)
+	    runs.add(fork(tree, phase, n, counting));
+	Run median = new Run();
+	median.nanos = median(runs.stream().mapToLong(r -> r.nanos).toArray());
+	for (String event : EVENTS) {
+	    if (runs.stream().allMatch(r -> r.counts.containsKey(event)))
+		median.counts.put(event, median(runs.stream().mapToLong(r -> r.counts.get(event)).toArray()));
+	}
+	return median;
+    }
+
+    private static long median(long[] values) {
+	Arrays.sort(values);
+	return values[values.length / 2];
+    }
+
+    private static Run fork(String tree, Phase phase, int n, boolean counting) throws Exception {
+	File out = File.createTempFile("perfstat", ".csv");
+	try {
+	    List<String> command = new ArrayList<>();
+	    if (counting)
+		command.addAll(Arrays.asList("perf", "stat", "-x,", "-o", out.getPath(), "-e", String.join(",", EVENTS),
+			"--"));
+	    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+	    command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), PerfStat.class.getName(),
+		    "--child", tree, phase.name(), Integer.toString(n)));
+	    Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+	    Run run = new Run();
+	    try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+		for (String line; (line = in.readLine()) != null;) {
+		    if (line.startsWith("nanos "))
+			run.nanos = Long.parseLong(line.substring(6));
+		    else
+			System.out.println("  " + line);
+		}
+	    }
+	    if (p.waitFor() != 0)
+		throw new IllegalStateException("child for " + tree + " " + phase + " failed with " + p.exitValue());
+	    if (counting)
+		parse(Files.readAllLines(out.toPath()), run.counts);
+	    return run;
+	} finally {
+	    out.delete();
+	}
+    }
+
+    /**
+     * Reads {@code perf stat -x,} output: value, unit, event name and more
+     * fields per line, the value being {@code <not supported>} or
+     * {@code <not counted>} for events that could not be measured.
+     */
+    static void parse(List<String> lines, Map<String, Long> counts) {
+	for (String line : lines) {
+	    String[] fields = line.split(",");
+	    if (line.startsWith("#") || fields.length < 3)
+		continue;
+	    for (String event : EVENTS) {
+		// perf may append a modifier such as ":u" to the event name
+		if (fields[2].equals(event) || fields[2].startsWith(event + ":")) {
+		    try {
+			counts.put(event, Long.parseLong(fields[0].trim()));
+		    } catch (NumberFormatException notCounted) {
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Returns why perf cannot count events for this user, or {@code null} if
+     * it can.
+     */
+    private static String perfUnavailable() throws InterruptedException {
+	Process p;
+	try {
+	    p = new ProcessBuilder("perf", "stat", "-x,", "-e", "instructions", "--", "true").redirectErrorStream(true)
+		    .start();
+	} catch (IOException e) {
+	    return "perf not found";
+	}
+	StringBuilder output = new StringBuilder();
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+	    for (String line; (line = in.readLine()) != null;)
+		output.append(line).append('\n');
+	} catch (IOException e) {
+	    return e.getMessage();
+	}
+	if (p.waitFor() != 0) {
+	    String first = output.toString().trim().split("\n")[0];
+	    return first.isEmpty() ? "perf exited with " + p.exitValue() : first;
+	}
+	return null;
+    }
+
+    static Map<Integer, Integer> newTree(String name) {
+	switch (name) {
+	case "red-black":
+	    return new TreeMapRedBlack<>();
+	case "avl":
+	    return new AVLTreeMap<>();
+	case "avl-rb":
+	    return new AVLTreeMapRB<>();
+	case "wavl":
+	    return new WAVLTreeMap<>(false);
+	case "pooled-wavl":
+	    return new PooledWAVLTreeMap<>();
+	case "bst":
+	    return new TreeMapBST<>();
+	case "splay":
+	    return new SplayTreeMap<>();
+	case "treap":
+	    return new TreapMap<>();
+	default:
+	    throw new IllegalArgumentException("unknown tree " + name + ", expected one of " + Arrays.toString(TREES));
+	}
+    }
+
+    /**
+     * The forked workload: random keys inserted in random order, then looked
+     * up in another random order. Prints the time of its last phase.
+     */
+    private static void child(String name, Phase phase, int n) {
+	Random r = new Random(42);
+	Integer[] keys = new Integer[n];
+	for (int i = 0; i < n; i++)
+	    keys[i] = r.nextInt();
+	Integer[] probes = keys.clone();
+	for (int i = n - 1; i > 0; i--) {
+	    int j = r.nextInt(i + 1);
+	    Integer t = probes[i];
+	    probes[i] = probes[j];
+	    probes[j] = t;
+	}
+	Map<Integer, Integer> tree = newTree(name);
+
+	long start = System.nanoTime();
+	if (phase != Phase.SETUP) {
+	    start = System.nanoTime();
+	    for (int i = 0; i < n; i++)
+		tree.put(keys[i], keys[i]);
+	}
+	long found = 0;
+	if (phase == Phase.LOOKUP) {
+	    start = System.nanoTime();
+	    for (int round = 0; round < LOOKUP_ROUNDS; round++)
+		for (int i = 0; i < n; i++)
+		    if (tree.get(probes[i]) != null)
+			found++;
+	}
+	System.out.println("nanos " + (System.nanoTime() - start));
+	if (phase == Phase.LOOKUP && found != (long) n * LOOKUP_ROUNDS)
+	    throw new IllegalStateException("lookups found " + found + " keys");
+    }
+}
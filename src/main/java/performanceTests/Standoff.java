@@ -5,9 +5,11 @@ import java.util.*;
 
 import bbst_showdown.AVLTreeMap;
 import bbst_showdown.AVLTreeMapRB;
+import bbst_showdown.SplayTreeMap;
 import bbst_showdown.TreeMapAVLRec;
 import bbst_showdown.TreeMapAVLStack;
 import bbst_showdown.TreeMapBST;
+import bbst_showdown.TreapMap;
 import bbst_showdown.TreeMapRedBlack;
 import bbst_showdown.WAVLTreeMap;
 
@@ -24,6 +26,8 @@ public class Standoff {
 	Map<Integer, Integer> avlRB = new AVLTreeMapRB<>();
 	Map<Integer, Integer> wavl = new WAVLTreeMap<>(false);
 	Map<Integer, Integer> bst = new TreeMapBST<>();
+	Map<Integer, Integer> splay = new SplayTreeMap<>();
+	Map<Integer, Integer> treap = new TreapMap<>();
 //	Map<Integer, Integer> avlNoParent = new TreeMapAVLStack<>();
 //	Map<Integer, Integer> avlRec = new TreeMapAVLRec<>();
 
@@ -33,6 +37,8 @@ public class Standoff {
 	maps.add(avlRB);    // 2=avl rb
 	maps.add(wavl);	    // 3=wavl
 	maps.add(bst);      // 4-bst (no rotations)
+	maps.add(splay);    // 5=splay
+	maps.add(treap);    // 6=treap
 	
 	// TODO update the integer to choose a different tree implementation
 	Map<Integer, Integer> treeMap = maps.get(3);
@@ -48,6 +54,9 @@ public class Standoff {
 	
 	mean = insertInOrder(treeMap, 100000);
 	System.out.println("Sequential insert time: " + mean + "ms, " + treeMap);
+	
+	mean = skewedGet(treeMap, randomInts);
+	System.out.println("Skewed get time: " + mean + "ms, " + treeMap);
     }
 
     private static Integer[] readRandomInts() throws FileNotFoundException {
@@ -117,6 +126,40 @@ public class Standoff {
 	return (times[2] + times[3] + times[4] + times[5] + times[6] + times[7]) / 6;
     }
 
+    /**
+     * Looks up 1,000,000 keys of a 100,000 key map where the key ranks are
+     * skewed (u^4 for uniform u, so a tenth of the keys take over half the
+     * lookups) and each key is usually looked up a few times in a row.
+     */
+    private static int skewedGet(Map<Integer, Integer> tree, Integer[] rands) {
+	tree.clear();
+	for (int i = 0; i < 100000; i++) {
+	    tree.put(rands[i], rands[i]);
+	}
+	java.util.Random r = new java.util.Random(42);
+	Integer[] lookups = new Integer[1000000];
+	for (int i = 0; i < lookups.length;) {
+	    double u = r.nextDouble();
+	    Integer key = rands[(int) (100000 * u * u * u * u)];
+	    for (int repeat = 1 + r.nextInt(4); repeat > 0 && i < lookups.length; repeat--)
+		lookups[i++] = key;
+	}
+
+	int[] times = new int[5];
+	for (int j = 0; j < 5; j++) {
+	    long start = System.currentTimeMillis();
+	    for (int i = 0; i < lookups.length; i++) {
+		tree.get(lookups[i]);
+	    }
+	    long stop = System.currentTimeMillis();
+	    times[j] = (int) (stop - start);
+	}
+
+	Arrays.sort(times);
+
+	return (times[1] + times[2] + times[3]) / 3;
+    }
+
     public static long insertDeleteLookup(Map<Integer, Integer> x) {
 	long start = System.currentTimeMillis();
 	java.util.Random r = new java.util.Random();
@@ -0,0 +1,75 @@
+package performanceTests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import bbst_showdown.AVLTreeMap;
+
+/**
+ * Compares lookups of String keys in a TreeMap, an AVLTreeMap and an
+ * AVLTreeMap with cached key prefixes, for random keys and for keys that share
+ * a long common prefix, where the cached prefixes cannot tell keys apart and
+ * only add a comparison per level.
+ *
+ * @author David McManamon
+ */
+public class StringKeys {
+
+    static final int SIZE = 1000000;
+
+    public static void main(String[] args) {
+	Random r = new Random(1);
+	String[] randomKeys = new String[SIZE];
+	for (int i = 0; i < SIZE; i++)
+	    randomKeys[i] = randomString(r, 24);
+	String[] sharedPrefixKeys = new String[SIZE];
+	for (int i = 0; i < SIZE; i++)
+	    sharedPrefixKeys[i] = "https://example.com/items/" + randomString(r, 12);
+
+	run("random keys", randomKeys, r);
+	run("keys with a shared prefix", sharedPrefixKeys, r);
+    }
+
+    private static void run(String name, String[] keys, Random r) {
+	String[] probes = new String[100000];
+	for (int i = 0; i < probes.length; i++)
+	    probes[i] = new String(keys[r.nextInt(keys.length)]); // equal, not identical
+
+	TreeMap<String, Integer> treeMap = new TreeMap<>();
+	AVLTreeMap<String, Integer> avl = new AVLTreeMap<>();
+	AVLTreeMap<String, Integer> prefixed = new AVLTreeMap<>();
+	prefixed.setKeyPrefix(AVLTreeMap::stringPrefix);
+	for (int i = 0; i < keys.length; i++) {
+	    treeMap.put(keys[i], i);
+	    avl.put(keys[i], i);
+	    prefixed.put(keys[i], i);
+	}
+
+	System.out.println(name + ":");
+	System.out.println("  TreeMap get(): " + loopGet(treeMap, probes) + "ms");
+	System.out.println("  AVLTreeMap get(): " + loopGet(avl, probes) + "ms");
+	System.out.println("  AVLTreeMap with key prefixes get(): " + loopGet(prefixed, probes) + "ms");
+    }
+
+    private static String randomString(Random r, int length) {
+	char[] c = new char[length];
+	for (int i = 0; i < length; i++)
+	    c[i] = (char) ('a' + r.nextInt(26));
+	return new String(c);
+    }
+
+    private static int loopGet(Map<String, Integer> tree, String[] probes) {
+	int[] times = new int[10];
+	for (int j = 0; j < 10; j++) {
+	    long start = System.nanoTime();
+	    for (int run = 0; run < 10; run++)
+		for (int i = 0; i < probes.length; i++)
+		    tree.get(probes[i]);
+	    times[j] = (int) ((System.nanoTime() - start) / 1000000);
+	}
+	Arrays.sort(times);
+	return (times[3] + times[4] + times[5] + times[6]) / 4;
+    }
+}
@@ -0,0 +1,107 @@
+package bbst_showdown;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder side of {@link RebalanceEvents}: the event classes and
+ * the sink that commits them. This source set is compiled for Java 11, as
+ * {@code jdk.jfr} is not part of the Java 8 platform API, and is only loaded
+ * reflectively by {@link RebalanceEvents}.
+ *
+ * @author David McManamon
+ */
+final class JfrRebalanceEvents implements RebalanceEvents.Sink {
+
+    public void rotation(Object tree, boolean left) {
+	Rotation event = new Rotation();
+	if (event.isEnabled()) {
+	    event.tree = tree.getClass();
+	    event.direction = left ? "left" : "right";
+	    event.commit();
+	}
+    }
+
+    public void retrace(Object tree, boolean delete, int levels, int rotations, int size) {
+	Retrace event = new Retrace();
+	if (event.isEnabled()) {
+	    event.tree = tree.getClass();
+	    event.operation = delete ? "delete" : "insert";
+	    event.levels = levels;
+	    event.rotations = rotations;
+	    event.size = size;
+	    event.commit();
+	}
+	if (delete && levels >= RebalanceEvents.LARGE_FIXUP_LEVELS) {
+	    LargeDeleteFixup large = new LargeDeleteFixup();
+	    if (large.isEnabled()) {
+		large.tree = tree.getClass();
+		large.levels = levels;
+		large.rotations = rotations;
+		large.size = size;
+		large.commit();
+	    }
+	}
+    }
+
+    @Name("bbst_showdown.Rotation")
+    @Label("Tree Rotation")
+    @Category({ "bbst_showdown", "Rebalancing" })
+    @Description("A single rotation; a double rotation is two events")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Rotation extends Event {
+	@Label("Tree Class")
+	Class<?> tree;
+
+	@Label("Direction")
+	String direction;
+    }
+
+    @Name("bbst_showdown.Retrace")
+    @Label("Rebalance Retrace")
+    @Category({ "bbst_showdown", "Rebalancing" })
+    @Description("The walk towards the root that restores balance after an insert or delete")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Retrace extends Event {
+	@Label("Tree Class")
+	Class<?> tree;
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Levels Walked")
+	int levels;
+
+	@Label("Rotations")
+	int rotations;
+
+	@Label("Tree Size")
+	int size;
+    }
+
+    @Name("bbst_showdown.LargeDeleteFixup")
+    @Label("Large Delete Fixup")
+    @Category({ "bbst_showdown", "Rebalancing" })
+    @Description("A delete fixup that walked at least 8 levels")
+    @Enabled(false)
+    static final class LargeDeleteFixup extends Event {
+	@Label("Tree Class")
+	Class<?> tree;
+
+	@Label("Levels Walked")
+	int levels;
+
+	@Label("Rotations")
+	int rotations;
+
+	@Label("Tree Size")
+	int size;
+    }
+}
@@ -240,4 +240,32 @@ public class AVLTreeMapRBTest {
 	assertEquals(1193, (int) x.root.value);
 	
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMergeAndCompute() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(29);
+	for (int i = 0; i < 5000; i++) {
+	    int key = r.nextInt(500);
+	    x.merge(key, 1, Integer::sum);
+	    expected.merge(key, 1, Integer::sum);
+	}
+	assertEquals(expected, x);
+	assertEquals(expected.size(), x.size());
+	assertEquals(Integer.valueOf(-1), x.getOrDefault(1000, -1));
+	assertEquals(expected.get(0), x.getOrDefault(0, -1));
+	assertEquals(x.get(7), x.putIfAbsent(7, 99));
+	assertEquals(null, x.putIfAbsent(1000, 1000));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> k));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> 0));
+	assertEquals(Integer.valueOf(2000), x.compute(1000, (k, v) -> v + k));
+	assertEquals(Integer.valueOf(5), x.computeIfPresent(1001, (k, v) -> 5));
+	assertEquals(null, x.computeIfPresent(1002, (k, v) -> 5));
+	assertEquals(Integer.valueOf(3), x.compute(1002, (k, v) -> v == null ? 3 : v));
+	try {
+	    x.computeIfAbsent(2000, k -> x.put(k + 1, k));
+	    assertTrue(false);
+	} catch (java.util.ConcurrentModificationException e) {
+	}
+    }
+}
@@ -132,4 +132,384 @@ public class AVLTreeMapTest {
 	assertEquals(9, (int) x.root.value);
 	assertEquals(2, x.rotations);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetAll() {
+	for (int i = 0; i < 1000; i += 2)
+	    x.put(i, i * 10);
+	Integer[] keys = { 998, 4, 5, 0, 500, 4, 1001, 250 };
+	java.util.List<Integer> values = x.getAll(keys);
+	assertEquals(java.util.Arrays.asList(9980, 40, null, 0, 5000, 40, null, 2500), values);
+	assertEquals(values, x.getAll(java.util.Arrays.asList(keys)));
+    }
+
+    @Test
+    public void testPutAllSorted() {
+	for (int i = 0; i < 100; i += 3)
+	    x.put(i, i);
+	Integer[] keys = new Integer[100];
+	for (int i = 0; i < 100; i++)
+	    keys[i] = i;
+	x.putAll(keys, keys.clone());
+	assertEquals(100, x.size());
+	for (int i = 0; i < 100; i++)
+	    assertEquals(i, (int) x.get(i));
+	assertTrue(x.treeHeight() <= 7);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutAllUnsorted() {
+	x.putAll(new Integer[] { 2, 1 }, new Integer[] { 2, 1 });
+    }
+
+    @Test
+    public void testRemoveAllSorted() {
+	for (int i = 0; i < 1000; i++)
+	    x.put(i, i);
+	Integer[] keys = new Integer[400];
+	for (int i = 0; i < keys.length; i++)
+	    keys[i] = i * 3;
+	assertEquals(334, x.removeAll(keys));
+	assertEquals(666, x.size());
+	for (int i = 0; i < 1000; i++)
+	    assertEquals(i % 3 != 0, x.containsKey(i));
+    }
+
+    @Test
+    public void testRemoveRange() {
+	java.util.Random r = new java.util.Random(7);
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 5000; i++) {
+	    int next = r.nextInt(20000);
+	    x.put(next, next);
+	    expected.put(next, next);
+	}
+	for (int run = 0; run < 50; run++) {
+	    int from = r.nextInt(20000);
+	    int to = from + r.nextInt(3000);
+	    int before = expected.size();
+	    int rotations = x.rotations();
+	    expected.subMap(from, to).clear();
+	    assertEquals(before - expected.size(), x.removeRange(from, to));
+	    // split and join rebuild detached pieces and are not counted
+	    assertEquals(rotations, x.rotations());
+	    assertEquals(expected, x);
+	    assertEquals(expected.size(), x.size());
+	    assertEquals(AVLTreeMap.height(x.root), checkBalance(x.root));
+	}
+	assertEquals(expected.size(), x.removeRange(-1, 20001));
+	assertNull(x.root);
+    }
+
+    private int checkBalance(AVLTreeMap.Entry<Integer, Integer> e) {
+	if (e == null)
+	    return 0;
+	if (e.left != null)
+	    assertTrue(e.left.parent == e && e.left.key < e.key);
+	if (e.right != null)
+	    assertTrue(e.right.parent == e && e.right.key > e.key);
+	int hl = checkBalance(e.left), hr = checkBalance(e.right);
+	assertEquals(hr - hl, e.balance);
+	return Math.max(hl, hr) + 1;
+    }
+
+    @Test
+    public void testNavigableViews() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 200; i += 2) {
+	    x.put(i, i);
+	    expected.put(i, i);
+	}
+	assertEquals(expected.subMap(10, true, 50, false), x.subMap(10, true, 50, false));
+	assertEquals(expected.headMap(31, true).keySet(), x.headMap(31, true).keySet());
+	assertEquals(new java.util.ArrayList<>(expected.tailMap(151, false).values()),
+		new java.util.ArrayList<>(x.tailMap(151, false).values()));
+	assertEquals(new java.util.ArrayList<>(expected.descendingMap().keySet()),
+		new java.util.ArrayList<>(x.descendingMap().keySet()));
+	assertEquals(new java.util.ArrayList<>(expected.subMap(20, true, 80, false).descendingMap().entrySet()),
+		new java.util.ArrayList<>(x.subMap(20, true, 80, false).descendingMap().entrySet()));
+	assertEquals(expected.subMap(20, 80).size(), x.subMap(20, 80).size());
+	assertEquals(expected.descendingMap().headMap(100).firstKey(), x.descendingMap().headMap(100).firstKey());
+	assertEquals(expected.subMap(11, true, 41, false).ceilingKey(12), x.subMap(11, true, 41, false).ceilingKey(12));
+	assertNull(x.subMap(11, true, 41, false).higherKey(40));
+
+	// views are live
+	x.put(41, 41);
+	expected.put(41, 41);
+	assertEquals(expected.subMap(30, 50), x.subMap(30, 50));
+	x.subMap(30, true, 60, true).clear();
+	expected.subMap(30, true, 60, true).clear();
+	assertEquals(expected, x);
+	assertEquals(expected.size(), x.size());
+	x.headMap(10).keySet().clear();
+	expected.headMap(10).keySet().clear();
+	assertEquals(expected, x);
+    }
+
+    @Test
+    public void testSpliterators() {
+	long sum = 0;
+	for (int i = 0; i < 10000; i++) {
+	    x.put(i, i);
+	    sum += i;
+	}
+	assertEquals(sum, x.keySet().parallelStream().mapToLong(i -> i).sum());
+	assertEquals(sum, x.values().parallelStream().mapToLong(i -> i).sum());
+	assertEquals(sum, x.entrySet().parallelStream().mapToLong(e -> e.getKey()).sum());
+	assertEquals(sum, x.descendingKeySet().parallelStream().mapToLong(i -> i).sum());
+	java.util.List<Integer> keys = new java.util.ArrayList<>();
+	x.keySet().spliterator().forEachRemaining(keys::add);
+	assertEquals(new java.util.ArrayList<>(x.keySet()), keys);
+    }
+
+    @Test
+    public void testDescendingSpliterators() {
+	java.util.List<Integer> descending = new java.util.ArrayList<>();
+	for (int i = 9999; i >= 0; i--) {
+	    x.put(i, -i);
+	    descending.add(i);
+	}
+	assertEquals(descending, x.descendingMap().entrySet().parallelStream().map(e -> e.getKey())
+		.collect(java.util.stream.Collectors.toList()));
+	assertEquals(descending, x.descendingMap().values().parallelStream().map(v -> -v)
+		.collect(java.util.stream.Collectors.toList()));
+	assertEquals(descending.subList(0, 5), x.descendingMap().values().stream().limit(5).map(v -> -v)
+		.collect(java.util.stream.Collectors.toList()));
+
+	// the first split takes the root's upper half, leaving the rest in order
+	java.util.Spliterator<Integer> rest = x.descendingMap().values().spliterator();
+	assertEquals(10000, rest.estimateSize());
+	java.util.Spliterator<Integer> upper = rest.trySplit();
+	java.util.List<Integer> values = new java.util.ArrayList<>();
+	upper.forEachRemaining(values::add);
+	int split = values.size();
+	assertTrue(split > 0 && split < 10000);
+	rest.forEachRemaining(values::add);
+	assertEquals(new java.util.ArrayList<>(x.descendingMap().values()), values);
+	assertEquals(-(9999 - split), (int) x.descendingMap().values().stream().skip(split).findFirst().get());
+
+	assertEquals(java.util.Arrays.asList(-79, -78, -77), new java.util.ArrayList<>(
+		x.subMap(77, true, 80, false).descendingMap().values()));
+	assertTrue(x.descendingMap().values().contains(-5));
+	x.descendingMap().values().removeIf(v -> v % 2 == 0);
+	assertEquals(5000, x.size());
+    }
+
+    @Test
+    public void testMergeAndCompute() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(29);
+	for (int i = 0; i < 5000; i++) {
+	    int key = r.nextInt(500);
+	    x.merge(key, 1, Integer::sum);
+	    expected.merge(key, 1, Integer::sum);
+	}
+	assertEquals(expected, x);
+	assertEquals(expected.size(), x.size());
+	assertEquals(Integer.valueOf(-1), x.getOrDefault(1000, -1));
+	assertEquals(expected.get(0), x.getOrDefault(0, -1));
+	assertEquals(x.get(7), x.putIfAbsent(7, 99));
+	assertEquals(null, x.putIfAbsent(1000, 1000));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> k));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> 0));
+	assertEquals(Integer.valueOf(2000), x.compute(1000, (k, v) -> v + k));
+	assertEquals(Integer.valueOf(5), x.computeIfPresent(1001, (k, v) -> 5));
+	assertEquals(null, x.computeIfPresent(1002, (k, v) -> 5));
+	assertEquals(Integer.valueOf(3), x.compute(1002, (k, v) -> v == null ? 3 : v));
+	assertEquals(null, x.merge(1002, 1, (a, b) -> null));
+	assertEquals(null, x.compute(1001, (k, v) -> null));
+	assertEquals(null, x.computeIfPresent(1000, (k, v) -> null));
+	assertEquals(expected.size(), x.size());
+	assertTrue(!x.containsKey(1000) && !x.containsKey(1001) && !x.containsKey(1002));
+	try {
+	    x.computeIfAbsent(2000, k -> x.put(k + 1, k));
+	    assertTrue(false);
+	} catch (java.util.ConcurrentModificationException e) {
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSerialization() throws Exception {
+	for (int n = 0; n < 70; n++) {
+	    x.clear();
+	    for (int i = 0; i < n; i++)
+		x.put(i * 3, -i);
+	    java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+	    try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+		out.writeObject(x);
+	    }
+	    AVLTreeMap<Integer, Integer> y;
+	    try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+		    new java.io.ByteArrayInputStream(bytes.toByteArray()))) {
+		y = (AVLTreeMap<Integer, Integer>) in.readObject();
+	    }
+	    assertEquals(x, y);
+	    assertEquals(n, y.size());
+	    assertEquals(0, y.rotations);
+	    checkBalance(y.root);
+	    y.put(-1, 1);
+	    y.remove(0);
+	    checkBalance(y.root);
+	}
+    }
+
+    @Test
+    public void testBloomFilter() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 1000; i += 2) {
+	    x.put(i, i);
+	    expected.put(i, i);
+	}
+	x.setBloomFilter(true);
+	java.util.Random r = new java.util.Random(33);
+	for (int i = 0; i < 20000; i++) {
+	    int key = r.nextInt(4000);
+	    switch (r.nextInt(4)) {
+	    case 0:
+		assertEquals(expected.put(key, i), x.put(key, i));
+		break;
+	    case 1:
+		assertEquals(expected.remove(key), x.remove(key));
+		break;
+	    default:
+		assertEquals(expected.containsKey(key), x.containsKey(key));
+		assertEquals(expected.get(key), x.get(key));
+	    }
+	}
+	assertEquals(expected, x);
+	BlockedBloomFilter f = x.bloomFilter();
+	assertTrue(f.negatives() > 0 && f.hits() > 0);
+	assertTrue(f.falsePositives() < f.negatives() / 4);
+	x.removeRange(0, 2000);
+	assertTrue(!x.containsKey(1000));
+	x.clear();
+	assertTrue(!x.containsKey(3000));
+	x.setBloomFilter(false);
+	assertNull(x.bloomFilter());
+    }
+
+    @Test
+    public void testBloomFilterWithoutParentLinks() {
+	// the filter is rebuilt as it fills, from a tree with no parent links
+	TreeMapAVLRec<Integer, Integer> y = new TreeMapAVLRec<>();
+	y.setBloomFilter(true);
+	for (int i = 0; i < 1000; i++)
+	    y.put(i * 7, i);
+	for (int i = 0; i < 1000; i++) {
+	    assertEquals(Integer.valueOf(i), y.get(i * 7));
+	    assertNull(y.get(i * 7 + 1));
+	}
+    }
+
+    @Test
+    public void testBuildParallel() {
+	java.util.Random r = new java.util.Random(36);
+	for (int n : new int[] { 0, 1, 2, 100, 100000 }) {
+	    java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	    @SuppressWarnings({ "unchecked", "rawtypes" })
+	    java.util.Map.Entry<Integer, Integer>[] entries = new java.util.Map.Entry[n];
+	    for (int i = 0; i < n; i++) {
+		// about a third of the keys repeat, the last mapping wins
+		int key = r.nextInt(n * 2 + 1);
+		entries[i] = new java.util.AbstractMap.SimpleEntry<>(key, i);
+		expected.put(key, i);
+	    }
+	    java.util.List<java.util.Map.Entry<Integer, Integer>> list = java.util.Arrays.asList(entries.clone());
+	    AVLTreeMap<Integer, Integer> y = AVLTreeMap.buildParallel(entries);
+	    assertEquals(expected, y);
+	    assertEquals(expected.size(), y.size());
+	    checkBalance(y.root);
+	    assertEquals(y, AVLTreeMap.buildParallel(list.spliterator()));
+	    y.put(-1, -1);
+	    y.remove(expected.isEmpty() ? -1 : expected.firstKey());
+	    checkBalance(y.root);
+	}
+    }
+
+    @Test
+    public void testValidator() {
+	java.util.Random r = new java.util.Random(37);
+	for (int i = 0; i < 20000; i++) {
+	    x.put(r.nextInt(50000), i);
+	}
+	AVLTreeMap<Integer, Integer>.Validator v = x.validator();
+	int slices = 0;
+	while (!v.step(1000))
+	    slices++;
+	assertEquals(x.size() / 1000, slices);
+	assertEquals(x.size(), v.nodesChecked());
+	assertEquals(x.treeHeight(), v.height());
+	assertEquals(0, v.restarts());
+
+	// modifications between slices restart the walk
+	v = x.validator();
+	for (int i = 0; i < 10; i++) {
+	    assertTrue(!v.step(100));
+	    x.remove(x.firstKey());
+	}
+	assertEquals(9, v.restarts());
+	assertTrue(v.step(Integer.MAX_VALUE));
+	assertEquals(10, v.restarts());
+	v.run();
+	assertEquals(x.size(), v.nodesChecked());
+	assertEquals(x.treeHeight(), v.height());
+
+	x.root.left.balance = (byte) (x.root.left.balance == 0 ? 1 : 0);
+	try {
+	    x.validator().run();
+	    assertTrue(false);
+	} catch (IllegalStateException expected) {
+	}
+    }
+
+    private static String randomString(java.util.Random r) {
+	char[] c = new char[r.nextInt(7)];
+	for (int i = 0; i < c.length; i++) {
+	    int kind = r.nextInt(10);
+	    c[i] = kind == 0 ? (char) r.nextInt(3) : kind == 1 ? (char) (250 + r.nextInt(10)) : (char) ('a' + r.nextInt(3));
+	}
+	return new String(c);
+    }
+
+    @Test
+    public void testStringPrefixAgreesWithCompareTo() {
+	java.util.Random r = new java.util.Random(11);
+	for (int i = 0; i < 200000; i++) {
+	    String a = randomString(r), b = randomString(r);
+	    int pa = AVLTreeMap.stringPrefix(a), pb = AVLTreeMap.stringPrefix(b);
+	    if (pa != pb)
+		assertEquals(a + " " + b, Long.signum(pa - (long) pb), Integer.signum(a.compareTo(b)));
+	}
+    }
+
+    @Test
+    public void testKeyPrefix() {
+	AVLTreeMap<String, Integer> y = new AVLTreeMap<>();
+	java.util.TreeMap<String, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(12);
+	for (int i = 0; i < 1000; i++) {
+	    String k = randomString(r);
+	    y.put(k, i);
+	    expected.put(k, i);
+	}
+	// turned on over existing entries, then kept up by puts and removes
+	y.setKeyPrefix(AVLTreeMap::stringPrefix);
+	for (int i = 0; i < 50000; i++) {
+	    String k = randomString(r);
+	    switch (r.nextInt(3)) {
+	    case 0:
+		assertEquals(expected.remove(k), y.remove(k));
+		break;
+	    case 1:
+		assertEquals(expected.put(k, i), y.put(k, i));
+		break;
+	    default:
+		assertEquals(expected.get(k), y.get(k));
+	    }
+	}
+	assertEquals(expected, y);
+	y.setKeyPrefix(null);
+	assertEquals(expected, y);
+    }
+}
@@ -0,0 +1,90 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import bbst_showdown.AggregateWAVLTreeMap.Aggregator;
+
+public class AggregateWAVLTreeMapTest {
+
+    @Test
+    public void testRangeAggregates() {
+	AggregateWAVLTreeMap<Integer, Long, Long> sum = new AggregateWAVLTreeMap<>(Aggregator.summingLong(v -> v));
+	AggregateWAVLTreeMap<Integer, Long, Long> count = new AggregateWAVLTreeMap<>(Aggregator.count());
+	AggregateWAVLTreeMap<Integer, Long, Long> min = new AggregateWAVLTreeMap<>(
+		Aggregator.<Integer, Long> min(Comparator.naturalOrder()));
+	AggregateWAVLTreeMap<Integer, Long, Long> max = new AggregateWAVLTreeMap<>(
+		Aggregator.<Integer, Long> max(Comparator.naturalOrder()));
+	TreeMap<Integer, Long> expected = new TreeMap<>();
+	Random r = new Random(8);
+	for (int i = 0; i < 20000; i++) {
+	    int k = r.nextInt(5000);
+	    Long v = (long) r.nextInt(1000000);
+	    if (r.nextInt(4) == 0) {
+		assertEquals(expected.remove(k), sum.remove(k));
+		count.remove(k);
+		min.remove(k);
+		max.remove(k);
+	    } else {
+		assertEquals(expected.put(k, v), sum.put(k, v));
+		count.put(k, v);
+		min.put(k, v);
+		max.put(k, v);
+	    }
+	    if (i % 50 == 0) {
+		int from = r.nextInt(5000), to = from + r.nextInt(2000);
+		long s = 0, lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+		for (Long x : expected.subMap(from, to).values()) {
+		    s += x;
+		    lo = Math.min(lo, x);
+		    hi = Math.max(hi, x);
+		}
+		int n = expected.subMap(from, to).size();
+		assertEquals(s, (long) sum.aggregate(from, to));
+		assertEquals(n, (long) count.aggregate(from, to));
+		assertEquals(n == 0 ? null : lo, min.aggregate(from, to));
+		assertEquals(n == 0 ? null : hi, max.aggregate(from, to));
+	    }
+	}
+	assertEquals(expected.size(), (long) count.aggregate());
+	assertEquals(expected, sum);
+	assertTrue(sum.treeHeight() <= 2 * Math.log(sum.size() + 1) / Math.log(2));
+    }
+
+    @Test
+    public void testAggregatesInKeyOrder() {
+	// string concatenation is associative but not commutative
+	AggregateWAVLTreeMap<Integer, String, String> x = new AggregateWAVLTreeMap<>(
+		Aggregator.of("", (k, v) -> v, String::concat));
+	for (int i = 25; i >= 0; i--)
+	    x.put(i, String.valueOf((char) ('a' + i)));
+	assertEquals("abcdefghijklmnopqrstuvwxyz", x.aggregate());
+	assertEquals("cdef", x.aggregate(2, 6));
+	assertEquals("cdefg", x.aggregate(2, true, 6, true));
+	assertEquals("def", x.aggregate(2, false, 6, false));
+	assertEquals("", x.aggregate(30, 40));
+	x.put(3, "D");
+	x.remove(4);
+	assertEquals("cDf", x.aggregate(2, 6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReversedRange() {
+	new AggregateWAVLTreeMap<Integer, Long, Long>(Aggregator.count()).aggregate(2, 1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSetValueUnsupported() {
+	AggregateWAVLTreeMap<Integer, Long, Long> x = new AggregateWAVLTreeMap<>(Aggregator.count());
+	x.put(1, 1L);
+	assertNull(x.get(2));
+	x.entrySet().iterator().next().setValue(2L);
+    }
+}
@@ -0,0 +1,141 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class ByteArrayWAVLMapTest {
+
+    /** Unsigned lexicographic order, one byte at a time. */
+    static final Comparator<byte[]> UNSIGNED = (a, b) -> {
+	for (int i = 0; i < Math.min(a.length, b.length); i++) {
+	    int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+	    if (cmp != 0)
+		return cmp;
+	}
+	return Integer.compare(a.length, b.length);
+    };
+
+    /**
+     * Keys of 0 to 20 bytes over a small alphabet including negative bytes, so
+     * that many keys share their first eight bytes or are prefixes of others.
+     */
+    private static byte[] randomKey(Random r) {
+	byte[] alphabet = { 0, 1, 127, -128, -1 };
+	byte[] k = new byte[r.nextInt(21)];
+	for (int i = 0; i < k.length; i++)
+	    k[i] = i < 6 ? alphabet[r.nextInt(2)] : alphabet[r.nextInt(alphabet.length)];
+	return k;
+    }
+
+    @Test
+    public void testCompareUnsigned() {
+	Random r = new Random(21);
+	for (int i = 0; i < 100000; i++) {
+	    byte[] a = randomKey(r), b = r.nextInt(4) == 0 ? a.clone() : randomKey(r);
+	    int expected = Integer.signum(UNSIGNED.compare(a, b));
+	    assertEquals(expected, Integer.signum(ByteArrayWAVLMap.compareUnsigned(a, b)));
+	    // prefixes agree with the keys wherever they differ
+	    long pa = ByteArrayWAVLMap.prefixOf(a), pb = ByteArrayWAVLMap.prefixOf(b);
+	    if (pa != pb)
+		assertEquals(expected, Integer.signum(Long.compareUnsigned(pa, pb)));
+	}
+	assertEquals(0x0102000000000000L, ByteArrayWAVLMap.prefixOf(new byte[] { 1, 2 }));
+	assertEquals(-1L, ByteArrayWAVLMap.prefixOf(new byte[] { -1, -1, -1, -1, -1, -1, -1, -1, 5 }));
+	assertTrue(ByteArrayWAVLMap.compareUnsigned(new byte[] { 1 }, new byte[] { 1, 0 }) < 0);
+	assertTrue(ByteArrayWAVLMap.compareUnsigned(new byte[] { -1 }, new byte[] { 127, 127 }) > 0);
+    }
+
+    @Test
+    public void testAgainstTreeMap() {
+	ByteArrayWAVLMap<Integer> x = new ByteArrayWAVLMap<>();
+	TreeMap<byte[], Integer> expected = new TreeMap<>(UNSIGNED);
+	Random r = new Random(22);
+	for (int i = 0; i < 100000; i++) {
+	    byte[] k = randomKey(r);
+	    switch (r.nextInt(3)) {
+	    case 0:
+		assertEquals(expected.remove(k), x.remove(k.clone()));
+		break;
+	    case 1:
+		assertEquals(expected.put(k, i), x.put(k, i));
+		break;
+	    default:
+		assertEquals(expected.get(k), x.get(k.clone()));
+	    }
+	    assertEquals(expected.size(), x.size());
+	}
+	assertEquals(expected, x);
+	Iterator<byte[]> ex = expected.keySet().iterator();
+	for (byte[] k : x.keySet())
+	    assertArrayEquals(ex.next(), k);
+	assertTrue(x.treeHeight() <= 2 * Math.log(x.size() + 1) / Math.log(2));
+	assertNull(x.get(new byte[] { 2 }));
+	assertFalse(x.containsKey(new byte[21]));
+
+	// drain in key order
+	for (Map.Entry<byte[], Integer> e : expected.entrySet())
+	    assertEquals(e.getValue(), x.remove(e.getKey()));
+	assertTrue(x.isEmpty());
+	assertEquals(-1, x.treeHeight());
+    }
+
+    @Test
+    public void testIteratorRemoveAndSetValue() {
+	ByteArrayWAVLMap<Integer> x = new ByteArrayWAVLMap<>();
+	TreeMap<byte[], Integer> expected = new TreeMap<>(UNSIGNED);
+	Random r = new Random(23);
+	for (int i = 0; i < 5000; i++) {
+	    byte[] k = randomKey(r);
+	    x.put(k, i);
+	    expected.put(k, i);
+	}
+	Iterator<Map.Entry<byte[], Integer>> it = x.entrySet().iterator();
+	Iterator<Map.Entry<byte[], Integer>> ex = expected.entrySet().iterator();
+	while (it.hasNext()) {
+	    Map.Entry<byte[], Integer> e = it.next();
+	    Map.Entry<byte[], Integer> f = ex.next();
+	    assertArrayEquals(f.getKey(), e.getKey());
+	    assertEquals(f.getValue(), e.getValue());
+	    if (r.nextBoolean()) {
+		it.remove();
+		ex.remove();
+	    } else {
+		e.setValue(-1);
+		f.setValue(-1);
+	    }
+	}
+	assertFalse(ex.hasNext());
+	assertEquals(expected, x);
+    }
+
+    @Test
+    public void testModificationDuringIteration() {
+	ByteArrayWAVLMap<Integer> x = new ByteArrayWAVLMap<>();
+	for (int i = 0; i < 10; i++)
+	    x.put(new byte[] { (byte) i }, i);
+	try {
+	    for (byte[] k : x.keySet())
+		x.remove(k);
+	    fail();
+	} catch (ConcurrentModificationException expected) {
+	}
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullKey() {
+	new ByteArrayWAVLMap<Integer>().put(null, 1);
+    }
+}
@@ -0,0 +1,189 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class CursorTest {
+
+    private static void check(Map<Integer, Integer> map, Supplier<Cursor<Integer, Integer>> cursor) {
+	TreeMap<Integer, Integer> expected = new TreeMap<>();
+	Random r = new Random(9);
+	for (int i = 0; i < 2000; i++) {
+	    int k = r.nextInt(5000);
+	    map.put(k, i);
+	    expected.put(k, i);
+	}
+	Cursor<Integer, Integer> c = cursor.get();
+	assertFalse(c.isValid());
+
+	// forward and backward over the whole map
+	int n = 0;
+	for (boolean ok = c.seekFirst(); ok; ok = c.next()) {
+	    Map.Entry<Integer, Integer> e = expected.higherEntry(n == 0 ? Integer.MIN_VALUE : c.key() - 1);
+	    assertEquals(e.getKey(), c.key());
+	    assertEquals(e.getValue(), c.value());
+	    n++;
+	}
+	assertEquals(expected.size(), n);
+	assertFalse(c.isValid());
+	n = 0;
+	for (boolean ok = c.seekLast(); ok; ok = c.prev())
+	    n++;
+	assertEquals(expected.size(), n);
+
+	// the same cursor reused for many range scans
+	for (int i = 0; i < 500; i++) {
+	    int from = r.nextInt(5200) - 100, to = from + r.nextInt(300);
+	    long sum = 0;
+	    for (boolean ok = c.seek(from); ok && c.key() < to; ok = c.next())
+		sum += c.value();
+	    long expectedSum = 0;
+	    for (int v : expected.subMap(from, to).values())
+		expectedSum += v;
+	    assertEquals(expectedSum, sum);
+	}
+	assertEquals(expected.ceilingKey(17), c.seek(17) ? c.key() : null);
+	assertFalse(c.seek(expected.lastKey() + 1));
+
+	// fail-fast until placed again
+	assertTrue(c.seekFirst());
+	map.remove(c.key());
+	try {
+	    c.next();
+	    fail();
+	} catch (ConcurrentModificationException expectedException) {
+	}
+	assertTrue(c.seekFirst());
+	assertEquals(expected.higherKey(expected.firstKey()), c.key());
+
+	c.reset();
+	assertFalse(c.isValid());
+	try {
+	    c.key();
+	    fail();
+	} catch (NoSuchElementException expectedException) {
+	}
+    }
+
+    @Test
+    public void testAllMaps() {
+	AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
+	check(avl, avl::cursor);
+	WAVLTreeMap<Integer, Integer> wavl = new WAVLTreeMap<>();
+	check(wavl, wavl::cursor);
+	TreeMapRedBlack<Integer, Integer> redBlack = new TreeMapRedBlack<>();
+	check(redBlack, redBlack::cursor);
+	TreapMap<Integer, Integer> treap = new TreapMap<>();
+	check(treap, treap::cursor);
+	SplayTreeMap<Integer, Integer> splay = new SplayTreeMap<>();
+	check(splay, splay::cursor);
+	TreeMapBST<Integer, Integer> bst = new TreeMapBST<>();
+	check(bst, bst::cursor);
+	AggregateWAVLTreeMap<Integer, Integer, Long> aggregate = new AggregateWAVLTreeMap<>(
+		AggregateWAVLTreeMap.Aggregator.count());
+	check(aggregate, aggregate::cursor);
+    }
+
+    @Test
+    public void testIntervalAVLTreeMap() {
+	IntervalAVLTreeMap<Integer, Integer> x = new IntervalAVLTreeMap<>();
+	TreeMap<Integer, Integer> expected = new TreeMap<>();
+	Random r = new Random(10);
+	for (int i = 0; i < 2000; i++) {
+	    int low = r.nextInt(5000);
+	    x.put(low, low + 10, i);
+	    expected.put(low, i);
+	}
+	Cursor<IntervalAVLTreeMap.Interval<Integer>, Integer> c = x.cursor();
+	int n = 0;
+	for (boolean ok = c.seekFirst(); ok; ok = c.next(), n++)
+	    assertEquals(expected.get(c.key().getLow()), c.value());
+	assertEquals(expected.size(), n);
+	for (int i = 0; i < 200; i++) {
+	    int low = r.nextInt(5100);
+	    // intervals with equal low endpoints order by high endpoint
+	    Integer ceiling = expected.ceilingKey(low);
+	    assertEquals(ceiling != null, c.seek(new IntervalAVLTreeMap.Interval<>(low, low)));
+	    if (ceiling != null) {
+		assertEquals(ceiling, c.key().getLow());
+		if (c.prev())
+		    assertEquals(expected.lowerKey(ceiling), c.key().getLow());
+	    }
+	}
+	assertTrue(c.seekLast());
+	assertEquals(expected.lastKey(), c.key().getLow());
+    }
+
+    @Test
+    public void testLongLongWAVLMap() {
+	LongLongWAVLMap x = new LongLongWAVLMap();
+	TreeMap<Long, Long> expected = new TreeMap<>();
+	Random r = new Random(11);
+	for (int i = 0; i < 2000; i++) {
+	    long k = r.nextInt(5000) * 1000L;
+	    x.put(k, i);
+	    expected.put(k, (long) i);
+	}
+	LongLongWAVLMap.LongLongCursor c = x.cursor();
+	assertFalse(c.isValid());
+	int n = 0;
+	for (boolean ok = c.seekLast(); ok; ok = c.prev(), n++)
+	    assertEquals((long) expected.get(c.keyLong()), c.valueLong());
+	assertEquals(expected.size(), n);
+	for (int i = 0; i < 500; i++) {
+	    long from = r.nextInt(5200) * 1000L - 100000, to = from + r.nextInt(300000);
+	    long sum = 0;
+	    for (boolean ok = c.seek(from); ok && c.keyLong() < to; ok = c.next())
+		sum += c.valueLong();
+	    long expectedSum = 0;
+	    for (long v : expected.subMap(from, to).values())
+		expectedSum += v;
+	    assertEquals(expectedSum, sum);
+	}
+	assertTrue(c.seekFirst());
+	x.remove(c.keyLong());
+	try {
+	    c.next();
+	    fail();
+	} catch (ConcurrentModificationException expectedException) {
+	}
+	c.reset();
+	assertFalse(c.isValid());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTreeMapAVLRec() {
+	// without parent links a cursor cannot move
+	new TreeMapAVLRec<Integer, Integer>().cursor();
+    }
+
+    @Test
+    public void testAVLTreeMapRB() {
+	// inserts only, as this map does not delete
+	AVLTreeMapRB<Integer, Integer> x = new AVLTreeMapRB<>();
+	for (int i = 0; i < 100; i += 2)
+	    x.put(i, i * 10);
+	Cursor<Integer, Integer> c = x.cursor();
+	assertTrue(c.seek(31));
+	assertEquals(32, (int) c.key());
+	assertEquals(320, (int) c.value());
+	assertTrue(c.prev());
+	assertEquals(30, (int) c.key());
+	int n = 0;
+	for (boolean ok = c.seekFirst(); ok; ok = c.next())
+	    n++;
+	assertEquals(50, n);
+	assertFalse(c.seek(99));
+    }
+}
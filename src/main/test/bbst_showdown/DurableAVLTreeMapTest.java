@@ -0,0 +1,153 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DurableAVLTreeMapTest {
+
+    Path log;
+
+    @Before
+    public void setUp() throws IOException {
+	log = Files.createTempFile("wal", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	Files.deleteIfExists(log);
+    }
+
+    private DurableAVLTreeMap<Integer, String> open(int syncEvery) throws IOException {
+	return new DurableAVLTreeMap<>(log, DurableAVLTreeMap.Codec.INTEGER, DurableAVLTreeMap.Codec.STRING,
+		syncEvery);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+	TreeMap<Integer, String> expected = new TreeMap<>();
+	java.util.Random r = new java.util.Random(31);
+	try (DurableAVLTreeMap<Integer, String> x = open(100)) {
+	    for (int i = 0; i < 200000; i++) {
+		int key = r.nextInt(50000);
+		if (r.nextInt(4) == 0) {
+		    assertEquals(expected.remove(key), x.remove(key));
+		} else {
+		    String value = "v" + i;
+		    assertEquals(expected.put(key, value), x.put(key, value));
+		}
+	    }
+	    assertEquals(expected, x);
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(0)) {
+	    assertEquals(expected, x);
+	    x.put(-1, "last");
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(0)) {
+	    assertEquals("last", x.get(-1));
+	    assertEquals(expected.size() + 1, x.size());
+	}
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+	try (DurableAVLTreeMap<Integer, String> x = open(1)) {
+	    for (int i = 0; i < 100; i++)
+		x.put(i, Integer.toString(i));
+	}
+	long intact = Files.size(log);
+	try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+	    // a record header promising more payload than was written
+	    channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 1, 0, 0 }));
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(1)) {
+	    assertEquals(100, x.size());
+	    assertEquals(intact, Files.size(log));
+	    x.remove(5);
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(1)) {
+	    assertEquals(99, x.size());
+	    assertNull(x.get(5));
+	}
+    }
+
+    @Test
+    public void testFailedAppend() throws IOException {
+	char[] big = new char[70000];
+	java.util.Arrays.fill(big, 'x');
+	for (int syncEvery : new int[] { 0, 1 }) {
+	    Files.deleteIfExists(log);
+	    try (DurableAVLTreeMap<Integer, String> x = open(syncEvery)) {
+		x.put(1, "a");
+		try {
+		    // too long for writeUTF, fails after part of the record is encoded
+		    x.put(2, new String(big));
+		    fail();
+		} catch (java.io.UncheckedIOException expected) {
+		}
+		assertNull(x.get(2));
+		x.put(3, "b");
+		x.put(4, "c");
+	    }
+	    try (DurableAVLTreeMap<Integer, String> x = open(syncEvery)) {
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		expected.put(1, "a");
+		expected.put(3, "b");
+		expected.put(4, "c");
+		assertEquals(expected, x);
+	    }
+	}
+    }
+
+    @Test
+    public void testClear() throws IOException {
+	try (DurableAVLTreeMap<Integer, String> x = open(0)) {
+	    for (int i = 0; i < 1000; i++)
+		x.put(i, "old");
+	    x.clear();
+	    assertTrue(x.isEmpty());
+	    x.put(7, "new");
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(0)) {
+	    assertEquals(1, x.size());
+	    assertEquals("new", x.get(7));
+	    x.clear();
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(0)) {
+	    assertTrue(x.isEmpty());
+	}
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+	Thread[] writers = new Thread[4];
+	try (DurableAVLTreeMap<Integer, String> x = open(1)) {
+	    for (int t = 0; t < writers.length; t++) {
+		final int base = t * 1000;
+		writers[t] = new Thread(() -> {
+		    for (int i = 0; i < 250; i++)
+			x.put(base + i, "w");
+		});
+		writers[t].start();
+	    }
+	    for (Thread w : writers)
+		w.join();
+	}
+	try (DurableAVLTreeMap<Integer, String> x = open(1)) {
+	    assertEquals(1000, x.size());
+	}
+    }
+}
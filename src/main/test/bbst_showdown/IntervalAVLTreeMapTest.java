@@ -0,0 +1,120 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bbst_showdown.IntervalAVLTreeMap.Interval;
+
+public class IntervalAVLTreeMapTest {
+
+    @Test
+    public void testStabAndOverlap() {
+	IntervalAVLTreeMap<Integer, String> x = new IntervalAVLTreeMap<>();
+	x.put(15, 20, "a");
+	x.put(10, 30, "b");
+	x.put(17, 19, "c");
+	x.put(5, 20, "d");
+	x.put(12, 15, "e");
+	x.put(30, 40, "f");
+	assertEquals(6, x.size());
+	assertEquals("b", x.get(new Interval<>(10, 30)));
+	assertNull(x.get(new Interval<>(10, 31)));
+
+	assertEquals(keys(new int[][] { { 10, 30 }, { 30, 40 } }), keysOf(x.stab(30)));
+	assertEquals(keys(new int[][] { { 5, 20 }, { 10, 30 }, { 12, 15 }, { 15, 20 } }), keysOf(x.overlapping(14, 16)));
+	assertTrue(x.stab(41).isEmpty());
+	assertTrue(x.overlaps(40, 50));
+	assertFalse(x.overlaps(41, 50));
+	assertFalse(x.overlaps(0, 4));
+
+	assertEquals("f", x.remove(new Interval<>(30, 40)));
+	assertFalse(x.overlaps(31, 50));
+	assertEquals(keys(new int[][] { { 10, 30 } }), keysOf(x.stab(30)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReversedInterval() {
+	new IntervalAVLTreeMap<Integer, String>().put(2, 1, "x");
+    }
+
+    @Test
+    public void testRandomAgainstLinearScan() {
+	IntervalAVLTreeMap<Integer, Integer> x = new IntervalAVLTreeMap<>();
+	List<Interval<Integer>> all = new ArrayList<>();
+	Random r = new Random(3);
+	for (int i = 0; i < 20000; i++) {
+	    int low = r.nextInt(10000);
+	    Interval<Integer> in = new Interval<>(low, low + r.nextInt(r.nextInt(10) == 0 ? 2000 : 50));
+	    if (r.nextInt(3) == 0 && !all.isEmpty()) {
+		Interval<Integer> out = all.remove(r.nextInt(all.size()));
+		assertTrue(x.containsKey(out));
+		x.remove(out);
+	    } else if (x.put(in, i) == null) {
+		all.add(in);
+	    }
+	    assertEquals(all.size(), x.size());
+	    if (i % 100 == 0) {
+		int a = r.nextInt(11000), b = a + r.nextInt(100);
+		List<Interval<Integer>> expected = new ArrayList<>();
+		for (Interval<Integer> j : all)
+		    if (j.getLow() <= b && j.getHigh() >= a)
+			expected.add(j);
+		expected.sort((p, q) -> p.getLow().equals(q.getLow()) ? p.getHigh() - q.getHigh()
+			: p.getLow() - q.getLow());
+		assertEquals(expected, keysOf(x.overlapping(a, b)));
+		assertEquals(!expected.isEmpty(), x.overlaps(a, b));
+	    }
+	}
+	// AVL height bound
+	assertTrue(x.treeHeight() <= 1.44 * Math.log(x.size() + 2) / Math.log(2));
+
+	// remove through the iterator, checking queries still see the rest
+	for (Iterator<Map.Entry<Interval<Integer>, Integer>> it = x.entrySet().iterator(); it.hasNext();) {
+	    Interval<Integer> k = it.next().getKey();
+	    if (k.getLow() % 2 == 0)
+		it.remove();
+	}
+	all.removeIf(j -> j.getLow() % 2 == 0);
+	assertEquals(all.size(), x.size());
+	for (Interval<Integer> j : all)
+	    assertTrue(keysOf(x.stab(j.getHigh())).contains(j));
+    }
+
+    @Test
+    public void testModificationDuringQuery() {
+	IntervalAVLTreeMap<Integer, Integer> x = new IntervalAVLTreeMap<>();
+	for (int i = 0; i < 100; i++)
+	    x.put(i, i + 10, i);
+	try {
+	    x.forEachOverlapping(0, 100, (k, v) -> x.put(1000, 1001, 0));
+	    fail();
+	} catch (ConcurrentModificationException expected) {
+	}
+    }
+
+    private static List<Interval<Integer>> keys(int[][] intervals) {
+	List<Interval<Integer>> keys = new ArrayList<>();
+	for (int[] i : intervals)
+	    keys.add(new Interval<>(i[0], i[1]));
+	return keys;
+    }
+
+    private static <V> List<Interval<Integer>> keysOf(List<Map.Entry<Interval<Integer>, V>> entries) {
+	List<Interval<Integer>> keys = new ArrayList<>();
+	for (Map.Entry<Interval<Integer>, V> e : entries)
+	    keys.add(e.getKey());
+	return keys;
+    }
+}
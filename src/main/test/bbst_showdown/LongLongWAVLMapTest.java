@@ -0,0 +1,85 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class LongLongWAVLMapTest {
+
+    @Test
+    public void testAgainstTreeMap() {
+	LongLongWAVLMap x = new LongLongWAVLMap(0, -1);
+	TreeMap<Long, Long> expected = new TreeMap<>();
+	Random r = new Random(4);
+	for (int i = 0; i < 100000; i++) {
+	    long k = r.nextInt(20000) - 10000;
+	    if (r.nextInt(3) == 0) {
+		Long prev = expected.remove(k);
+		assertEquals(prev == null ? -1 : prev, x.remove(k));
+	    } else {
+		Long prev = expected.put(k, k * 31 + i);
+		assertEquals(prev == null ? -1 : prev, x.put(k, k * 31 + i));
+	    }
+	    assertEquals(expected.size(), x.size());
+	}
+	for (long k = -10000; k < 10000; k++) {
+	    assertEquals(expected.containsKey(k), x.containsKey(k));
+	    assertEquals(expected.getOrDefault(k, -1L).longValue(), x.get(k));
+	}
+	List<Long> keys = new ArrayList<>();
+	x.forEach((k, v) -> {
+	    keys.add(k);
+	    assertEquals(expected.get(k).longValue(), v);
+	});
+	assertEquals(new ArrayList<>(expected.keySet()), keys);
+	assertEquals(expected.firstKey().longValue(), x.firstKey());
+	assertEquals(expected.lastKey().longValue(), x.lastKey());
+	assertTrue(x.treeHeight() <= 2 * Math.log(x.size() + 1) / Math.log(2));
+
+	// drain in key order
+	for (Map.Entry<Long, Long> e : expected.entrySet())
+	    assertEquals(e.getValue().longValue(), x.remove(e.getKey()));
+	assertTrue(x.isEmpty());
+	assertEquals("{}", x.toString());
+    }
+
+    @Test
+    public void testSequentialInserts() {
+	LongLongWAVLMap x = new LongLongWAVLMap();
+	for (long i = 0; i < 1 << 16; i++)
+	    x.put(i, i);
+	// a WAVL tree built by inserts alone is an AVL tree
+	assertEquals(16, x.treeHeight());
+	assertFalse(x.containsKey(1 << 16));
+	assertEquals(0, x.get(1 << 16));
+	assertEquals(7, x.getOrDefault(1 << 16, 7));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testFirstKeyOfEmptyMap() {
+	new LongLongWAVLMap().firstKey();
+    }
+
+    @Test
+    public void testModificationDuringForEach() {
+	LongLongWAVLMap x = new LongLongWAVLMap();
+	for (long i = 0; i < 10; i++)
+	    x.put(i, i);
+	try {
+	    x.forEach((k, v) -> x.remove(k));
+	    fail();
+	} catch (ConcurrentModificationException expected) {
+	}
+    }
+}
@@ -0,0 +1,80 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LsmWAVLStoreTest {
+
+    Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+	dir = Files.createTempDirectory("lsm");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+	    for (Path p : (Iterable<Path>) files::iterator)
+		Files.delete(p);
+	}
+	Files.delete(dir);
+    }
+
+    private LsmWAVLStore<Integer, String> open() throws IOException {
+	return new LsmWAVLStore<>(dir, DurableAVLTreeMap.Codec.INTEGER, DurableAVLTreeMap.Codec.STRING, 1000);
+    }
+
+    @Test
+    public void testFlushAndLookup() throws IOException {
+	TreeMap<Integer, String> expected = new TreeMap<>();
+	Random r = new Random(32);
+	try (LsmWAVLStore<Integer, String> x = open()) {
+	    for (int i = 0; i < 20000; i++) {
+		int key = r.nextInt(8000);
+		if (r.nextInt(5) == 0) {
+		    x.remove(key);
+		    expected.remove(key);
+		} else {
+		    x.put(key, "v" + i);
+		    expected.put(key, "v" + i);
+		}
+	    }
+	    assertTrue(x.segmentCount() >= 10);
+	    assertTrue(x.memtableSize() < 1000);
+	    for (int key = -10; key < 8010; key++)
+		assertEquals(expected.get(key), x.get(key));
+	}
+	try (LsmWAVLStore<Integer, String> x = open()) {
+	    assertEquals(0, x.memtableSize());
+	    for (int key = -10; key < 8010; key++)
+		assertEquals(expected.get(key), x.get(key));
+	}
+    }
+
+    @Test
+    public void testTombstoneHidesOlderSegment() throws IOException {
+	try (LsmWAVLStore<Integer, String> x = open()) {
+	    x.put(1, "one");
+	    x.flush();
+	    x.remove(1);
+	    assertNull(x.get(1));
+	    x.flush();
+	    assertEquals(2, x.segmentCount());
+	    assertNull(x.get(1));
+	    x.put(1, "again");
+	    assertEquals("again", x.get(1));
+	}
+    }
+}
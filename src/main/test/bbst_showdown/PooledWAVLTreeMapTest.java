@@ -0,0 +1,109 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class PooledWAVLTreeMapTest {
+
+    @Test
+    public void testAgainstTreeMap() {
+	PooledWAVLTreeMap<Integer, Integer> x = new PooledWAVLTreeMap<>();
+	TreeMap<Integer, Integer> expected = new TreeMap<>();
+	Random r = new Random(5);
+	// enough keys to fill several chunks of the pool
+	for (int i = 0; i < 400000; i++) {
+	    int k = r.nextInt(200000);
+	    if (r.nextInt(3) == 0)
+		assertEquals(expected.remove(k), x.remove(k));
+	    else
+		assertEquals(expected.put(k, i), x.put(k, i));
+	    assertEquals(expected.size(), x.size());
+	}
+	assertEquals(expected, x);
+	assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(x.keySet()));
+	assertEquals(expected.firstKey(), x.firstKey());
+	assertEquals(expected.lastKey(), x.lastKey());
+	assertNull(x.get(-1));
+	assertFalse(x.containsKey(200000));
+	assertTrue(x.treeHeight() <= 2 * Math.log(x.size() + 1) / Math.log(2));
+
+	// drain in key order
+	for (Map.Entry<Integer, Integer> e : expected.entrySet())
+	    assertEquals(e.getValue(), x.remove(e.getKey()));
+	assertTrue(x.isEmpty());
+	assertEquals(-1, x.treeHeight());
+    }
+
+    @Test
+    public void testSequentialInsertsAndComparator() {
+	PooledWAVLTreeMap<Integer, Integer> x = new PooledWAVLTreeMap<>(Comparator.reverseOrder());
+	for (int i = 0; i < 1 << 17; i++)
+	    x.put(i, i);
+	// a WAVL tree built by inserts alone is an AVL tree
+	assertEquals(17, x.treeHeight());
+	assertEquals((1 << 17) - 1, (int) x.firstKey());
+	assertEquals(0, (int) x.lastKey());
+	x.clear();
+	assertTrue(x.isEmpty());
+	x.put(3, 3);
+	assertEquals("{3=3}", x.toString());
+    }
+
+    @Test
+    public void testIteratorRemoveAndSetValue() {
+	PooledWAVLTreeMap<Integer, Integer> x = new PooledWAVLTreeMap<>();
+	TreeMap<Integer, Integer> expected = new TreeMap<>();
+	Random r = new Random(6);
+	for (int i = 0; i < 5000; i++) {
+	    int k = r.nextInt(100000);
+	    x.put(k, k);
+	    expected.put(k, k);
+	}
+	Iterator<Map.Entry<Integer, Integer>> it = x.entrySet().iterator();
+	Iterator<Map.Entry<Integer, Integer>> ex = expected.entrySet().iterator();
+	while (it.hasNext()) {
+	    Map.Entry<Integer, Integer> e = it.next();
+	    assertEquals(ex.next(), e);
+	    if (r.nextBoolean()) {
+		it.remove();
+		ex.remove();
+	    } else {
+		e.setValue(-e.getKey());
+		expected.put(e.getKey(), -e.getKey());
+	    }
+	}
+	assertFalse(ex.hasNext());
+	assertEquals(expected, x);
+    }
+
+    @Test
+    public void testModificationDuringIteration() {
+	PooledWAVLTreeMap<Integer, Integer> x = new PooledWAVLTreeMap<>();
+	for (int i = 0; i < 10; i++)
+	    x.put(i, i);
+	try {
+	    for (Integer k : x.keySet())
+		x.remove(k);
+	    fail();
+	} catch (ConcurrentModificationException expected) {
+	}
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullKey() {
+	new PooledWAVLTreeMap<Integer, Integer>().put(null, 1);
+    }
+}
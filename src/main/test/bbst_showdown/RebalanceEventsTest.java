@@ -0,0 +1,96 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class RebalanceEventsTest {
+
+    @Test
+    public void testEventsMatchRebalancing() throws Exception {
+	Assume.assumeTrue(RebalanceEvents.AVAILABLE);
+	AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
+	WAVLTreeMap<Integer, Integer> wavl = new WAVLTreeMap<>();
+	TreeMapRedBlack<Integer, Integer> rb = new TreeMapRedBlack<>();
+
+	List<RecordedEvent> events;
+	File file = File.createTempFile("rebalance", ".jfr");
+	try (Recording recording = new Recording()) {
+	    recording.enable("bbst_showdown.Rotation");
+	    recording.enable("bbst_showdown.Retrace");
+	    recording.start();
+	    Random r = new Random(11);
+	    for (int i = 0; i < 2000; i++) {
+		int k = r.nextInt(1000);
+		avl.put(k, i);
+		wavl.put(k, i);
+		rb.put(k, i);
+	    }
+	    for (int i = 0; i < 1000; i++) {
+		int k = r.nextInt(1000);
+		avl.remove(k);
+		wavl.remove(k);
+		rb.remove(k);
+	    }
+	    recording.stop();
+	    recording.dump(file.toPath());
+	    events = RecordingFile.readAllEvents(file.toPath());
+	} finally {
+	    file.delete();
+	}
+
+	Map<String, Integer> rotations = new HashMap<>();
+	Map<String, Integer> retraceRotations = new HashMap<>();
+	int deletes = 0;
+	for (RecordedEvent e : events) {
+	    String tree = e.getClass("tree").getName();
+	    String name = e.getEventType().getName();
+	    if (name.equals("bbst_showdown.Rotation")) {
+		rotations.merge(tree, 1, Integer::sum);
+	    } else if (name.equals("bbst_showdown.Retrace")) {
+		retraceRotations.merge(tree, e.getInt("rotations"), Integer::sum);
+		assertTrue(e.getInt("levels") >= 0);
+		if (e.getString("operation").equals("delete"))
+		    deletes++;
+	    }
+	}
+	assertEquals(avl.rotations(), (int) rotations.get(AVLTreeMap.class.getName()));
+	assertEquals(wavl.rotations(), (int) rotations.get(WAVLTreeMap.class.getName()));
+	assertEquals(rb.rotations(), (int) rotations.get(TreeMapRedBlack.class.getName()));
+	// every rotation happens inside a fixup
+	assertEquals(avl.rotations(), (int) retraceRotations.get(AVLTreeMap.class.getName()));
+	assertEquals(wavl.rotations(), (int) retraceRotations.get(WAVLTreeMap.class.getName()));
+	assertEquals(rb.rotations(), (int) retraceRotations.get(TreeMapRedBlack.class.getName()));
+	assertTrue(deletes > 0);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+	Assume.assumeTrue(RebalanceEvents.AVAILABLE);
+	File file = File.createTempFile("rebalance", ".jfr");
+	try (Recording recording = new Recording()) {
+	    recording.start();
+	    AVLTreeMap<Integer, Integer> avl = new AVLTreeMap<>();
+	    for (int i = 0; i < 1000; i++)
+		avl.put(i, i);
+	    recording.stop();
+	    recording.dump(file.toPath());
+	    for (RecordedEvent e : RecordingFile.readAllEvents(file.toPath()))
+		assertTrue(!e.getEventType().getName().startsWith("bbst_showdown."));
+	} finally {
+	    file.delete();
+	}
+    }
+}
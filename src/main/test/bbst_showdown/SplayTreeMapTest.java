@@ -0,0 +1,134 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SplayTreeMapTest {
+
+    SplayTreeMap<Integer, Integer> x = new SplayTreeMap<>();
+
+    @Before
+    public void setup() {
+	x.clear();
+    }
+
+    @Test
+    public void testSequentialInsertIsAPath() {
+	for (int i = 0; i < 100000; i++)
+	    x.put(i, i);
+	assertEquals(99999, x.treeHeight());
+	assertEquals(0, x.rotations());
+	// splaying the deepest key about halves the depth of the path
+	assertEquals(0, (int) x.get(0));
+	assertTrue(x.treeHeight() < 50001);
+    }
+
+    @Test
+    public void testRepeatedGetIsOneComparison() {
+	for (int i = 0; i < 1000; i++)
+	    x.put((i * 7919) % 1000, i);
+	x.get(500);
+	long comparisons = x.comparisons();
+	x.get(500);
+	assertEquals(comparisons + 1, x.comparisons());
+	assertNull(x.get(-1));
+	x.clear();
+	assertEquals(0, x.comparisons());
+	assertEquals(0, x.rotations());
+    }
+
+    @Test
+    public void testRandomOperations() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(35);
+	for (int i = 0; i < 20000; i++) {
+	    int key = r.nextInt(300);
+	    switch (r.nextInt(6)) {
+	    case 0:
+	    case 1:
+		assertEquals(expected.put(key, i), x.put(key, i));
+		break;
+	    case 2:
+		assertEquals(expected.remove(key), x.remove(key));
+		break;
+	    case 3:
+		assertEquals(expected.merge(key, 1, Integer::sum), x.merge(key, 1, Integer::sum));
+		break;
+	    case 4:
+		assertEquals(expected.ceilingKey(key), x.ceilingKey(key));
+		break;
+	    default:
+		assertEquals(expected.get(key), x.get(key));
+	    }
+	}
+	assertEquals(expected, x);
+	assertEquals(expected.descendingMap(), x.descendingMap());
+    }
+
+    @Test
+    public void testIteratorRemoveWithLookups() {
+	for (int i = 0; i < 200; i++)
+	    x.put(i, i);
+	Iterator<Integer> it = x.keySet().iterator();
+	int expected = 0;
+	while (it.hasNext()) {
+	    int key = it.next();
+	    assertEquals(expected++, key);
+	    // lookups splay but must not disturb the iteration
+	    x.get(199 - key);
+	    if (key % 2 == 0)
+		it.remove();
+	}
+	assertEquals(100, x.size());
+	for (int i = 0; i < 200; i++)
+	    assertEquals(i % 2 == 1, x.containsKey(i));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSerializationAndClone() throws Exception {
+	for (int i = 0; i < 100; i++)
+	    x.put(i * 3, -i);
+	java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+	try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+	    out.writeObject(x);
+	}
+	SplayTreeMap<Integer, Integer> y;
+	try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+		new java.io.ByteArrayInputStream(bytes.toByteArray()))) {
+	    y = (SplayTreeMap<Integer, Integer>) in.readObject();
+	}
+	// rebuilt balanced, until lookups splay it
+	assertEquals(6, y.treeHeight());
+	assertEquals(x, y);
+	assertEquals(-1, (int) y.get(3));
+	SplayTreeMap<Integer, Integer> z = (SplayTreeMap<Integer, Integer>) x.clone();
+	assertEquals(x, z);
+	z.put(-1, 1);
+	assertEquals(100, x.size());
+	assertEquals(101, z.size());
+    }
+
+    @Test
+    public void testViews() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 10000; i++) {
+	    x.put(i * 7 % 10007, i);
+	    expected.put(i * 7 % 10007, i);
+	}
+	assertEquals(new java.util.ArrayList<>(expected.values()), new java.util.ArrayList<>(x.values()));
+	assertEquals(expected.entrySet().stream().mapToLong(e -> e.getKey() * 31L + e.getValue()).sum(),
+		x.entrySet().parallelStream().mapToLong(e -> e.getKey() * 31L + e.getValue()).sum());
+	assertEquals(new java.util.ArrayList<>(expected.keySet()), x.entrySet().stream()
+		.map(java.util.Map.Entry::getKey).collect(java.util.stream.Collectors.toList()));
+	assertTrue(x.values().remove(5));
+	expected.values().remove(5);
+	assertEquals(expected, x);
+    }
+}
@@ -0,0 +1,134 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class StringAVLTreeMapTest {
+
+    private static String randomKey(Random r) {
+	StringBuilder sb = new StringBuilder();
+	int levels = 1 + r.nextInt(4);
+	for (int i = 0; i < levels; i++) {
+	    if (i > 0)
+		sb.append('/');
+	    sb.append((char) ('a' + r.nextInt(3)));
+	    if (r.nextBoolean())
+		sb.append(r.nextInt(4));
+	}
+	return sb.toString();
+    }
+
+    @Test
+    public void testAgainstTreeMap() {
+	StringAVLTreeMap<Integer> x = new StringAVLTreeMap<>();
+	TreeMap<String, Integer> expected = new TreeMap<>();
+	Random r = new Random(13);
+	for (int i = 0; i < 100000; i++) {
+	    String k = randomKey(r);
+	    switch (r.nextInt(3)) {
+	    case 0:
+		assertEquals(expected.remove(k), x.remove(k));
+		break;
+	    case 1:
+		assertEquals(expected.put(k, i), x.put(k, i));
+		break;
+	    default:
+		assertEquals(expected.get(k), x.get(k));
+	    }
+	    assertEquals(expected.size(), x.size());
+	}
+	assertEquals(expected, x);
+	assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(x.entrySet()));
+	assertTrue(x.treeHeight() <= 1.45 * Math.log(x.size() + 2) / Math.log(2));
+	assertFalse(x.containsKey(""));
+	assertNull(x.get("z"));
+
+	// drain in key order
+	for (Map.Entry<String, Integer> e : expected.entrySet())
+	    assertEquals(e.getValue(), x.remove(e.getKey()));
+	assertTrue(x.isEmpty());
+    }
+
+    @Test
+    public void testPrefixRange() {
+	StringAVLTreeMap<Integer> x = new StringAVLTreeMap<>();
+	TreeMap<String, Integer> expected = new TreeMap<>();
+	Random r = new Random(14);
+	for (int i = 0; i < 3000; i++) {
+	    String k = randomKey(r);
+	    x.put(k, i);
+	    expected.put(k, i);
+	}
+	for (String prefix : new String[] { "", "a", "a/", "b1/c", "c2/a0/b", "d", "a/b/c/a/" }) {
+	    List<Map.Entry<String, Integer>> range = new ArrayList<>();
+	    for (Map.Entry<String, Integer> e : x.prefixRange(prefix))
+		range.add(e);
+	    List<Map.Entry<String, Integer>> expectedRange = new ArrayList<>();
+	    for (Map.Entry<String, Integer> e : expected.tailMap(prefix).entrySet()) {
+		if (!e.getKey().startsWith(prefix))
+		    break;
+		expectedRange.add(e);
+	    }
+	    assertEquals(prefix, expectedRange, range);
+	}
+
+	// remove one subtree of keys and rewrite another through the iterators
+	for (Iterator<Map.Entry<String, Integer>> it = x.prefixRange("b").iterator(); it.hasNext();) {
+	    it.next();
+	    it.remove();
+	}
+	expected.subMap("b", "c").clear();
+	for (Map.Entry<String, Integer> e : x.prefixRange("c0"))
+	    e.setValue(-1);
+	for (Map.Entry<String, Integer> e : expected.subMap("c0", "c1").entrySet())
+	    e.setValue(-1);
+	assertEquals(expected, x);
+	assertFalse(x.prefixRange("b").iterator().hasNext());
+    }
+
+    @Test
+    public void testSharedPrefixes() {
+	StringAVLTreeMap<Integer> x = new StringAVLTreeMap<>();
+	List<String> keys = new ArrayList<>();
+	for (int i = 0; i < 10000; i++)
+	    keys.add("tenant-" + (i % 7) + "/service/metric/" + Integer.toString(i, 36));
+	for (int i = 0; i < keys.size(); i++)
+	    x.put(keys.get(i), i);
+	for (int i = 0; i < keys.size(); i++)
+	    assertEquals(i, (int) x.get(keys.get(i)));
+	List<String> tenant = new ArrayList<>();
+	for (Map.Entry<String, Integer> e : x.prefixRange("tenant-3/"))
+	    tenant.add(e.getKey());
+	List<String> expected = new ArrayList<>();
+	for (String k : new java.util.TreeSet<>(keys))
+	    if (k.startsWith("tenant-3/"))
+		expected.add(k);
+	assertEquals(expected, tenant);
+    }
+
+    @Test
+    public void testModificationDuringIteration() {
+	StringAVLTreeMap<Integer> x = new StringAVLTreeMap<>();
+	for (int i = 0; i < 10; i++)
+	    x.put("k" + i, i);
+	try {
+	    for (String k : x.keySet())
+		x.remove(k);
+	    fail();
+	} catch (ConcurrentModificationException expected) {
+	}
+    }
+}
@@ -0,0 +1,124 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreapMapTest {
+
+    TreapMap<Integer, Integer> x = new TreapMap<>();
+
+    @Before
+    public void setup() {
+	x.clear();
+    }
+
+    @Test
+    public void testSequentialInsertStaysShallow() {
+	for (int i = 0; i < 100000; i++)
+	    x.put(i, i);
+	assertEquals(100000, x.size());
+	// expected depth is about 2 ln n, 23 here
+	assertTrue(x.treeHeight() < 60);
+	// each insert rotates the new entry up by under two rotations on average
+	assertTrue(x.rotations() < 200000);
+    }
+
+    @Test
+    public void testComparisons() {
+	x.put(1, 1);
+	x.put(2, 2);
+	long comparisons = x.comparisons();
+	x.get(1);
+	x.get(2);
+	// one of the two keys is the root
+	assertEquals(comparisons + 3, x.comparisons());
+	x.clear();
+	assertEquals(0, x.comparisons());
+    }
+
+    @Test
+    public void testRandomOperations() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(35);
+	for (int i = 0; i < 20000; i++) {
+	    int key = r.nextInt(300);
+	    switch (r.nextInt(6)) {
+	    case 0:
+	    case 1:
+		assertEquals(expected.put(key, i), x.put(key, i));
+		break;
+	    case 2:
+		assertEquals(expected.remove(key), x.remove(key));
+		break;
+	    case 3:
+		assertEquals(expected.merge(key, 1, Integer::sum), x.merge(key, 1, Integer::sum));
+		break;
+	    case 4:
+		assertEquals(expected.floorKey(key), x.floorKey(key));
+		break;
+	    default:
+		assertEquals(expected.get(key), x.get(key));
+	    }
+	}
+	assertEquals(expected, x);
+	assertEquals(expected.descendingMap(), x.descendingMap());
+
+	Iterator<Integer> it = x.keySet().iterator();
+	Iterator<Integer> jt = expected.keySet().iterator();
+	while (it.hasNext()) {
+	    int key = it.next();
+	    assertEquals(jt.next(), (Integer) key);
+	    if (key % 3 == 0) {
+		it.remove();
+		jt.remove();
+	    }
+	}
+	assertEquals(expected, x);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSerialization() throws Exception {
+	for (int i = 0; i < 1000; i++)
+	    x.put(i, -i);
+	java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+	try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+	    out.writeObject(x);
+	}
+	TreapMap<Integer, Integer> y;
+	try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+		new java.io.ByteArrayInputStream(bytes.toByteArray()))) {
+	    y = (TreapMap<Integer, Integer>) in.readObject();
+	}
+	assertEquals(x, y);
+	assertEquals(9, y.treeHeight());
+	for (int i = 1000; i < 2000; i++)
+	    y.put(i, -i);
+	for (int i = 0; i < 1000; i++)
+	    y.remove(i);
+	assertEquals(1000, y.size());
+	assertTrue(y.treeHeight() < 40);
+    }
+
+    @Test
+    public void testViews() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 10000; i++) {
+	    x.put(i * 7 % 10007, i);
+	    expected.put(i * 7 % 10007, i);
+	}
+	assertEquals(new java.util.ArrayList<>(expected.values()), new java.util.ArrayList<>(x.values()));
+	assertEquals(expected.entrySet().stream().mapToLong(e -> e.getKey() * 31L + e.getValue()).sum(),
+		x.entrySet().parallelStream().mapToLong(e -> e.getKey() * 31L + e.getValue()).sum());
+	assertEquals(new java.util.ArrayList<>(expected.keySet()), x.entrySet().stream()
+		.map(java.util.Map.Entry::getKey).collect(java.util.stream.Collectors.toList()));
+	assertTrue(x.values().remove(5));
+	expected.values().remove(5);
+	assertEquals(expected, x);
+    }
+}
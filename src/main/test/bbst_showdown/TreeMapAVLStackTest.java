@@ -0,0 +1,36 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class TreeMapAVLStackTest {
+
+    @Test
+    public void testComputeWithNestedReplacingPut() {
+	for (int ins = 0; ins < 64; ins += 2) {
+	    for (int inner = 1; inner < 64; inner += 2) {
+		TreeMapAVLStack<Integer, Integer> x = new TreeMapAVLStack<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int i = 1; i < 64; i += 2) {
+		    x.put(i, i);
+		    expected.put(i, i);
+		}
+		final int k = inner;
+		// replacing a value searches the tree but is not a structural change
+		x.computeIfAbsent(ins, key -> x.put(k, -k) == null ? key : key);
+		x.compute(ins + 64, (key, v) -> x.put(k, -k) == null ? key : key);
+		expected.put(k, -k);
+		expected.put(ins, ins);
+		expected.put(ins + 64, ins + 64);
+		assertEquals(expected.size(), x.size());
+		for (int key = -1; key < 130; key++)
+		    assertEquals(expected.get(key), x.get(key));
+		assertTrue(x.treeHeight() <= 1.45 * Math.log(x.size() + 2) / Math.log(2) + 1);
+	    }
+	}
+    }
+}
@@ -0,0 +1,65 @@
+package bbst_showdown;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TreeProfileTest {
+
+    @Test
+    public void testPerfectTree() {
+	AVLTreeMap<Integer, Integer> x = new AVLTreeMap<>();
+	for (int i = 1; i <= 7; i++)
+	    x.put(i, i);
+	TreeProfile p = x.profile();
+	assertEquals(7, p.size());
+	assertEquals(2, p.height());
+	assertArrayEquals(new long[] { 1, 2, 4 }, p.depthHistogram());
+	assertEquals(10, p.internalPathLength());
+	assertEquals(10.0 / 7, p.averageDepth(), 1e-9);
+	assertEquals(17.0 / 7, p.averageSuccessfulSearch(), 1e-9);
+	// eight gaps, each three comparisons away
+	assertEquals(3.0, p.averageUnsuccessfulSearch(), 1e-9);
+	assertEquals(1.0, p.fill(2), 1e-9);
+	assertEquals(0, p.entriesAtDepth(3));
+    }
+
+    @Test
+    public void testEmptyTree() {
+	TreeProfile p = new WAVLTreeMap<Integer, Integer>().profile();
+	assertEquals(0, p.size());
+	assertEquals(-1, p.height());
+	assertEquals(0, p.internalPathLength());
+	assertEquals(0.0, p.averageDepth(), 0);
+    }
+
+    @Test
+    public void testDegenerateTreeDoesNotOverflow() {
+	// ascending inserts leave a splay tree as one long path
+	SplayTreeMap<Integer, Integer> x = new SplayTreeMap<>();
+	int n = 200000;
+	for (int i = 0; i < n; i++)
+	    x.put(i, i);
+	TreeProfile p = x.profile();
+	assertEquals(n, p.size());
+	assertEquals(n - 1, p.height());
+	assertEquals((long) n * (n - 1) / 2, p.internalPathLength());
+	assertEquals(1, p.entriesAtDepth(n - 1));
+    }
+
+    @Test
+    public void testMatchesTreeHeight() {
+	java.util.Random r = new java.util.Random(38);
+	TreeMapRedBlack<Integer, Integer> redBlack = new TreeMapRedBlack<>();
+	TreapMap<Integer, Integer> treap = new TreapMap<>();
+	for (int i = 0; i < 10000; i++) {
+	    int key = r.nextInt();
+	    redBlack.put(key, key);
+	    treap.put(key, key);
+	}
+	assertEquals(redBlack.treeHeight(), redBlack.profile().height());
+	assertEquals(treap.treeHeight(), treap.profile().height());
+	assertEquals(treap.size(), treap.profile().size());
+    }
+}
@@ -477,4 +477,272 @@ public class WAVLTreeMapTest {
 	assertNull(x.root.left);
 	assertNull(x.root.right);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNavigableViews() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	for (int i = 0; i < 200; i += 2) {
+	    x.put(i, i);
+	    expected.put(i, i);
+	}
+	assertEquals(expected.subMap(10, true, 50, false), x.subMap(10, true, 50, false));
+	assertEquals(expected.headMap(31, true).keySet(), x.headMap(31, true).keySet());
+	assertEquals(new java.util.ArrayList<>(expected.tailMap(151, false).values()),
+		new java.util.ArrayList<>(x.tailMap(151, false).values()));
+	assertEquals(new java.util.ArrayList<>(expected.descendingMap().keySet()),
+		new java.util.ArrayList<>(x.descendingMap().keySet()));
+	assertEquals(new java.util.ArrayList<>(expected.subMap(20, true, 80, false).descendingMap().entrySet()),
+		new java.util.ArrayList<>(x.subMap(20, true, 80, false).descendingMap().entrySet()));
+	assertEquals(expected.subMap(20, 80).size(), x.subMap(20, 80).size());
+	assertEquals(expected.descendingMap().headMap(100).firstKey(), x.descendingMap().headMap(100).firstKey());
+	assertEquals(expected.subMap(11, true, 41, false).ceilingKey(12), x.subMap(11, true, 41, false).ceilingKey(12));
+	assertNull(x.subMap(11, true, 41, false).higherKey(40));
+
+	// views are live
+	x.put(41, 41);
+	expected.put(41, 41);
+	assertEquals(expected.subMap(30, 50), x.subMap(30, 50));
+	x.subMap(30, true, 60, true).clear();
+	expected.subMap(30, true, 60, true).clear();
+	assertEquals(expected, x);
+	assertEquals(expected.size(), x.size());
+	x.headMap(10).keySet().clear();
+	expected.headMap(10).keySet().clear();
+	assertEquals(expected, x);
+    }
+
+    @Test
+    public void testSpliterators() {
+	long sum = 0;
+	for (int i = 0; i < 10000; i++) {
+	    x.put(i, i);
+	    sum += i;
+	}
+	assertEquals(sum, x.keySet().parallelStream().mapToLong(i -> i).sum());
+	assertEquals(sum, x.values().parallelStream().mapToLong(i -> i).sum());
+	assertEquals(sum, x.entrySet().parallelStream().mapToLong(e -> e.getKey()).sum());
+	assertEquals(sum, x.descendingKeySet().parallelStream().mapToLong(i -> i).sum());
+	java.util.List<Integer> keys = new java.util.ArrayList<>();
+	x.keySet().spliterator().forEachRemaining(keys::add);
+	assertEquals(new java.util.ArrayList<>(x.keySet()), keys);
+    }
+
+    @Test
+    public void testDescendingSpliterators() {
+	java.util.List<Integer> descending = new java.util.ArrayList<>();
+	for (int i = 9999; i >= 0; i--) {
+	    x.put(i, -i);
+	    descending.add(i);
+	}
+	assertEquals(descending, x.descendingMap().entrySet().parallelStream().map(e -> e.getKey())
+		.collect(java.util.stream.Collectors.toList()));
+	assertEquals(descending, x.descendingMap().values().parallelStream().map(v -> -v)
+		.collect(java.util.stream.Collectors.toList()));
+	assertEquals(descending.subList(0, 5), x.descendingMap().values().stream().limit(5).map(v -> -v)
+		.collect(java.util.stream.Collectors.toList()));
+
+	// the first split takes the root's upper half, leaving the rest in order
+	java.util.Spliterator<Integer> rest = x.descendingMap().values().spliterator();
+	assertEquals(10000, rest.estimateSize());
+	java.util.Spliterator<Integer> upper = rest.trySplit();
+	java.util.List<Integer> values = new java.util.ArrayList<>();
+	upper.forEachRemaining(values::add);
+	int split = values.size();
+	assertTrue(split > 0 && split < 10000);
+	rest.forEachRemaining(values::add);
+	assertEquals(new java.util.ArrayList<>(x.descendingMap().values()), values);
+	assertEquals(-(9999 - split), (int) x.descendingMap().values().stream().skip(split).findFirst().get());
+
+	assertEquals(java.util.Arrays.asList(-79, -78, -77), new java.util.ArrayList<>(
+		x.subMap(77, true, 80, false).descendingMap().values()));
+	assertTrue(x.descendingMap().values().contains(-5));
+	x.descendingMap().values().removeIf(v -> v % 2 == 0);
+	assertEquals(5000, x.size());
+    }
+
+    @Test
+    public void testDescendingIteratorRemove() {
+	for (int i = 0; i < 100; i++)
+	    x.put(i, i);
+	java.util.Iterator<Integer> it = x.descendingKeySet().iterator();
+	int expected = 99;
+	while (it.hasNext()) {
+	    int key = it.next();
+	    assertEquals(expected--, key);
+	    if (key % 2 == 0)
+		it.remove();
+	}
+	assertEquals(50, x.size());
+	for (int i = 0; i < 100; i++)
+	    assertEquals(i % 2 == 1, x.containsKey(i));
+    }
+
+    @Test
+    public void testMergeAndCompute() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	java.util.Random r = new java.util.Random(29);
+	for (int i = 0; i < 5000; i++) {
+	    int key = r.nextInt(500);
+	    x.merge(key, 1, Integer::sum);
+	    expected.merge(key, 1, Integer::sum);
+	}
+	assertEquals(expected, x);
+	assertEquals(expected.size(), x.size());
+	assertEquals(Integer.valueOf(-1), x.getOrDefault(1000, -1));
+	assertEquals(expected.get(0), x.getOrDefault(0, -1));
+	assertEquals(x.get(7), x.putIfAbsent(7, 99));
+	assertEquals(null, x.putIfAbsent(1000, 1000));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> k));
+	assertEquals(Integer.valueOf(1001), x.computeIfAbsent(1001, k -> 0));
+	assertEquals(Integer.valueOf(2000), x.compute(1000, (k, v) -> v + k));
+	assertEquals(Integer.valueOf(5), x.computeIfPresent(1001, (k, v) -> 5));
+	assertEquals(null, x.computeIfPresent(1002, (k, v) -> 5));
+	assertEquals(Integer.valueOf(3), x.compute(1002, (k, v) -> v == null ? 3 : v));
+	assertEquals(null, x.merge(1002, 1, (a, b) -> null));
+	assertEquals(null, x.compute(1001, (k, v) -> null));
+	assertEquals(null, x.computeIfPresent(1000, (k, v) -> null));
+	assertEquals(expected.size(), x.size());
+	assertTrue(!x.containsKey(1000) && !x.containsKey(1001) && !x.containsKey(1002));
+	try {
+	    x.computeIfAbsent(2000, k -> x.put(k + 1, k));
+	    assertTrue(false);
+	} catch (java.util.ConcurrentModificationException e) {
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSerialization() throws Exception {
+	for (int n = 0; n < 70; n++) {
+	    x.clear();
+	    for (int i = 0; i < n; i++)
+		x.put(i * 3, -i);
+	    java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+	    try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+		out.writeObject(x);
+	    }
+	    WAVLTreeMap<Integer, Integer> y;
+	    try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+		    new java.io.ByteArrayInputStream(bytes.toByteArray()))) {
+		y = (WAVLTreeMap<Integer, Integer>) in.readObject();
+	    }
+	    assertEquals(x, y);
+	    assertEquals(n, y.size());
+	    assertEquals(0, y.rotations);
+	    checkRanks(y.root);
+	    for (int i = 0; i < n; i += 2)
+		y.remove(i * 3);
+	    checkRanks(y.root);
+	}
+    }
+
+    private void checkRanks(WAVLTreeMap.Entry<Integer, Integer> e) {
+	if (e == null)
+	    return;
+	int rl = e.left == null ? -1 : e.left.rank, rr = e.right == null ? -1 : e.right.rank;
+	assertTrue(e.rank - rl >= 1 && e.rank - rl <= 2 && e.rank - rr >= 1 && e.rank - rr <= 2);
+	if (e.left == null && e.right == null)
+	    assertEquals(0, e.rank);
+	if (e.left != null)
+	    assertTrue(e.left.parent == e);
+	if (e.right != null)
+	    assertTrue(e.right.parent == e);
+	checkRanks(e.left);
+	checkRanks(e.right);
+    }
+
+    @Test
+    public void testHotKeyCache() {
+	java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	x.setHotKeyCache(64);
+	java.util.Random r = new java.util.Random(34);
+	for (int i = 0; i < 50000; i++) {
+	    // a few hot keys and a long tail
+	    int key = r.nextInt(5) == 0 ? r.nextInt(2000) : r.nextInt(20);
+	    switch (r.nextInt(100)) {
+	    case 0:
+	    case 1:
+	    case 2:
+	    case 3:
+	    case 4:
+		assertEquals(expected.put(key, i), x.put(key, i));
+		break;
+	    case 5:
+		assertEquals(expected.remove(key), x.remove(key));
+		break;
+	    default:
+		assertEquals(expected.get(key), x.get(key));
+		assertEquals(expected.containsKey(key), x.containsKey(key));
+	    }
+	}
+	assertEquals(expected, x);
+	HotKeyCache c = x.hotKeyCache();
+	assertTrue(c.hitRate() > 0.5);
+	assertTrue(c.comparisonsSaved() > 0);
+	x.clear();
+	assertNull(x.get(5));
+	x.setHotKeyCache(0);
+	assertNull(x.hotKeyCache());
+    }
+
+    @Test
+    public void testBuildParallel() {
+	java.util.Random r = new java.util.Random(36);
+	for (int n : new int[] { 0, 1, 2, 100, 100000 }) {
+	    java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<>();
+	    @SuppressWarnings({ "unchecked", "rawtypes" })
+	    java.util.Map.Entry<Integer, Integer>[] entries = new java.util.Map.Entry[n];
+	    for (int i = 0; i < n; i++) {
+		// about a third of the keys repeat, the last mapping wins
+		int key = r.nextInt(n * 2 + 1);
+		entries[i] = new java.util.AbstractMap.SimpleEntry<>(key, i);
+		expected.put(key, i);
+	    }
+	    java.util.List<java.util.Map.Entry<Integer, Integer>> list = java.util.Arrays.asList(entries.clone());
+	    WAVLTreeMap<Integer, Integer> y = WAVLTreeMap.buildParallel(entries);
+	    assertEquals(expected, y);
+	    assertEquals(expected.size(), y.size());
+	    checkRanks(y.root);
+	    assertEquals(y, WAVLTreeMap.buildParallel(list.spliterator()));
+	    y.put(-1, -1);
+	    y.remove(expected.isEmpty() ? -1 : expected.firstKey());
+	    checkRanks(y.root);
+	}
+    }
+
+    @Test
+    public void testValidator() {
+	java.util.Random r = new java.util.Random(37);
+	for (int i = 0; i < 20000; i++) {
+	    x.put(r.nextInt(50000), i);
+	}
+	WAVLTreeMap<Integer, Integer>.Validator v = x.validator();
+	int slices = 0;
+	while (!v.step(1000))
+	    slices++;
+	assertEquals(x.size() / 1000, slices);
+	assertEquals(x.size(), v.nodesChecked());
+	assertEquals(x.treeHeight(), v.height());
+	assertEquals(0, v.restarts());
+
+	// modifications between slices restart the walk
+	v = x.validator();
+	for (int i = 0; i < 10; i++) {
+	    assertTrue(!v.step(100));
+	    x.remove(x.firstKey());
+	}
+	assertEquals(9, v.restarts());
+	assertTrue(v.step(Integer.MAX_VALUE));
+	assertEquals(10, v.restarts());
+	v.run();
+	assertEquals(x.size(), v.nodesChecked());
+	assertEquals(x.treeHeight(), v.height());
+
+	x.root.left.rank++;
+	try {
+	    x.validator().run();
+	    assertTrue(false);
+	} catch (IllegalStateException expected) {
+	}
+    }
+}